@@ -9,12 +9,26 @@ import {
   IClientCallbacks,
   offsetToPosition,
 } from "../ot/TextOperationSystem";
+import { documentChecksum } from "../utils/documentChecksum";
 import {
   RemoteUser,
   UseCollaborationSessionProps,
   UseCollaborationSessionReturn,
 } from "../types/props";
 
+// A resync of the active file in progress: the server skipped operations to this connection
+interface PendingResync {
+  // Snapshot to resync to, once it has arrived
+  snapshot: { revision: number; document: string } | null;
+  // Ack of the operation in flight: its revision, "retry" if it was not committed, null if not yet received
+  ack: number | "retry" | null;
+}
+
+// How long operations are held for a resync snapshot before asking for one
+const RESYNC_TIMEOUT_MS = 5000;
+// How long the document must be quiet before the editor is hashed against the server's checksum
+const CHECKSUM_IDLE_MS = 1000;
+
 interface CursorMessage {
   documentId: string;
   sessionId: string;
@@ -67,6 +81,16 @@ export const useCollaborationSession = ({
   const subscriptionsRef = useRef<Stomp.Subscription[]>([]);
   const currentFileIdRef = useRef<string | null>(null);
   const subscribedWebViewOpsRef = useRef<Set<string>>(new Set());
+  const resyncRef = useRef<PendingResync | null>(null);
+  // Operations for the active file received after a gap, applied once the
+  // gap is filled (by the ack of our operation) or the resync is done
+  const heldOpsRef = useRef<Stomp.Frame[]>([]);
+  // Pending comparison of the editor with the server's checksum, run once edits pause
+  const checksumTimerRef = useRef<ReturnType<typeof setTimeout> | null>(null);
+  // Ack of our operation that arrived before the broadcasts preceding it
+  const earlyAckRef = useRef<{ revision: number; checksum: unknown } | null>(
+    null
+  );
 
   // Memoize webViewFileIds value for dependency array
   const memoizedWebViewFileIds = useMemo(() => {
@@ -331,6 +355,100 @@ export const useCollaborationSession = ({
           );
         }
 
+        const requestState = (docId: string) => {
+          stompClientRef.current?.send(
+            "/app/get-document-state",
+            {},
+            JSON.stringify({ documentId: docId, sessionId: sessionId })
+          );
+        };
+
+        // Starts a resync of the active file unless one is in progress; it
+        // is done when a snapshot arrives, asked for if none comes in time
+        const beginResync = (): PendingResync => {
+          if (!resyncRef.current) {
+            const resync: PendingResync = {
+              snapshot: null,
+              ack: earlyAckRef.current?.revision ?? null,
+            };
+            earlyAckRef.current = null;
+            resyncRef.current = resync;
+            setTimeout(() => {
+              if (
+                resyncRef.current === resync &&
+                !resync.snapshot &&
+                currentFileIdRef.current
+              ) {
+                requestState(currentFileIdRef.current);
+              }
+            }, RESYNC_TIMEOUT_MS);
+          }
+          return resyncRef.current;
+        };
+
+        // Moves the OT client to the resync snapshot once it is known whether
+        // the snapshot contains the operation in flight, then applies the
+        // operations held meanwhile (those the snapshot contains are ignored)
+        const completeResync = () => {
+          const resync = resyncRef.current;
+          const client = clientRef.current;
+          if (!resync || !resync.snapshot || !client) {
+            return;
+          }
+          const inFlight = client.outstanding() !== null;
+          if (inFlight) {
+            if (resync.ack === null) {
+              return;
+            }
+            if (
+              resync.ack !== "retry" &&
+              resync.ack > resync.snapshot.revision
+            ) {
+              // The snapshot predates our operation; ask for a newer one
+              resync.snapshot = null;
+              if (currentFileIdRef.current) {
+                requestState(currentFileIdRef.current);
+              }
+              return;
+            }
+          }
+          resyncRef.current = null;
+          console.warn(
+            `[Resync] Rebasing local changes onto revision ${resync.snapshot.revision}`
+          );
+          client.resync(
+            resync.snapshot.revision,
+            resync.snapshot.document,
+            inFlight && resync.ack !== "retry"
+          );
+          releaseHeldOps();
+        };
+
+        // Re-handles the held operations in revision order; those still
+        // beyond a gap are held again
+        const releaseHeldOps = () => {
+          const held = heldOpsRef.current;
+          heldOpsRef.current = [];
+          held
+            .map((frame) => ({
+              frame,
+              revision: JSON.parse(frame.body).revision,
+            }))
+            .sort((a, b) => a.revision - b.revision)
+            .forEach(({ frame }) => handleIncomingOperation(frame));
+        };
+
+        // Holds an operation of the active file until the gap before it is
+        // filled, resyncing if that does not happen in time
+        const holdOperation = (message: Stomp.Frame) => {
+          heldOpsRef.current.push(message);
+          setTimeout(() => {
+            if (!resyncRef.current && heldOpsRef.current.includes(message)) {
+              beginResync();
+            }
+          }, RESYNC_TIMEOUT_MS);
+        };
+
         const handleIncomingState = (message: Stomp.Frame) => {
           try {
             const state = JSON.parse(message.body);
@@ -378,12 +496,23 @@ export const useCollaborationSession = ({
 
             // --- OT Client Initialization & Editor Update (ONLY for the ACTIVE file) ---
             if (docId === currentFileIdRef.current) {
-              // Initialize OT Client only if it doesn't exist for this specific file connection instance
-              if (!clientRef.current) {
+              // The server skipped operations while this connection lagged; move to the snapshot
+              if ((state.resync || resyncRef.current) && clientRef.current) {
+                console.warn(
+                  `[State Handler] Resyncing ${docId} at revision ${state.revision}`
+                );
+                beginResync().snapshot = {
+                  revision: state.revision,
+                  document: state.document,
+                };
+                completeResync();
+              } else if (!clientRef.current) {
+                // Initialize OT Client only if it doesn't exist for this specific file connection instance
                 clientRef.current = new Client(
                   state.revision,
                   userId,
-                  clientCallbacks
+                  clientCallbacks,
+                  state.document
                 );
 
                 // Directly update the Monaco Editor via the Adapter
@@ -452,6 +581,86 @@ export const useCollaborationSession = ({
           );
         });
 
+        // Compares the server's checksum with the editor once all local changes are acknowledged;
+        // while ops are pending the editor is legitimately ahead of the server. Hashing is linear in
+        // the document, so only the latest checksum is compared, once the document has been quiet
+        // for CHECKSUM_IDLE_MS and still is at the revision it belongs to. On a mismatch the file is
+        // resynced to a fresh snapshot.
+        const verifyChecksum = (
+          docId: string,
+          expected: unknown,
+          source: string
+        ) => {
+          const client = clientRef.current;
+          if (
+            typeof expected !== "number" ||
+            docId !== currentFileIdRef.current ||
+            !client?.isSynchronized()
+          ) {
+            return;
+          }
+          const revision = client.revision;
+          if (checksumTimerRef.current) {
+            clearTimeout(checksumTimerRef.current);
+          }
+          checksumTimerRef.current = setTimeout(() => {
+            checksumTimerRef.current = null;
+            if (
+              clientRef.current !== client ||
+              client.revision !== revision ||
+              !client.isSynchronized() ||
+              resyncRef.current ||
+              docId !== currentFileIdRef.current
+            ) {
+              return;
+            }
+            const content = editorInstance?.getModel()?.getValue();
+            if (content === undefined) {
+              return;
+            }
+            const actual = documentChecksum(content);
+            if (actual !== expected) {
+              console.warn(
+                `[Checksum ${docId}] Diverged from server after ${source}: expected ${expected}, got ${actual}; resyncing`
+              );
+              // The snapshot is diffed against what the editor shows, so the
+              // editor itself is corrected
+              client.serverDocument = content;
+              beginResync();
+              requestState(docId);
+            }
+          }, CHECKSUM_IDLE_MS);
+        };
+
+        // Confirms our operation in flight at the next revision, then applies
+        // the operations that were waiting for it
+        const acknowledge = (checksum: unknown) => {
+          clientRef.current?.serverAck();
+          const docId = currentFileIdRef.current;
+          if (docId) {
+            verifyChecksum(docId, checksum, "ack");
+            // Sync the webview with our acked edit (the active file's
+            // content is read from the editor, the operation is unused)
+            if (webViewFileIds?.includes(docId)) {
+              onOperationReceived(docId, new TextOperation());
+            }
+          }
+          releaseHeldOps();
+        };
+
+        // Applies an ack that arrived early once the broadcasts before it are applied
+        const applyEarlyAck = () => {
+          const ack = earlyAckRef.current;
+          if (
+            ack &&
+            clientRef.current &&
+            ack.revision === clientRef.current.revision + 1
+          ) {
+            earlyAckRef.current = null;
+            acknowledge(ack.checksum);
+          }
+        };
+
         const handleIncomingOperation = (message: Stomp.Frame) => {
           console.log("[Op Handler] Received message:", message.body);
           try {
@@ -508,10 +717,38 @@ export const useCollaborationSession = ({
               return; // Stop processing if op parsing fails
             }
 
+            // Keep the active file's operations in revision order across a resync
+            const client = clientRef.current;
+            if (
+              docId === currentFileIdRef.current &&
+              client &&
+              typeof payload.revision === "number"
+            ) {
+              if (payload.revision <= client.revision) {
+                // Already part of the document, e.g. of a resync snapshot
+                return;
+              }
+              if (resyncRef.current) {
+                heldOpsRef.current.push(message);
+                return;
+              }
+              if (payload.revision > client.revision + 1) {
+                if (client.outstanding()) {
+                  // The gap may be our own operation in flight: this operation
+                  // already includes it, so it waits for the ack
+                  holdOperation(message);
+                } else {
+                  beginResync();
+                  heldOpsRef.current.push(message);
+                }
+                return;
+              }
+            }
+
             // Logic for Local vs Remote Ops
             if (sourceClientId === userId) {
-              // This is an operation broadcast originating from this client
-              // Usually handled by ACK, but good for webview sync
+              // Our own operations are acked rather than echoed, so this one
+              // came from another connection using the same client id
               if (webViewFileIds?.includes(docId)) {
                 console.log(
                   `[Op Handler ${docId}] Applying own op to webview file.`
@@ -674,6 +911,8 @@ export const useCollaborationSession = ({
                     console.log(
                       `[Op Handler ${docId}] Successfully called client.applyServer.`
                     );
+                    verifyChecksum(docId, payload.checksum, "remote op");
+                    applyEarlyAck();
                   } catch (e) {
                     console.error(
                       `[Op Handler ${docId}] Error during client.applyServer:`,
@@ -898,12 +1137,66 @@ export const useCollaborationSession = ({
           })
         );
 
-        // ACK Handling
-        const ackTopic = `/topic/ack/${userId}`;
+        // ACK Handling: acks go to this connection only, and replace the
+        // broadcast of our own operations, which the server no longer echoes
+        const ackTopic = "/user/queue/ack";
         newSubscriptions.push(
           stompClient.subscribe(ackTopic, (message: Stomp.Frame) => {
-            if (message.body === "ack") {
-              clientRef.current?.serverAck();
+            if (message.body.startsWith("{")) {
+              // Structured ack: {"type":"ack","revision":n,"checksum":c,"opId":id}
+              try {
+                const ack = JSON.parse(message.body);
+                if (ack.type === "retry" && ack.command) {
+                  // An undo/redo the server could not apply; no operation of
+                  // ours is outstanding for it, so there is nothing to resend
+                  console.warn(
+                    `[ACK Handler] Server could not apply ${ack.command}, try again later.`
+                  );
+                } else if (
+                  (ack.type === "ack" || ack.type === "retry") &&
+                  resyncRef.current &&
+                  clientRef.current?.outstanding()
+                ) {
+                  // Tells whether the resync snapshot contains our operation
+                  resyncRef.current.ack =
+                    ack.type === "ack" ? ack.revision : "retry";
+                  completeResync();
+                } else if (
+                  ack.type === "ack" &&
+                  typeof ack.revision === "number" &&
+                  clientRef.current &&
+                  ack.revision <= clientRef.current.revision
+                ) {
+                  // Late ack of an operation already part of a resync snapshot
+                } else if (
+                  ack.type === "ack" &&
+                  typeof ack.revision === "number" &&
+                  clientRef.current &&
+                  ack.revision > clientRef.current.revision + 1
+                ) {
+                  // Broadcasts committed before our operation are still on
+                  // their way; acknowledge once they are applied
+                  const early = {
+                    revision: ack.revision,
+                    checksum: ack.checksum,
+                  };
+                  earlyAckRef.current = early;
+                  setTimeout(() => {
+                    if (earlyAckRef.current === early && !resyncRef.current) {
+                      beginResync();
+                    }
+                  }, RESYNC_TIMEOUT_MS);
+                } else if (ack.type === "ack") {
+                  acknowledge(ack.checksum);
+                } else if (ack.type === "retry") {
+                  // Server could not store the operation yet; resend it unchanged
+                  setTimeout(() => {
+                    clientRef.current?.serverReconnect();
+                  }, ack.retryAfterMillis ?? 2000);
+                }
+              } catch (e) {
+                console.error("[ACK Handler] Error parsing ack:", e, message.body);
+              }
             } else {
               // Non-ack message received on ack topic, ignore.
             }
@@ -939,6 +1232,13 @@ export const useCollaborationSession = ({
       }
       // Reset refs specific to this connection attempt
       clientRef.current = null;
+      resyncRef.current = null;
+      heldOpsRef.current = [];
+      earlyAckRef.current = null;
+      if (checksumTimerRef.current) {
+        clearTimeout(checksumTimerRef.current);
+        checksumTimerRef.current = null;
+      }
       adapterRef.current?.detach();
       adapterRef.current = null;
       currentFileIdRef.current = null; // Clear tracked file ID
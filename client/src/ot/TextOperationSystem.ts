@@ -5,6 +5,7 @@ import {
   IDisposable,
   Range as MonacoRange,
 } from "monaco-editor";
+import { diffChars } from "diff";
 
 // #############################################################################
 // ## Core TextOperation Logic (Special thanks to ot.js for the original implementation!)
@@ -139,6 +140,21 @@ export class TextOperation {
     return o;
   }
 
+  // Creates an operation that turns one string into another, from a character diff.
+  static fromDiff(from: string, to: string): TextOperation {
+    const o = new TextOperation();
+    for (const change of diffChars(from, to)) {
+      if (change.added) {
+        o.insert(change.value);
+      } else if (change.removed) {
+        o.delete(change.value.length);
+      } else {
+        o.retain(change.value.length);
+      }
+    }
+    return o;
+  }
+
   // Apply the operation to a string, returning a new string.
   apply(str: string): string {
     const newStr = [];
@@ -1173,11 +1189,19 @@ export class Client {
   state: IClientState;
   userId: string;
   callbacks: IClientCallbacks;
-
-  constructor(revision: number, userId: string, callbacks: IClientCallbacks) {
+  // The server's document at `revision`, if known; lets resync() keep local edits
+  serverDocument: string | null;
+
+  constructor(
+    revision: number,
+    userId: string,
+    callbacks: IClientCallbacks,
+    serverDocument: string | null = null
+  ) {
     this.revision = revision;
     this.userId = userId;
     this.callbacks = callbacks;
+    this.serverDocument = serverDocument;
     this.state = synchronized_;
     // console.log(
     // `[${this.userId}] Client initialized with revision ${revision}`
@@ -1219,12 +1243,19 @@ export class Client {
     if (operation.isNoop()) return;
     // console.log(`[${this.userId}] applyServer called (State: ${this.state.constructor.name}, rev: ${this.revision})`);
     this.revision++;
+    if (this.serverDocument !== null) {
+      this.serverDocument = operation.apply(this.serverDocument);
+    }
     this.setState(this.state.applyServer(this, operation));
   }
 
   serverAck(): void {
     // console.log(`[${this.userId}] serverAck called (State: ${this.state.constructor.name}, rev: ${this.revision})`);
     this.revision++;
+    const outstanding = this.outstanding();
+    if (this.serverDocument !== null && outstanding) {
+      this.serverDocument = outstanding.apply(this.serverDocument);
+    }
     this.setState(this.state.serverAck(this));
     if (
       this.state instanceof Synchronized ||
@@ -1236,6 +1267,63 @@ export class Client {
     }
   }
 
+  // True when every local change has been acknowledged, i.e. the document should match the server's
+  isSynchronized(): boolean {
+    return this.state instanceof Synchronized;
+  }
+
+  // The operation sent to the server and not yet acknowledged, if any
+  outstanding(): TextOperation | null {
+    if (
+      this.state instanceof AwaitingConfirm ||
+      this.state instanceof AwaitingWithBuffer
+    ) {
+      return this.state.outstanding;
+    }
+    return null;
+  }
+
+  // Moves to a server snapshot taken after operations this client never received. Local edits
+  // are kept: they are rebased onto the snapshot, the editor is changed by the difference and
+  // whatever is left to send is sent against the snapshot's revision.
+  // `outstandingCommitted` tells whether the outstanding operation is part of the snapshot.
+  resync(
+    revision: number,
+    document: string,
+    outstandingCommitted: boolean
+  ): void {
+    if (this.serverDocument === null) {
+      throw new Error("Cannot resync a client without its server document");
+    }
+    let base = this.serverDocument;
+    let pending: TextOperation | null = null;
+    const outstanding = this.outstanding();
+    if (outstanding) {
+      const buffer =
+        this.state instanceof AwaitingWithBuffer ? this.state.buffer : null;
+      if (outstandingCommitted) {
+        base = outstanding.apply(base);
+        pending = buffer;
+      } else {
+        pending = buffer ? outstanding.compose(buffer) : outstanding;
+      }
+    }
+    const missed = TextOperation.fromDiff(base, document);
+    let editorChange = missed;
+    if (pending) {
+      [pending, editorChange] = TextOperation.transform(pending, missed);
+    }
+    this.revision = revision;
+    this.serverDocument = document;
+    this.setState(synchronized_);
+    if (!editorChange.isNoop()) {
+      this.callbacks.applyOperation(editorChange);
+    }
+    if (pending) {
+      this.applyClient(pending);
+    }
+  }
+
   serverReconnect(): void {
     // console.log(
     // `[${this.userId}] serverReconnect called (State: ${this.state.constructor.name}, rev: ${this.revision})`
@@ -423,4 +423,49 @@ describe("Client", () => {
     expect(client["state"].constructor.name).toBe("AwaitingConfirm");
     expect(mockCallbacks.sendOperation).toHaveBeenCalledTimes(2);
   });
+
+  describe("resync", () => {
+    test("should rebase an unsent change onto the snapshot", () => {
+      client = new Client(0, "user1", mockCallbacks, "abc");
+      const local = new TextOperation().retain(3).insert("!");
+      client.applyClient(local);
+      client.serverReconnect(); // e.g. after a retry ack
+      let editor = local.apply("abc");
+      mockCallbacks.applyOperation = jest.fn((op: TextOperation) => {
+        editor = op.apply(editor);
+      });
+
+      client.resync(5, "xabc", false);
+
+      expect(editor).toBe("xabc!");
+      expect(client.revision).toBe(5);
+      expect(client.serverDocument).toBe("xabc");
+      expect(mockCallbacks.sendOperation).toHaveBeenLastCalledWith(
+        5,
+        new TextOperation().retain(4).insert("!")
+      );
+    });
+
+    test("should not resend an operation the snapshot contains", () => {
+      client = new Client(0, "user1", mockCallbacks, "abc");
+      const sent = new TextOperation().insert(">");
+      client.applyClient(sent);
+      const buffered = new TextOperation().retain(4).insert("!");
+      client.applyClient(buffered);
+      let editor = buffered.apply(sent.apply("abc"));
+      mockCallbacks.applyOperation = jest.fn((op: TextOperation) => {
+        editor = op.apply(editor);
+      });
+
+      client.resync(7, ">xabc", true);
+
+      expect(editor).toBe(">xabc!");
+      expect(mockCallbacks.sendOperation).toHaveBeenCalledTimes(2);
+      expect(mockCallbacks.sendOperation).toHaveBeenLastCalledWith(
+        7,
+        new TextOperation().retain(5).insert("!")
+      );
+      expect(client["state"].constructor.name).toBe("AwaitingConfirm");
+    });
+  });
 });
@@ -0,0 +1,15 @@
+/**
+ * Polynomial hash of document content, matching the server's DocumentChecksum.
+ * Computed over UTF-16 code units as h = (h * 131 + c) % 1000000007; intermediate
+ * values stay below 2^53, so plain number arithmetic is exact.
+ */
+const CHECKSUM_BASE = 131;
+const CHECKSUM_MODULUS = 1000000007;
+
+export function documentChecksum(content: string): number {
+  let hash = 0;
+  for (let i = 0; i < content.length; i++) {
+    hash = (hash * CHECKSUM_BASE + content.charCodeAt(i)) % CHECKSUM_MODULUS;
+  }
+  return hash;
+}
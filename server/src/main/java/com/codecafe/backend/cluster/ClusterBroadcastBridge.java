@@ -0,0 +1,246 @@
+package com.codecafe.backend.cluster;
+
+import com.codecafe.backend.config.OriginEchoFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fans out broker messages for {@code /topic/sessions/**} across every backend node.
+ *
+ * Installed as an interceptor on the broker channel: each message sent locally through
+ * {@code SimpMessagingTemplate} is delivered by the local simple broker as before and is
+ * also published once to a per-session Redis channel. Every other node subscribed to that
+ * channel re-injects the message into its own broker channel. A node only subscribes to the
+ * channels of sessions that currently have a local STOMP subscriber.
+ */
+@Component
+@ConditionalOnProperty(name = "codecafe.cluster.enabled", havingValue = "true")
+public class ClusterBroadcastBridge implements ChannelInterceptor, MessageListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterBroadcastBridge.class);
+
+    /** Marks a message that arrived from another node so it is not published again. */
+    public static final String RELAYED_HEADER = "codecafeRelayedFrom";
+
+    private static final String SESSION_TOPIC_PREFIX = "/topic/sessions/";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final MessageChannel brokerChannel;
+    private final String nodeId;
+    private final String channelPrefix;
+
+    // simpSessionId -> (subscriptionId -> collaboration sessionId)
+    private final Map<String, Map<String, String>> localSubscriptions = new HashMap<>();
+    // collaboration sessionId -> number of local STOMP subscriptions
+    private final Map<String, Integer> sessionSubscriberCounts = new HashMap<>();
+
+    public ClusterBroadcastBridge(StringRedisTemplate stringRedisTemplate,
+                                  RedisMessageListenerContainer clusterListenerContainer,
+                                  @Lazy @Qualifier("brokerChannel") MessageChannel brokerChannel,
+                                  ClusterNode clusterNode,
+                                  @Value("${codecafe.cluster.channel-prefix:codecafe:broadcast:}") String channelPrefix) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = clusterListenerContainer;
+        this.brokerChannel = brokerChannel;
+        this.nodeId = clusterNode.getNodeId();
+        this.channelPrefix = channelPrefix;
+        log.info("Cluster broadcast bridge enabled for node [{}] using channel prefix '{}'", nodeId, channelPrefix);
+    }
+
+    /**
+     * Extracts the collaboration session id from a {@code /topic/sessions/{sessionId}/...} destination.
+     * @return the session id, or null if the destination is not session scoped.
+     */
+    static String sessionIdFromDestination(String destination) {
+        if (destination == null || !destination.startsWith(SESSION_TOPIC_PREFIX)) {
+            return null;
+        }
+        int start = SESSION_TOPIC_PREFIX.length();
+        int end = destination.indexOf('/', start);
+        String sessionId = (end < 0) ? destination.substring(start) : destination.substring(start, end);
+        return sessionId.isEmpty() ? null : sessionId;
+    }
+
+    private String channelFor(String sessionId) {
+        return channelPrefix + sessionId;
+    }
+
+    // --- Outbound: local broker channel -> Redis ---
+
+    @Override
+    public org.springframework.messaging.Message<?> preSend(org.springframework.messaging.Message<?> message, MessageChannel channel) {
+        if (message.getHeaders().containsKey(RELAYED_HEADER)) {
+            return message;
+        }
+        if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE) {
+            return message;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        String sessionId = sessionIdFromDestination(destination);
+        if (sessionId == null || !(message.getPayload() instanceof byte[] payload)) {
+            return message;
+        }
+
+        MimeType contentType = message.getHeaders().get(MessageHeaders.CONTENT_TYPE, MimeType.class);
+        ClusterEnvelope envelope = new ClusterEnvelope(nodeId, destination,
+                contentType != null ? contentType.toString() : null,
+                message.getHeaders().get(OriginEchoFilter.ORIGIN_CONNECTION_HEADER, String.class), payload);
+        publish(channelFor(sessionId), envelope);
+        return message;
+    }
+
+    private void publish(String channel, ClusterEnvelope envelope) {
+        byte[] channelBytes = channel.getBytes(StandardCharsets.UTF_8);
+        byte[] body = envelope.encode();
+        try {
+            stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.publish(channelBytes, body));
+        } catch (Exception e) {
+            // Local subscribers already have the message; remote nodes miss it until the next state sync.
+            log.error("Redis error publishing cluster broadcast for destination {} on channel {}: {}",
+                    envelope.getDestination(), channel, e.getMessage());
+        }
+    }
+
+    // --- Inbound: Redis -> local broker channel ---
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        ClusterEnvelope envelope;
+        try {
+            envelope = ClusterEnvelope.decode(message.getBody());
+        } catch (IllegalArgumentException e) {
+            log.warn("Discarding malformed cluster broadcast: {}", e.getMessage());
+            return;
+        }
+        if (nodeId.equals(envelope.getOriginNodeId())) {
+            return; // Already delivered locally when it was published
+        }
+        deliverLocally(envelope);
+    }
+
+    /** Re-injects a message from another node into the local broker channel. */
+    void deliverLocally(ClusterEnvelope envelope) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(envelope.getDestination());
+        if (!envelope.getContentType().isEmpty()) {
+            accessor.setContentType(MimeType.valueOf(envelope.getContentType()));
+        }
+        accessor.setHeader(RELAYED_HEADER, envelope.getOriginNodeId());
+        if (!envelope.getOriginConnectionId().isEmpty()) {
+            // The sender may be connected here; keep its echo suppressed
+            accessor.setHeader(OriginEchoFilter.ORIGIN_CONNECTION_HEADER, envelope.getOriginConnectionId());
+        }
+        brokerChannel.send(MessageBuilder.createMessage(envelope.getPayload(), accessor.getMessageHeaders()));
+    }
+
+    // --- Per-session channel sharding based on local subscriptions ---
+
+    @EventListener
+    public void handleSubscribe(SessionSubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        String sessionId = sessionIdFromDestination(accessor.getDestination());
+        if (sessionId == null || accessor.getSessionId() == null || accessor.getSubscriptionId() == null) {
+            return;
+        }
+        synchronized (this) {
+            String previous = localSubscriptions
+                    .computeIfAbsent(accessor.getSessionId(), id -> new HashMap<>())
+                    .put(accessor.getSubscriptionId(), sessionId);
+            if (previous == null) {
+                incrementSubscribers(sessionId);
+            }
+        }
+    }
+
+    @EventListener
+    public void handleUnsubscribe(SessionUnsubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        if (accessor.getSessionId() == null || accessor.getSubscriptionId() == null) {
+            return;
+        }
+        synchronized (this) {
+            Map<String, String> subscriptions = localSubscriptions.get(accessor.getSessionId());
+            if (subscriptions == null) {
+                return;
+            }
+            String sessionId = subscriptions.remove(accessor.getSubscriptionId());
+            if (subscriptions.isEmpty()) {
+                localSubscriptions.remove(accessor.getSessionId());
+            }
+            if (sessionId != null) {
+                decrementSubscribers(sessionId);
+            }
+        }
+    }
+
+    @EventListener
+    public void handleDisconnect(SessionDisconnectEvent event) {
+        synchronized (this) {
+            Map<String, String> subscriptions = localSubscriptions.remove(event.getSessionId());
+            if (subscriptions != null) {
+                subscriptions.values().forEach(this::decrementSubscribers);
+            }
+        }
+    }
+
+    /**
+     * Counts a local subscriber that is not a STOMP subscription (e.g. a binary protocol
+     * connection), so this node keeps receiving the session's broadcasts from other nodes.
+     */
+    public synchronized void retainSession(String sessionId) {
+        incrementSubscribers(sessionId);
+    }
+
+    /** Releases a subscriber counted by {@link #retainSession}. */
+    public synchronized void releaseSession(String sessionId) {
+        decrementSubscribers(sessionId);
+    }
+
+    /** Whether a connection on this node subscribes to the session's broadcasts. */
+    public synchronized boolean hasLocalSubscribers(String sessionId) {
+        return sessionSubscriberCounts.containsKey(sessionId);
+    }
+
+    private void incrementSubscribers(String sessionId) {
+        int count = sessionSubscriberCounts.merge(sessionId, 1, Integer::sum);
+        if (count == 1) {
+            listenerContainer.addMessageListener(this, new ChannelTopic(channelFor(sessionId)));
+            log.info("Node [{}] subscribed to cluster channel for session [{}]", nodeId, sessionId);
+        }
+    }
+
+    private void decrementSubscribers(String sessionId) {
+        Integer count = sessionSubscriberCounts.computeIfPresent(sessionId, (id, c) -> c > 1 ? c - 1 : null);
+        if (count == null) {
+            listenerContainer.removeMessageListener(this, new ChannelTopic(channelFor(sessionId)));
+            log.info("Node [{}] unsubscribed from cluster channel for session [{}]", nodeId, sessionId);
+        }
+    }
+}
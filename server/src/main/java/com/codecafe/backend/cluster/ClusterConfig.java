@@ -0,0 +1,32 @@
+package com.codecafe.backend.cluster;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Beans that are only needed when several backend nodes share one Redis deployment.
+ * Enabled with {@code codecafe.cluster.enabled=true}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "codecafe.cluster.enabled", havingValue = "true")
+public class ClusterConfig {
+
+    @Bean
+    public RedisMessageListenerContainer clusterListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        // A single dispatch thread keeps relayed and forwarded messages in publish order
+        container.setTaskExecutor(new TaskExecutorAdapter(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-dispatch");
+            thread.setDaemon(true);
+            return thread;
+        })));
+        return container;
+    }
+}
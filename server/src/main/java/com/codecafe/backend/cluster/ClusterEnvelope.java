@@ -0,0 +1,93 @@
+package com.codecafe.backend.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A broker message as it travels between nodes over Redis pub/sub.
+ * The payload is the already-serialized STOMP body, so it is never re-encoded on the way.
+ *
+ * Wire layout: version byte, origin node id, destination, content type, origin connection id (UTF
+ * strings; empty for none), payload bytes. Version 1 envelopes, without the connection id, are still
+ * accepted.
+ */
+public final class ClusterEnvelope {
+
+    private static final byte VERSION = 2;
+    private static final byte VERSION_WITHOUT_CONNECTION = 1;
+
+    private final String originNodeId;
+    private final String destination;
+    private final String contentType;
+    private final String originConnectionId;
+    private final byte[] payload;
+
+    public ClusterEnvelope(String originNodeId, String destination, String contentType, byte[] payload) {
+        this(originNodeId, destination, contentType, null, payload);
+    }
+
+    public ClusterEnvelope(String originNodeId, String destination, String contentType, String originConnectionId, byte[] payload) {
+        this.originNodeId = originNodeId;
+        this.destination = destination;
+        this.contentType = contentType != null ? contentType : "";
+        this.originConnectionId = originConnectionId != null ? originConnectionId : "";
+        this.payload = payload;
+    }
+
+    public String getOriginNodeId() {
+        return originNodeId;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /** The STOMP session the message originated from, or empty if none. */
+    public String getOriginConnectionId() {
+        return originConnectionId;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeUTF(originNodeId);
+            out.writeUTF(destination);
+            out.writeUTF(contentType);
+            out.writeUTF(originConnectionId);
+            out.write(payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode cluster envelope", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static ClusterEnvelope decode(byte[] body) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body))) {
+            byte version = in.readByte();
+            if (version != VERSION && version != VERSION_WITHOUT_CONNECTION) {
+                throw new IllegalArgumentException("Unsupported cluster envelope version: " + version);
+            }
+            String originNodeId = in.readUTF();
+            String destination = in.readUTF();
+            String contentType = in.readUTF();
+            String originConnectionId = (version == VERSION) ? in.readUTF() : null;
+            byte[] payload = in.readAllBytes();
+            return new ClusterEnvelope(originNodeId, destination, contentType, originConnectionId, payload);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed cluster envelope", e);
+        }
+    }
+}
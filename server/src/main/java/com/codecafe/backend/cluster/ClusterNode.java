@@ -0,0 +1,26 @@
+package com.codecafe.backend.cluster;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Identity of this backend instance within a multi-node deployment.
+ * The id is resolved once so every cluster component agrees on it.
+ */
+@Component
+public class ClusterNode {
+
+    private final String nodeId;
+
+    public ClusterNode(@Value("${codecafe.cluster.node-id:}") String configuredNodeId) {
+        this.nodeId = (configuredNodeId == null || configuredNodeId.isBlank())
+                ? UUID.randomUUID().toString()
+                : configuredNodeId;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+}
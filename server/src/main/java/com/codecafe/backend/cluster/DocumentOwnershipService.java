@@ -0,0 +1,466 @@
+package com.codecafe.backend.cluster;
+
+import com.codecafe.backend.dto.IncomingOperationPayload;
+import com.codecafe.backend.service.OtService;
+import com.codecafe.backend.service.SessionScheduler;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Decides which node sequences the operations of a collaboration session.
+ *
+ * A node becomes the owner of a session by taking a Redis lease ({@code SET NX PX}) on
+ * {@code lease:{sessionId}}, which shares the hash tag of the session's document keys. The owner
+ * renews its leases in the background and is the only node that applies operations for the
+ * session, so {@link OtService} can keep the document head in memory. Other nodes forward
+ * {@code /app/operation} payloads to the owner over its node channel; when a lease is not
+ * renewed it expires and the next node to see an operation for the session takes over.
+ * A lease is released once its session has been idle for {@code lease-idle-release-millis}:
+ * no operation resolved to this node, no local subscriber and nothing queued, in flight or
+ * journaled. The lease value is passed to the store's commit script as a fencing token, so a
+ * node that lost its lease cannot commit over the new owner.
+ *
+ * While Redis cannot be reached the owner keeps its sessions, so operations go on being
+ * sequenced and held in the operation journal until the store is back.
+ *
+ * With {@code codecafe.cluster.enabled=false} this node owns every session.
+ */
+@Service
+public class DocumentOwnershipService {
+
+    private static final Logger log = LoggerFactory.getLogger(DocumentOwnershipService.class);
+    private static final String LEASE_KEY_FORMAT = "lease:{%s}"; // Same hash tag as the session's doc keys
+    private static final String NODE_CHANNEL_PREFIX = "codecafe:node:";
+    private static final int MAX_FORWARD_HOPS = 3;
+    private static final long REMOTE_OWNER_CACHE_MILLIS = 1000;
+
+    // Extends the lease only if this node still holds it
+    private static final RedisScript<Long> RENEW_LEASE_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            end
+            return 0
+            """, Long.class);
+
+    // Deletes the lease only if this node still holds it
+    private static final RedisScript<Long> RELEASE_LEASE_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0
+            """, Long.class);
+
+    private final boolean clusterEnabled;
+    private final long leaseMillis;
+    private final long idleReleaseMillis;
+    private final String nodeId;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ObjectProvider<RedisMessageListenerContainer> listenerContainer;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final OtService otService;
+    private final SessionScheduler sessionScheduler;
+    private final ObjectProvider<ClusterBroadcastBridge> broadcastBridge;
+    private final ObjectMapper objectMapper;
+
+    // sessionId -> local time until which our lease is considered valid
+    private final Map<String, Long> ownedSessions = new ConcurrentHashMap<>();
+    // sessionId -> last time an operation resolved to this node as the owner
+    private final Map<String, Long> lastUsed = new ConcurrentHashMap<>();
+    // sessionId -> (owner nodeId, local time the lookup expires)
+    private final Map<String, RemoteOwner> remoteOwners = new ConcurrentHashMap<>();
+
+    private volatile BiConsumer<IncomingOperationPayload, String> operationHandler;
+
+    private static final class RemoteOwner {
+        final String nodeId;
+        final long expiresAt;
+
+        RemoteOwner(String nodeId, long expiresAt) {
+            this.nodeId = nodeId;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public DocumentOwnershipService(@Value("${codecafe.cluster.enabled:false}") boolean clusterEnabled,
+                                    @Value("${codecafe.cluster.lease-millis:10000}") long leaseMillis,
+                                    @Value("${codecafe.cluster.lease-idle-release-millis:60000}") long idleReleaseMillis,
+                                    ClusterNode clusterNode,
+                                    StringRedisTemplate stringRedisTemplate,
+                                    ObjectProvider<RedisMessageListenerContainer> listenerContainer,
+                                    SimpMessagingTemplate messagingTemplate,
+                                    OtService otService,
+                                    SessionScheduler sessionScheduler,
+                                    ObjectProvider<ClusterBroadcastBridge> broadcastBridge,
+                                    ObjectMapper objectMapper) {
+        this.clusterEnabled = clusterEnabled;
+        this.leaseMillis = leaseMillis;
+        this.idleReleaseMillis = idleReleaseMillis;
+        this.nodeId = clusterNode.getNodeId();
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.messagingTemplate = messagingTemplate;
+        this.otService = otService;
+        this.sessionScheduler = sessionScheduler;
+        this.broadcastBridge = broadcastBridge;
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    public void subscribeToNodeChannel() {
+        if (!clusterEnabled) {
+            return;
+        }
+        listenerContainer.getObject().addMessageListener(
+                (message, pattern) -> handleNodeMessage(message.getBody()),
+                new ChannelTopic(NODE_CHANNEL_PREFIX + nodeId));
+        log.info("Node [{}] listening for forwarded operations (lease {} ms)", nodeId, leaseMillis);
+    }
+
+    /**
+     * Registers the callback that applies an operation on this node.
+     * The second argument is the node the client is connected to, or null if it is this node.
+     */
+    public void setOperationHandler(BiConsumer<IncomingOperationPayload, String> operationHandler) {
+        this.operationHandler = operationHandler;
+    }
+
+    public boolean isClusterEnabled() {
+        return clusterEnabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /** Key of the session's ownership lease; its value is the owner's node id. */
+    public static String getLeaseKey(String sessionId) {
+        return String.format(LEASE_KEY_FORMAT, sessionId);
+    }
+
+    /**
+     * Returns the node that sequences operations for the session, taking the lease if it is free.
+     * @param sessionId The identifier of the session.
+     * @return The owning node id (this node's id if this node owns it), or null if the owner cannot be determined.
+     */
+    public String resolveOwner(String sessionId) {
+        if (!clusterEnabled) {
+            return nodeId;
+        }
+        long now = System.currentTimeMillis();
+        Long validUntil = ownedSessions.get(sessionId);
+        if (validUntil != null && now < validUntil) {
+            lastUsed.put(sessionId, now);
+            return nodeId;
+        }
+        RemoteOwner cached = remoteOwners.get(sessionId);
+        if (cached != null && now < cached.expiresAt) {
+            return cached.nodeId;
+        }
+
+        String leaseKey = getLeaseKey(sessionId);
+        try {
+            Boolean acquired = stringRedisTemplate.opsForValue().setIfAbsent(leaseKey, nodeId, Duration.ofMillis(leaseMillis));
+            if (Boolean.TRUE.equals(acquired)) {
+                onAcquired(sessionId, now);
+                lastUsed.put(sessionId, now);
+                return nodeId;
+            }
+            String owner = stringRedisTemplate.opsForValue().get(leaseKey);
+            if (nodeId.equals(owner) && renew(sessionId)) {
+                // Still ours in Redis (e.g. local validity lapsed before the renewal ran)
+                lastUsed.put(sessionId, now);
+                return nodeId;
+            }
+            if (owner != null) {
+                ownedSessions.remove(sessionId);
+                remoteOwners.put(sessionId, new RemoteOwner(owner, now + REMOTE_OWNER_CACHE_MILLIS));
+            }
+            return owner;
+        } catch (Exception e) {
+            if (ownedSessions.containsKey(sessionId)) {
+                // Keep sequencing through a Redis outage so the operation journal can take the
+                // commits; if another node takes the lease meanwhile, replay detects the divergence
+                log.debug("Redis error resolving owner for session [{}]; keeping our lease: {}", sessionId, e.getMessage());
+                lastUsed.put(sessionId, now);
+                return nodeId;
+            }
+            log.error("Redis error resolving owner for session [{}]: {}", sessionId, e.getMessage());
+            return null;
+        }
+    }
+
+    /** Whether this node holds the session's lease; unlike {@link #resolveOwner} it never takes it. */
+    public boolean isLocalOwner(String sessionId) {
+        if (!clusterEnabled) {
+            return true;
+        }
+        Long validUntil = ownedSessions.get(sessionId);
+        return validUntil != null && System.currentTimeMillis() < validUntil;
+    }
+
+    /**
+     * Takes the session's lease if no node holds it, for work outside of operations (e.g.
+     * archiving). The caller releases it with {@link #release} when done; otherwise it is released
+     * as idle.
+     * @return true if this node took the lease.
+     */
+    public boolean tryAcquire(String sessionId) {
+        if (!clusterEnabled) {
+            return true;
+        }
+        Boolean acquired = stringRedisTemplate.opsForValue().setIfAbsent(getLeaseKey(sessionId), nodeId, Duration.ofMillis(leaseMillis));
+        if (Boolean.TRUE.equals(acquired)) {
+            onAcquired(sessionId, System.currentTimeMillis());
+            return true;
+        }
+        return false;
+    }
+
+    /** Gives up the session's lease if this node holds it, so any node can take it at once. */
+    public void release(String sessionId) {
+        if (!clusterEnabled || ownedSessions.remove(sessionId) == null) {
+            return;
+        }
+        lastUsed.remove(sessionId);
+        otService.evictSession(sessionId);
+        try {
+            stringRedisTemplate.execute(RELEASE_LEASE_SCRIPT, List.of(getLeaseKey(sessionId)), nodeId);
+            log.info("Node [{}] released ownership of session [{}]", nodeId, sessionId);
+        } catch (Exception e) {
+            // Expires on its own
+            log.warn("Redis error releasing lease for session [{}]: {}", sessionId, e.getMessage());
+        }
+    }
+
+    // No recent operation, no local subscriber and nothing queued, in flight or journaled
+    private boolean isIdle(String sessionId, long now) {
+        Long used = lastUsed.get(sessionId);
+        if (used != null && now - used < idleReleaseMillis) {
+            return false;
+        }
+        ClusterBroadcastBridge bridge = broadcastBridge.getIfAvailable();
+        return (bridge == null || !bridge.hasLocalSubscribers(sessionId))
+                && !sessionScheduler.isBusy(sessionId)
+                && !otService.hasPendingOperations(sessionId);
+    }
+
+    private void onAcquired(String sessionId, long now) {
+        // Anything cached from an earlier ownership period may be stale
+        otService.evictSession(sessionId);
+        remoteOwners.remove(sessionId);
+        ownedSessions.put(sessionId, now + leaseMillis * 2 / 3);
+        log.info("Node [{}] acquired ownership of session [{}]", nodeId, sessionId);
+    }
+
+    private boolean renew(String sessionId) {
+        long now = System.currentTimeMillis();
+        Long renewed = stringRedisTemplate.execute(RENEW_LEASE_SCRIPT, List.of(getLeaseKey(sessionId)), nodeId, String.valueOf(leaseMillis));
+        if (renewed != null && renewed > 0) {
+            ownedSessions.put(sessionId, now + leaseMillis * 2 / 3);
+            return true;
+        }
+        return false;
+    }
+
+    private void onLost(String sessionId) {
+        ownedSessions.remove(sessionId);
+        lastUsed.remove(sessionId);
+        otService.evictSession(sessionId);
+        log.warn("Node [{}] lost ownership of session [{}]", nodeId, sessionId);
+    }
+
+    @Scheduled(fixedDelayString = "${codecafe.cluster.lease-renew-millis:3000}")
+    public void renewLeases() {
+        if (!clusterEnabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (String sessionId : ownedSessions.keySet()) {
+            if (isIdle(sessionId, now)) {
+                release(sessionId);
+                continue;
+            }
+            try {
+                if (!renew(sessionId)) {
+                    onLost(sessionId);
+                }
+            } catch (Exception e) {
+                log.error("Redis error renewing lease for session [{}]: {}", sessionId, e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void releaseLeases() {
+        if (!clusterEnabled) {
+            return;
+        }
+        // Let another node take over immediately instead of waiting for expiry
+        for (String sessionId : ownedSessions.keySet()) {
+            try {
+                stringRedisTemplate.execute(RELEASE_LEASE_SCRIPT, List.of(getLeaseKey(sessionId)), nodeId);
+            } catch (Exception e) {
+                log.warn("Redis error releasing lease for session [{}]: {}", sessionId, e.getMessage());
+            }
+        }
+        ownedSessions.clear();
+        lastUsed.clear();
+    }
+
+    // --- Node-to-node messaging ---
+
+    /**
+     * Forwards an operation to the node that owns its session.
+     * @return true if it was handed off, false if the caller should drop it.
+     */
+    public boolean forwardOperation(String ownerNodeId, IncomingOperationPayload payload, String originNodeId, int hops) {
+        if (hops >= MAX_FORWARD_HOPS) {
+            log.warn("Dropping operation for session [{}] from client [{}] after {} forwarding hops",
+                    payload.getSessionId(), payload.getClientId(), hops);
+            return false;
+        }
+        String origin = (originNodeId != null) ? originNodeId : nodeId;
+        return sendToNode(ownerNodeId, NodeMessage.operation(origin, payload, hops + 1));
+    }
+
+    /**
+     * Sends a message to one connection's {@code /user} destination (e.g. {@code /queue/ack} for a
+     * subscription to {@code /user/queue/ack}); the connection is on the given node.
+     */
+    public void deliverToConnection(String targetNodeId, String connectionId, String destination, String body) {
+        if (targetNodeId == null || targetNodeId.equals(nodeId)) {
+            sendToConnection(connectionId, destination, body);
+            return;
+        }
+        sendToNode(targetNodeId, NodeMessage.deliverToConnection(nodeId, connectionId, destination, body));
+    }
+
+    // Anonymous connections: the session id stands in for the user name
+    private void sendToConnection(String connectionId, String destination, String body) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(connectionId);
+        accessor.setLeaveMutable(true);
+        messagingTemplate.convertAndSendToUser(connectionId, destination, body, accessor.getMessageHeaders());
+    }
+
+    /**
+     * Replaces a document's content on the node that owns its session, under the owner's document
+     * lock, so a commit from the owner's cached head cannot overwrite it.
+     * @return true if it was applied or handed off to the owner, false if the owner cannot be reached.
+     */
+    public boolean resetDocument(String sessionId, String documentId, String content) {
+        return resetDocument(sessionId, documentId, content, 0);
+    }
+
+    private boolean resetDocument(String sessionId, String documentId, String content, int hops) {
+        String owner = resolveOwner(sessionId);
+        if (owner == null) {
+            log.warn("Cannot determine owner to reset document [{}] in session [{}]", documentId, sessionId);
+            return false;
+        }
+        if (owner.equals(nodeId)) {
+            otService.setDocumentContent(sessionId, documentId, content);
+            return true;
+        }
+        if (hops >= MAX_FORWARD_HOPS) {
+            log.warn("Dropping reset of document [{}] in session [{}] after {} forwarding hops", documentId, sessionId, hops);
+            return false;
+        }
+        return sendToNode(owner, NodeMessage.reset(nodeId, sessionId, documentId, content, hops + 1));
+    }
+
+    private boolean sendToNode(String targetNodeId, NodeMessage message) {
+        try {
+            byte[] channel = (NODE_CHANNEL_PREFIX + targetNodeId).getBytes(StandardCharsets.UTF_8);
+            byte[] body = objectMapper.writeValueAsBytes(message);
+            Long receivers = stringRedisTemplate.execute(
+                    (RedisCallback<Long>) connection -> connection.publish(channel, body));
+            if (receivers == null || receivers == 0) {
+                // Owner is gone; forget it so the lease can be re-resolved after expiry
+                if (message.getSessionId() != null) {
+                    remoteOwners.remove(message.getSessionId());
+                }
+                log.warn("No node listening on channel for node [{}]; {} message not delivered", targetNodeId, message.getType());
+                return false;
+            }
+            return true;
+        } catch (JsonProcessingException e) {
+            log.error("Failed to serialize {} message for node [{}]: {}", message.getType(), targetNodeId, e.getMessage());
+            return false;
+        } catch (Exception e) {
+            log.error("Redis error sending {} message to node [{}]: {}", message.getType(), targetNodeId, e.getMessage());
+            return false;
+        }
+    }
+
+    private void handleNodeMessage(byte[] body) {
+        NodeMessage message;
+        try {
+            message = objectMapper.readValue(body, NodeMessage.class);
+        } catch (Exception e) {
+            log.warn("Discarding malformed node message: {}", e.getMessage());
+            return;
+        }
+        switch (message.getType()) {
+            case OPERATION -> handleForwardedOperation(message);
+            case DELIVER -> {
+                if (message.getConnectionId() != null) {
+                    sendToConnection(message.getConnectionId(), message.getDestination(), message.getBody());
+                } else {
+                    messagingTemplate.convertAndSend(message.getDestination(), message.getBody());
+                }
+            }
+            case RESET -> {
+                // Forwarded again if ownership moved while the message was in flight
+                if (message.getSessionId() != null && message.getDocumentId() != null && message.getBody() != null) {
+                    resetDocument(message.getSessionId(), message.getDocumentId(), message.getBody(), message.getHops());
+                }
+            }
+        }
+    }
+
+    private void handleForwardedOperation(NodeMessage message) {
+        IncomingOperationPayload payload = message.getOperation();
+        if (payload == null || payload.getSessionId() == null) {
+            return;
+        }
+        String owner = resolveOwner(payload.getSessionId());
+        if (owner == null) {
+            log.warn("Cannot determine owner for forwarded op on session [{}]. Dropping.", payload.getSessionId());
+            return;
+        }
+        if (!owner.equals(nodeId)) {
+            // Ownership moved while the message was in flight
+            forwardOperation(owner, payload, message.getOriginNodeId(), message.getHops());
+            return;
+        }
+        BiConsumer<IncomingOperationPayload, String> handler = operationHandler;
+        if (handler != null) {
+            handler.accept(payload, message.getOriginNodeId());
+        }
+    }
+}
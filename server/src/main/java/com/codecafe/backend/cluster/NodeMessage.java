@@ -0,0 +1,140 @@
+package com.codecafe.backend.cluster;
+
+import com.codecafe.backend.dto.IncomingOperationPayload;
+
+/**
+ * Message addressed to a single backend node over its Redis node channel.
+ * <ul>
+ *   <li>{@code OPERATION}: an {@code /app/operation} payload forwarded to the session owner.</li>
+ *   <li>{@code DELIVER}: a message for a STOMP destination whose subscriber is connected to the target node;
+ *       with a {@code connectionId}, a {@code /user} destination of that connection only.</li>
+ *   <li>{@code RESET}: replace a document's content (e.g. a REST upload); applied by the session owner.</li>
+ * </ul>
+ */
+public class NodeMessage {
+
+    public enum Type { OPERATION, DELIVER, RESET }
+
+    private Type type;
+    private String originNodeId;
+    private String sessionId;
+    private String documentId;
+    private int hops;
+    private IncomingOperationPayload operation;
+    private String destination;
+    private String connectionId;
+    private String body;
+
+    public NodeMessage() {
+    }
+
+    public static NodeMessage operation(String originNodeId, IncomingOperationPayload payload, int hops) {
+        NodeMessage message = new NodeMessage();
+        message.type = Type.OPERATION;
+        message.originNodeId = originNodeId;
+        message.sessionId = payload.getSessionId();
+        message.operation = payload;
+        message.hops = hops;
+        return message;
+    }
+
+    public static NodeMessage deliver(String originNodeId, String destination, String body) {
+        NodeMessage message = new NodeMessage();
+        message.type = Type.DELIVER;
+        message.originNodeId = originNodeId;
+        message.destination = destination;
+        message.body = body;
+        return message;
+    }
+
+    public static NodeMessage deliverToConnection(String originNodeId, String connectionId, String destination, String body) {
+        NodeMessage message = deliver(originNodeId, destination, body);
+        message.connectionId = connectionId;
+        return message;
+    }
+
+    public static NodeMessage reset(String originNodeId, String sessionId, String documentId, String content, int hops) {
+        NodeMessage message = new NodeMessage();
+        message.type = Type.RESET;
+        message.originNodeId = originNodeId;
+        message.sessionId = sessionId;
+        message.documentId = documentId;
+        message.body = content;
+        message.hops = hops;
+        return message;
+    }
+
+    // Getters and Setters
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getOriginNodeId() {
+        return originNodeId;
+    }
+
+    public void setOriginNodeId(String originNodeId) {
+        this.originNodeId = originNodeId;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public void setDocumentId(String documentId) {
+        this.documentId = documentId;
+    }
+
+    public int getHops() {
+        return hops;
+    }
+
+    public void setHops(int hops) {
+        this.hops = hops;
+    }
+
+    public IncomingOperationPayload getOperation() {
+        return operation;
+    }
+
+    public void setOperation(IncomingOperationPayload operation) {
+        this.operation = operation;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public void setDestination(String destination) {
+        this.destination = destination;
+    }
+
+    public String getConnectionId() {
+        return connectionId;
+    }
+
+    public void setConnectionId(String connectionId) {
+        this.connectionId = connectionId;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public void setBody(String body) {
+        this.body = body;
+    }
+}
@@ -0,0 +1,303 @@
+package com.codecafe.backend.config;
+
+import com.codecafe.backend.cluster.DocumentOwnershipService;
+import com.codecafe.backend.controller.OtController;
+import com.codecafe.backend.util.TokenBucket;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client inbound channel interceptor that rate limits operations, cursor updates and chat with
+ * token buckets, per connection and per collaboration session, before they reach a handler.
+ *
+ * Each kind of message has its own limits ({@code codecafe.ingress.<kind>.*}; a rate of 0 is
+ * unlimited). A message passes only if both its connection's and its session's bucket have a
+ * token. Otherwise:
+ * <ul>
+ *   <li>An operation is rejected with a {@code retry} ack naming {@code rate_limited} and the wait
+ *       until a token is available; the client resends it then. Undo and redo share the operation
+ *       limits and are dropped.</li>
+ *   <li>A cursor update is held back, replacing any earlier held-back update for the same
+ *       connection and document, and is sent on once a token is available.</li>
+ *   <li>A chat message is dropped.</li>
+ * </ul>
+ */
+@Component
+public class IngressRateLimiter implements ChannelInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(IngressRateLimiter.class);
+    // Marks a held-back cursor update being sent on; its tokens were already taken
+    private static final String RELEASED_HEADER = "codecafeRateLimitReleased";
+
+    private enum Kind { OPERATION, SELECTION, CHAT }
+
+    private record Limit(double rate, double burst) {
+        TokenBucket newBucket(long nowNanos) {
+            return (rate > 0) ? new TokenBucket(rate, (burst > 0) ? burst : Math.max(1, rate), nowNanos) : null;
+        }
+    }
+
+    // Buckets of one connection or one session, by kind; null entries are unlimited
+    private static final class Buckets {
+        final TokenBucket[] byKind = new TokenBucket[Kind.values().length];
+    }
+
+    private final boolean enabled;
+    private final Map<Kind, Limit> connectionLimits = new LinkedHashMap<>();
+    private final Map<Kind, Limit> sessionLimits = new LinkedHashMap<>();
+    private final MessageChannel clientInboundChannel;
+    private final DocumentOwnershipService documentOwnershipService;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, Buckets> connections = new ConcurrentHashMap<>();
+    private final Map<String, Buckets> sessions = new ConcurrentHashMap<>();
+    // Latest held-back cursor update by "connectionId|sessionId:documentId"
+    private final Map<String, Message<?>> heldCursors = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService releaser = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ingress-cursor-release");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public IngressRateLimiter(@Lazy @Qualifier("clientInboundChannel") MessageChannel clientInboundChannel,
+                              @Lazy DocumentOwnershipService documentOwnershipService,
+                              ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                              @Value("${codecafe.ingress.enabled:true}") boolean enabled,
+                              @Value("${codecafe.ingress.operation.rate-per-connection:50}") double operationRate,
+                              @Value("${codecafe.ingress.operation.burst-per-connection:100}") double operationBurst,
+                              @Value("${codecafe.ingress.operation.rate-per-session:500}") double sessionOperationRate,
+                              @Value("${codecafe.ingress.operation.burst-per-session:1000}") double sessionOperationBurst,
+                              @Value("${codecafe.ingress.selection.rate-per-connection:20}") double selectionRate,
+                              @Value("${codecafe.ingress.selection.burst-per-connection:20}") double selectionBurst,
+                              @Value("${codecafe.ingress.selection.rate-per-session:200}") double sessionSelectionRate,
+                              @Value("${codecafe.ingress.selection.burst-per-session:200}") double sessionSelectionBurst,
+                              @Value("${codecafe.ingress.chat.rate-per-connection:2}") double chatRate,
+                              @Value("${codecafe.ingress.chat.burst-per-connection:5}") double chatBurst,
+                              @Value("${codecafe.ingress.chat.rate-per-session:20}") double sessionChatRate,
+                              @Value("${codecafe.ingress.chat.burst-per-session:40}") double sessionChatBurst) {
+        this.clientInboundChannel = clientInboundChannel;
+        this.documentOwnershipService = documentOwnershipService;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        connectionLimits.put(Kind.OPERATION, new Limit(operationRate, operationBurst));
+        connectionLimits.put(Kind.SELECTION, new Limit(selectionRate, selectionBurst));
+        connectionLimits.put(Kind.CHAT, new Limit(chatRate, chatBurst));
+        sessionLimits.put(Kind.OPERATION, new Limit(sessionOperationRate, sessionOperationBurst));
+        sessionLimits.put(Kind.SELECTION, new Limit(sessionSelectionRate, sessionSelectionBurst));
+        sessionLimits.put(Kind.CHAT, new Limit(sessionChatRate, sessionChatBurst));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        releaser.shutdownNow();
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (!enabled) {
+            return message;
+        }
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        String connectionId = accessor.getSessionId();
+        if (connectionId == null) {
+            return message;
+        }
+        if (accessor.getMessageType() == SimpMessageType.DISCONNECT) {
+            connections.remove(connectionId);
+            heldCursors.keySet().removeIf(key -> key.startsWith(connectionId + "|"));
+            return message;
+        }
+        Kind kind = (accessor.getMessageType() == SimpMessageType.MESSAGE) ? kindOf(accessor.getDestination()) : null;
+        if (kind == null || message.getHeaders().containsKey(RELEASED_HEADER)) {
+            return message;
+        }
+
+        String[] ids = sessionAndDocument(objectMapper.getFactory(), message.getPayload());
+        long now = System.nanoTime();
+        long waitNanos = acquire(kind, connectionId, ids[0], now);
+        String heldKey = connectionId + "|" + ids[0] + ":" + ids[1];
+        if (waitNanos == 0) {
+            if (kind == Kind.SELECTION) {
+                heldCursors.remove(heldKey); // Superseded by this one
+            }
+            return message;
+        }
+
+        switch (kind) {
+            case OPERATION -> rejectOperation(accessor.getDestination(), connectionId, ids, waitNanos);
+            case SELECTION -> holdCursor(heldKey, message, kind, connectionId, ids[0], waitNanos);
+            case CHAT -> limited(kind, "dropped");
+        }
+        return null;
+    }
+
+    private static Kind kindOf(String destination) {
+        if (destination == null) {
+            return null;
+        }
+        return switch (destination) {
+            case "/app/operation", "/app/undo", "/app/redo" -> Kind.OPERATION;
+            case "/app/selection" -> Kind.SELECTION;
+            case "/app/chat", "/app/message" -> Kind.CHAT;
+            default -> null;
+        };
+    }
+
+    // Takes a token from the connection's and the session's bucket, or neither.
+    // @return 0 if taken, otherwise the nanoseconds until both have one
+    private long acquire(Kind kind, String connectionId, String sessionId, long now) {
+        TokenBucket connectionBucket = bucket(connections, connectionId, connectionLimits.get(kind), kind, now);
+        TokenBucket sessionBucket = (sessionId != null) ? bucket(sessions, sessionId, sessionLimits.get(kind), kind, now) : null;
+        long wait = 0;
+        if (connectionBucket != null) {
+            wait = connectionBucket.nanosUntilAvailable(1, now);
+        }
+        if (sessionBucket != null) {
+            wait = Math.max(wait, sessionBucket.nanosUntilAvailable(1, now));
+        }
+        if (wait > 0) {
+            return wait;
+        }
+        // Another thread may take the session's last token in between; then this message waits too
+        if (connectionBucket != null && !connectionBucket.tryAcquire(1, now)) {
+            return Math.max(1, connectionBucket.nanosUntilAvailable(1, now));
+        }
+        if (sessionBucket != null && !sessionBucket.tryAcquire(1, now)) {
+            return Math.max(1, sessionBucket.nanosUntilAvailable(1, now));
+        }
+        return 0;
+    }
+
+    private static TokenBucket bucket(Map<String, Buckets> owners, String owner, Limit limit, Kind kind, long now) {
+        if (limit.rate() <= 0) {
+            return null;
+        }
+        Buckets buckets = owners.computeIfAbsent(owner, id -> new Buckets());
+        synchronized (buckets) {
+            TokenBucket bucket = buckets.byKind[kind.ordinal()];
+            if (bucket == null) {
+                bucket = limit.newBucket(now);
+                buckets.byKind[kind.ordinal()] = bucket;
+            }
+            return bucket;
+        }
+    }
+
+    private void rejectOperation(String destination, String connectionId, String[] ids, long waitNanos) {
+        if (!"/app/operation".equals(destination) || ids[0] == null || ids[1] == null) {
+            limited(Kind.OPERATION, "dropped");
+            return;
+        }
+        limited(Kind.OPERATION, "rejected");
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("type", "retry");
+        body.put("error", "rate_limited");
+        body.put("sessionId", ids[0]);
+        body.put("documentId", ids[1]);
+        body.put("retryAfterMillis", Math.max(1, TimeUnit.NANOSECONDS.toMillis(Math.min(waitNanos, TimeUnit.MINUTES.toNanos(1)))));
+        try {
+            documentOwnershipService.deliverToConnection(null, connectionId, OtController.ACK_DESTINATION, objectMapper.writeValueAsString(body));
+        } catch (JsonProcessingException | RuntimeException e) {
+            log.warn("Failed to tell connection {} its operation was rate limited: {}", connectionId, e.getMessage());
+        }
+    }
+
+    private void holdCursor(String heldKey, Message<?> message, Kind kind, String connectionId, String sessionId, long waitNanos) {
+        limited(kind, "coalesced");
+        if (heldCursors.put(heldKey, message) == null) {
+            // First held-back update for this key: schedule its release
+            releaser.schedule(() -> release(heldKey, kind, connectionId, sessionId), waitNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void release(String heldKey, Kind kind, String connectionId, String sessionId) {
+        if (!heldCursors.containsKey(heldKey)) {
+            return; // Superseded by an update that passed, or the connection closed
+        }
+        long now = System.nanoTime();
+        long waitNanos = acquire(kind, connectionId, sessionId, now);
+        if (waitNanos > 0) {
+            releaser.schedule(() -> release(heldKey, kind, connectionId, sessionId), waitNanos, TimeUnit.NANOSECONDS);
+            return;
+        }
+        Message<?> held = heldCursors.remove(heldKey);
+        if (held != null) {
+            clientInboundChannel.send(MessageBuilder.fromMessage(held).setHeader(RELEASED_HEADER, true).build());
+        }
+    }
+
+    private void limited(Kind kind, String action) {
+        meterRegistry.counter("codecafe.ingress.limited", "kind", kind.name().toLowerCase(), "action", action).increment();
+    }
+
+    // Top-level "sessionId" and "documentId" of a JSON payload; either may be null
+    static String[] sessionAndDocument(JsonFactory jsonFactory, Object payload) {
+        String[] ids = new String[2];
+        if (!(payload instanceof byte[] bytes)) {
+            return ids;
+        }
+        try (JsonParser parser = jsonFactory.createParser(bytes)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return ids;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME && (ids[0] == null || ids[1] == null)) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.VALUE_STRING && "sessionId".equals(field)) {
+                    ids[0] = parser.getText();
+                } else if (value == JsonToken.VALUE_STRING && "documentId".equals(field)) {
+                    ids[1] = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            // Malformed; the handler reports it
+        }
+        return ids;
+    }
+
+    // Forgets the buckets of idle sessions
+    @Scheduled(fixedDelay = 60000)
+    public void sweepSessions() {
+        long now = System.nanoTime();
+        sessions.values().removeIf(buckets -> {
+            synchronized (buckets) {
+                for (TokenBucket bucket : buckets.byKind) {
+                    if (bucket != null && !bucket.isFull(now)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        });
+    }
+}
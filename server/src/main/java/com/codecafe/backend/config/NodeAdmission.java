@@ -0,0 +1,281 @@
+package com.codecafe.backend.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-node admission control: caps on open WebSocket connections, active documents and inbound
+ * message rate. While any of them is at its cap the node takes no new connections; handshakes are
+ * answered with 503 and a {@code Retry-After} hint (jittered, so rejected clients do not return
+ * together), and a load balancer can steer them elsewhere using {@link #loadScore()}. Connections
+ * already open are not affected.
+ *
+ * A document is active while a connection on this node edits or spectates it. Caps of 0 or less
+ * are unlimited. Installed as a handshake interceptor and handler decorator on both WebSocket
+ * endpoints, and through {@link #inboundInterceptor()} on the client inbound channel.
+ */
+@Component
+public class NodeAdmission implements HandshakeInterceptor, WebSocketHandlerDecoratorFactory {
+
+    private static final Logger log = LoggerFactory.getLogger(NodeAdmission.class);
+    private static final String OPERATIONS_PREFIX = "/topic/sessions/";
+    private static final String OPERATIONS_INFIX = "/operations/document/";
+    private static final String SPECTATE_PREFIX = "/topic/spectate/";
+    private static final String DOCUMENT_INFIX = "/document/";
+
+    private final boolean enabled;
+    private final int maxConnections;
+    private final int maxDocuments;
+    private final double maxInboundRate;
+    private final int retryAfterSeconds;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    // Document key ("sessionId:documentId") of each tracked subscription, by connection and subscription id
+    private final Map<String, Map<String, String>> subscriptions = new ConcurrentHashMap<>();
+    // Document key -> number of tracked subscriptions on this node
+    private final Map<String, Integer> documents = new ConcurrentHashMap<>();
+    private final AtomicLong inboundMessages = new AtomicLong();
+    private volatile long lastSampleNanos = System.nanoTime();
+    // Messages per second, smoothed over the last few samples
+    private volatile double inboundRate;
+    private final Counter rejectedCounter;
+
+    public NodeAdmission(MeterRegistry meterRegistry,
+                         @Value("${codecafe.admission.enabled:true}") boolean enabled,
+                         @Value("${codecafe.admission.max-connections:10000}") int maxConnections,
+                         @Value("${codecafe.admission.max-documents:5000}") int maxDocuments,
+                         @Value("${codecafe.admission.max-inbound-rate:50000}") double maxInboundRate,
+                         @Value("${codecafe.admission.retry-after-seconds:5}") int retryAfterSeconds) {
+        this.enabled = enabled;
+        this.maxConnections = maxConnections;
+        this.maxDocuments = maxDocuments;
+        this.maxInboundRate = maxInboundRate;
+        this.retryAfterSeconds = Math.max(1, retryAfterSeconds);
+        this.rejectedCounter = meterRegistry.counter("codecafe.admission.rejected");
+        Gauge.builder("codecafe.admission.connections", connections, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("codecafe.admission.documents", documents, Map::size).register(meterRegistry);
+        Gauge.builder("codecafe.admission.inbound.rate", this, admission -> admission.inboundRate).register(meterRegistry);
+        Gauge.builder("codecafe.admission.load", this, NodeAdmission::loadScore).register(meterRegistry);
+    }
+
+    /**
+     * Utilization of the most loaded capped resource: 0 when idle, 1 or more when the node is
+     * turning connections away.
+     */
+    public double loadScore() {
+        double score = 0;
+        if (maxConnections > 0) {
+            score = Math.max(score, (double) connections.get() / maxConnections);
+        }
+        if (maxDocuments > 0) {
+            score = Math.max(score, (double) documents.size() / maxDocuments);
+        }
+        if (maxInboundRate > 0) {
+            score = Math.max(score, inboundRate / maxInboundRate);
+        }
+        return score;
+    }
+
+    /** @return Whether new connections are taken. */
+    public boolean isAccepting() {
+        return !enabled || rejectionReason() == null;
+    }
+
+    /** Current load and caps, for the load balancer endpoint. */
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("accepting", isAccepting());
+        status.put("score", loadScore());
+        status.put("connections", connections.get());
+        status.put("maxConnections", maxConnections);
+        status.put("documents", documents.size());
+        status.put("maxDocuments", maxDocuments);
+        status.put("inboundRate", inboundRate);
+        status.put("maxInboundRate", maxInboundRate);
+        return status;
+    }
+
+    // @return The cap that is reached, or null if there is room
+    private String rejectionReason() {
+        if (maxConnections > 0 && connections.get() >= maxConnections) {
+            return "connections";
+        }
+        if (maxDocuments > 0 && documents.size() >= maxDocuments) {
+            return "documents";
+        }
+        if (maxInboundRate > 0 && inboundRate >= maxInboundRate) {
+            return "inbound rate";
+        }
+        return null;
+    }
+
+    /** Seconds a rejected client should wait before trying again. */
+    public int retryAfterSeconds() {
+        return retryAfterSeconds + ThreadLocalRandom.current().nextInt(retryAfterSeconds + 1);
+    }
+
+    // --- Handshake ---
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                   WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        String reason = enabled ? rejectionReason() : null;
+        if (reason == null) {
+            return true;
+        }
+        rejectedCounter.increment();
+        log.warn("Rejecting WebSocket handshake from {}: {} at capacity (load {}).",
+                request.getRemoteAddress(), reason, String.format("%.2f", loadScore()));
+        response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds()));
+        return false;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                               WebSocketHandler wsHandler, Exception exception) {
+    }
+
+    // --- Connections and inbound messages ---
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                connections.incrementAndGet();
+                super.afterConnectionEstablished(session);
+            }
+
+            @Override
+            public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+                inboundMessages.incrementAndGet();
+                super.handleMessage(session, message);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                connections.decrementAndGet();
+                Map<String, String> tracked = subscriptions.remove(session.getId());
+                if (tracked != null) {
+                    tracked.values().forEach(NodeAdmission.this::release);
+                }
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    @Scheduled(fixedRate = 1000)
+    public void sampleInboundRate() {
+        long now = System.nanoTime();
+        double seconds = (now - lastSampleNanos) / 1e9;
+        lastSampleNanos = now;
+        if (seconds > 0) {
+            inboundRate = 0.5 * inboundRate + 0.5 * (inboundMessages.getAndSet(0) / seconds);
+        }
+    }
+
+    // --- Active documents ---
+
+    /** Counts the documents STOMP connections subscribe to the operations or spectator ticks of. */
+    public ChannelInterceptor inboundInterceptor() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+                if (accessor.getSessionId() == null || accessor.getSubscriptionId() == null) {
+                    return message;
+                }
+                if (accessor.getMessageType() == SimpMessageType.SUBSCRIBE) {
+                    String key = documentKey(accessor.getDestination());
+                    if (key != null) {
+                        documentOpened(accessor.getSessionId(), accessor.getSubscriptionId(), key);
+                    }
+                } else if (accessor.getMessageType() == SimpMessageType.UNSUBSCRIBE) {
+                    documentClosed(accessor.getSessionId(), accessor.getSubscriptionId());
+                }
+                return message;
+            }
+        };
+    }
+
+    /**
+     * Marks a document active for a connection until {@link #documentClosed} or the connection
+     * closes. {@code subscriptionId} identifies this use of the document within the connection.
+     */
+    public void documentOpened(String connectionId, String subscriptionId, String sessionId, String documentId) {
+        documentOpened(connectionId, subscriptionId, sessionId + ":" + documentId);
+    }
+
+    private void documentOpened(String connectionId, String subscriptionId, String key) {
+        String previous = subscriptions.computeIfAbsent(connectionId, id -> new ConcurrentHashMap<>()).put(subscriptionId, key);
+        documents.merge(key, 1, Integer::sum);
+        if (previous != null) {
+            release(previous);
+        }
+    }
+
+    public void documentClosed(String connectionId, String subscriptionId) {
+        Map<String, String> tracked = subscriptions.get(connectionId);
+        String key = (tracked != null) ? tracked.remove(subscriptionId) : null;
+        if (key != null) {
+            release(key);
+        }
+    }
+
+    private void release(String key) {
+        documents.computeIfPresent(key, (k, count) -> (count > 1) ? count - 1 : null);
+    }
+
+    // "/topic/sessions/{sid}/operations/document/{did}" or "/topic/spectate/{sid}/document/{did}" to "sid:did"
+    private static String documentKey(String destination) {
+        if (destination == null) {
+            return null;
+        }
+        String prefix;
+        String infix;
+        if (destination.startsWith(OPERATIONS_PREFIX)) {
+            prefix = OPERATIONS_PREFIX;
+            infix = OPERATIONS_INFIX;
+        } else if (destination.startsWith(SPECTATE_PREFIX)) {
+            prefix = SPECTATE_PREFIX;
+            infix = DOCUMENT_INFIX;
+        } else {
+            return null;
+        }
+        int split = destination.indexOf(infix, prefix.length());
+        if (split < 0 || split + infix.length() == destination.length()) {
+            return null;
+        }
+        return destination.substring(prefix.length(), split) + ":" + destination.substring(split + infix.length());
+    }
+}
@@ -0,0 +1,30 @@
+package com.codecafe.backend.config;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+
+/**
+ * Client outbound channel interceptor that drops a broadcast on its way to the connection it
+ * originated from. An operation's sender learns of its commit from the ack alone, so the broadcast
+ * copy would only be received and discarded.
+ *
+ * Broadcasts opt in by carrying {@link #ORIGIN_CONNECTION_HEADER}; the simple broker copies it
+ * into each subscriber's message. It is a message header rather than a STOMP header, so it never
+ * reaches clients.
+ */
+public class OriginEchoFilter implements ChannelInterceptor {
+
+    /** STOMP (simp) session id of the connection a broadcast originated from. */
+    public static final String ORIGIN_CONNECTION_HEADER = "codecafeOriginConnection";
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        Object origin = message.getHeaders().get(ORIGIN_CONNECTION_HEADER);
+        if (origin != null && origin.equals(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()))) {
+            return null;
+        }
+        return message;
+    }
+}
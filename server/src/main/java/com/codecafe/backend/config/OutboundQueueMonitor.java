@@ -0,0 +1,291 @@
+package com.codecafe.backend.config;
+
+import com.codecafe.backend.dto.DocumentState;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/**
+ * Tracks how many STOMP messages each connection has queued but not yet written to its socket,
+ * and handles connections that fall behind (slow networks, suspended tabs) before their backlog
+ * grows the heap.
+ *
+ * Messages are counted when they enter the client outbound channel and uncounted when the
+ * connection's socket send for them starts, so the count covers both the channel executor and
+ * the per-connection send buffer. Once a connection has more than {@code max-queued} messages
+ * waiting, it is either disconnected or, by default, put into resync mode: operation and
+ * selection broadcasts to it are skipped until its backlog is down to a quarter of the limit,
+ * then it receives the current state of each document it missed operations of, flagged
+ * {@code resync}, and moves its editor to that snapshot's revision, rebasing its unacknowledged
+ * edits onto it. Broadcasts resume before the snapshot is read, so operations newer than the
+ * snapshot may reach the client ahead of it; the client holds operations that follow a gap and
+ * ignores operations and acks at or below the snapshot revision. Connections without a state
+ * subscription for such a document are disconnected instead. Snapshots are read and sent on a
+ * separate thread, as the catch-up is noticed inside a socket send, which must not block on the
+ * store.
+ *
+ * Installed as a WebSocket handler decorator (to see socket sends) and through
+ * {@link #inboundInterceptor()} and {@link #outboundInterceptor()} on the client channels.
+ */
+@Component
+public class OutboundQueueMonitor implements WebSocketHandlerDecoratorFactory {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboundQueueMonitor.class);
+    private static final String TOPIC_PREFIX = "/topic/sessions/";
+    private static final String OPERATIONS_INFIX = "/operations/document/";
+    private static final String SELECTIONS_INFIX = "/selections/document/";
+    private static final String STATE_INFIX = "/state/document/";
+    private static final String MESSAGE_FRAME = "MESSAGE\n";
+
+    private final MessageChannel clientOutboundChannel;
+    private final ObjectMapper objectMapper;
+    private final int maxQueued;
+    private final int resumeQueued;
+    private final boolean disconnect;
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+    private final Counter laggingCounter;
+    private final Counter skippedCounter;
+    // Set by OtController: current state of a document, given session and document id
+    private volatile BiFunction<String, String, DocumentState> stateProvider;
+    // Reads and sends resync snapshots off the socket send path
+    private final ExecutorService resyncExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "outbound-resync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final class Connection {
+        final WebSocketSession session;
+        final AtomicInteger queued = new AtomicInteger();
+        final AtomicBoolean lagging = new AtomicBoolean();
+        // Subscription id by destination
+        final Map<String, String> subscriptions = new ConcurrentHashMap<>();
+        // "sessionId:documentId" of documents whose operations were skipped
+        final Set<String> skipped = ConcurrentHashMap.newKeySet();
+
+        Connection(WebSocketSession session) {
+            this.session = session;
+        }
+    }
+
+    public OutboundQueueMonitor(@Lazy @Qualifier("clientOutboundChannel") MessageChannel clientOutboundChannel,
+                                ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                                @Value("${codecafe.websocket.slow-consumer.max-queued:500}") int maxQueued,
+                                @Value("${codecafe.websocket.slow-consumer.action:resync}") String action) {
+        this.clientOutboundChannel = clientOutboundChannel;
+        this.objectMapper = objectMapper;
+        this.maxQueued = Math.max(1, maxQueued);
+        this.resumeQueued = this.maxQueued / 4;
+        this.disconnect = "disconnect".equalsIgnoreCase(action);
+        this.laggingCounter = meterRegistry.counter("codecafe.websocket.outbound.slow-consumers", "action", disconnect ? "disconnect" : "resync");
+        this.skippedCounter = meterRegistry.counter("codecafe.websocket.outbound.skipped");
+        Gauge.builder("codecafe.websocket.outbound.queued", connections,
+                c -> c.values().stream().mapToInt(connection -> connection.queued.get()).sum()).register(meterRegistry);
+        Gauge.builder("codecafe.websocket.outbound.queued.max", connections,
+                c -> c.values().stream().mapToInt(connection -> connection.queued.get()).max().orElse(0)).register(meterRegistry);
+        Gauge.builder("codecafe.websocket.outbound.lagging", connections,
+                c -> c.values().stream().filter(connection -> connection.lagging.get()).count()).register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        resyncExecutor.shutdownNow();
+    }
+
+    public void setStateProvider(BiFunction<String, String, DocumentState> stateProvider) {
+        this.stateProvider = stateProvider;
+    }
+
+    @Override
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                Connection connection = new Connection(session);
+                connections.put(session.getId(), connection);
+                super.afterConnectionEstablished(new CountingSession(session, connection));
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                connections.remove(session.getId());
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    /** Records the subscriptions of each connection, to address resync messages. */
+    public ChannelInterceptor inboundInterceptor() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+                Connection connection = (accessor.getSessionId() != null) ? connections.get(accessor.getSessionId()) : null;
+                if (connection == null || accessor.getSubscriptionId() == null) {
+                    return message;
+                }
+                if (accessor.getMessageType() == SimpMessageType.SUBSCRIBE && accessor.getDestination() != null) {
+                    connection.subscriptions.put(accessor.getDestination(), accessor.getSubscriptionId());
+                } else if (accessor.getMessageType() == SimpMessageType.UNSUBSCRIBE) {
+                    connection.subscriptions.values().remove(accessor.getSubscriptionId());
+                }
+                return message;
+            }
+        };
+    }
+
+    /** Counts messages queued for each connection and skips broadcasts to lagging ones. */
+    public ChannelInterceptor outboundInterceptor() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+                Connection connection = (accessor.getSessionId() != null) ? connections.get(accessor.getSessionId()) : null;
+                if (connection == null || accessor.getMessageType() != SimpMessageType.MESSAGE) {
+                    return message;
+                }
+                return queued(connection, accessor.getDestination()) ? message : null;
+            }
+        };
+    }
+
+    // @return false if the message is skipped
+    private boolean queued(Connection connection, String destination) {
+        if (connection.lagging.get() && isSkippable(destination)) {
+            if (destination.contains(OPERATIONS_INFIX)) {
+                connection.skipped.add(documentKey(destination, OPERATIONS_INFIX));
+            }
+            skippedCounter.increment();
+            return false;
+        }
+        if (connection.queued.incrementAndGet() > maxQueued && connection.lagging.compareAndSet(false, true)) {
+            laggingCounter.increment();
+            if (disconnect) {
+                log.warn("Connection {} has {} messages queued; disconnecting it.", connection.session.getId(), connection.queued.get());
+                close(connection);
+            } else {
+                log.warn("Connection {} has {} messages queued; skipping its broadcasts until it catches up.",
+                        connection.session.getId(), connection.queued.get());
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSkippable(String destination) {
+        return destination != null && destination.startsWith(TOPIC_PREFIX)
+                && (destination.contains(OPERATIONS_INFIX) || destination.contains(SELECTIONS_INFIX));
+    }
+
+    // "/topic/sessions/{sid}<infix>{did}" to "sid:did"
+    private static String documentKey(String destination, String infix) {
+        int split = destination.indexOf(infix);
+        return destination.substring(TOPIC_PREFIX.length(), split) + ":" + destination.substring(split + infix.length());
+    }
+
+    // Called as a socket send for one of the connection's messages starts
+    private void sent(Connection connection) {
+        if (connection.queued.decrementAndGet() <= resumeQueued && !disconnect && connection.lagging.compareAndSet(true, false)) {
+            try {
+                resyncExecutor.execute(() -> resync(connection));
+            } catch (RejectedExecutionException e) {
+                log.debug("Not resyncing connection {}: shutting down.", connection.session.getId());
+            }
+        }
+    }
+
+    private void resync(Connection connection) {
+        if (!connections.containsKey(connection.session.getId())) {
+            return;
+        }
+        BiFunction<String, String, DocumentState> provider = stateProvider;
+        for (String key : connection.skipped) {
+            connection.skipped.remove(key);
+            String[] ids = key.split(":", 2);
+            String subscriptionId = connection.subscriptions.get(TOPIC_PREFIX + ids[0] + STATE_INFIX + ids[1]);
+            if (provider == null || subscriptionId == null) {
+                log.warn("Connection {} missed operations for doc [{}] in session [{}] and cannot be resynced; disconnecting it.",
+                        connection.session.getId(), ids[1], ids[0]);
+                close(connection);
+                return;
+            }
+            try {
+                DocumentState state = provider.apply(ids[0], ids[1]);
+                state.setResync(true);
+                SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+                accessor.setSessionId(connection.session.getId());
+                accessor.setSubscriptionId(subscriptionId);
+                accessor.setDestination(TOPIC_PREFIX + ids[0] + STATE_INFIX + ids[1]);
+                accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+                accessor.setLeaveMutable(true);
+                clientOutboundChannel.send(MessageBuilder.createMessage(objectMapper.writeValueAsBytes(state), accessor.getMessageHeaders()));
+                log.info("Resynced connection {} with doc [{}] in session [{}] at revision {}.",
+                        connection.session.getId(), ids[1], ids[0], state.getRevision());
+            } catch (JsonProcessingException | RuntimeException e) {
+                log.error("Failed to resync connection {}; disconnecting it: {}", connection.session.getId(), e.getMessage());
+                close(connection);
+                return;
+            }
+        }
+    }
+
+    private static void close(Connection connection) {
+        try {
+            connection.session.close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (IOException e) {
+            log.debug("Error closing connection {}: {}", connection.session.getId(), e.getMessage());
+        }
+    }
+
+    // The session STOMP writes to; only MESSAGE frames were counted
+    private final class CountingSession extends WebSocketSessionDecorator {
+        private final Connection connection;
+
+        CountingSession(WebSocketSession session, Connection connection) {
+            super(session);
+            this.connection = connection;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            if (message instanceof TextMessage && ((TextMessage) message).getPayload().startsWith(MESSAGE_FRAME)) {
+                sent(connection);
+            }
+            super.sendMessage(message);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.codecafe.backend.config;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageHandlingRunnable;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Executor for the STOMP client inbound channel that schedules messages by destination instead of
+ * in arrival order, so a flood of cursor or chat messages cannot delay edits.
+ *
+ * Messages are sorted into lanes, highest priority first: operations (including undo/redo), state
+ * (joins, document state requests and STOMP control frames), selections and chat. Free slots go to
+ * the highest lane with messages waiting, but each lane may only take its weight in slots before
+ * lower lanes get a turn, so chat is slowed rather than starved. Selections are coalesced: while a
+ * connection's selection for a document waits, a newer one replaces it in its place in the lane, so
+ * a flooding client holds one place and only its latest cursor is handled. Should the lane still
+ * fill up (selection-capacity distinct waiting selections), the oldest is dropped. The channel hands
+ * over one task per subscribed handler, so capacity and drops count tasks.
+ *
+ * At most {@code concurrency} messages are handled at once, on the given delegate executor.
+ */
+public class PrioritizedInboundExecutor implements TaskExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(PrioritizedInboundExecutor.class);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    enum Lane {
+        OPERATION(8), STATE(4), SELECTION(2), CHAT(1);
+
+        final int weight;
+
+        Lane(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    private final Executor delegate;
+    private final Semaphore slots;
+    private final int selectionCapacity;
+    // Unused for SELECTION, which is kept in selections
+    private final ArrayDeque<Runnable>[] lanes;
+    // Waiting selection tasks, oldest first
+    private final LinkedHashMap<SelectionKey, Runnable> selections = new LinkedHashMap<>();
+    private final int[] credits = new int[Lane.values().length];
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Counter droppedSelections;
+    private final Counter coalescedSelections;
+    private final Thread dispatcher;
+
+    // A connection's selection for a document, as handed to one handler
+    private record SelectionKey(String connectionId, String sessionId, String documentId, MessageHandler handler) {
+    }
+
+    @SuppressWarnings("unchecked")
+    public PrioritizedInboundExecutor(Executor delegate, int concurrency, int selectionCapacity, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.slots = new Semaphore(Math.max(1, concurrency));
+        this.selectionCapacity = Math.max(1, selectionCapacity);
+        this.lanes = new ArrayDeque[Lane.values().length];
+        for (Lane lane : Lane.values()) {
+            lanes[lane.ordinal()] = new ArrayDeque<>();
+            credits[lane.ordinal()] = lane.weight;
+            Gauge.builder("codecafe.websocket.inbound.queued", this, executor -> executor.queued(lane))
+                    .tag("lane", lane.name().toLowerCase())
+                    .register(meterRegistry);
+        }
+        this.droppedSelections = meterRegistry.counter("codecafe.websocket.inbound.dropped", "lane", "selection");
+        this.coalescedSelections = meterRegistry.counter("codecafe.websocket.inbound.coalesced", "lane", "selection");
+        this.dispatcher = new Thread(this::dispatch, "ws-inbound-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        Lane lane = laneOf(task);
+        if (lane == Lane.SELECTION) {
+            executeSelection((MessageHandlingRunnable) task);
+            return;
+        }
+        lock.lock();
+        try {
+            lanes[lane.ordinal()].addLast(task);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void executeSelection(MessageHandlingRunnable task) {
+        Message<?> message = task.getMessage();
+        String[] ids = IngressRateLimiter.sessionAndDocument(JSON_FACTORY, message.getPayload());
+        SelectionKey key = new SelectionKey(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()),
+                ids[0], ids[1], task.getMessageHandler());
+        lock.lock();
+        try {
+            // Replacing keeps the waiting selection's place
+            if (selections.put(key, task) != null) {
+                coalescedSelections.increment();
+                return;
+            }
+            if (selections.size() > selectionCapacity) {
+                Iterator<Runnable> oldest = selections.values().iterator();
+                oldest.next();
+                oldest.remove();
+                droppedSelections.increment();
+            }
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static Lane laneOf(Runnable task) {
+        if (!(task instanceof MessageHandlingRunnable)) {
+            return Lane.STATE;
+        }
+        Message<?> message = ((MessageHandlingRunnable) task).getMessage();
+        if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE) {
+            // CONNECT, SUBSCRIBE, DISCONNECT, heartbeats
+            return Lane.STATE;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (destination == null) {
+            return Lane.STATE;
+        }
+        switch (destination) {
+            case "/app/operation":
+            case "/app/undo":
+            case "/app/redo":
+                return Lane.OPERATION;
+            case "/app/selection":
+                return Lane.SELECTION;
+            case "/app/chat":
+            case "/app/message":
+                return Lane.CHAT;
+            default:
+                return Lane.STATE;
+        }
+    }
+
+    private void dispatch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                slots.acquire();
+                Runnable task = take();
+                try {
+                    delegate.execute(() -> {
+                        try {
+                            task.run();
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    slots.release();
+                    log.warn("Inbound message rejected by executor: {}", e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Highest lane with messages and credit left; credits are refilled once no waiting lane has any
+    private Runnable take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                boolean waiting = false;
+                for (Lane lane : Lane.values()) {
+                    if (queuedLocked(lane) == 0) {
+                        continue;
+                    }
+                    waiting = true;
+                    if (credits[lane.ordinal()] > 0) {
+                        credits[lane.ordinal()]--;
+                        return poll(lane);
+                    }
+                }
+                if (waiting) {
+                    for (Lane lane : Lane.values()) {
+                        credits[lane.ordinal()] = lane.weight;
+                    }
+                } else {
+                    notEmpty.await();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The caller holds the lock
+    private Runnable poll(Lane lane) {
+        if (lane != Lane.SELECTION) {
+            return lanes[lane.ordinal()].pollFirst();
+        }
+        Iterator<Runnable> oldest = selections.values().iterator();
+        Runnable task = oldest.next();
+        oldest.remove();
+        return task;
+    }
+
+    // The caller holds the lock
+    private int queuedLocked(Lane lane) {
+        return (lane == Lane.SELECTION) ? selections.size() : lanes[lane.ordinal()].size();
+    }
+
+    private int queued(Lane lane) {
+        lock.lock();
+        try {
+            return queuedLocked(lane);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void shutdown() {
+        dispatcher.interrupt();
+    }
+}
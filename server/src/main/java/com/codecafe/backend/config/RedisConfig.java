@@ -2,25 +2,44 @@ package com.codecafe.backend.config;
 
 import org.slf4j.Logger; 
 import org.slf4j.LoggerFactory;
+import io.lettuce.core.ReadFrom;
+import io.lettuce.core.cluster.ClusterClientOptions;
+import io.lettuce.core.cluster.ClusterTopologyRefreshOptions;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisNode;
+import org.springframework.data.redis.connection.RedisSentinelConfiguration;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.RedisStaticMasterReplicaConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.data.redis.core.script.RedisScript;
 import jakarta.annotation.PostConstruct;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
 @Configuration
 public class RedisConfig {
 
     private static final Logger logger = LoggerFactory.getLogger(RedisConfig.class);
+    private static final String MODE_STANDALONE = "standalone";
+    private static final String MODE_SENTINEL = "sentinel";
+    private static final String MODE_CLUSTER = "cluster";
 
     @Value("${spring.redis.host}")
     private String redisHost;
@@ -28,9 +47,30 @@ public class RedisConfig {
     @Value("${spring.redis.port}")
     private int redisPort;
 
+    @Value("${codecafe.redis.mode:standalone}")
+    private String redisMode;
+
+    // Sentinel addresses (sentinel mode) or seed nodes (cluster mode), as host:port,host:port
+    @Value("${codecafe.redis.nodes:}")
+    private String redisNodes;
+
+    // Read replicas of the standalone primary, as host:port,host:port
+    @Value("${codecafe.redis.replica-nodes:}")
+    private String replicaNodes;
+
+    @Value("${codecafe.redis.sentinel.master:mymaster}")
+    private String sentinelMaster;
+
+    @Value("${codecafe.redis.read-from-replicas:true}")
+    private boolean readFromReplicas;
+
     @Value("${spring.redis.ssl.enabled:false}") // Inject SSL property, default to false if not set
     private boolean redisSslEnabled;
 
+    // Commands that take longer fail, so commits can fall back to the operation journal
+    @Value("${spring.data.redis.timeout:3s}")
+    private Duration commandTimeout;
+
     // @Value("${spring.redis.password}")
     // private String redisPassword;
 
@@ -40,44 +80,122 @@ public class RedisConfig {
         logger.info("Redis Host from @Value: {}", redisHost);
         logger.info("Redis Port from @Value: {}", redisPort);
         logger.info("Redis SSL Enabled from @Value: {}", redisSslEnabled);
+        logger.info("Redis Mode from @Value: {}", redisMode);
+        logger.info("Redis Read From Replicas from @Value: {}", readFromReplicas);
+        logger.info("Redis Command Timeout from @Value: {}", commandTimeout);
         logger.info("--- End Custom RedisConfig Initializing ---");
     }
 
     @Bean
+    @Primary
     public LettuceConnectionFactory lettuceConnectionFactory() {
         logger.info("--- Creating LettuceConnectionFactory --- Input Parameters ---");
+        logger.info("Using Redis Mode: {}", redisMode);
         logger.info("Using Redis Host: {}", redisHost);
         logger.info("Using Redis Port: {}", redisPort);
+        logger.info("Using Redis Nodes: {}", redisNodes);
         logger.info("Using SSL Enabled: {}", redisSslEnabled);
         // logger.info("Using Password Set: {}", (redisPassword != null && !redisPassword.isEmpty()));
         logger.info("--- End LettuceConnectionFactory Input Parameters ---");
 
-        RedisStandaloneConfiguration redisStandaloneConfiguration = new RedisStandaloneConfiguration();
-        redisStandaloneConfiguration.setHostName(redisHost);
-        redisStandaloneConfiguration.setPort(redisPort);
-        // Configure password if/when AUTH is enabled
-        // if (redisPassword != null && !redisPassword.isEmpty()) {
-        //    redisStandaloneConfiguration.setPassword(redisPassword);
-        // }
+        // Commits and anything read as part of a commit always go to the primary
+        LettuceConnectionFactory lettuceConnectionFactory = createConnectionFactory(ReadFrom.UPSTREAM);
+        logger.info("LettuceConnectionFactory created and properties set.");
+        return lettuceConnectionFactory;
+    }
 
-        LettuceClientConfiguration clientConfig;
+    /**
+     * Connection factory for read-only paths (state fetches, participant lists, history range reads)
+     * that tolerate replication lag. Prefers replicas when the topology has them, otherwise it is a
+     * second connection to the same standalone server.
+     */
+    @Bean
+    public LettuceConnectionFactory replicaReadConnectionFactory() {
+        ReadFrom readFrom = (readFromReplicas && hasReplicas()) ? ReadFrom.REPLICA_PREFERRED : ReadFrom.UPSTREAM;
+        logger.info("Creating replica-read LettuceConnectionFactory with ReadFrom {}", readFrom);
+        return createConnectionFactory(readFrom);
+    }
+
+    private boolean hasReplicas() {
+        return !MODE_STANDALONE.equals(redisMode) || !parseNodes(replicaNodes).isEmpty();
+    }
+
+    private LettuceConnectionFactory createConnectionFactory(ReadFrom readFrom) {
+        LettuceClientConfiguration.LettuceClientConfigurationBuilder clientConfigBuilder;
+        if (MODE_CLUSTER.equals(redisMode)) {
+            // Follow slot migrations and failovers without a restart
+            ClusterTopologyRefreshOptions refreshOptions = ClusterTopologyRefreshOptions.builder()
+                    .enableAllAdaptiveRefreshTriggers()
+                    .enablePeriodicRefresh(Duration.ofSeconds(30))
+                    .build();
+            clientConfigBuilder = LettuceClientConfiguration.builder()
+                    .clientOptions(ClusterClientOptions.builder().topologyRefreshOptions(refreshOptions).build());
+        } else {
+            clientConfigBuilder = LettuceClientConfiguration.builder();
+        }
+        clientConfigBuilder.commandTimeout(commandTimeout);
         if (redisSslEnabled) {
             logger.info("LettuceClientConfiguration: SSL ENABLED");
-            clientConfig = LettuceClientConfiguration.builder()
-                    .useSsl()
-                    .build();
+            clientConfigBuilder.useSsl();
         } else {
             logger.info("LettuceClientConfiguration: SSL DISABLED (default configuration)");
-            clientConfig = LettuceClientConfiguration.defaultConfiguration();
         }
 
-        LettuceConnectionFactory lettuceConnectionFactory = new LettuceConnectionFactory(redisStandaloneConfiguration, clientConfig);
-        lettuceConnectionFactory.afterPropertiesSet(); 
-        logger.info("LettuceConnectionFactory created and properties set.");
+        LettuceConnectionFactory lettuceConnectionFactory;
+        switch (redisMode) {
+            case MODE_CLUSTER -> {
+                RedisClusterConfiguration clusterConfiguration = new RedisClusterConfiguration();
+                parseNodes(redisNodes).forEach(clusterConfiguration::addClusterNode);
+                lettuceConnectionFactory = new LettuceConnectionFactory(clusterConfiguration, clientConfigBuilder.readFrom(readFrom).build());
+            }
+            case MODE_SENTINEL -> {
+                RedisSentinelConfiguration sentinelConfiguration = new RedisSentinelConfiguration();
+                sentinelConfiguration.master(sentinelMaster);
+                parseNodes(redisNodes).forEach(sentinelConfiguration::addSentinel);
+                lettuceConnectionFactory = new LettuceConnectionFactory(sentinelConfiguration, clientConfigBuilder.readFrom(readFrom).build());
+            }
+            case MODE_STANDALONE -> {
+                List<RedisNode> replicas = parseNodes(replicaNodes);
+                if (replicas.isEmpty()) {
+                    RedisStandaloneConfiguration redisStandaloneConfiguration = new RedisStandaloneConfiguration();
+                    redisStandaloneConfiguration.setHostName(redisHost);
+                    redisStandaloneConfiguration.setPort(redisPort);
+                    // Configure password if/when AUTH is enabled
+                    // if (redisPassword != null && !redisPassword.isEmpty()) {
+                    //    redisStandaloneConfiguration.setPassword(redisPassword);
+                    // }
+                    lettuceConnectionFactory = new LettuceConnectionFactory(redisStandaloneConfiguration, clientConfigBuilder.build());
+                } else {
+                    // Static primary + read replicas, e.g. an ElastiCache primary and reader endpoint
+                    RedisStaticMasterReplicaConfiguration masterReplicaConfiguration = new RedisStaticMasterReplicaConfiguration(redisHost, redisPort);
+                    replicas.forEach(node -> masterReplicaConfiguration.addNode(node.getHost(), node.getPort()));
+                    lettuceConnectionFactory = new LettuceConnectionFactory(masterReplicaConfiguration, clientConfigBuilder.readFrom(readFrom).build());
+                }
+            }
+            default -> throw new IllegalStateException("Unsupported codecafe.redis.mode '" + redisMode
+                    + "'. Expected one of: standalone, sentinel, cluster.");
+        }
+        lettuceConnectionFactory.afterPropertiesSet();
         return lettuceConnectionFactory;
     }
 
+    // Parses "host1:6379,host2:6379" into nodes
+    private static List<RedisNode> parseNodes(String nodes) {
+        List<RedisNode> parsed = new ArrayList<>();
+        if (nodes == null || nodes.isBlank()) {
+            return parsed;
+        }
+        for (String node : nodes.split(",")) {
+            String trimmed = node.trim();
+            if (!trimmed.isEmpty()) {
+                parsed.add(RedisNode.fromString(trimmed));
+            }
+        }
+        return parsed;
+    }
+
     @Bean
+    @Primary
     public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory connectionFactory) {
         RedisTemplate<String, Object> template = new RedisTemplate<>();
         template.setConnectionFactory(connectionFactory);
@@ -96,7 +214,40 @@ public class RedisConfig {
         return template;
     }
 
+    /**
+     * Template for read-only paths that may be served by a replica. Never use it for data that
+     * a commit depends on; commits read and write through {@link #redisTemplate}.
+     */
+    @Bean
+    public RedisTemplate<String, Object> replicaReadRedisTemplate(@Qualifier("replicaReadConnectionFactory") RedisConnectionFactory connectionFactory) {
+        // Same serializers as redisTemplate so both read the same values
+        RedisTemplate<String, Object> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(new GenericJackson2JsonRedisSerializer());
+        template.setHashKeySerializer(new StringRedisSerializer());
+        template.setHashValueSerializer(new GenericJackson2JsonRedisSerializer());
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    /**
+     * Non-blocking counterpart of {@link #redisTemplate} on the same primary connection factory and
+     * with the same serializers, used where a commit must not park the calling thread.
+     */
+    @Bean
+    public ReactiveRedisTemplate<String, Object> reactiveRedisTemplate(ReactiveRedisConnectionFactory connectionFactory) {
+        RedisSerializationContext<String, Object> context = RedisSerializationContext
+                .<String, Object>newSerializationContext(new StringRedisSerializer())
+                .value(new GenericJackson2JsonRedisSerializer())
+                .hashKey(new StringRedisSerializer())
+                .hashValue(new GenericJackson2JsonRedisSerializer())
+                .build();
+        return new ReactiveRedisTemplate<>(connectionFactory, context);
+    }
+
     @Bean
+    @Primary
     public StringRedisTemplate stringRedisTemplate(RedisConnectionFactory connectionFactory) {
         StringRedisTemplate template = new StringRedisTemplate();
         template.setConnectionFactory(connectionFactory);
@@ -105,13 +256,38 @@ public class RedisConfig {
 
     // Bean for the Lua script to atomically update content and history
     @Bean
-    public RedisScript<Boolean> updateContentAndHistoryScript() {
+    public RedisScript<Long> updateContentAndHistoryScript() {
         String luaScript = """
             local contentKey = KEYS[1]
             local historyKey = KEYS[2]
+            local blobKey = KEYS[3]    -- hash -> text of inserts stored out of line
+            local blobRefKey = KEYS[4] -- hash -> number of history entries referencing it
+            local revisionKey = KEYS[5]
+            local leaseKey = KEYS[6]   -- ownership lease of the session
             local newContent = ARGV[1]
             local operationJson = ARGV[2] -- Operation passed as JSON string
-            
+
+            -- Fencing: a node that lost the session's lease to another node must not commit.
+            -- ARGV[4] is the committing node's lease value, empty outside cluster mode.
+            local fencingToken = cjson.decode(ARGV[4])
+            if fencingToken ~= '' then
+                local lease = redis.call('GET', leaseKey)
+                if lease and lease ~= fencingToken then
+                    return 0
+                end
+            end
+
+            -- ARGV[5..] are (hash, text) pairs for the operation's out-of-line inserts
+            for i = 5, #ARGV, 2 do
+                local hash = cjson.decode(ARGV[i])
+                redis.call('HSETNX', blobKey, hash, ARGV[i + 1])
+                redis.call('HINCRBY', blobRefKey, hash, 1)
+            end
+
+            -- Documents written before the revision key existed were never trimmed, so their
+            -- revision is still the history length
+            local revision = tonumber(redis.call('GET', revisionKey) or redis.call('LLEN', historyKey)) + 1
+            redis.call('SET', revisionKey, revision)
             redis.call('SET', contentKey, newContent)
             redis.call('RPUSH', historyKey, operationJson) -- Store the JSON string
             
@@ -120,15 +296,30 @@ public class RedisConfig {
             if maxHistory and maxHistory > 0 then
                 local currentSize = redis.call('LLEN', historyKey)
                 if currentSize > maxHistory then
+                    local trimmed = redis.call('LRANGE', historyKey, 0, currentSize - maxHistory - 1)
                     redis.call('LTRIM', historyKey, currentSize - maxHistory, -1)
+                    -- Release blobs no longer referenced by any retained entry
+                    -- (entries are JSON strings holding the op JSON, hence the double decode)
+                    for _, entry in ipairs(trimmed) do
+                        if string.find(entry, 'blob', 1, true) then -- cheap pre-check before decoding
+                            for _, op in ipairs(cjson.decode(cjson.decode(entry))) do
+                                if type(op) == 'table' and op.blob then
+                                    if redis.call('HINCRBY', blobRefKey, op.blob, -1) <= 0 then
+                                        redis.call('HDEL', blobRefKey, op.blob)
+                                        redis.call('HDEL', blobKey, op.blob)
+                                    end
+                                end
+                            end
+                        end
+                    end
                 end
             end
 
-            return true
+            return revision
         """;
-        DefaultRedisScript<Boolean> redisScript = new DefaultRedisScript<>();
+        DefaultRedisScript<Long> redisScript = new DefaultRedisScript<>();
         redisScript.setScriptText(luaScript);
-        redisScript.setResultType(Boolean.class);
+        redisScript.setResultType(Long.class);
         return redisScript;
     }
 }
\ No newline at end of file
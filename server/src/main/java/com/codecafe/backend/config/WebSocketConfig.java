@@ -1,25 +1,173 @@
 package com.codecafe.backend.config;
 
+import com.codecafe.backend.cluster.ClusterBroadcastBridge;
+import com.codecafe.backend.controller.BinaryOperationHandler;
+import com.codecafe.backend.controller.SpectatorController;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Configuration
+@EnableWebSocket
 @EnableWebSocketMessageBroker
-public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
+public class WebSocketConfig implements WebSocketMessageBrokerConfigurer, WebSocketConfigurer {
+
+    private static final Logger log = LoggerFactory.getLogger(WebSocketConfig.class);
+
+    // Only present when codecafe.cluster.enabled=true
+    private final ObjectProvider<ClusterBroadcastBridge> clusterBroadcastBridge;
+    private final BinaryOperationHandler binaryOperationHandler;
+    private final boolean binaryEnabled;
+    private final SpectatorController spectatorController;
+    // Null unless codecafe.websocket.inbound.priority.enabled=true
+    private final PrioritizedInboundExecutor prioritizedInboundExecutor;
+    private final ExecutorService inboundWorkers;
+    // Null unless codecafe.websocket.slow-consumer.enabled=true
+    private final OutboundQueueMonitor outboundQueueMonitor;
+    private final NodeAdmission nodeAdmission;
+    private final IngressRateLimiter ingressRateLimiter;
+    private final int sendTimeLimitMillis;
+    private final int sendBufferSizeLimit;
+
+    public WebSocketConfig(ObjectProvider<ClusterBroadcastBridge> clusterBroadcastBridge,
+                           BinaryOperationHandler binaryOperationHandler,
+                           @Value("${codecafe.websocket.binary.enabled:true}") boolean binaryEnabled,
+                           SpectatorController spectatorController,
+                           @Value("${codecafe.websocket.inbound.priority.enabled:true}") boolean prioritized,
+                           @Value("${codecafe.websocket.inbound.priority.concurrency:-1}") int priorityConcurrency,
+                           @Value("${codecafe.websocket.inbound.priority.selection-capacity:1000}") int selectionCapacity,
+                           MeterRegistry meterRegistry,
+                           OutboundQueueMonitor outboundQueueMonitor,
+                           @Value("${codecafe.websocket.slow-consumer.enabled:true}") boolean slowConsumerHandling,
+                           @Value("${codecafe.websocket.send-time-limit-millis:10000}") int sendTimeLimitMillis,
+                           @Value("${codecafe.websocket.send-buffer-size-limit:524288}") int sendBufferSizeLimit,
+                           NodeAdmission nodeAdmission,
+                           IngressRateLimiter ingressRateLimiter) {
+        this.clusterBroadcastBridge = clusterBroadcastBridge;
+        this.binaryOperationHandler = binaryOperationHandler;
+        this.binaryEnabled = binaryEnabled;
+        this.spectatorController = spectatorController;
+        this.outboundQueueMonitor = slowConsumerHandling ? outboundQueueMonitor : null;
+        this.nodeAdmission = nodeAdmission;
+        this.ingressRateLimiter = ingressRateLimiter;
+        this.sendTimeLimitMillis = sendTimeLimitMillis;
+        this.sendBufferSizeLimit = sendBufferSizeLimit;
+        if (prioritized) {
+            // Same bound as the default inbound pool
+            int concurrency = (priorityConcurrency > 0) ? priorityConcurrency : Runtime.getRuntime().availableProcessors() * 2;
+            this.inboundWorkers = Executors.newFixedThreadPool(concurrency, inboundWorkerThreads());
+            this.prioritizedInboundExecutor = new PrioritizedInboundExecutor(inboundWorkers, concurrency, selectionCapacity, meterRegistry);
+            log.info("STOMP inbound messages are scheduled by priority (concurrency {}, selection capacity {}).",
+                    concurrency, selectionCapacity);
+        } else {
+            this.inboundWorkers = null;
+            this.prioritizedInboundExecutor = null;
+        }
+    }
+
+    private static ThreadFactory inboundWorkerThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "clientInboundChannel-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @PreDestroy
+    public void shutdownInbound() {
+        if (prioritizedInboundExecutor != null) {
+            prioritizedInboundExecutor.shutdown();
+        }
+        if (inboundWorkers != null) {
+            inboundWorkers.shutdown();
+        }
+    }
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        config.enableSimpleBroker("/topic");
+        // /queue carries per-connection messages such as acks, sent to /user/queue/... destinations
+        config.enableSimpleBroker("/topic", "/queue");
         config.setApplicationDestinationPrefixes("/app");
+        // Each connection receives broadcasts and acks in the order they were published,
+        // so clients see a document's revisions in sequence
+        config.setPreservePublishOrder(true);
+        // Relay /topic/sessions/** through Redis so subscribers on other nodes receive it too
+        clusterBroadcastBridge.ifAvailable(bridge -> config.configureBrokerChannel().interceptors(bridge));
+        // Translates broadcasts for binary protocol connections
+        if (binaryEnabled) {
+            config.configureBrokerChannel().interceptors(binaryOperationHandler);
+        }
+        // Batches broadcasts into ticks for spectators; a no-op while no document is spectated
+        config.configureBrokerChannel().interceptors(spectatorController);
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        // First, so over-limit messages cost nothing further
+        registration.interceptors(ingressRateLimiter);
+        registration.interceptors(nodeAdmission.inboundInterceptor());
+        if (outboundQueueMonitor != null) {
+            registration.interceptors(outboundQueueMonitor.inboundInterceptor());
+        }
+        if (prioritizedInboundExecutor != null) {
+            registration.executor(prioritizedInboundExecutor);
+        }
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        // First, so the slow-consumer count never includes a dropped echo
+        registration.interceptors(new OriginEchoFilter());
+        if (outboundQueueMonitor != null) {
+            registration.interceptors(outboundQueueMonitor.outboundInterceptor());
+        }
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // A connection whose socket send blocks longer, or whose unsent frames exceed the buffer, is closed
+        registration.setSendTimeLimit(sendTimeLimitMillis);
+        registration.setSendBufferSizeLimit(sendBufferSizeLimit);
+        registration.addDecoratorFactory(nodeAdmission);
+        if (outboundQueueMonitor != null) {
+            registration.addDecoratorFactory(outboundQueueMonitor);
+        }
     }
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
+        // Handshakes are refused while the node is at capacity (see NodeAdmission)
         registry.addEndpoint("/ws")
                 .setAllowedOriginPatterns("*")
+                .addInterceptors(nodeAdmission)
                 .withSockJS();
     }
-}
\ No newline at end of file
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        if (binaryEnabled) {
+            registry.addHandler(nodeAdmission.decorate(binaryOperationHandler), "/ws-binary")
+                    .addInterceptors(nodeAdmission)
+                    .setAllowedOriginPatterns("*");
+        }
+    }
+}
@@ -0,0 +1,557 @@
+package com.codecafe.backend.controller;
+
+import com.codecafe.backend.cluster.ClusterBroadcastBridge;
+import com.codecafe.backend.config.NodeAdmission;
+import com.codecafe.backend.dto.CursorMessage;
+import com.codecafe.backend.dto.DocumentState;
+import com.codecafe.backend.dto.IncomingOperationPayload;
+import com.codecafe.backend.dto.JoinPayload;
+import com.codecafe.backend.dto.Position;
+import com.codecafe.backend.dto.RangeInfo;
+import com.codecafe.backend.dto.SelectionInfo;
+import com.codecafe.backend.dto.UserInfo;
+import com.codecafe.backend.dto.UserInfoDTO;
+import com.codecafe.backend.service.OtService;
+import com.codecafe.backend.service.SessionRegistryService;
+import com.codecafe.backend.service.UndoService;
+import com.codecafe.backend.util.BinaryCodec;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.BinaryWebSocketHandler;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Raw WebSocket endpoint ({@code /ws-binary}) speaking a compact binary protocol, for clients that
+ * want to avoid the per-frame cost of STOMP headers and JSON bodies. Operations are sequenced by
+ * the same {@link OtController} path as STOMP operations, including forwarding to the session owner.
+ *
+ * Each WebSocket binary message is one frame: a type byte followed by fields encoded with
+ * {@link BinaryCodec}. A client first sends HELLO, then JOINs documents under small numbers it
+ * picks itself ({@code doc} below), so session and document ids cross the wire once per
+ * connection. Client ids in server frames are interned the same way: {@code client} is a varint
+ * {@code (ref << 1) | 1} followed by the id the first time a ref is used, {@code ref << 1} after.
+ * A {@code selection} is a varint range count followed by anchor and head varints per range.
+ *
+ * Client to server:
+ * <pre>
+ *   0x01 HELLO   version(=1) clientId:string
+ *   0x02 JOIN    doc sessionId:string documentId:string userName:string userColor:string
+ *   0x03 LEAVE   doc
+ *   0x04 OP      doc revision operation selection
+ *   0x05 CURSOR  doc lineNumber column selection
+ *   0x06 UNDO    doc
+ *   0x07 REDO    doc
+ *   0x08 STATE   doc
+ * </pre>
+ * Server to client:
+ * <pre>
+ *   0x41 ACK      doc revision checksum:int32
+ *   0x42 OP       doc client revision checksum:int32 operation selection
+ *   0x43 CURSOR   doc client lineNumber column selection
+ *   0x44 STATE    doc revision checksum:int32 content:string
+ *   0x45 PRESENCE doc count (id:string name:string color:string)*
+ *   0x46 RETRY    doc retryAfterMillis
+ *   0x47 ERROR    message:string
+ * </pre>
+ * The sender's own operations and cursors are not echoed back; ACK confirms an operation.
+ *
+ * Outgoing frames are produced by watching the broker channel for the destinations a connection
+ * would have subscribed to over STOMP, so broadcasts relayed from other cluster nodes reach binary
+ * clients the same way.
+ */
+@Component
+public class BinaryOperationHandler extends BinaryWebSocketHandler implements ChannelInterceptor {
+
+    private static final Logger logger = Logger.getLogger(BinaryOperationHandler.class.getName());
+
+    static final int PROTOCOL_VERSION = 1;
+
+    static final int HELLO = 0x01;
+    static final int JOIN = 0x02;
+    static final int LEAVE = 0x03;
+    static final int OP = 0x04;
+    static final int CURSOR = 0x05;
+    static final int UNDO = 0x06;
+    static final int REDO = 0x07;
+    static final int STATE = 0x08;
+
+    static final int SERVER_ACK = 0x41;
+    static final int SERVER_OP = 0x42;
+    static final int SERVER_CURSOR = 0x43;
+    static final int SERVER_STATE = 0x44;
+    static final int SERVER_PRESENCE = 0x45;
+    static final int SERVER_RETRY = 0x46;
+    static final int SERVER_ERROR = 0x47;
+
+    private static final int SEND_TIME_LIMIT_MILLIS = 10000;
+    private static final int SEND_BUFFER_LIMIT_BYTES = 512 * 1024;
+
+    private enum Kind { ACK, OPERATIONS, SELECTIONS, STATE }
+
+    private static final class JoinedDocument {
+        final int ref;
+        final String sessionId;
+        final String documentId;
+        final String userName;
+        final String userColor;
+
+        JoinedDocument(int ref, String sessionId, String documentId, String userName, String userColor) {
+            this.ref = ref;
+            this.sessionId = sessionId;
+            this.documentId = documentId;
+            this.userName = userName;
+            this.userColor = userColor;
+        }
+    }
+
+    private static final class Connection {
+        final WebSocketSession session;
+        volatile String clientId;
+        final Map<Integer, JoinedDocument> documents = new ConcurrentHashMap<>();
+        // Client id -> ref already sent on this connection; guarded by the connection
+        final Map<String, Integer> clientRefs = new HashMap<>();
+
+        Connection(WebSocketSession session) {
+            this.session = session;
+        }
+
+        JoinedDocument find(String sessionId, String documentId) {
+            for (JoinedDocument document : documents.values()) {
+                if (document.sessionId.equals(sessionId) && document.documentId.equals(documentId)) {
+                    return document;
+                }
+            }
+            return null;
+        }
+    }
+
+    // A broker destination a connection listens on, for one of its documents (null for acks)
+    private record Route(Connection connection, JoinedDocument document, Kind kind) {
+    }
+
+    private final OtController otController;
+    private final EditorController editorController;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final OtService otService;
+    private final SessionRegistryService sessionRegistryService;
+    private final UndoService undoService;
+    private final ObjectMapper objectMapper;
+    // Only present when codecafe.cluster.enabled=true
+    private final ObjectProvider<ClusterBroadcastBridge> clusterBroadcastBridge;
+    private final NodeAdmission nodeAdmission;
+    private final int maxFrameBytes;
+
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+    private final Map<String, Set<Route>> routes = new ConcurrentHashMap<>();
+
+    public BinaryOperationHandler(@Lazy OtController otController,
+                                  @Lazy EditorController editorController,
+                                  @Lazy SimpMessagingTemplate messagingTemplate,
+                                  OtService otService,
+                                  SessionRegistryService sessionRegistryService,
+                                  UndoService undoService,
+                                  ObjectMapper objectMapper,
+                                  ObjectProvider<ClusterBroadcastBridge> clusterBroadcastBridge,
+                                  NodeAdmission nodeAdmission,
+                                  @Value("${codecafe.websocket.binary.max-frame-bytes:1048576}") int maxFrameBytes) {
+        this.otController = otController;
+        this.editorController = editorController;
+        this.messagingTemplate = messagingTemplate;
+        this.otService = otService;
+        this.sessionRegistryService = sessionRegistryService;
+        this.undoService = undoService;
+        this.objectMapper = objectMapper;
+        this.clusterBroadcastBridge = clusterBroadcastBridge;
+        this.nodeAdmission = nodeAdmission;
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    // --- Connection lifecycle ---
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        session.setBinaryMessageSizeLimit(maxFrameBytes);
+        connections.put(session.getId(), new Connection(
+                new ConcurrentWebSocketSessionDecorator(session, SEND_TIME_LIMIT_MILLIS, SEND_BUFFER_LIMIT_BYTES)));
+        logger.fine("Binary WebSocket connected: " + session.getId());
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        Connection connection = connections.remove(session.getId());
+        if (connection == null) {
+            return;
+        }
+        for (JoinedDocument document : new ArrayList<>(connection.documents.values())) {
+            leave(connection, document);
+        }
+        if (connection.clientId != null) {
+            removeRoute(ackDestination(connection), connection, null);
+            sessionRegistryService.clearUserDocuments(connection.clientId);
+        }
+        logger.fine(String.format("Binary WebSocket closed: %s (%s)", session.getId(), status));
+    }
+
+    // --- Client to server ---
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        Connection connection = connections.get(session.getId());
+        if (connection == null) {
+            return;
+        }
+        byte[] frame = new byte[message.getPayloadLength()];
+        message.getPayload().get(frame);
+        try {
+            BinaryCodec.Reader in = new BinaryCodec.Reader(frame);
+            int type = in.readByte();
+            if (type == HELLO) {
+                hello(connection, in);
+                return;
+            }
+            if (connection.clientId == null) {
+                throw new IllegalArgumentException("HELLO must be the first frame.");
+            }
+            switch (type) {
+                case JOIN -> join(connection, in);
+                case LEAVE -> {
+                    JoinedDocument document = connection.documents.get(in.readVarint32());
+                    if (document != null) {
+                        leave(connection, document);
+                    }
+                }
+                case OP -> operation(connection, in);
+                case CURSOR -> cursor(connection, in);
+                case UNDO -> otController.handleUndo(commandPayload(connection, requireDocument(connection, in)));
+                case REDO -> otController.handleRedo(commandPayload(connection, requireDocument(connection, in)));
+                case STATE -> sendState(connection, requireDocument(connection, in));
+                default -> throw new IllegalArgumentException("Unknown frame type: " + type);
+            }
+        } catch (IllegalArgumentException e) {
+            logger.warning(String.format("Closing binary WebSocket %s after malformed frame: %s", session.getId(), e.getMessage()));
+            send(connection, new BinaryCodec.Writer().writeByte(SERVER_ERROR).writeString(String.valueOf(e.getMessage())));
+            close(connection, CloseStatus.BAD_DATA);
+        }
+    }
+
+    private void hello(Connection connection, BinaryCodec.Reader in) {
+        int version = in.readVarint32();
+        String clientId = in.readString();
+        if (version != PROTOCOL_VERSION) {
+            throw new IllegalArgumentException("Unsupported protocol version: " + version);
+        }
+        if (connection.clientId != null || clientId.isEmpty() || OtController.SERVER_CLIENT_ID.equals(clientId)) {
+            throw new IllegalArgumentException("Invalid HELLO.");
+        }
+        connection.clientId = clientId;
+        addRoute(ackDestination(connection), new Route(connection, null, Kind.ACK));
+    }
+
+    // Where the broker delivers this connection's acks, as it would for a STOMP subscription to /user/queue/ack
+    private static String ackDestination(Connection connection) {
+        return OtController.ACK_DESTINATION + "-user" + connection.session.getId();
+    }
+
+    private void join(Connection connection, BinaryCodec.Reader in) {
+        int ref = in.readVarint32();
+        JoinedDocument document = new JoinedDocument(ref, in.readString(), in.readString(), in.readString(), in.readString());
+        JoinedDocument previous = connection.documents.get(ref);
+        if (previous != null) {
+            leave(connection, previous);
+        }
+        connection.documents.put(ref, document);
+        addRoute(destination(document, "operations"), new Route(connection, document, Kind.OPERATIONS));
+        addRoute(destination(document, "selections"), new Route(connection, document, Kind.SELECTIONS));
+        addRoute(destination(document, "state"), new Route(connection, document, Kind.STATE));
+        clusterBroadcastBridge.ifAvailable(bridge -> bridge.retainSession(document.sessionId));
+        nodeAdmission.documentOpened(connection.session.getId(), "binary-" + ref, document.sessionId, document.documentId);
+
+        // Registers presence and broadcasts the state, which reaches this connection through the routes above
+        JoinPayload payload = new JoinPayload();
+        payload.setSessionId(document.sessionId);
+        payload.setDocumentId(document.documentId);
+        payload.setUserId(connection.clientId);
+        payload.setUserName(document.userName);
+        payload.setUserColor(document.userColor);
+        editorController.handleJoin(payload, null);
+    }
+
+    private void leave(Connection connection, JoinedDocument document) {
+        if (!connection.documents.remove(document.ref, document)) {
+            return;
+        }
+        removeRoute(destination(document, "operations"), connection, document);
+        removeRoute(destination(document, "selections"), connection, document);
+        removeRoute(destination(document, "state"), connection, document);
+        clusterBroadcastBridge.ifAvailable(bridge -> bridge.releaseSession(document.sessionId));
+        nodeAdmission.documentClosed(connection.session.getId(), "binary-" + document.ref);
+
+        undoService.clearClient(document.sessionId, document.documentId, connection.clientId);
+        try {
+            if (sessionRegistryService.userLeftDocument(document.sessionId, document.documentId, connection.clientId)) {
+                DocumentState state = otService.readDocumentState(document.sessionId, document.documentId);
+                state.setParticipants(sessionRegistryService.getActiveParticipantsForDocument(document.sessionId, document.documentId, null));
+                messagingTemplate.convertAndSend(destination(document, "state"), state);
+            }
+        } catch (Exception e) {
+            logger.log(Level.WARNING, String.format("Error removing binary client [%s] from session [%s], doc [%s]: %s",
+                    connection.clientId, document.sessionId, document.documentId, e.getMessage()), e);
+        }
+    }
+
+    private void operation(Connection connection, BinaryCodec.Reader in) {
+        JoinedDocument document = requireDocument(connection, in);
+        int revision = in.readVarint32();
+        List<Object> ops = in.readOperation();
+        IncomingOperationPayload payload = new IncomingOperationPayload(connection.clientId, revision, ops,
+                document.documentId, document.sessionId);
+        payload.setConnectionId(connection.session.getId());
+        List<RangeInfo> ranges = readSelection(in);
+        if (!ranges.isEmpty()) {
+            List<Map<String, Object>> rangeMaps = new ArrayList<>(ranges.size());
+            for (RangeInfo range : ranges) {
+                rangeMaps.add(Map.of("anchor", range.getAnchor(), "head", range.getHead()));
+            }
+            payload.setSelection(Map.of("ranges", rangeMaps));
+        }
+        otController.submitOperation(payload);
+    }
+
+    private void cursor(Connection connection, BinaryCodec.Reader in) {
+        JoinedDocument document = requireDocument(connection, in);
+        Position position = new Position();
+        position.setLineNumber(in.readVarint32());
+        position.setColumn(in.readVarint32());
+        List<RangeInfo> ranges = readSelection(in);
+
+        UserInfo userInfo = new UserInfo();
+        userInfo.setId(connection.clientId);
+        userInfo.setName(document.userName);
+        userInfo.setColor(document.userColor);
+        userInfo.setCursorPosition(position);
+        userInfo.setSelection(ranges.isEmpty() ? null : new SelectionInfo(ranges));
+        CursorMessage message = new CursorMessage();
+        message.setSessionId(document.sessionId);
+        message.setDocumentId(document.documentId);
+        message.setUserInfo(userInfo);
+        editorController.handleSelectionUpdate(message, null);
+    }
+
+    private IncomingOperationPayload commandPayload(Connection connection, JoinedDocument document) {
+        IncomingOperationPayload payload = new IncomingOperationPayload();
+        payload.setClientId(connection.clientId);
+        payload.setSessionId(document.sessionId);
+        payload.setDocumentId(document.documentId);
+        return payload;
+    }
+
+    // Sends the current state to this connection only, unlike the STOMP request which broadcasts it
+    private void sendState(Connection connection, JoinedDocument document) {
+        DocumentState state = otService.readDocumentState(document.sessionId, document.documentId);
+        List<UserInfoDTO> participants = sessionRegistryService.getActiveParticipantsForDocument(document.sessionId, document.documentId, null);
+        send(connection, new BinaryCodec.Writer().writeByte(SERVER_STATE).writeVarint(document.ref)
+                .writeVarint(state.getRevision()).writeInt(state.getChecksum()).writeString(state.getDocument()));
+        BinaryCodec.Writer presence = new BinaryCodec.Writer().writeByte(SERVER_PRESENCE).writeVarint(document.ref)
+                .writeVarint(participants.size());
+        for (UserInfoDTO participant : participants) {
+            presence.writeString(nullToEmpty(participant.getId())).writeString(nullToEmpty(participant.getName()))
+                    .writeString(nullToEmpty(participant.getColor()));
+        }
+        send(connection, presence);
+    }
+
+    private static JoinedDocument requireDocument(Connection connection, BinaryCodec.Reader in) {
+        int ref = in.readVarint32();
+        JoinedDocument document = connection.documents.get(ref);
+        if (document == null) {
+            throw new IllegalArgumentException("Document " + ref + " was not joined.");
+        }
+        return document;
+    }
+
+    private static List<RangeInfo> readSelection(BinaryCodec.Reader in) {
+        int count = in.readVarint32();
+        List<RangeInfo> ranges = new ArrayList<>(Math.min(count, 16));
+        for (int i = 0; i < count; i++) {
+            ranges.add(new RangeInfo(in.readVarint32(), in.readVarint32()));
+        }
+        return ranges;
+    }
+
+    // --- Server to client: broker channel -> binary frames ---
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (routes.isEmpty() || SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE) {
+            return message;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        Set<Route> targets = (destination != null) ? routes.get(destination) : null;
+        if (targets == null || targets.isEmpty()) {
+            return message;
+        }
+        byte[] body;
+        if (message.getPayload() instanceof byte[] bytes) {
+            body = bytes;
+        } else if (message.getPayload() instanceof String text) {
+            body = text.getBytes(StandardCharsets.UTF_8);
+        } else {
+            return message;
+        }
+        try {
+            JsonNode json = objectMapper.readTree(body);
+            for (Route route : targets) {
+                deliver(route, json);
+            }
+        } catch (Exception e) {
+            logger.log(Level.WARNING, String.format("Failed to relay %s to binary clients: %s", destination, e.getMessage()), e);
+        }
+        return message;
+    }
+
+    private void deliver(Route route, JsonNode json) {
+        Connection connection = route.connection();
+        switch (route.kind()) {
+            case ACK -> {
+                JoinedDocument document = connection.find(json.path("sessionId").asText(), json.path("documentId").asText());
+                if (document == null) {
+                    return;
+                }
+                if ("retry".equals(json.path("type").asText())) {
+                    send(connection, new BinaryCodec.Writer().writeByte(SERVER_RETRY).writeVarint(document.ref)
+                            .writeVarint(Math.max(0, json.path("retryAfterMillis").asLong())));
+                } else {
+                    send(connection, new BinaryCodec.Writer().writeByte(SERVER_ACK).writeVarint(document.ref)
+                            .writeVarint(json.path("revision").asInt()).writeInt(json.path("checksum").asInt()));
+                }
+            }
+            case OPERATIONS -> {
+                String clientId = json.path("clientId").asText();
+                if (clientId.equals(connection.clientId)) {
+                    return; // Acknowledged instead
+                }
+                List<Object> ops = new ArrayList<>();
+                for (JsonNode op : json.path("operation")) {
+                    ops.add(op.isTextual() ? op.asText() : (Object) op.asInt());
+                }
+                BinaryCodec.Writer out = new BinaryCodec.Writer().writeByte(SERVER_OP).writeVarint(route.document().ref);
+                synchronized (connection) {
+                    writeClient(connection, out, clientId);
+                    out.writeVarint(json.path("revision").asInt()).writeInt(json.path("checksum").asInt()).writeOperation(ops);
+                    writeSelection(out, json.path("selection"));
+                    send(connection, out);
+                }
+            }
+            case SELECTIONS -> {
+                JsonNode userInfo = json.path("userInfo");
+                String clientId = userInfo.path("id").asText();
+                if (clientId.equals(connection.clientId)) {
+                    return;
+                }
+                BinaryCodec.Writer out = new BinaryCodec.Writer().writeByte(SERVER_CURSOR).writeVarint(route.document().ref);
+                synchronized (connection) {
+                    writeClient(connection, out, clientId);
+                    out.writeVarint(Math.max(0, userInfo.path("cursorPosition").path("lineNumber").asInt()))
+                            .writeVarint(Math.max(0, userInfo.path("cursorPosition").path("column").asInt()));
+                    writeSelection(out, userInfo.path("selection"));
+                    send(connection, out);
+                }
+            }
+            case STATE -> {
+                int ref = route.document().ref;
+                send(connection, new BinaryCodec.Writer().writeByte(SERVER_STATE).writeVarint(ref)
+                        .writeVarint(json.path("revision").asInt()).writeInt(json.path("checksum").asInt())
+                        .writeString(json.path("document").asText()));
+                JsonNode participants = json.path("participants");
+                BinaryCodec.Writer presence = new BinaryCodec.Writer().writeByte(SERVER_PRESENCE).writeVarint(ref)
+                        .writeVarint(participants.size());
+                for (JsonNode participant : participants) {
+                    presence.writeString(participant.path("id").asText()).writeString(participant.path("name").asText())
+                            .writeString(participant.path("color").asText());
+                }
+                send(connection, presence);
+            }
+        }
+    }
+
+    // Must hold the connection's lock until the frame is sent, so refs reach the client in order
+    private static void writeClient(Connection connection, BinaryCodec.Writer out, String clientId) {
+        Integer ref = connection.clientRefs.get(clientId);
+        if (ref != null) {
+            out.writeVarint((long) ref << 1);
+            return;
+        }
+        ref = connection.clientRefs.size();
+        connection.clientRefs.put(clientId, ref);
+        out.writeVarint(((long) ref << 1) | 1).writeString(clientId);
+    }
+
+    private static void writeSelection(BinaryCodec.Writer out, JsonNode selection) {
+        JsonNode ranges = selection.path("ranges");
+        out.writeVarint(ranges.size());
+        for (JsonNode range : ranges) {
+            out.writeVarint(Math.max(0, range.path("anchor").asInt())).writeVarint(Math.max(0, range.path("head").asInt()));
+        }
+    }
+
+    private void send(Connection connection, BinaryCodec.Writer frame) {
+        try {
+            connection.session.sendMessage(new BinaryMessage(frame.toByteArray()));
+        } catch (Exception e) {
+            // Slow or gone; the decorator closes sessions that exceed its limits
+            logger.fine(String.format("Failed to send to binary WebSocket %s: %s", connection.session.getId(), e.getMessage()));
+        }
+    }
+
+    private static void close(Connection connection, CloseStatus status) {
+        try {
+            connection.session.close(status);
+        } catch (Exception e) {
+            logger.fine("Error closing binary WebSocket: " + e.getMessage());
+        }
+    }
+
+    // --- Routing table ---
+
+    private void addRoute(String destination, Route route) {
+        routes.computeIfAbsent(destination, key -> ConcurrentHashMap.newKeySet()).add(route);
+    }
+
+    private void removeRoute(String destination, Connection connection, JoinedDocument document) {
+        routes.computeIfPresent(destination, (key, set) -> {
+            set.removeIf(route -> route.connection() == connection && route.document() == document);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private static String destination(JoinedDocument document, String kind) {
+        return String.format("/topic/sessions/%s/%s/document/%s", document.sessionId, kind, document.documentId);
+    }
+
+    private static String nullToEmpty(String value) {
+        return (value != null) ? value : "";
+    }
+}
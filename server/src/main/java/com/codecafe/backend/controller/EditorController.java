@@ -12,8 +12,6 @@ import com.codecafe.backend.dto.SelectionInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.SetOperations;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
@@ -23,7 +21,6 @@ import org.springframework.stereotype.Controller;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
 @Controller
 public class EditorController {
@@ -34,24 +31,12 @@ public class EditorController {
     private final SimpMessagingTemplate messagingTemplate;
     private final SessionRegistryService sessionRegistryService;
     private final OtService otService;
-    private final StringRedisTemplate stringRedisTemplate;
-    private final SetOperations<String, String> setOperations;
-
-    private static final String USER_ACTIVE_DOCS_KEY_PREFIX = "user:active_docs:";
-    private static final long USER_TRACKING_EXPIRY_HOURS = 24; // Expire user tracking info after a day of inactivity
 
     @Autowired
-    public EditorController(SimpMessagingTemplate messagingTemplate, SessionRegistryService sessionRegistryService, OtService otService, StringRedisTemplate stringRedisTemplate) {
+    public EditorController(SimpMessagingTemplate messagingTemplate, SessionRegistryService sessionRegistryService, OtService otService) {
         this.messagingTemplate = messagingTemplate;
         this.sessionRegistryService = sessionRegistryService;
         this.otService = otService;
-        this.stringRedisTemplate = stringRedisTemplate;
-        this.setOperations = stringRedisTemplate.opsForSet();
-    }
-
-    // Helper to get the tracking key for a user
-    private String getUserTrackingKey(String userId) {
-        return USER_ACTIVE_DOCS_KEY_PREFIX + userId;
     }
 
     /**
@@ -90,16 +75,8 @@ public class EditorController {
             sessionRegistryService.userJoined(sessionId, documentId, userInfoDTO);
             log.info("User [{}] registered in session [{}], doc [{}] via /app/join", userId, sessionId, documentId);
 
-            String trackingKey = getUserTrackingKey(userId);
-            String documentEntry = sessionId + ":" + documentId;
-            try {
-                setOperations.add(trackingKey, documentEntry);
-                stringRedisTemplate.expire(trackingKey, USER_TRACKING_EXPIRY_HOURS, TimeUnit.HOURS);
-                log.info("Added entry '{}' to user tracking set '{}' for user [{}]", documentEntry, trackingKey, userId);
-            } catch (Exception redisEx) {
-                log.error("Redis error adding entry '{}' to tracking set '{}' for user [{}]: {}",
-                          documentEntry, trackingKey, userId, redisEx.getMessage(), redisEx);
-            }
+            // Remember the document so disconnect cleanup can target it
+            sessionRegistryService.trackUserDocument(userId, sessionId, documentId);
 
             broadcastFullDocumentState(sessionId, documentId, userId);
 
@@ -175,14 +152,7 @@ public class EditorController {
         try {
             List<UserInfoDTO> participants = sessionRegistryService.getActiveParticipantsForDocument(sessionId, documentId, null);
             
-            String currentContent = otService.getDocumentContent(sessionId, documentId);
-            int currentRevision = otService.getRevision(sessionId, documentId);
-
-            DocumentState fullState = new DocumentState();
-            fullState.setSessionId(sessionId);
-            fullState.setDocumentId(documentId);
-            fullState.setDocument(currentContent);
-            fullState.setRevision(currentRevision);
+            DocumentState fullState = otService.readDocumentState(sessionId, documentId);
             fullState.setParticipants(participants);
 
             String stateDestination = String.format("/topic/sessions/%s/state/document/%s", sessionId, documentId);
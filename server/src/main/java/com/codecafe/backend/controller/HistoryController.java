@@ -0,0 +1,92 @@
+package com.codecafe.backend.controller;
+
+import com.codecafe.backend.service.HistoryPlaybackService;
+import com.codecafe.backend.service.SessionService;
+import com.codecafe.backend.storage.DocumentHistory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Point-in-time reads and playback of document history recorded by {@link DocumentHistory}.
+ * Document ids are query parameters since they may contain slashes.
+ */
+@RestController
+@RequestMapping("/api/sessions")
+public class HistoryController {
+
+    private final DocumentHistory documentHistory;
+    private final HistoryPlaybackService historyPlaybackService;
+    private final SessionService sessionService;
+    private static final Logger logger = Logger.getLogger(HistoryController.class.getName());
+
+    public HistoryController(DocumentHistory documentHistory, HistoryPlaybackService historyPlaybackService,
+                             SessionService sessionService) {
+        this.documentHistory = documentHistory;
+        this.historyPlaybackService = historyPlaybackService;
+        this.sessionService = sessionService;
+    }
+
+    /**
+     * Returns the content of a document at a revision, or at the newest revision committed at or
+     * before {@code at} (epoch millis). Exactly one of the two must be given.
+     */
+    @GetMapping("/{sessionId}/history")
+    public ResponseEntity<Map<String, Object>> getRevision(@PathVariable String sessionId,
+                                                           @RequestParam String documentId,
+                                                           @RequestParam(required = false) Integer revision,
+                                                           @RequestParam(required = false) Long at) {
+        if ((revision == null) == (at == null) || (revision != null && revision < 0)) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!documentHistory.isEnabled() || !sessionService.sessionExists(sessionId)) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            int target = (revision != null) ? revision : documentHistory.findRevisionAt(sessionId, documentId, at);
+            DocumentHistory.Revision found = (target >= 0) ? documentHistory.materialize(sessionId, documentId, target) : null;
+            if (found == null) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.ok(Map.of(
+                    "sessionId", sessionId,
+                    "documentId", documentId,
+                    "revision", found.getRevision(),
+                    "document", found.getContent(),
+                    "committedAt", found.getCommittedAt()));
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, String.format("Error reading history of doc [%s] in session [%s]", documentId, sessionId), e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Streams the operations between two revisions as server-sent events at their original pace.
+     * @param to Last revision to play, inclusive; defaults to the newest recorded revision.
+     * @param speed Playback speed multiplier.
+     */
+    @GetMapping(value = "/{sessionId}/history/playback", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> playback(@PathVariable String sessionId,
+                                               @RequestParam String documentId,
+                                               @RequestParam(defaultValue = "0") int from,
+                                               @RequestParam(required = false) Integer to,
+                                               @RequestParam(defaultValue = "1") double speed) {
+        if (from < 0 || !(speed > 0)) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!documentHistory.isEnabled() || !sessionService.sessionExists(sessionId)) {
+            return ResponseEntity.notFound().build();
+        }
+        int last = (to != null) ? to : documentHistory.getLatestRevision(sessionId, documentId);
+        if (last < from) {
+            return ResponseEntity.badRequest().build();
+        }
+        SseEmitter emitter = historyPlaybackService.play(sessionId, documentId, from, last, speed);
+        return (emitter != null) ? ResponseEntity.ok(emitter) : ResponseEntity.notFound().build();
+    }
+}
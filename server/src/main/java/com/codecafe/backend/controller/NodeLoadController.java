@@ -0,0 +1,36 @@
+package com.codecafe.backend.controller;
+
+import com.codecafe.backend.config.NodeAdmission;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Load of this node for the load balancer: 200 with the load score while the node takes new
+ * WebSocket connections, 503 with {@code Retry-After} while it turns them away.
+ */
+@RestController
+@RequestMapping("/api/health")
+public class NodeLoadController {
+
+    private final NodeAdmission nodeAdmission;
+
+    public NodeLoadController(NodeAdmission nodeAdmission) {
+        this.nodeAdmission = nodeAdmission;
+    }
+
+    @GetMapping("/load")
+    public ResponseEntity<Map<String, Object>> load() {
+        if (nodeAdmission.isAccepting()) {
+            return ResponseEntity.ok(nodeAdmission.status());
+        }
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(nodeAdmission.retryAfterSeconds()))
+                .body(nodeAdmission.status());
+    }
+}
@@ -1,35 +1,63 @@
 package com.codecafe.backend.controller;
 
+import com.codecafe.backend.cluster.DocumentOwnershipService;
+import com.codecafe.backend.config.OriginEchoFilter;
+import com.codecafe.backend.config.OutboundQueueMonitor;
 import com.codecafe.backend.dto.DocumentState;
 import com.codecafe.backend.dto.IncomingOperationPayload;
 import com.codecafe.backend.dto.TextOperation;
 import com.codecafe.backend.service.OtService;
+import com.codecafe.backend.service.UndoService;
+import com.codecafe.backend.storage.OperationJournal;
 import com.codecafe.backend.dto.IncomingSelectionPayload;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.security.Principal;
 import java.util.List;
 import java.util.Collections;
 import com.codecafe.backend.dto.UserInfoDTO;
 import com.codecafe.backend.service.SessionRegistryService;
+import com.codecafe.backend.service.SessionScheduler;
 
 @Controller
 public class OtController {
     private final OtService otService;
     private final SimpMessagingTemplate messagingTemplate;
     private final SessionRegistryService sessionRegistryService;
+    private final DocumentOwnershipService documentOwnershipService;
+    private final ObjectMapper objectMapper;
+    private final SessionScheduler sessionScheduler;
     private static final Logger logger = Logger.getLogger(OtController.class.getName());
+    // Client id for operations the server submits itself (e.g. set-document in diff mode)
+    static final String SERVER_CLIENT_ID = "server";
+    // How long a client waits before resending an operation the journal could not take
+    private static final long RETRY_AFTER_MILLIS = 2000;
+    // Per-connection destination of acks; clients subscribe to /user/queue/ack
+    public static final String ACK_DESTINATION = "/queue/ack";
 
-    public OtController(OtService otService, SimpMessagingTemplate messagingTemplate, SessionRegistryService sessionRegistryService) {
+    public OtController(OtService otService, SimpMessagingTemplate messagingTemplate, SessionRegistryService sessionRegistryService,
+                        DocumentOwnershipService documentOwnershipService, ObjectMapper objectMapper,
+                        SessionScheduler sessionScheduler, OutboundQueueMonitor outboundQueueMonitor) {
         this.otService = otService;
+        this.objectMapper = objectMapper;
+        this.sessionScheduler = sessionScheduler;
         this.messagingTemplate = messagingTemplate;
         this.sessionRegistryService = sessionRegistryService;
+        this.documentOwnershipService = documentOwnershipService;
+        // Operations forwarded from other nodes for sessions this node owns
+        this.documentOwnershipService.setOperationHandler(this::processOperation);
+        // Snapshots for clients that fell too far behind to be sent the operations they missed
+        outboundQueueMonitor.setStateProvider(this::buildDocumentState);
     }
 
     /**
@@ -54,46 +82,257 @@ public class OtController {
             return;
         }
 
+        // Addresses the ack, and keeps the broadcast from being echoed to this connection
+        payload.setConnectionId(headerAccessor != null ? headerAccessor.getSessionId() : null);
+        submitOperation(payload);
+    }
+
+    /**
+     * Undoes the client's latest change to a document. Expects clientId, documentId and sessionId.
+     * The resulting operation is broadcast like any other, under {@code <clientId>:undo}, so the
+     * requesting client applies it as a remote operation.
+     */
+    @MessageMapping("/undo")
+    public void handleUndo(@Payload IncomingOperationPayload payload) {
+        submitUndoCommand(payload, "undo");
+    }
+
+    /** Redoes the client's last undone change to a document; see {@link #handleUndo}. */
+    @MessageMapping("/redo")
+    public void handleRedo(@Payload IncomingOperationPayload payload) {
+        submitUndoCommand(payload, "redo");
+    }
+
+    private void submitUndoCommand(IncomingOperationPayload payload, String command) {
+        if (payload.getClientId() == null || payload.getDocumentId() == null || payload.getSessionId() == null) {
+            logger.warning(String.format("Received %s without clientId, documentId, or sessionId in payload. Discarding.", command));
+            return;
+        }
+        // Stacks live on the session owner, so the command is forwarded like an operation
+        payload.setCommand(command);
+        payload.setOperation(null);
+        submitOperation(payload);
+    }
+
+    /**
+     * Sequences an operation on the session's owner node: applies it here if this node owns the
+     * session, otherwise forwards it. If the owner cannot be reached the sender is asked to retry.
+     *
+     * @param payload The operation payload; clientId, documentId and sessionId must be set.
+     * @return false if the owner could not be determined or reached and the operation was dropped.
+     */
+    boolean submitOperation(IncomingOperationPayload payload) {
+        String clientId = payload.getClientId();
+        String sessionId = payload.getSessionId();
+
+        // Only the owning node sequences a session's operations; hand off to it if that is not us
+        String ownerNodeId = documentOwnershipService.resolveOwner(sessionId);
+        if (ownerNodeId == null) {
+            logger.warning(String.format("Could not determine owner node for session [%s]. Discarding operation from client [%s].", sessionId, clientId));
+            requestRetry(payload, null);
+            return false;
+        }
+        if (!ownerNodeId.equals(documentOwnershipService.getNodeId())) {
+            logger.fine(String.format("Forwarding operation from client [%s] for session [%s] to owner node [%s]", clientId, sessionId, ownerNodeId));
+            if (!documentOwnershipService.forwardOperation(ownerNodeId, payload, null, 0)) {
+                requestRetry(payload, null);
+                return false;
+            }
+            return true;
+        }
+
+        processOperation(payload, null);
+        return true;
+    }
+
+    /**
+     * Applies an operation on this node (the session owner), broadcasts it and acknowledges it.
+     * The operation is queued in {@link SessionScheduler} first, so it may complete after return.
+     *
+     * @param payload The incoming operation payload.
+     * @param originNodeId The node the sending client is connected to, or null if it is this node.
+     */
+    void processOperation(IncomingOperationPayload payload, String originNodeId) {
+        String clientId = payload.getClientId();
+        String documentId = payload.getDocumentId();
+        String sessionId = payload.getSessionId();
+
         // Log the incoming payload including selection/cursor if present
         logger.info(String.format("OtController received operation payload from client [%s] for session [%s], doc [%s]: %s",
                  clientId, sessionId, documentId, payload.toString()));
 
+        // Queued behind the session's earlier operations, taking turns with other sessions
+        int cost = (payload.getOperation() != null) ? payload.getOperation().size() : 1;
+        boolean queued = sessionScheduler.submit(sessionId, cost, done -> applyOperation(payload, originNodeId, done));
+        if (!queued) {
+            handleOperationFailure(payload, originNodeId, new OtService.OverloadedException(
+                    String.format("Too many operations are queued for session [%s].", sessionId)));
+        }
+    }
+
+    // Runs on a scheduler worker; done is called once the operation has been committed or rejected
+    private void applyOperation(IncomingOperationPayload payload, String originNodeId, Runnable done) {
+        String clientId = payload.getClientId();
+        String documentId = payload.getDocumentId();
+        String sessionId = payload.getSessionId();
+
+        if (payload.getCommand() != null) {
+            try {
+                processUndoCommand(payload, originNodeId);
+            } finally {
+                done.run();
+            }
+            return;
+        }
+
+        TextOperation operation;
         try {
             // Extract the raw operation data and create a TextOperation
-            TextOperation operation = new TextOperation(payload.getOperation()); 
-            // Process the operation through the OT service
-            TextOperation transformedOp = otService.receiveOperation(sessionId, documentId, payload.getRevision(), operation);
+            operation = new TextOperation(payload.getOperation());
+        } catch (IllegalArgumentException e) {
+            logger.warning(String.format("Error processing operation from client [%s] for session [%s], doc [%s]: %s", clientId, sessionId, documentId, e.getMessage()));
+            done.run();
+            return;
+        }
 
-            // Prepare the payload for broadcasting
-            Map<String, Object> broadcastPayload = new HashMap<>();
-            broadcastPayload.put("documentId", documentId);
-            broadcastPayload.put("clientId", clientId); 
-            broadcastPayload.put("operation", transformedOp.getOps());
-            broadcastPayload.put("sessionId", sessionId);
+        // Process the operation through the OT service; the callback runs once it is committed,
+        // in revision order for the document
+        String undoClientId = SERVER_CLIENT_ID.equals(clientId) ? null : clientId;
+        otService.receiveOperationAsync(sessionId, documentId, payload.getRevision(), operation,
+                undoClientId, UndoService.Origin.EDIT, (commit, error) -> {
+                    try {
+                        if (error == null) {
+                            publishCommit(payload, originNodeId, commit);
+                        } else {
+                            handleOperationFailure(payload, originNodeId, error);
+                        }
+                    } finally {
+                        done.run();
+                    }
+                });
+    }
 
+    private void publishCommit(IncomingOperationPayload payload, String originNodeId, OtService.CommitResult commit) {
+        String clientId = payload.getClientId();
+        String documentId = payload.getDocumentId();
+        String sessionId = payload.getSessionId();
+        TextOperation transformedOp = commit.getOperation();
 
-            if (payload.getSelection() != null) {
-                broadcastPayload.put("selection", payload.getSelection());
-            }
-            if (payload.getCursorPosition() != null) {
-                broadcastPayload.put("cursorPosition", payload.getCursorPosition());
+        // Prepare the payload for broadcasting
+        Map<String, Object> broadcastPayload = new HashMap<>();
+        broadcastPayload.put("documentId", documentId);
+        broadcastPayload.put("clientId", clientId); 
+        broadcastPayload.put("operation", transformedOp.getOps());
+        broadcastPayload.put("sessionId", sessionId);
+        broadcastPayload.put("revision", commit.getRevision());
+        broadcastPayload.put("checksum", commit.getChecksum());
+        broadcastPayload.put("opId", opId(documentId, commit.getRevision()));
+
+        if (payload.getSelection() != null) {
+            broadcastPayload.put("selection", payload.getSelection());
+        }
+        if (payload.getCursorPosition() != null) {
+            broadcastPayload.put("cursorPosition", payload.getCursorPosition());
+        }
+
+        // Broadcast to the session-and-document-specific topic, except to the sending connection
+        String destination = String.format("/topic/sessions/%s/operations/document/%s", sessionId, documentId);
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        if (payload.getConnectionId() != null) {
+            headers.setHeader(OriginEchoFilter.ORIGIN_CONNECTION_HEADER, payload.getConnectionId());
+        }
+        headers.setLeaveMutable(true);
+        messagingTemplate.convertAndSend(destination, broadcastPayload, headers.getMessageHeaders());
+        logger.fine(String.format("Broadcasted transformed op (with selection/cursor if present) from client [%s] for session [%s], doc [%s] to %s. Payload: %s", clientId, sessionId, documentId, destination, broadcastPayload));
+
+        // The sender learns of the commit from the ACK alone (on whichever node it is connected to)
+        sendAck(payload, originNodeId, ackBody("ack", sessionId, documentId, Map.of(
+                "revision", commit.getRevision(), "checksum", commit.getChecksum(), "opId", opId(documentId, commit.getRevision()))));
+    }
+
+    // Server-assigned id of the operation committed as the given revision of a document
+    private static String opId(String documentId, int revision) {
+        return documentId + "@" + revision;
+    }
+
+    private void sendAck(IncomingOperationPayload payload, String originNodeId, String body) {
+        if (payload.getConnectionId() == null) {
+            return; // Submitted by the server itself
+        }
+        documentOwnershipService.deliverToConnection(originNodeId, payload.getConnectionId(), ACK_DESTINATION, body);
+        logger.fine("Sent ACK to client [" + payload.getClientId() + "] on connection " + payload.getConnectionId());
+    }
+
+    // Nothing was applied; the client keeps the operation outstanding and resends it later. For an
+    // undo/redo the retry names the command, since the client has no operation outstanding for it.
+    private void requestRetry(IncomingOperationPayload payload, String originNodeId) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("retryAfterMillis", RETRY_AFTER_MILLIS);
+        if (payload.getCommand() != null) {
+            fields.put("command", payload.getCommand());
+        }
+        sendAck(payload, originNodeId, ackBody("retry", payload.getSessionId(), payload.getDocumentId(), fields));
+    }
+
+    private void handleOperationFailure(IncomingOperationPayload payload, String originNodeId, Throwable error) {
+        String clientId = payload.getClientId();
+        String documentId = payload.getDocumentId();
+        String sessionId = payload.getSessionId();
+        if (error instanceof IllegalArgumentException) {
+            logger.warning(String.format("Error processing operation from client [%s] for session [%s], doc [%s]: %s", clientId, sessionId, documentId, error.getMessage()));
+        } else if (error instanceof OperationJournal.JournalFullException || error instanceof OtService.OverloadedException) {
+            requestRetry(payload, originNodeId);
+            logger.warning(String.format("Asked client [%s] to retry operation for session [%s], doc [%s]: %s", clientId, sessionId, documentId, error.getMessage()));
+        } else {
+            logger.log(Level.SEVERE, String.format("Unexpected error processing operation from client [%s] for session [%s], doc [%s]: %s", clientId, sessionId, documentId, error.getMessage()), error);
+        }
+    }
+
+    // Applies an undo/redo on this node (the session owner) and broadcasts the result. There is no
+    // ACK when it succeeds: the requesting client has nothing pending for it.
+    private void processUndoCommand(IncomingOperationPayload payload, String originNodeId) {
+        String clientId = payload.getClientId();
+        String documentId = payload.getDocumentId();
+        String sessionId = payload.getSessionId();
+        String command = payload.getCommand();
+        if (!"undo".equals(command) && !"redo".equals(command)) {
+            logger.warning(String.format("Unknown command [%s] from client [%s]. Discarding.", command, clientId));
+            return;
+        }
+
+        try {
+            OtService.CommitResult applied = otService.applyUndo(sessionId, documentId, clientId, "redo".equals(command));
+            if (applied == null) {
+                logger.fine(String.format("Nothing to %s for client [%s] in session [%s], doc [%s]", command, clientId, sessionId, documentId));
+                return;
             }
 
-            // Broadcast to the session-and-document-specific topic
+            Map<String, Object> broadcastPayload = new HashMap<>();
+            broadcastPayload.put("documentId", documentId);
+            broadcastPayload.put("clientId", clientId + ":" + command);
+            broadcastPayload.put("operation", applied.getOperation().getOps());
+            broadcastPayload.put("sessionId", sessionId);
+            broadcastPayload.put("revision", applied.getRevision());
+            broadcastPayload.put("checksum", applied.getChecksum());
+
             String destination = String.format("/topic/sessions/%s/operations/document/%s", sessionId, documentId);
             messagingTemplate.convertAndSend(destination, broadcastPayload);
-            logger.fine(String.format("Broadcasted transformed op (with selection/cursor if present) from client [%s] for session [%s], doc [%s] to %s. Payload: %s", clientId, sessionId, documentId, destination, broadcastPayload));
-
-            // Send ACK back to the original sender ONLY
-            String ackDestination = "/topic/ack/" + clientId;
-            messagingTemplate.convertAndSend(ackDestination, "ack");
-            logger.fine("Sent ACK to client [" + clientId + "] at " + ackDestination);
-
-        } catch (IllegalArgumentException e) {
-            logger.warning(String.format("Error processing operation from client [%s] for session [%s], doc [%s]: %s", clientId, sessionId, documentId, e.getMessage()));
+            logger.info(String.format("Applied %s for client [%s] in session [%s], doc [%s]: %s", command, clientId, sessionId, documentId, applied.getOperation()));
         } catch (Exception e) {
-            logger.severe(String.format("Unexpected error processing operation from client [%s] for session [%s], doc [%s]: %s", clientId, sessionId, documentId, e.getMessage()));
-            e.printStackTrace();
+            handleOperationFailure(payload, originNodeId, e);
+        }
+    }
+
+    // {"type":...,"sessionId":...,"documentId":...} plus fields; the ids let clients with several documents match it up
+    private String ackBody(String type, String sessionId, String documentId, Map<String, Object> fields) {
+        Map<String, Object> body = new HashMap<>(fields);
+        body.put("type", type);
+        body.put("sessionId", sessionId);
+        body.put("documentId", documentId);
+        try {
+            return objectMapper.writeValueAsString(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize " + type + " message.", e);
         }
     }
 
@@ -144,24 +383,7 @@ public class OtController {
 
         logger.info("Received request for document state for session [" + sessionId + "], doc [" + documentId + "] from user [" + (requestingUserId != null ? requestingUserId : "unknown") + "]");
 
-        // Fetch Participants
-        List<UserInfoDTO> participants = Collections.emptyList(); 
-        try {
-            participants = sessionRegistryService.getActiveParticipantsForDocument(sessionId, documentId, null);
-            logger.info(String.format("Fetched %d participants for session [%s], document [%s]", participants.size(), sessionId, documentId));
-
-        } catch (Exception e) {
-            logger.severe(String.format("Error fetching participants for session [%s], document [%s]: %s", sessionId, documentId, e.getMessage()));
-        }
-
-        DocumentState stateResponse = new DocumentState();
-        stateResponse.setSessionId(sessionId); 
-        stateResponse.setDocumentId(documentId);
-        stateResponse.setDocument(otService.getDocumentContent(sessionId, documentId));
-        stateResponse.setRevision(otService.getRevision(sessionId, documentId));
-
-        stateResponse.setParticipants(participants); 
-
+        DocumentState stateResponse = buildDocumentState(sessionId, documentId);
 
         logger.info("Sending document state: Revision=" + stateResponse.getRevision() +
                     ", Participants Count=" + stateResponse.getParticipants().size() + 
@@ -173,4 +395,21 @@ public class OtController {
         messagingTemplate.convertAndSend(destination, stateResponse);
         logger.info(String.format("Sent document state for session [%s], doc [%s] to %s", sessionId, documentId, destination));
     }
-}
\ No newline at end of file
+
+    // Current content, revision and participants of a document
+    private DocumentState buildDocumentState(String sessionId, String documentId) {
+        // Fetch Participants
+        List<UserInfoDTO> participants = Collections.emptyList(); 
+        try {
+            participants = sessionRegistryService.getActiveParticipantsForDocument(sessionId, documentId, null);
+            logger.info(String.format("Fetched %d participants for session [%s], document [%s]", participants.size(), sessionId, documentId));
+
+        } catch (Exception e) {
+            logger.severe(String.format("Error fetching participants for session [%s], document [%s]: %s", sessionId, documentId, e.getMessage()));
+        }
+
+        DocumentState stateResponse = otService.readDocumentState(sessionId, documentId);
+        stateResponse.setParticipants(participants);
+        return stateResponse;
+    }
+}
@@ -1,14 +1,21 @@
 package com.codecafe.backend.controller;
 
+import com.codecafe.backend.cluster.DocumentOwnershipService;
 import com.codecafe.backend.dto.DocumentContentPayload;
+import com.codecafe.backend.dto.DocumentState;
+import com.codecafe.backend.dto.ForkSessionRequest;
+import com.codecafe.backend.dto.IncomingOperationPayload;
+import com.codecafe.backend.dto.SessionInfo;
+import com.codecafe.backend.dto.TextOperation;
 import com.codecafe.backend.service.OtService;
+import com.codecafe.backend.service.SessionService;
+import com.codecafe.backend.storage.DocumentForks;
+import com.codecafe.backend.util.TextDiff;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.time.Instant;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -17,57 +24,69 @@ import java.util.logging.Logger;
 public class SessionController {
 
     private final OtService otService;
+    private final DocumentOwnershipService documentOwnershipService;
+    private final SessionService sessionService;
+    private final OtController otController;
+    private final DocumentForks documentForks;
     private static final Logger logger = Logger.getLogger(SessionController.class.getName());
 
-    // TODO: In-memory storage for sessions (replace with database in production) IMPORTANT!!!
-    private static final Map<String, SessionInfo> activeSessions = new ConcurrentHashMap<>();
-
-    static class SessionInfo {
-        private final String id;
-        private final String creatorName;
-        private final Instant createdAt;
-
-        public SessionInfo(String id, String creatorName) {
-            this.id = id;
-            this.creatorName = creatorName;
-            this.createdAt = Instant.now();
-        }
-
-        public String getId() {
-            return id;
-        }
-
-        public String getCreatorName() {
-            return creatorName;
-        }
-
-        public Instant getCreatedAt() {
-            return createdAt;
-        }
-    }
-
     // Constructor injection for dependencies
-    public SessionController(OtService otService) {
+    public SessionController(OtService otService, DocumentOwnershipService documentOwnershipService, SessionService sessionService,
+                             OtController otController, DocumentForks documentForks) {
         this.otService = otService;
+        this.documentOwnershipService = documentOwnershipService;
+        this.sessionService = sessionService;
+        this.otController = otController;
+        this.documentForks = documentForks;
     }
 
     @PostMapping("/create")
     public ResponseEntity<Map<String, String>> createSession(@RequestBody Map<String, String> request) {
         String creatorName = request.getOrDefault("creatorName", "Anonymous");
         
-        // Generate a unique session ID
-        String sessionId = UUID.randomUUID().toString();
-        SessionInfo sessionInfo = new SessionInfo(sessionId, creatorName);
-        activeSessions.put(sessionId, sessionInfo);
+        String sessionId = sessionService.createSession(creatorName).getId();
         
         logger.info("Created session: " + sessionId + " by " + creatorName);
         
         return ResponseEntity.ok(Map.of("sessionId", sessionId));
     }
 
+    /**
+     * Creates a session whose documents start as copy-on-write references to the current content of
+     * the given documents in this session. Nothing is copied into the document store until a
+     * document is edited in the new session.
+     */
+    @PostMapping("/{sessionId}/fork")
+    public ResponseEntity<Map<String, String>> forkSession(@PathVariable String sessionId,
+                                                           @RequestBody ForkSessionRequest request) {
+        if (request.getDocumentIds() == null || request.getDocumentIds().isEmpty()) {
+            logger.warning("Request to fork session " + sessionId + " is missing documentIds.");
+            return ResponseEntity.badRequest().build();
+        }
+        if (!sessionService.sessionExists(sessionId)) {
+            logger.warning("Attempted to fork non-existent session: " + sessionId);
+            return ResponseEntity.notFound().build();
+        }
+
+        String creatorName = (request.getCreatorName() != null) ? request.getCreatorName() : "Anonymous";
+        try {
+            Map<String, String> contents = new LinkedHashMap<>();
+            for (String documentId : request.getDocumentIds()) {
+                contents.put(documentId, otService.readDocumentState(sessionId, documentId).getDocument());
+            }
+            String forkId = sessionService.createSession(creatorName, sessionId).getId();
+            documentForks.createFork(sessionId, forkId, contents);
+            logger.info(String.format("Forked session [%s] into [%s] for %s", sessionId, forkId, creatorName));
+            return ResponseEntity.ok(Map.of("sessionId", forkId));
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, String.format("Error forking session [%s]", sessionId), e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
     @GetMapping("/{sessionId}")
     public ResponseEntity<SessionInfo> getSessionInfo(@PathVariable String sessionId) {
-        SessionInfo sessionInfo = activeSessions.get(sessionId);
+        SessionInfo sessionInfo = sessionService.getSession(sessionId);
         
         if (sessionInfo == null) {
             logger.warning("Session info requested for non-existent session: " + sessionId);
@@ -89,13 +108,22 @@ public class SessionController {
             return ResponseEntity.badRequest().build();
         }
 
-        if (!activeSessions.containsKey(sessionId)) {
+        if (!sessionService.sessionExists(sessionId)) {
            logger.warning("Attempted to set document content for non-existent session: " + sessionId);
            return ResponseEntity.notFound().build();
         }
 
+        if ("diff".equals(payload.getMode())) {
+            return submitContentDiff(sessionId, payload);
+        }
+
         try {
-            otService.setDocumentContent(sessionId, payload.getDocumentId(), payload.getContent());
+            // Applied on the owning node, which sequences this session's commits
+            String content = (payload.getContent() != null) ? payload.getContent() : "";
+            if (!documentOwnershipService.resetDocument(sessionId, payload.getDocumentId(), content)) {
+                logger.warning(String.format("Could not reach the owner to set content for doc [%s] in session [%s]", payload.getDocumentId(), sessionId));
+                return ResponseEntity.internalServerError().build();
+            }
             logger.info(String.format("Successfully set initial content for doc [%s] in session [%s]", payload.getDocumentId(), sessionId));
             return ResponseEntity.ok().build();
         } catch (Exception e) {
@@ -103,4 +131,34 @@ public class SessionController {
             return ResponseEntity.internalServerError().build();
         }
     }
+
+    /**
+     * Replaces the document content by submitting the minimal operation between the current and the
+     * new text through the normal OT pipeline. Connected clients receive that operation instead of
+     * having to reload the document.
+     */
+    private ResponseEntity<Void> submitContentDiff(String sessionId, DocumentContentPayload payload) {
+        String documentId = payload.getDocumentId();
+        String newContent = (payload.getContent() != null) ? payload.getContent() : "";
+        try {
+            // The diff is based on this revision; concurrent edits are transformed against it as usual
+            DocumentState current = otService.readDocumentState(sessionId, documentId);
+            TextOperation diff = TextDiff.diff(current.getDocument(), newContent);
+            if (diff.isNoop()) {
+                logger.info(String.format("Content of doc [%s] in session [%s] is unchanged; nothing to submit.", documentId, sessionId));
+                return ResponseEntity.ok().build();
+            }
+            IncomingOperationPayload operationPayload = new IncomingOperationPayload(
+                    OtController.SERVER_CLIENT_ID, current.getRevision(), diff.getOps(), documentId, sessionId);
+            if (!otController.submitOperation(operationPayload)) {
+                return ResponseEntity.internalServerError().build();
+            }
+            logger.info(String.format("Submitted %d-op diff for doc [%s] in session [%s] at revision %d",
+                    diff.getOps().size(), documentId, sessionId, current.getRevision()));
+            return ResponseEntity.ok().build();
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, String.format("Error submitting content diff for doc [%s] in session [%s]", documentId, sessionId), e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
 }
@@ -0,0 +1,411 @@
+package com.codecafe.backend.controller;
+
+import com.codecafe.backend.dto.DocumentState;
+import com.codecafe.backend.dto.TextOperation;
+import com.codecafe.backend.service.OtService;
+import com.codecafe.backend.service.SessionRegistryService;
+import com.codecafe.backend.util.OtUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.annotation.SubscribeMapping;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Read-only spectator mode for sessions with a few editors and a large audience.
+ *
+ * Spectators subscribe to {@code /topic/spectate/{sessionId}/document/{documentId}} and then to
+ * {@code /app/spectate/{sessionId}/document/{documentId}}, which answers once with the document
+ * as of the latest tick. Every {@code tick-millis} the topic receives at most one message per
+ * document: the operations committed since the previous tick composed into one (from
+ * {@code baseRevision} to {@code revision}), the latest cursor of each editor that moved, and the
+ * editor list if it changed. If operations are missing for several ticks, the tick carries the
+ * full {@code document} instead. Spectators never join, so they cause no presence broadcasts and
+ * do not appear in participant lists.
+ *
+ * Ticks are built on each node from the operation, selection and state broadcasts passing its
+ * broker channel (including those relayed from other nodes), for the spectators connected to it.
+ */
+@Controller
+public class SpectatorController implements ChannelInterceptor {
+
+    private static final Logger logger = Logger.getLogger(SpectatorController.class.getName());
+    private static final String SESSION_TOPIC_PREFIX = "/topic/sessions/";
+    private static final String SPECTATE_TOPIC_PREFIX = "/topic/spectate/";
+    private static final String SPECTATE_APP_PREFIX = "/app/spectate/";
+    private static final String DOCUMENT_INFIX = "/document/";
+    // Ticks an operation gap may last before spectators are sent the full document
+    private static final int MAX_STALLED_TICKS = 5;
+
+    private final OtService otService;
+    private final SessionRegistryService sessionRegistryService;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final ScheduledExecutorService ticker;
+
+    // Keyed "sessionId:documentId"
+    private final Map<String, Audience> audiences = new ConcurrentHashMap<>();
+    // Spectated document of each spectate subscription, by connection and subscription id
+    private final Map<String, Map<String, String>> subscriptions = new ConcurrentHashMap<>();
+
+    // What spectators of one document have seen and what the next tick will add; guarded by itself
+    private static final class Audience {
+        final String sessionId;
+        final String documentId;
+        int spectators;
+        // Content as of the last tick; null until first loaded
+        String content;
+        int revision;
+        int checksum;
+        final TreeMap<Integer, TextOperation> operations = new TreeMap<>();
+        final Map<Integer, Integer> checksums = new HashMap<>();
+        final Map<String, JsonNode> cursors = new LinkedHashMap<>();
+        // Editors for the next tick, or null if unchanged since the last list sent
+        JsonNode editors;
+        JsonNode sentEditors;
+        int stalledTicks;
+
+        Audience(String sessionId, String documentId) {
+            this.sessionId = sessionId;
+            this.documentId = documentId;
+        }
+    }
+
+    public SpectatorController(OtService otService, SessionRegistryService sessionRegistryService, @Lazy SimpMessagingTemplate messagingTemplate, ObjectMapper objectMapper,
+                               @Value("${codecafe.spectator.enabled:true}") boolean enabled,
+                               @Value("${codecafe.spectator.tick-millis:200}") long tickMillis) {
+        this.otService = otService;
+        this.sessionRegistryService = sessionRegistryService;
+        this.messagingTemplate = messagingTemplate;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "spectator-tick");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (enabled) {
+            ticker.scheduleWithFixedDelay(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+
+    /** Initial state and editors for a spectator, aligned with the ticks that follow. */
+    @SubscribeMapping("/spectate/{sessionId}/document/**")
+    public DocumentState snapshot(@DestinationVariable String sessionId, SimpMessageHeaderAccessor headerAccessor) {
+        String documentId = documentIdFrom(headerAccessor.getDestination(), SPECTATE_APP_PREFIX + sessionId + DOCUMENT_INFIX);
+        if (!enabled || documentId == null) {
+            return null;
+        }
+        // Only spectator topic subscriptions create audiences; without one there are no ticks to align with
+        Audience audience = audiences.get(key(sessionId, documentId));
+        DocumentState state;
+        if (audience != null) {
+            state = new DocumentState();
+            state.setSessionId(sessionId);
+            state.setDocumentId(documentId);
+            synchronized (audience) {
+                ensureLoaded(audience);
+                state.setDocument(audience.content);
+                state.setRevision(audience.revision);
+                state.setChecksum(audience.checksum);
+            }
+        } else {
+            state = otService.readDocumentState(sessionId, documentId);
+        }
+        try {
+            state.setParticipants(sessionRegistryService.getActiveParticipantsForDocument(sessionId, documentId, null));
+        } catch (Exception e) {
+            logger.warning(String.format("Error fetching editors for spectators of session [%s], document [%s]: %s", sessionId, documentId, e.getMessage()));
+        }
+        return state;
+    }
+
+    // --- Spectator subscriptions ---
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        String destination = accessor.getDestination();
+        if (!enabled || destination == null || !destination.startsWith(SPECTATE_TOPIC_PREFIX)
+                || accessor.getSessionId() == null || accessor.getSubscriptionId() == null) {
+            return;
+        }
+        int split = destination.indexOf(DOCUMENT_INFIX, SPECTATE_TOPIC_PREFIX.length());
+        if (split < 0 || split + DOCUMENT_INFIX.length() == destination.length()) {
+            return;
+        }
+        String sessionId = destination.substring(SPECTATE_TOPIC_PREFIX.length(), split);
+        String documentId = destination.substring(split + DOCUMENT_INFIX.length());
+        String key = key(sessionId, documentId);
+        subscriptions.computeIfAbsent(accessor.getSessionId(), id -> new ConcurrentHashMap<>()).put(accessor.getSubscriptionId(), key);
+        audiences.compute(key, (k, audience) -> {
+            if (audience == null) {
+                audience = new Audience(sessionId, documentId);
+            }
+            synchronized (audience) {
+                audience.spectators++;
+            }
+            return audience;
+        });
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        Map<String, String> connection = (accessor.getSessionId() != null) ? subscriptions.get(accessor.getSessionId()) : null;
+        String key = (connection != null && accessor.getSubscriptionId() != null) ? connection.remove(accessor.getSubscriptionId()) : null;
+        if (key != null) {
+            leave(key);
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        Map<String, String> connection = subscriptions.remove(event.getSessionId());
+        if (connection != null) {
+            connection.values().forEach(this::leave);
+        }
+    }
+
+    private void leave(String key) {
+        audiences.computeIfPresent(key, (k, audience) -> {
+            synchronized (audience) {
+                return (--audience.spectators > 0) ? audience : null;
+            }
+        });
+    }
+
+    // --- Broker channel: collect what the next tick sends ---
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (audiences.isEmpty() || SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE) {
+            return message;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (destination == null || !destination.startsWith(SESSION_TOPIC_PREFIX)) {
+            return message;
+        }
+        // "/topic/sessions/{sid}/{kind}/document/{did}"
+        int kindStart = destination.indexOf('/', SESSION_TOPIC_PREFIX.length());
+        int kindEnd = (kindStart > 0) ? destination.indexOf(DOCUMENT_INFIX, kindStart) : -1;
+        if (kindEnd < 0) {
+            return message;
+        }
+        String sessionId = destination.substring(SESSION_TOPIC_PREFIX.length(), kindStart);
+        String kind = destination.substring(kindStart + 1, kindEnd);
+        Audience audience = audiences.get(key(sessionId, destination.substring(kindEnd + DOCUMENT_INFIX.length())));
+        if (audience == null) {
+            return message;
+        }
+        try {
+            JsonNode json = readJson(message.getPayload());
+            if (json != null) {
+                switch (kind) {
+                    case "operations" -> recordOperation(audience, json);
+                    case "selections" -> recordCursor(audience, json.path("userInfo"));
+                    case "state" -> recordEditors(audience, json.path("participants"));
+                    default -> { }
+                }
+            }
+        } catch (Exception e) {
+            logger.log(Level.WARNING, String.format("Failed to record %s for spectators: %s", destination, e.getMessage()), e);
+        }
+        return message;
+    }
+
+    private JsonNode readJson(Object payload) throws java.io.IOException {
+        if (payload instanceof byte[] bytes) {
+            return objectMapper.readTree(bytes);
+        }
+        if (payload instanceof String text) {
+            return objectMapper.readTree(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return null;
+    }
+
+    private static void recordOperation(Audience audience, JsonNode json) {
+        List<Object> ops = new ArrayList<>();
+        for (JsonNode op : json.path("operation")) {
+            ops.add(op.isTextual() ? op.asText() : (Object) op.asInt());
+        }
+        int revision = json.path("revision").asInt();
+        synchronized (audience) {
+            if (audience.content != null && revision <= audience.revision) {
+                return;
+            }
+            audience.operations.put(revision, new TextOperation(ops));
+            audience.checksums.put(revision, json.path("checksum").asInt());
+        }
+        recordCursor(audience, json);
+    }
+
+    // Operations carry the sender's cursor at the top level, selection messages inside userInfo
+    private static void recordCursor(Audience audience, JsonNode json) {
+        String clientId = json.has("id") ? json.path("id").asText(null) : json.path("clientId").asText(null);
+        if (clientId == null || (!json.hasNonNull("cursorPosition") && !json.hasNonNull("selection"))) {
+            return;
+        }
+        ObjectNode cursor = JsonNodeFactory.instance.objectNode();
+        cursor.put("clientId", clientId);
+        cursor.set("cursorPosition", json.get("cursorPosition"));
+        cursor.set("selection", json.get("selection"));
+        synchronized (audience) {
+            audience.cursors.put(clientId, cursor);
+        }
+    }
+
+    private static void recordEditors(Audience audience, JsonNode participants) {
+        if (!participants.isArray()) {
+            return;
+        }
+        synchronized (audience) {
+            JsonNode latest = (audience.editors != null) ? audience.editors : audience.sentEditors;
+            if (participants.equals(latest)) {
+                return;
+            }
+            audience.editors = participants;
+            // Cursors of editors who left are not sent again
+            List<String> ids = new ArrayList<>();
+            participants.forEach(participant -> ids.add(participant.path("id").asText()));
+            audience.cursors.keySet().retainAll(ids);
+        }
+    }
+
+    // --- Ticks ---
+
+    private void tick() {
+        for (Audience audience : audiences.values()) {
+            try {
+                Map<String, Object> frame;
+                synchronized (audience) {
+                    frame = nextFrame(audience);
+                }
+                if (frame != null) {
+                    messagingTemplate.convertAndSend(SPECTATE_TOPIC_PREFIX + audience.sessionId + DOCUMENT_INFIX + audience.documentId, frame);
+                }
+            } catch (Exception e) {
+                logger.log(Level.WARNING, String.format("[Session: %s, Doc: %s] Spectator tick failed: %s",
+                        audience.sessionId, audience.documentId, e.getMessage()), e);
+            }
+        }
+    }
+
+    // Must hold the audience's lock. @return The frame to send, or null if nothing changed.
+    private Map<String, Object> nextFrame(Audience audience) {
+        if (audience.content == null) {
+            if (audience.operations.isEmpty() && audience.cursors.isEmpty() && audience.editors == null) {
+                return null;
+            }
+            ensureLoaded(audience);
+        }
+        int baseRevision = audience.revision;
+        TextOperation composed = null;
+        Iterator<Map.Entry<Integer, TextOperation>> it = audience.operations.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, TextOperation> entry = it.next();
+            if (entry.getKey() <= audience.revision) {
+                it.remove();
+                continue;
+            }
+            if (entry.getKey() != audience.revision + 1) {
+                break; // A broadcast overtook an earlier one; wait for the gap to fill
+            }
+            composed = (composed == null) ? entry.getValue() : OtUtils.compose(composed, entry.getValue());
+            audience.revision = entry.getKey();
+            audience.checksum = audience.checksums.getOrDefault(entry.getKey(), audience.checksum);
+            it.remove();
+        }
+        audience.checksums.keySet().removeIf(revision -> revision <= audience.revision);
+
+        Map<String, Object> frame = new LinkedHashMap<>();
+        frame.put("sessionId", audience.sessionId);
+        frame.put("documentId", audience.documentId);
+        if (!audience.operations.isEmpty() && composed == null && ++audience.stalledTicks >= MAX_STALLED_TICKS) {
+            reload(audience);
+            frame.put("document", audience.content);
+        } else if (composed != null) {
+            audience.stalledTicks = 0;
+            audience.content = OtUtils.apply(audience.content, composed);
+            frame.put("baseRevision", baseRevision);
+            frame.put("operation", composed.getOps());
+        } else if (audience.cursors.isEmpty() && audience.editors == null) {
+            return null;
+        }
+        frame.put("revision", audience.revision);
+        frame.put("checksum", audience.checksum);
+        if (!audience.cursors.isEmpty()) {
+            frame.put("cursors", new ArrayList<>(audience.cursors.values()));
+            audience.cursors.clear();
+        }
+        if (audience.editors != null) {
+            frame.put("editors", audience.editors);
+            audience.sentEditors = audience.editors;
+            audience.editors = null;
+        }
+        return frame;
+    }
+
+    // Must hold the audience's lock
+    private void ensureLoaded(Audience audience) {
+        if (audience.content == null) {
+            reload(audience);
+        }
+    }
+
+    // Must hold the audience's lock
+    private void reload(Audience audience) {
+        DocumentState state = otService.readDocumentState(audience.sessionId, audience.documentId);
+        audience.content = state.getDocument();
+        audience.revision = state.getRevision();
+        audience.checksum = state.getChecksum();
+        audience.stalledTicks = 0;
+        audience.operations.headMap(audience.revision, true).clear();
+        audience.checksums.keySet().removeIf(revision -> revision <= audience.revision);
+    }
+
+    private static String documentIdFrom(String destination, String prefix) {
+        return (destination != null && destination.startsWith(prefix) && destination.length() > prefix.length())
+                ? destination.substring(prefix.length()) : null;
+    }
+
+    private static String key(String sessionId, String documentId) {
+        return sessionId + ":" + documentId;
+    }
+}
@@ -3,6 +3,8 @@ package com.codecafe.backend.dto;
 public class DocumentContentPayload {
     private String documentId;
     private String content;
+    // "reset" (default) replaces content and history; "diff" submits a minimal operation instead
+    private String mode;
 
     // Getters
     public String getDocumentId() {
@@ -13,6 +15,10 @@ public class DocumentContentPayload {
         return content;
     }
 
+    public String getMode() {
+        return mode;
+    }
+
     // Setters (needed for Jackson deserialization)
     public void setDocumentId(String documentId) {
         this.documentId = documentId;
@@ -22,12 +28,17 @@ public class DocumentContentPayload {
         this.content = content;
     }
 
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
     // Optional: toString, equals, hashCode
     @Override
     public String toString() {
         return "DocumentContentPayload{" +
                 "documentId='" + documentId + '\'' +
                 ", content='" + (content != null ? content.substring(0, Math.min(content.length(), 50)) + "..." : "null") + '\'' +
+                ", mode='" + mode + '\'' +
                 '}';
     }
 }
\ No newline at end of file
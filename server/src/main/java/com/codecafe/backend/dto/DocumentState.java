@@ -7,7 +7,10 @@ public class DocumentState {
     private String documentId;
     private String document;
     private int revision;
+    private int checksum; // DocumentChecksum of document
     private String sessionId;
+    // Set when the state is pushed to a client that fell behind and missed operations
+    private boolean resync;
 
     private List<UserInfoDTO> participants;
 
@@ -38,6 +41,14 @@ public class DocumentState {
         this.revision = revision;
     }
 
+    public int getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(int checksum) {
+        this.checksum = checksum;
+    }
+
     public String getSessionId() {
         return sessionId;
     }
@@ -46,6 +57,14 @@ public class DocumentState {
         this.sessionId = sessionId;
     }
 
+    public boolean isResync() {
+        return resync;
+    }
+
+    public void setResync(boolean resync) {
+        this.resync = resync;
+    }
+
     public List<UserInfoDTO> getParticipants() {
         return participants;
     }
@@ -0,0 +1,28 @@
+package com.codecafe.backend.dto;
+
+import java.util.List;
+
+/**
+ * DTO for forking a session: the new session's creator and the documents to carry over.
+ */
+public class ForkSessionRequest {
+
+    private String creatorName;
+    private List<String> documentIds;
+
+    public String getCreatorName() {
+        return creatorName;
+    }
+
+    public void setCreatorName(String creatorName) {
+        this.creatorName = creatorName;
+    }
+
+    public List<String> getDocumentIds() {
+        return documentIds;
+    }
+
+    public void setDocumentIds(List<String> documentIds) {
+        this.documentIds = documentIds;
+    }
+}
@@ -17,6 +17,8 @@ public class IncomingOperationPayload {
     private String sessionId;
     private Map<String, Object> selection;
     private Map<String, Integer> cursorPosition;
+    private String command; // "undo" or "redo" for undo requests; null for ordinary operations
+    private String connectionId; // Set by the server: the WebSocket session the operation arrived on
 
     // Default constructor for deserialization
     public IncomingOperationPayload() {
@@ -88,6 +90,22 @@ public class IncomingOperationPayload {
         this.cursorPosition = cursorPosition;
     }
 
+    public String getCommand() {
+        return command;
+    }
+
+    public void setCommand(String command) {
+        this.command = command;
+    }
+
+    public String getConnectionId() {
+        return connectionId;
+    }
+
+    public void setConnectionId(String connectionId) {
+        this.connectionId = connectionId;
+    }
+
     // equals, hashCode, toString 
 
     @Override
@@ -101,12 +119,14 @@ public class IncomingOperationPayload {
                 Objects.equals(documentId, that.documentId) &&
                 Objects.equals(sessionId, that.sessionId) &&
                 Objects.equals(selection, that.selection) &&
-                Objects.equals(cursorPosition, that.cursorPosition);
+                Objects.equals(cursorPosition, that.cursorPosition) &&
+                Objects.equals(command, that.command) &&
+                Objects.equals(connectionId, that.connectionId);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(clientId, revision, operation, documentId, sessionId, selection, cursorPosition);
+        return Objects.hash(clientId, revision, operation, documentId, sessionId, selection, cursorPosition, command, connectionId);
     }
 
     @Override
@@ -119,6 +139,8 @@ public class IncomingOperationPayload {
                 ", sessionId='" + sessionId + '\'' +
                 ", selection=" + selection +
                 ", cursorPosition=" + cursorPosition +
+                ", command='" + command + '\'' +
+                ", connectionId='" + connectionId + '\'' +
                 '}';
     }
 } 
\ No newline at end of file
@@ -0,0 +1,49 @@
+package com.codecafe.backend.dto;
+
+import java.util.Objects;
+
+/**
+ * Placeholder for insert text that a {@link com.codecafe.backend.storage.DocumentStore} keeps out of
+ * line. It carries only the content hash and the length of the text, which is all that transform
+ * needs; the text itself is loaded with {@code DocumentStore.resolveInserts} when an operation has
+ * to be applied.
+ */
+public final class InsertRef {
+
+    private final String hash;
+    private final int length;
+
+    public InsertRef(String hash, int length) {
+        if (hash == null || length <= 0) {
+            throw new IllegalArgumentException("Insert reference needs a hash and a positive length.");
+        }
+        this.hash = hash;
+        this.length = length;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        InsertRef that = (InsertRef) o;
+        return length == that.length && hash.equals(that.hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(hash, length);
+    }
+
+    @Override
+    public String toString() {
+        return "InsertRef{" + hash.substring(0, Math.min(hash.length(), 12)) + ", length=" + length + '}';
+    }
+}
@@ -0,0 +1,34 @@
+package com.codecafe.backend.dto;
+
+import java.time.Instant;
+
+public class SessionInfo {
+    private final String id;
+    private final String creatorName;
+    private final Instant createdAt;
+    // Session this one was forked from, or null
+    private final String parentSessionId;
+
+    public SessionInfo(String id, String creatorName, Instant createdAt, String parentSessionId) {
+        this.id = id;
+        this.creatorName = creatorName;
+        this.createdAt = createdAt;
+        this.parentSessionId = parentSessionId;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getCreatorName() {
+        return creatorName;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public String getParentSessionId() {
+        return parentSessionId;
+    }
+}
@@ -13,10 +13,12 @@ import com.fasterxml.jackson.annotation.JsonValue;
  * - Positive integer: Retain (skip) characters.
  * - String: Insert characters.
  * - Negative integer: Delete characters.
+ * Operations read from a document store may also contain {@link InsertRef} inserts, whose text is
+ * stored out of line. They can be transformed but must be resolved before they are applied.
  */
 public class TextOperation {
 
-    // List of operations: Integer (retain > 0, delete < 0) or String (insert)
+    // List of operations: Integer (retain > 0, delete < 0), String or InsertRef (insert)
     private List<Object> ops;
     private int baseLength;
     private int targetLength;
@@ -28,7 +30,12 @@ public class TextOperation {
     }
 
     public static boolean isInsert(Object op) {
-        return op instanceof String;
+        return op instanceof String || op instanceof InsertRef;
+    }
+
+    /** @return The number of characters an insert op adds. */
+    public static int insertLength(Object op) {
+        return (op instanceof InsertRef) ? ((InsertRef) op).getLength() : ((String) op).length();
     }
 
     public static boolean isDelete(Object op) {
@@ -54,7 +61,7 @@ public class TextOperation {
             if (isRetain(op)) {
                 this.retain((Integer) op);
             } else if (isInsert(op)) {
-                this.insert((String) op);
+                this.insertOp(op);
             } else if (isDelete(op)) {
                 this.delete((Integer) op); // Use the negative value directly
             } else {
@@ -88,12 +95,12 @@ public class TextOperation {
             return this;
         }
         this.targetLength += str.length();
-        if (!this.ops.isEmpty() && isInsert(this.ops.get(this.ops.size() - 1))) {
+        if (!this.ops.isEmpty() && this.ops.get(this.ops.size() - 1) instanceof String) {
             String lastOp = (String) this.ops.get(this.ops.size() - 1);
             this.ops.set(this.ops.size() - 1, lastOp + str);
         } else if (!this.ops.isEmpty() && isDelete(this.ops.get(this.ops.size() - 1))) {
             // Enforce insert before delete
-            if (this.ops.size() >= 2 && isInsert(this.ops.get(this.ops.size() - 2))) {
+            if (this.ops.size() >= 2 && this.ops.get(this.ops.size() - 2) instanceof String) {
                 String secondLastOp = (String) this.ops.get(this.ops.size() - 2);
                 this.ops.set(this.ops.size() - 2, secondLastOp + str);
             } else {
@@ -107,6 +114,25 @@ public class TextOperation {
         return this;
     }
 
+    /** Appends an out-of-line insert. It is kept as its own op and never merged with neighbouring inserts. */
+    public TextOperation insert(InsertRef ref) {
+        this.targetLength += ref.getLength();
+        if (!this.ops.isEmpty() && isDelete(this.ops.get(this.ops.size() - 1))) {
+            // Enforce insert before delete
+            Object lastOp = this.ops.remove(this.ops.size() - 1);
+            this.ops.add(ref);
+            this.ops.add(lastOp);
+        } else {
+            this.ops.add(ref);
+        }
+        return this;
+    }
+
+    /** Appends an insert op of either kind. */
+    public TextOperation insertOp(Object op) {
+        return (op instanceof InsertRef) ? insert((InsertRef) op) : insert((String) op);
+    }
+
     public TextOperation delete(int n) {
         if (n == 0) {
             return this;
@@ -147,6 +173,16 @@ public class TextOperation {
         return ops.isEmpty() || (ops.size() == 1 && isRetain(ops.get(0)));
     }
 
+    /** @return true if some insert text is stored out of line and has to be resolved before applying. */
+    public boolean hasInsertRefs() {
+        for (Object op : ops) {
+            if (op instanceof InsertRef) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     // Overrides
 
     @Override
@@ -170,6 +206,7 @@ public class TextOperation {
         // Stream<Object> stream = ops.stream();
         return ops.stream().<String>map(op -> { // Specify String as the map result type
             if (isRetain(op)) return "retain(" + op + ")";
+            if (op instanceof InsertRef) return "insert(" + op + ")";
             if (isInsert(op)) return "insert(\"" + op + "\")"; // Correct string concatenation
             if (isDelete(op)) return "delete(" + (- (Integer) op) + ")";
             return "unknown";
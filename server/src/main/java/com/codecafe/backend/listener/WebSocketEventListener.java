@@ -4,6 +4,7 @@ import com.codecafe.backend.dto.DocumentState;
 import com.codecafe.backend.dto.UserInfoDTO;
 import com.codecafe.backend.service.OtService;
 import com.codecafe.backend.service.SessionRegistryService;
+import com.codecafe.backend.service.UndoService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,12 +16,9 @@ import org.springframework.web.socket.messaging.SessionConnectedEvent;
 import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 import org.springframework.web.socket.messaging.SessionSubscribeEvent;
 import org.springframework.messaging.MessageHeaders; 
-import org.springframework.data.redis.core.StringRedisTemplate; 
-import org.springframework.data.redis.core.SetOperations; 
 import java.security.Principal;
 import java.util.List;
 import java.util.Set; 
-import java.util.Collections; 
 
 @Component
 public class WebSocketEventListener {
@@ -30,26 +28,17 @@ public class WebSocketEventListener {
     private final SessionRegistryService sessionRegistryService;
     private final SimpMessagingTemplate messagingTemplate;
     private final OtService otService;
-    private final StringRedisTemplate stringRedisTemplate; 
-    private final SetOperations<String, String> setOperations;
-
-    private static final String USER_ACTIVE_DOCS_KEY_PREFIX = "user:active_docs:"; // Match prefix in EditorController
+    private final UndoService undoService;
 
     @Autowired
     public WebSocketEventListener(SessionRegistryService sessionRegistryService,
                                   SimpMessagingTemplate messagingTemplate,
                                   OtService otService,
-                                  StringRedisTemplate stringRedisTemplate) { // Inject StringRedisTemplate
+                                  UndoService undoService) {
         this.sessionRegistryService = sessionRegistryService;
         this.messagingTemplate = messagingTemplate;
         this.otService = otService;
-        this.stringRedisTemplate = stringRedisTemplate;
-        this.setOperations = stringRedisTemplate.opsForSet(); 
-    }
-
-    // Helper to get the tracking key for a user
-    private String getUserTrackingKey(String userId) {
-        return USER_ACTIVE_DOCS_KEY_PREFIX + userId;
+        this.undoService = undoService;
     }
 
     @EventListener
@@ -90,19 +79,11 @@ public class WebSocketEventListener {
             String userId = userPrincipal.getName(); 
             log.info("WebSocket Disconnected: User={}, WebSocket SessionId={}", userId, simpSessionId);
 
-            String trackingKey = getUserTrackingKey(userId);
-            Set<String> activeDocuments = null;
-            try {
-                activeDocuments = setOperations.members(trackingKey);
-            } catch (Exception e) {
-                log.error("Redis error retrieving active documents for user [{}], key [{}]: {}", userId, trackingKey, e.getMessage(), e);
-                 log.warn("Could not retrieve active documents for user [{}], unable to perform targeted cleanup.", userId);
-                 activeDocuments = Collections.emptySet(); 
-            }
+            Set<String> activeDocuments = sessionRegistryService.getUserDocuments(userId);
 
-            if (activeDocuments != null && !activeDocuments.isEmpty()) {
-                 log.info("Processing disconnect for user [{}]. Found {} active document entries in tracking set [{}].", 
-                         userId, activeDocuments.size(), trackingKey);
+            if (!activeDocuments.isEmpty()) {
+                 log.info("Processing disconnect for user [{}]. Found {} tracked document entries.", 
+                         userId, activeDocuments.size());
                  
                  activeDocuments.forEach(docEntry -> {
                      String[] parts = docEntry.split(":", 2);
@@ -111,6 +92,8 @@ public class WebSocketEventListener {
                          String documentId = parts[1];
                          log.info("Attempting to remove user [{}] from session [{}], doc [{}] based on tracking info.", 
                                  userId, sessionId, documentId);
+                         // Other clients' edits no longer need to be transformed into this user's stacks
+                         undoService.clearClient(sessionId, documentId, userId);
                          try {
                             boolean removed = sessionRegistryService.userLeftDocument(sessionId, documentId, userId);
                             if (removed) {
@@ -127,19 +110,15 @@ public class WebSocketEventListener {
                                      userId, sessionId, documentId, e.getMessage(), e);
                          }
                      } else {
-                         log.warn("Invalid document entry format '{}' found in tracking set '{}' for user [{}]", 
-                                 docEntry, trackingKey, userId);
+                         log.warn("Invalid document entry format '{}' tracked for user [{}]", 
+                                 docEntry, userId);
                      }
                  });
 
-                 try {
-                     stringRedisTemplate.delete(trackingKey);
-                     log.info("Deleted user tracking set '{}' for user [{}]", trackingKey, userId);
-                 } catch (Exception e) {
-                     log.error("Redis error deleting tracking key [{}] for user [{}]: {}", trackingKey, userId, e.getMessage(), e);
-                 }
+                 sessionRegistryService.clearUserDocuments(userId);
+                 log.info("Cleared tracked documents for user [{}]", userId);
             } else {
-                 log.info("No active document entries found in tracking set [{}] for disconnected user [{}]. No specific cleanup needed based on tracking.", trackingKey, userId);
+                 log.info("No tracked document entries found for disconnected user [{}]. No specific cleanup needed based on tracking.", userId);
                  // This might happen if the user connected but never joined a document, or if the tracking key expired/failed.
             }
 
@@ -155,14 +134,8 @@ public class WebSocketEventListener {
             // Fetch current participants (excluding no one, we want the full list)
             List<UserInfoDTO> participants = sessionRegistryService.getActiveParticipantsForDocument(sessionId, documentId, null);
             
-            String currentContent = otService.getDocumentContent(sessionId, documentId);
-            int currentRevision = otService.getRevision(sessionId, documentId);
-
-            DocumentState fullState = new DocumentState();
-            fullState.setSessionId(sessionId); // Ensure this is set
-            fullState.setDocumentId(documentId);
-            fullState.setDocument(currentContent);
-            fullState.setRevision(currentRevision);
+            // Content and revision are read as one consistent pair
+            DocumentState fullState = otService.readDocumentState(sessionId, documentId);
             fullState.setParticipants(participants);
 
             // Send to the specific state topic
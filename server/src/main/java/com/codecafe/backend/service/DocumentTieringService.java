@@ -0,0 +1,92 @@
+package com.codecafe.backend.service;
+
+import com.codecafe.backend.cluster.DocumentOwnershipService;
+import com.codecafe.backend.storage.DocumentStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Background job that moves documents idle past a threshold from the document store to the
+ * {@link com.codecafe.backend.storage.DocumentArchive}, keeping the hot working set proportional
+ * to active sessions. Archived documents are rehydrated by {@link OtService} on first access.
+ */
+@Service
+@ConditionalOnProperty(name = "codecafe.tiering.enabled", havingValue = "true", matchIfMissing = true)
+public class DocumentTieringService {
+
+    private static final Logger logger = Logger.getLogger(DocumentTieringService.class.getName());
+
+    private final OtService otService;
+    private final DocumentStore documentStore;
+    private final DocumentOwnershipService documentOwnershipService;
+    private final long idleThresholdMillis;
+    private final int batchSize;
+
+    public DocumentTieringService(OtService otService,
+                                  DocumentStore documentStore,
+                                  DocumentOwnershipService documentOwnershipService,
+                                  @Value("${codecafe.tiering.idle-threshold-millis:86400000}") long idleThresholdMillis,
+                                  @Value("${codecafe.tiering.batch-size:100}") int batchSize) {
+        this.otService = otService;
+        this.documentStore = documentStore;
+        this.documentOwnershipService = documentOwnershipService;
+        this.idleThresholdMillis = idleThresholdMillis;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${codecafe.tiering.interval-millis:600000}",
+               initialDelayString = "${codecafe.tiering.interval-millis:600000}")
+    public void archiveIdleDocuments() {
+        long idleBefore = System.currentTimeMillis() - idleThresholdMillis;
+        List<String> candidates;
+        try {
+            candidates = documentStore.findIdleDocuments(idleBefore, batchSize);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to list idle documents for archiving: " + e.getMessage(), e);
+            return;
+        }
+
+        int archived = 0;
+        for (String candidate : candidates) {
+            String[] parts = candidate.split(":", 2);
+            if (parts.length != 2) {
+                continue;
+            }
+            String sessionId = parts[0];
+            String documentId = parts[1];
+            // Only the owner sequences the session, so archiving there cannot race a commit; a
+            // session no node owns is leased for the archiving only
+            boolean owned = documentOwnershipService.isLocalOwner(sessionId);
+            try {
+                if (!owned && !documentOwnershipService.tryAcquire(sessionId)) {
+                    continue;
+                }
+            } catch (Exception e) {
+                logger.log(Level.WARNING, String.format("[Session: %s] Failed to take the lease for archiving: %s",
+                        sessionId, e.getMessage()), e);
+                continue;
+            }
+            try {
+                if (otService.archiveDocument(sessionId, documentId, idleBefore)) {
+                    archived++;
+                }
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, String.format("[Session: %s, Doc: %s] Failed to archive idle document: %s",
+                        sessionId, documentId, e.getMessage()), e);
+            } finally {
+                if (!owned) {
+                    documentOwnershipService.release(sessionId);
+                }
+            }
+        }
+        if (archived > 0) {
+            logger.info(String.format("Archived %d idle documents.", archived));
+        }
+    }
+}
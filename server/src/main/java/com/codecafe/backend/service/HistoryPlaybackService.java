@@ -0,0 +1,224 @@
+package com.codecafe.backend.service;
+
+import com.codecafe.backend.storage.DocumentHistory;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Replays the recorded history of a document as server-sent events, spacing the operations by the
+ * time that passed between their original commits.
+ *
+ * A stream starts with a {@code snapshot} event holding the content at the first revision, then
+ * sends one {@code operation} event per revision and ends with an {@code end} event. Operations
+ * are read from {@link DocumentHistory} a page at a time as playback advances, and a scheduler
+ * thread is only used while an event is being sent, so long streams hold no thread while waiting.
+ *
+ * Revisions lost from the operation log cannot be played. After such a gap playback resumes with
+ * another {@code snapshot} event from the next checkpoint, which replaces the content the client
+ * holds; if no checkpoint follows within the range, the stream ends with an {@code incomplete}
+ * event carrying the last revision played instead of {@code end}.
+ */
+@Service
+public class HistoryPlaybackService {
+
+    private static final Logger logger = Logger.getLogger(HistoryPlaybackService.class.getName());
+    private static final int PAGE_SIZE = 200;
+
+    private final DocumentHistory documentHistory;
+    private final long maxGapMillis;
+    private final long timeoutMillis;
+    private final ScheduledExecutorService scheduler;
+
+    // Progress of one stream; only touched by the task currently scheduled for it
+    private static final class Playback {
+        final String sessionId;
+        final String documentId;
+        final int toRevision;
+        final double speed;
+        final SseEmitter emitter;
+        final Deque<DocumentHistory.RecordedOperation> page = new ArrayDeque<>();
+        // Next revision to read from the log
+        int nextRevision;
+        // Revision the client holds
+        int lastRevision;
+        long previousCommittedAt;
+        volatile boolean stopped;
+
+        Playback(String sessionId, String documentId, int fromRevision, int toRevision, double speed, SseEmitter emitter) {
+            this.sessionId = sessionId;
+            this.documentId = documentId;
+            this.nextRevision = fromRevision + 1;
+            this.lastRevision = fromRevision;
+            this.toRevision = toRevision;
+            this.speed = speed;
+            this.emitter = emitter;
+        }
+    }
+
+    public HistoryPlaybackService(DocumentHistory documentHistory,
+                                  @Value("${codecafe.history.playback-max-gap-millis:5000}") long maxGapMillis,
+                                  @Value("${codecafe.history.playback-timeout-millis:1800000}") long timeoutMillis,
+                                  @Value("${codecafe.history.playback-threads:2}") int threads) {
+        this.documentHistory = documentHistory;
+        this.maxGapMillis = maxGapMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.scheduler = Executors.newScheduledThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "history-playback");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Starts streaming revisions {@code fromRevision} to {@code toRevision} of a document.
+     * @param speed Playback speed; 2 plays twice as fast as the original edits.
+     * @return The stream, or null if the history does not cover {@code fromRevision}.
+     */
+    public SseEmitter play(String sessionId, String documentId, int fromRevision, int toRevision, double speed) {
+        DocumentHistory.Revision start = documentHistory.materialize(sessionId, documentId, fromRevision);
+        if (start == null) {
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Playback playback = new Playback(sessionId, documentId, fromRevision, toRevision, speed, emitter);
+        playback.previousCommittedAt = start.getCommittedAt();
+        emitter.onCompletion(() -> playback.stopped = true);
+        emitter.onTimeout(() -> playback.stopped = true);
+        emitter.onError(error -> playback.stopped = true);
+
+        scheduler.execute(() -> {
+            if (send(playback, "snapshot", Map.of("revision", start.getRevision(), "content", start.getContent(),
+                    "committedAt", start.getCommittedAt()))) {
+                scheduleNext(playback);
+            }
+        });
+        logger.info(String.format("[Session: %s, Doc: %s] Started playback of revisions %d to %d at %.2fx.",
+                sessionId, documentId, fromRevision, toRevision, speed));
+        return emitter;
+    }
+
+    // Schedules the next operation after its original delay, or ends the stream
+    private void scheduleNext(Playback playback) {
+        if (playback.stopped) {
+            return;
+        }
+        DocumentHistory.RecordedOperation next;
+        DocumentHistory.Revision resume = null;
+        try {
+            next = nextOperation(playback);
+            boolean gap = (next != null) ? next.getRevision() > playback.lastRevision + 1 : playback.lastRevision < playback.toRevision;
+            if (gap) {
+                resume = documentHistory.findCheckpointFrom(playback.sessionId, playback.documentId, playback.lastRevision + 1);
+                if (resume == null || resume.getRevision() > playback.toRevision) {
+                    endIncomplete(playback);
+                    return;
+                }
+                if (next != null) {
+                    playback.page.addFirst(next);
+                }
+            }
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, String.format("[Session: %s, Doc: %s] Failed to read history for playback: %s",
+                    playback.sessionId, playback.documentId, e.getMessage()), e);
+            playback.emitter.completeWithError(e);
+            return;
+        }
+        if (resume != null) {
+            scheduleSnapshot(playback, resume);
+            return;
+        }
+        if (next == null) {
+            if (send(playback, "end", Map.of("revision", playback.lastRevision))) {
+                playback.emitter.complete();
+            }
+            return;
+        }
+        scheduler.schedule(() -> {
+            if (send(playback, "operation", Map.of("revision", next.getRevision(), "operation", next.getOperation().getOps(),
+                    "committedAt", next.getCommittedAt()))) {
+                playback.lastRevision = next.getRevision();
+                playback.previousCommittedAt = next.getCommittedAt();
+                scheduleNext(playback);
+            }
+        }, delayUntil(playback, next.getCommittedAt()), TimeUnit.MILLISECONDS);
+    }
+
+    // Continues after revisions missing from the log with the content at the checkpoint that follows them
+    private void scheduleSnapshot(Playback playback, DocumentHistory.Revision checkpoint) {
+        logger.warning(String.format("[Session: %s, Doc: %s] Revisions %d to %d are missing from the history log; playback resumes from the checkpoint at %d.",
+                playback.sessionId, playback.documentId, playback.lastRevision + 1, checkpoint.getRevision(), checkpoint.getRevision()));
+        while (!playback.page.isEmpty() && playback.page.peekFirst().getRevision() <= checkpoint.getRevision()) {
+            playback.page.pollFirst();
+        }
+        playback.nextRevision = Math.max(playback.nextRevision, checkpoint.getRevision() + 1);
+        scheduler.schedule(() -> {
+            if (send(playback, "snapshot", Map.of("revision", checkpoint.getRevision(), "content", checkpoint.getContent(),
+                    "committedAt", checkpoint.getCommittedAt()))) {
+                playback.lastRevision = checkpoint.getRevision();
+                playback.previousCommittedAt = checkpoint.getCommittedAt();
+                scheduleNext(playback);
+            }
+        }, delayUntil(playback, checkpoint.getCommittedAt()), TimeUnit.MILLISECONDS);
+    }
+
+    private void endIncomplete(Playback playback) {
+        logger.warning(String.format("[Session: %s, Doc: %s] History log has no revisions after %d up to %d and no checkpoint to resume from; ending playback.",
+                playback.sessionId, playback.documentId, playback.lastRevision, playback.toRevision));
+        if (send(playback, "incomplete", Map.of("revision", playback.lastRevision))) {
+            playback.emitter.complete();
+        }
+    }
+
+    // Milliseconds to wait before an event committed at the given time
+    private long delayUntil(Playback playback, long committedAt) {
+        long gap = Math.max(0, committedAt - playback.previousCommittedAt);
+        // Long pauses between editing bursts are shortened so playback keeps moving
+        return Math.min(maxGapMillis, (long) (gap / playback.speed));
+    }
+
+    private DocumentHistory.RecordedOperation nextOperation(Playback playback) {
+        while (playback.page.isEmpty()) {
+            if (playback.nextRevision > playback.toRevision) {
+                return null;
+            }
+            int to = Math.min(playback.toRevision, playback.nextRevision + PAGE_SIZE - 1);
+            // Revisions missing from the log are absent from the page; scheduleNext notices the gap
+            playback.page.addAll(documentHistory.getOperations(playback.sessionId, playback.documentId, playback.nextRevision, to));
+            playback.nextRevision = to + 1;
+        }
+        return playback.page.poll();
+    }
+
+    // Sends one event; false if the client is gone and playback should stop
+    private boolean send(Playback playback, String name, Object data) {
+        if (playback.stopped) {
+            return false;
+        }
+        try {
+            playback.emitter.send(SseEmitter.event().name(name).data(data));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            playback.stopped = true;
+            logger.fine(String.format("[Session: %s, Doc: %s] Playback client disconnected: %s",
+                    playback.sessionId, playback.documentId, e.getMessage()));
+            return false;
+        }
+    }
+}
@@ -1,101 +1,388 @@
 package com.codecafe.backend.service;
 
+import com.codecafe.backend.dto.DocumentState;
+import com.codecafe.backend.dto.SessionInfo;
 import com.codecafe.backend.dto.TextOperation;
+import com.codecafe.backend.storage.DocumentArchive;
+import com.codecafe.backend.storage.DocumentForks;
+import com.codecafe.backend.storage.DocumentHistory;
+import com.codecafe.backend.storage.DocumentSnapshot;
+import com.codecafe.backend.storage.DocumentStore;
+import com.codecafe.backend.storage.OperationJournal;
+import com.codecafe.backend.util.DocumentChecksum;
 import com.codecafe.backend.util.OtUtils;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.ListOperations;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
-import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.data.redis.serializer.SerializationException;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
 @Service
 public class OtService {
     private static final Logger logger = Logger.getLogger(OtService.class.getName());
-    private static final int MAX_HISTORY_SIZE_PER_DOC = 500; // Reduced history size
+    private static final long HEAD_IDLE_EVICTION_MILLIS = 10 * 60 * 1000; // Drop cached heads idle for 10 minutes
+    // How long a document found in neither the store nor the archive nor a fork is remembered as new
+    private static final long COLD_MISS_TTL_MILLIS = 5000;
+    // Longer than a store commit may take (see RedisCommitPipeline)
+    private static final long IN_FLIGHT_WAIT_MILLIS = 15000;
+    // Committed operations kept with a head; clients this few revisions behind are transformed from memory
+    private static final int HEAD_RECENT_OPERATIONS = 100;
 
-    // Format for keys using hash tags for Redis Cluster compatibility
-    private static final String CLUSTER_KEY_FORMAT = "doc:{%s}:%s:%s"; // {sessionId} is the hash tag
+    // Commits to different documents proceed in parallel so that the store can batch their writes;
+    // documents are mapped onto a fixed set of locks to keep memory bounded
+    private static final int LOCK_STRIPES = 1024;
+    private final ReentrantLock[] documentLocks = new ReentrantLock[LOCK_STRIPES];
+    // Content and history storage, selected with codecafe.storage.type
+    private final DocumentStore documentStore;
+    // Cold tier for idle documents; consulted when the store does not have a document
+    private final DocumentArchive documentArchive;
+    // Per-client undo/redo stacks, updated with every commit
+    private final UndoService undoService;
+    // Shared base content of documents in forked sessions that have not been edited yet
+    private final DocumentForks documentForks;
+    private final SessionService sessionService;
+    // Long-term operation log and checkpoints for point-in-time reads
+    private final DocumentHistory documentHistory;
+    // Operations committed while the store was unreachable, replayed into it once it is back
+    private final OperationJournal operationJournal;
+    // "sessionId:documentId" -> time until which reads of the missing document skip the archive and fork lookups
+    private final Map<String, Long> coldMisses = new ConcurrentHashMap<>();
+    // Cleared when a commit finds the store unreachable; set again once the journal has been replayed
+    private volatile boolean storeAvailable = true;
 
-    private final ReentrantLock serviceLock = new ReentrantLock(); // Instance-level lock ONLY
-    private final RedisTemplate<String, Object> redisTemplate;
-    private final ValueOperations<String, Object> valueOperations;
-    // Use <String, Object> as RedisTemplate is configured this way
-    private final ListOperations<String, Object> historyListOperations;
-    private final RedisScript<Boolean> updateContentAndHistoryScript;
-    private final ObjectMapper objectMapper; // For JSON serialization/deserialization
+    // Non-blocking receive path (codecafe.ot.async.enabled). Operations wait in a per-document queue;
+    // one at a time is transformed on a sequencer thread, and its commit is awaited by nothing but a
+    // completion stage, which finishes it and then starts the document's next operation.
+    private final boolean asyncEnabled;
+    private final int maxQueuedPerDocument;
+    private final int maxPendingOperations;
+    // Transforms; may wait for document locks and for heads to load
+    private final ExecutorService sequencerExecutor;
+    // Finishes commits and runs callbacks; never takes document locks, so lock holders can wait for it
+    private final ExecutorService completionExecutor;
+    private final AtomicInteger pendingOperations = new AtomicInteger();
+    private final Map<String, DocumentSequencer> sequencers = new ConcurrentHashMap<>();
+
+    private static final class PendingOperation {
+        final String sessionId;
+        final String documentId;
+        final int clientRevision;
+        final TextOperation operation;
+        final String clientId;
+        final UndoService.Origin origin;
+        final BiConsumer<CommitResult, Throwable> callback;
+
+        PendingOperation(String sessionId, String documentId, int clientRevision, TextOperation operation,
+                         String clientId, UndoService.Origin origin, BiConsumer<CommitResult, Throwable> callback) {
+            this.sessionId = sessionId;
+            this.documentId = documentId;
+            this.clientRevision = clientRevision;
+            this.operation = operation;
+            this.clientId = clientId;
+            this.origin = origin;
+            this.callback = callback;
+        }
+    }
+
+    // Only modified inside sequencers.compute for its key, apart from inFlight
+    private static final class DocumentSequencer {
+        final Deque<PendingOperation> queue = new ArrayDeque<>();
+        boolean active;
+        // Completion of the commit currently in flight; set while holding the document's lock
+        volatile CompletableFuture<Void> inFlight;
+    }
+
+    // Result of transforming and applying an operation, before it is committed
+    private static final class PreparedOperation {
+        final String baseContent;
+        final int baseRevision;
+        final TextOperation operation;
+        final String content;
+        final int checksum;
+
+        PreparedOperation(String baseContent, int baseRevision, TextOperation operation, String content, int checksum) {
+            this.baseContent = baseContent;
+            this.baseRevision = baseRevision;
+            this.operation = operation;
+            this.content = content;
+            this.checksum = checksum;
+        }
+    }
+
+    /** Thrown when an operation is refused because too many are already waiting to be sequenced. */
+    public static class OverloadedException extends IllegalStateException {
+        public OverloadedException(String message) {
+            super(message);
+        }
+    }
+
+    // In-memory head (content, revision and latest operations) of documents sequenced by this node, keyed
+    // by "sessionId:documentId". Only populated by receiveOperation, which runs on the session's owner (see
+    // DocumentOwnershipService), so reads and transforms here avoid a store round trip per operation. The
+    // DocumentStore stays the durable copy.
+    private final Map<String, DocumentHead> documentHeads = new ConcurrentHashMap<>();
+
+    private static final class DocumentHead {
+        final String content;
+        final int revision;
+        final int checksum;
+        // Up to HEAD_RECENT_OPERATIONS committed operations ending at revision; immutable
+        final List<TextOperation> recentOperations;
+        // When the head's revision was committed; heads are only created by commits
+        final long committedAt;
+        volatile long lastAccess;
+
+        DocumentHead(String content, int revision, int checksum, List<TextOperation> recentOperations) {
+            this.content = content;
+            this.revision = revision;
+            this.checksum = checksum;
+            this.recentOperations = recentOperations;
+            this.committedAt = System.currentTimeMillis();
+            this.lastAccess = committedAt;
+        }
+    }
+
+    /** An operation as committed, with the document revision and checksum it produced. */
+    public static final class CommitResult {
+        private final TextOperation operation;
+        private final int revision;
+        private final int checksum;
+
+        CommitResult(TextOperation operation, int revision, int checksum) {
+            this.operation = operation;
+            this.revision = revision;
+            this.checksum = checksum;
+        }
+
+        public TextOperation getOperation() {
+            return operation;
+        }
+
+        public int getRevision() {
+            return revision;
+        }
+
+        public int getChecksum() {
+            return checksum;
+        }
+    }
 
     @Autowired
-    public OtService(RedisTemplate<String, Object> redisTemplate,
-                     RedisScript<Boolean> updateContentAndHistoryScript,
-                     ObjectMapper objectMapper) { // Inject ObjectMapper
-        this.redisTemplate = redisTemplate;
-        this.valueOperations = redisTemplate.opsForValue();
-        // Get ListOperations consistent with RedisTemplate configuration
-        this.historyListOperations = redisTemplate.opsForList();
-        this.updateContentAndHistoryScript = updateContentAndHistoryScript;
-        this.objectMapper = objectMapper;
-        logger.info("OtService initialized.");
+    public OtService(DocumentStore documentStore, DocumentArchive documentArchive, UndoService undoService,
+                     DocumentForks documentForks, SessionService sessionService, DocumentHistory documentHistory,
+                     OperationJournal operationJournal,
+                     @Value("${codecafe.ot.async.enabled:false}") boolean asyncEnabled,
+                     @Value("${codecafe.ot.async.threads:4}") int asyncThreads,
+                     @Value("${codecafe.ot.async.max-queued-per-document:256}") int maxQueuedPerDocument,
+                     @Value("${codecafe.ot.async.max-pending:10000}") int maxPendingOperations) {
+        this.documentStore = documentStore;
+        this.documentArchive = documentArchive;
+        this.undoService = undoService;
+        this.documentForks = documentForks;
+        this.sessionService = sessionService;
+        this.documentHistory = documentHistory;
+        this.operationJournal = operationJournal;
+        this.asyncEnabled = asyncEnabled;
+        this.maxQueuedPerDocument = Math.max(1, maxQueuedPerDocument);
+        this.maxPendingOperations = Math.max(1, maxPendingOperations);
+        this.sequencerExecutor = asyncEnabled ? Executors.newFixedThreadPool(asyncThreads, daemonThreads("ot-sequencer")) : null;
+        this.completionExecutor = asyncEnabled ? Executors.newFixedThreadPool(asyncThreads, daemonThreads("ot-commit")) : null;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            documentLocks[i] = new ReentrantLock();
+        }
+        logger.info(String.format("OtService initialized with %s.", documentStore.getClass().getSimpleName()));
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (sequencerExecutor != null) {
+            sequencerExecutor.shutdown();
+            completionExecutor.shutdown();
+        }
+    }
+
+    private String getHeadKey(String sessionId, String documentId) {
+        return sessionId + ":" + documentId;
     }
 
-    private String getContentKey(String sessionId, String documentId) {
-        return String.format(CLUSTER_KEY_FORMAT, sessionId, "content", documentId);
+    // Serializes changes to one document on this node; reentrant, so locked methods may call each other
+    private ReentrantLock lockFor(String sessionId, String documentId) {
+        return documentLocks[Math.floorMod(getHeadKey(sessionId, documentId).hashCode(), LOCK_STRIPES)];
     }
 
-    private String getHistoryKey(String sessionId, String documentId) {
-        return String.format(CLUSTER_KEY_FORMAT, sessionId, "history", documentId);
+    // Locks a document for a change, first letting a commit of the non-blocking path finish
+    private ReentrantLock lockForUpdate(String sessionId, String documentId) {
+        ReentrantLock lock = lockFor(sessionId, documentId);
+        lock.lock();
+        try {
+            awaitInFlightCommit(sessionId, documentId);
+        } catch (RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+        return lock;
+    }
+
+    private void awaitInFlightCommit(String sessionId, String documentId) {
+        if (!asyncEnabled) {
+            return;
+        }
+        DocumentSequencer sequencer = sequencers.get(getHeadKey(sessionId, documentId));
+        CompletableFuture<Void> inFlight = (sequencer != null) ? sequencer.inFlight : null;
+        if (inFlight == null || inFlight.isDone()) {
+            return;
+        }
+        try {
+            inFlight.get(IN_FLIGHT_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for an in-flight commit.", e);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException(String.format("[Session: %s, Doc: %s] Timed out waiting for an in-flight commit.",
+                    sessionId, documentId), e);
+        } catch (ExecutionException e) {
+            // Completion stages hand their errors to callbacks and do not fail
+        }
     }
 
     /**
-     * Gets the current content for a specific document from Redis.
+     * Gets the current content for a specific document.
      * @param sessionId The identifier of the session.
      * @param documentId The identifier of the document.
      * @return The content of the document, or empty string if not found.
+     * @throws IllegalStateException if the store cannot be read; an empty document is never assumed.
      */
     public String getDocumentContent(String sessionId, String documentId) {
-        String contentKey = getContentKey(sessionId, documentId);
+        DocumentHead head = documentHeads.get(getHeadKey(sessionId, documentId));
+        if (head != null) {
+            head.lastAccess = System.currentTimeMillis();
+            return head.content;
+        }
+        requireJournalReplayed(sessionId, documentId);
         try {
-            Object content = valueOperations.get(contentKey);
-            return (content instanceof String) ? (String) content : "";
+            String content = documentStore.getContent(sessionId, documentId);
+            if (content == null) {
+                content = readColdTiers(sessionId, documentId);
+            }
+            return (content != null) ? content : "";
         } catch (Exception e) {
-            logger.log(Level.SEVERE, String.format("Redis error getting content for key [%s]: %s", contentKey, e.getMessage()), e);
-            return "";
+            logger.log(Level.SEVERE, String.format("[Session: %s, Doc: %s] Storage error getting content: %s", sessionId, documentId, e.getMessage()), e);
+            throw new IllegalStateException("Failed to read document content from the store.", e);
         }
     }
 
     /**
-     * Gets the current server revision number (size of history list) from Redis.
+     * Gets the current server revision number.
      * @param sessionId The identifier of the session.
      * @param documentId The identifier of the document.
-     * @return The revision number for the document (0 if history list doesn't exist).
+     * @return The revision number for the document (0 if it has no history).
+     * @throws IllegalStateException if the store cannot be read.
      */
     public int getRevision(String sessionId, String documentId) {
-        String historyKey = getHistoryKey(sessionId, documentId);
+        DocumentHead head = documentHeads.get(getHeadKey(sessionId, documentId));
+        if (head != null) {
+            return head.revision;
+        }
+        requireJournalReplayed(sessionId, documentId);
         try {
-            Long size = historyListOperations.size(historyKey);
-            return (size != null) ? size.intValue() : 0;
+            return documentStore.getRevision(sessionId, documentId);
         } catch (Exception e) {
-             logger.log(Level.SEVERE, String.format("Redis error getting size for key [%s]: %s", historyKey, e.getMessage()), e);
-             return 0;
+             logger.log(Level.SEVERE, String.format("[Session: %s, Doc: %s] Storage error getting revision: %s", sessionId, documentId, e.getMessage()), e);
+             throw new IllegalStateException("Failed to read document revision from the store.", e);
+        }
+    }
+
+    // Without a head the store copy is all there is, and it lacks any journaled operations
+    private void requireJournalReplayed(String sessionId, String documentId) {
+        if (operationJournal.hasPending(sessionId, documentId) && !replayDocument(sessionId, documentId)) {
+            throw new IllegalStateException(String.format("[Session: %s, Doc: %s] Document has journaled operations and the store is unreachable.",
+                    sessionId, documentId));
         }
     }
 
     /**
-     * Process an incoming operation from a client against a specified revision for a specific document using Redis state.
-     * Transforms the operation against concurrent operations, applies it, updates Redis, and adds it to the history list in Redis.
-     * NOTE: Updates to content and history are NOT atomic across Redis keys without using MULTI/EXEC or Lua scripts.
-     * The instance-level lock prevents races within this single instance, but not across multiple instances.
+     * Reads a consistent content/revision pair for sending document state to clients.
+     * Served from the in-memory head if this node sequences the document, otherwise from the
+     * store's snapshot read (a replica for Redis). If that cannot produce a consistent pair the
+     * read is repeated under the document's lock.
+     * @param sessionId The identifier of the session.
+     * @param documentId The identifier of the document.
+     * @return A DocumentState with sessionId, documentId, document and revision set (participants are not).
+     */
+    public DocumentState readDocumentState(String sessionId, String documentId) {
+        DocumentState state = new DocumentState();
+        state.setSessionId(sessionId);
+        state.setDocumentId(documentId);
+
+        DocumentHead head = documentHeads.get(getHeadKey(sessionId, documentId));
+        if (head != null) {
+            head.lastAccess = System.currentTimeMillis();
+            state.setDocument(head.content);
+            state.setRevision(head.revision);
+            state.setChecksum(head.checksum);
+            return state;
+        }
+
+        DocumentSnapshot snapshot = documentStore.readSnapshot(sessionId, documentId);
+        // An empty document at revision 0 may be archived; the locked path below rehydrates it
+        if (snapshot != null && (snapshot.getRevision() > 0 || !snapshot.getContent().isEmpty())) {
+            state.setDocument(snapshot.getContent());
+            state.setRevision(snapshot.getRevision());
+            state.setChecksum(DocumentChecksum.of(snapshot.getContent()));
+            return state;
+        }
+
+        ReentrantLock lock = lockFor(sessionId, documentId);
+        lock.lock();
+        try {
+            state.setDocument(getDocumentContent(sessionId, documentId));
+            state.setRevision(getRevision(sessionId, documentId));
+        } finally {
+            lock.unlock();
+        }
+        state.setChecksum(DocumentChecksum.of(state.getDocument()));
+        return state;
+    }
+
+    /**
+     * Process an incoming operation from a client against a specified revision for a specific document.
+     * Transforms the operation against concurrent operations, applies it, and stores the new content
+     * together with the transformed operation as one atomic append.
+     * A per-document lock prevents races within this single instance; across instances the
+     * session's owner node is the only one that sequences operations.
      *
      * @param sessionId      The identifier of the session.
      * @param documentId     The identifier of the document being modified.
@@ -105,213 +392,669 @@ public class OtService {
      * @throws IllegalArgumentException if the clientRevision is invalid or transformation/application fails.
      */
     public TextOperation receiveOperation(String sessionId, String documentId, int clientRevision, TextOperation operation) throws IllegalArgumentException {
-        serviceLock.lock();
-        String contentKey = getContentKey(sessionId, documentId);
-        String historyKey = getHistoryKey(sessionId, documentId);
-        try {
-            String currentContent = getDocumentContent(sessionId, documentId);
-            int serverRevision = getRevision(sessionId, documentId);
+        return receiveOperation(sessionId, documentId, clientRevision, operation, null, UndoService.Origin.EDIT).getOperation();
+    }
 
-            logger.info(String.format("[Session: %s, Doc: %s] Received op based on client rev %d (Server rev: %d). Op: %s",
-                    sessionId, documentId, clientRevision, serverRevision, operation));
+    /**
+     * Same as {@link #receiveOperation(String, String, int, TextOperation)}, additionally recording
+     * the operation on the client's undo stack.
+     *
+     * @param clientId The client the operation is attributed to, or null if it has no undo history.
+     * @param origin   Whether this is an ordinary edit or the result of an undo/redo.
+     * @return The applied operation with the new revision and content checksum.
+     */
+    public CommitResult receiveOperation(String sessionId, String documentId, int clientRevision, TextOperation operation,
+                                          String clientId, UndoService.Origin origin) throws IllegalArgumentException {
+        ReentrantLock lock = lockForUpdate(sessionId, documentId);
+        try {
+            PreparedOperation prepared = prepareOperation(sessionId, documentId, clientRevision, operation);
+            int newRevision;
+            try {
+                newRevision = commit(sessionId, documentId, prepared.baseRevision, prepared.content, prepared.operation);
+            } catch (Exception e) {
+                throw commitFailed(sessionId, documentId, e);
+            }
+            return completeCommit(sessionId, documentId, prepared, newRevision, clientId, origin);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            if (clientRevision < 0 || clientRevision > serverRevision) {
-                throw new IllegalArgumentException(
-                        String.format("[Session: %s, Doc: %s] Invalid client revision: %d. Server revision is: %d.", sessionId, documentId, clientRevision, serverRevision)
-                );
+    /**
+     * Non-blocking {@link #receiveOperation(String, String, int, TextOperation, String, UndoService.Origin)}:
+     * queues the operation behind earlier ones for the same document and returns at once. The
+     * callback receives the commit result or the error. Per document, callbacks run in commit order
+     * and before the next operation is sequenced, so broadcasts made from them stay ordered.
+     * Operations beyond the configured queue limits are refused with {@link OverloadedException}.
+     * Without codecafe.ot.async.enabled the operation is committed in the calling thread.
+     */
+    public void receiveOperationAsync(String sessionId, String documentId, int clientRevision, TextOperation operation,
+                                      String clientId, UndoService.Origin origin, BiConsumer<CommitResult, Throwable> callback) {
+        if (!asyncEnabled) {
+            CommitResult result;
+            try {
+                result = receiveOperation(sessionId, documentId, clientRevision, operation, clientId, origin);
+            } catch (RuntimeException e) {
+                callback.accept(null, e);
+                return;
             }
+            callback.accept(result, null);
+            return;
+        }
+        if (pendingOperations.incrementAndGet() > maxPendingOperations) {
+            pendingOperations.decrementAndGet();
+            callback.accept(null, new OverloadedException(String.format("More than %d operations are waiting to be committed.", maxPendingOperations)));
+            return;
+        }
+        String key = getHeadKey(sessionId, documentId);
+        PendingOperation pending = new PendingOperation(sessionId, documentId, clientRevision, operation, clientId, origin, callback);
+        boolean[] accepted = new boolean[1];
+        boolean[] start = new boolean[1];
+        sequencers.compute(key, (k, sequencer) -> {
+            if (sequencer == null) {
+                sequencer = new DocumentSequencer();
+            }
+            if (sequencer.queue.size() < maxQueuedPerDocument) {
+                sequencer.queue.add(pending);
+                accepted[0] = true;
+                start[0] = !sequencer.active;
+                sequencer.active = true;
+            }
+            return sequencer;
+        });
+        if (!accepted[0]) {
+            pendingOperations.decrementAndGet();
+            callback.accept(null, new OverloadedException(String.format("[Session: %s, Doc: %s] More than %d operations are queued for the document.",
+                    sessionId, documentId, maxQueuedPerDocument)));
+            return;
+        }
+        if (start[0]) {
+            sequencerExecutor.execute(() -> sequenceNext(key));
+        }
+    }
 
-            List<TextOperation> concurrentOps = new ArrayList<>();
-            if (clientRevision < serverRevision) {
-                 try {
-                     // Retrieve history as List of Objects (expecting Strings)
-                     List<Object> rawOps = historyListOperations.range(historyKey, clientRevision, serverRevision - 1);
-                     if (rawOps != null) {
-                         for (Object rawOp : rawOps) {
-                             if (!(rawOp instanceof String)) {
-                                 logger.warning(String.format("[Session: %s, Doc: %s] Unexpected non-string type found in history: %s",
-                                        sessionId, documentId, rawOp != null ? rawOp.getClass().getName() : "null"));
-                                 continue; // Skip non-string entries
-                             }
-                             String opJson = (String) rawOp;
-                             try {
-                                 // Deserialize each JSON string into List<Object>
-                                 List<Object> opsList = objectMapper.readValue(opJson, new TypeReference<List<Object>>() {});
-                                 // Construct TextOperation from the list
-                                 concurrentOps.add(new TextOperation(opsList));
-                             } catch (JsonProcessingException e) {
-                                 logger.warning(String.format("[Session: %s, Doc: %s] Failed to parse operation JSON from history: %s. JSON: %s",
-                                        sessionId, documentId, e.getMessage(), opJson));
-                                 // Decide how to handle parsing errors - skip? throw? For now, throw.
-                                 throw new IllegalStateException("Invalid operation format found in Redis history list for key: " + historyKey, e);
-                             }
-                         }
-                     }
-                 } catch (SerializationException e) {
-                     // Catch potential Redis serializer errors specifically
-                     logger.log(Level.SEVERE, String.format("[Session: %s, Doc: %s] Redis DESERIALIZATION error getting concurrent ops (rev %d to %d) for key [%s]: %s",
-                             sessionId, documentId, clientRevision, serverRevision - 1, historyKey, e.getMessage()), e);
-                     throw new RuntimeException("Failed to deserialize concurrent operations from Redis history.", e);
-                 }
-                  catch (Exception e) {
-                     logger.log(Level.SEVERE, String.format("[Session: %s, Doc: %s] Generic Redis error getting concurrent ops (rev %d to %d) for key [%s]: %s",
-                             sessionId, documentId, clientRevision, serverRevision - 1, historyKey, e.getMessage()), e);
-                     throw new RuntimeException("Failed to retrieve concurrent operations from Redis history.", e);
-                 }
+    // Transforms the document's next queued operation and starts its commit, or retires the sequencer
+    private void sequenceNext(String key) {
+        PendingOperation[] next = new PendingOperation[1];
+        DocumentSequencer sequencer = sequencers.computeIfPresent(key, (k, s) -> {
+            next[0] = s.queue.poll();
+            if (next[0] == null) {
+                s.active = false;
+                return null;
             }
-            logger.fine(String.format("[Session: %s, Doc: %s] Found %d concurrent operations in Redis history to transform against.", 
-                sessionId, documentId, concurrentOps.size()));
-                
-            TextOperation transformedOp = operation;
-            for (TextOperation concurrentOp : concurrentOps) {
-                logger.fine(String.format("[Session: %s, Doc: %s] Transforming against concurrent op: %s", sessionId, documentId, concurrentOp));
-                List<TextOperation> result = OtUtils.transform(transformedOp, concurrentOp);
-                transformedOp = result.get(0);
-                 logger.fine(String.format("[Session: %s, Doc: %s] Result after transform: %s", sessionId, documentId, transformedOp));
+            return s;
+        });
+        PendingOperation pending = next[0];
+        if (pending == null) {
+            return;
+        }
+        ReentrantLock lock = lockFor(pending.sessionId, pending.documentId);
+        lock.lock();
+        try {
+            PreparedOperation prepared;
+            try {
+                prepared = prepareOperation(pending.sessionId, pending.documentId, pending.clientRevision, pending.operation);
+            } catch (RuntimeException e) {
+                finishPending(pending, null, e);
+                sequencerExecutor.execute(() -> sequenceNext(key));
+                return;
             }
+            CompletableFuture<Void> completion = commitAsync(pending.sessionId, pending.documentId, prepared.baseRevision,
+                    prepared.content, prepared.operation).handleAsync((newRevision, error) -> {
+                if (error != null) {
+                    finishPending(pending, null, commitFailed(pending.sessionId, pending.documentId, unwrap(error)));
+                    return null;
+                }
+                CommitResult result;
+                try {
+                    result = completeCommit(pending.sessionId, pending.documentId, prepared, newRevision, pending.clientId, pending.origin);
+                } catch (RuntimeException e) {
+                    finishPending(pending, null, e);
+                    return null;
+                }
+                finishPending(pending, result, null);
+                return null;
+            }, completionExecutor);
+            sequencer.inFlight = completion;
+            completion.whenComplete((ignored, error) -> sequencerExecutor.execute(() -> sequenceNext(key)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void finishPending(PendingOperation pending, CommitResult result, Throwable error) {
+        pendingOperations.decrementAndGet();
+        try {
+            pending.callback.accept(result, error);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, String.format("[Session: %s, Doc: %s] Operation callback failed: %s",
+                    pending.sessionId, pending.documentId, e.getMessage()), e);
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+    }
+
+    // Transforms an operation against everything committed since its base revision and applies it
+    // to the head; the caller holds the document's lock
+    private PreparedOperation prepareOperation(String sessionId, String documentId, int clientRevision, TextOperation operation) {
+        String currentContent = getDocumentContent(sessionId, documentId);
+        int serverRevision = getRevision(sessionId, documentId);
+
+        logger.info(String.format("[Session: %s, Doc: %s] Received op based on client rev %d (Server rev: %d). Op: %s",
+                sessionId, documentId, clientRevision, serverRevision, operation));
+
+        if (clientRevision < 0 || clientRevision > serverRevision) {
+            throw new IllegalArgumentException(
+                    String.format("[Session: %s, Doc: %s] Invalid client revision: %d. Server revision is: %d.", sessionId, documentId, clientRevision, serverRevision)
+            );
+        }
+
+        List<TextOperation> concurrentOps = Collections.emptyList();
+        if (clientRevision < serverRevision) {
+             try {
+                 concurrentOps = getConcurrentOperations(sessionId, documentId, clientRevision, serverRevision);
+             } catch (IllegalArgumentException | IllegalStateException e) {
+                 throw e; // Client revision older than the retained history, or corrupt history
+             } catch (Exception e) {
+                 logger.log(Level.SEVERE, String.format("[Session: %s, Doc: %s] Storage error getting concurrent ops (rev %d to %d): %s",
+                         sessionId, documentId, clientRevision, serverRevision - 1, e.getMessage()), e);
+                 throw new RuntimeException("Failed to retrieve concurrent operations from history.", e);
+             }
+        }
+        logger.fine(String.format("[Session: %s, Doc: %s] Found %d concurrent operations in history to transform against.",
+            sessionId, documentId, concurrentOps.size()));
+
+        TextOperation transformedOp = operation;
+        for (TextOperation concurrentOp : concurrentOps) {
+            logger.fine(String.format("[Session: %s, Doc: %s] Transforming against concurrent op: %s", sessionId, documentId, concurrentOp));
+            List<TextOperation> result = OtUtils.transform(transformedOp, concurrentOp);
+            transformedOp = result.get(0);
+             logger.fine(String.format("[Session: %s, Doc: %s] Result after transform: %s", sessionId, documentId, transformedOp));
+        }
+
+        logger.info(String.format("[Session: %s, Doc: %s] Attempting to apply op [Rev %d]: %s to current doc content (length %d): '%s'",
+                sessionId, documentId, serverRevision, transformedOp, currentContent.length(), currentContent));
+
+        String newContent = OtUtils.apply(currentContent, transformedOp);
+        logger.info(String.format("[Session: %s, Doc: %s] Document content after applying transformed op: '%s'", sessionId, documentId, newContent));
 
-            logger.info(String.format("[Session: %s, Doc: %s] Attempting to apply op [Rev %d]: %s to current doc content (length %d): '%s'",
-                    sessionId, documentId, serverRevision, transformedOp, currentContent.length(), currentContent));
+        // Hashing is linear like apply, and doing it here means acks, broadcasts and state reads never rescan
+        int checksum = DocumentChecksum.of(newContent);
+        return new PreparedOperation(currentContent, serverRevision, transformedOp, newContent, checksum);
+    }
+
+    // Maps a failed commit to the exception reported for the operation
+    private RuntimeException commitFailed(String sessionId, String documentId, Throwable error) {
+        if (error instanceof OperationJournal.JournalFullException) {
+            // Back-pressure: the op is rejected and the head is unchanged
+            logger.warning(String.format("[Session: %s, Doc: %s] Rejected operation while the store is unreachable: %s",
+                    sessionId, documentId, error.getMessage()));
+            return (OperationJournal.JournalFullException) error;
+        }
+        documentHeads.remove(getHeadKey(sessionId, documentId)); // Stored state is unknown now; reload on next access
+        logger.log(Level.SEVERE, String.format("[Session: %s, Doc: %s] Storage error appending operation: %s",
+                sessionId, documentId, error.getMessage()), error);
+        return new RuntimeException("Failed to atomically update content and history.", error);
+    }
+
+    // Publishes a committed operation to the head, the long-term history and the undo stacks
+    private CommitResult completeCommit(String sessionId, String documentId, PreparedOperation prepared, int newRevision,
+                                        String clientId, UndoService.Origin origin) {
+        String headKey = getHeadKey(sessionId, documentId);
+        DocumentHead previous = documentHeads.get(headKey);
+        List<TextOperation> recent = new ArrayList<>(HEAD_RECENT_OPERATIONS);
+        if (previous != null && previous.revision == newRevision - 1) {
+            List<TextOperation> kept = previous.recentOperations;
+            recent.addAll(kept.subList(Math.max(0, kept.size() - HEAD_RECENT_OPERATIONS + 1), kept.size()));
+        }
+        recent.add(prepared.operation);
+        documentHeads.put(headKey, new DocumentHead(prepared.content, newRevision, prepared.checksum, List.copyOf(recent)));
+        logger.fine(String.format("[Session: %s, Doc: %s] Successfully stored content and op. New revision: %d",
+                sessionId, documentId, newRevision));
+
+        documentHistory.recordOperation(sessionId, documentId, newRevision, prepared.baseContent, prepared.operation, prepared.content);
 
-            String newContent = OtUtils.apply(currentContent, transformedOp);
-            logger.info(String.format("[Session: %s, Doc: %s] Document content after applying transformed op: '%s'", sessionId, documentId, newContent));
+        try {
+            undoService.recordOperation(sessionId, documentId, clientId, prepared.baseContent, prepared.operation, origin);
+        } catch (Exception e) {
+            // The commit stands; only the undo stacks are unusable now
+            undoService.clearDocument(sessionId, documentId);
+            logger.log(Level.WARNING, String.format("[Session: %s, Doc: %s] Failed to update undo stacks, cleared them: %s",
+                    sessionId, documentId, e.getMessage()), e);
+        }
 
+        return new CommitResult(prepared.operation, newRevision, prepared.checksum);
+    }
+
+    // Appends to the store, or to the journal while the store is unreachable or still has to catch up
+    // on this document; a document's operations must reach the store in revision order
+    private int commit(String sessionId, String documentId, int serverRevision, String newContent, TextOperation operation) {
+        if (storeAvailable && !operationJournal.hasPending(sessionId, documentId)) {
             try {
-                // Serialize the transformed operation's OPS LIST to JSON
-                String transformedOpJson = objectMapper.writeValueAsString(transformedOp.getOps());
+                return documentStore.appendOperation(sessionId, documentId, newContent, operation);
+            } catch (RuntimeException e) {
+                if (!operationJournal.isEnabled() || !isStoreUnavailable(e)) {
+                    throw e;
+                }
+                markStoreUnavailable(sessionId, documentId, e);
+            }
+        }
+        operationJournal.append(sessionId, documentId, serverRevision + 1, operation);
+        return serverRevision + 1;
+    }
 
-                // Execute Lua script to update content and add JSON op to history
-                List<String> keys = List.of(contentKey, historyKey);
-                redisTemplate.execute(updateContentAndHistoryScript, keys, newContent, transformedOpJson, String.valueOf(MAX_HISTORY_SIZE_PER_DOC));
+    // Non-blocking commit(), with the same journal fallback
+    private CompletableFuture<Integer> commitAsync(String sessionId, String documentId, int serverRevision, String newContent, TextOperation operation) {
+        if (storeAvailable && !operationJournal.hasPending(sessionId, documentId)) {
+            return documentStore.appendOperationAsync(sessionId, documentId, newContent, operation).exceptionallyCompose(error -> {
+                Throwable cause = unwrap(error);
+                if (!operationJournal.isEnabled() || !isStoreUnavailable(cause)) {
+                    return CompletableFuture.failedFuture(cause);
+                }
+                markStoreUnavailable(sessionId, documentId, cause);
+                return journalAsync(sessionId, documentId, serverRevision, operation);
+            });
+        }
+        return journalAsync(sessionId, documentId, serverRevision, operation);
+    }
+
+    private CompletableFuture<Integer> journalAsync(String sessionId, String documentId, int serverRevision, TextOperation operation) {
+        try {
+            operationJournal.append(sessionId, documentId, serverRevision + 1, operation);
+            return CompletableFuture.completedFuture(serverRevision + 1);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-                logger.fine(String.format("[Session: %s, Doc: %s] Successfully updated content and added op JSON to history via Lua script. New revision: %d",
-                        sessionId, documentId, serverRevision + 1));
+    private void markStoreUnavailable(String sessionId, String documentId, Throwable error) {
+        // Timed out commits may still have been applied; replay skips revisions the store already has
+        storeAvailable = false;
+        logger.warning(String.format("[Session: %s, Doc: %s] Document store unreachable, journaling operations until it is back: %s",
+                sessionId, documentId, error.getMessage()));
+    }
 
-            } catch (JsonProcessingException e) {
-                logger.log(Level.SEVERE, String.format("[Session: %s, Doc: %s] Failed to serialize transformed operation to JSON: %s", sessionId, documentId, transformedOp), e);
-                throw new RuntimeException("Failed to serialize operation for Redis history.", e);
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, String.format("[Session: %s, Doc: %s] Redis error executing Lua script for key [%s] and history [%s]: %s",
-                        sessionId, documentId, contentKey, historyKey, e.getMessage()), e);
-                throw new RuntimeException("Failed to atomically update Redis content and history.", e);
+    // Operations from clientRevision to serverRevision: from the head if it still has them, otherwise from
+    // the store, where the newest may still be in the journal
+    private List<TextOperation> getConcurrentOperations(String sessionId, String documentId, int clientRevision, int serverRevision) {
+        DocumentHead head = documentHeads.get(getHeadKey(sessionId, documentId));
+        if (head != null && head.revision == serverRevision && serverRevision - clientRevision <= head.recentOperations.size()) {
+            List<TextOperation> recent = head.recentOperations;
+            return recent.subList(recent.size() - (serverRevision - clientRevision), recent.size());
+        }
+        int journalBase = operationJournal.getBaseRevision(sessionId, documentId);
+        if (journalBase < 0) {
+            return documentStore.getOperations(sessionId, documentId, clientRevision, serverRevision);
+        }
+        List<TextOperation> operations = new ArrayList<>();
+        if (clientRevision < journalBase) {
+            operations.addAll(documentStore.getOperations(sessionId, documentId, clientRevision, journalBase));
+        }
+        operations.addAll(operationJournal.getOperations(sessionId, documentId, Math.max(clientRevision, journalBase), serverRevision));
+        return operations;
+    }
+
+    private static boolean isStoreUnavailable(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DataAccessResourceFailureException || cause instanceof QueryTimeoutException
+                    || cause instanceof TimeoutException) {
+                return true;
             }
+        }
+        return false;
+    }
 
-            return transformedOp;
+    /** Writes journaled operations to the store once it is reachable again. */
+    @Scheduled(fixedDelayString = "${codecafe.journal.replay-interval-millis:1000}")
+    public void replayJournal() {
+        for (String key : operationJournal.pendingDocuments()) {
+            String[] parts = key.split(":", 2);
+            if (!replayDocument(parts[0], parts[1])) {
+                return; // Still unreachable
+            }
+        }
+        if (!storeAvailable && operationJournal.size() == 0) {
+            storeAvailable = true;
+            logger.info("Document store reachable again, operation journal fully replayed.");
+        }
+    }
 
+    /**
+     * Replays a document's journaled operations into the store, in revision order.
+     * @return false if the store is still unreachable and entries remain.
+     */
+    private boolean replayDocument(String sessionId, String documentId) {
+        ReentrantLock lock = lockForUpdate(sessionId, documentId);
+        try {
+            List<OperationJournal.Entry> entries = operationJournal.getEntries(sessionId, documentId);
+            if (entries.isEmpty()) {
+                return true;
+            }
+            int storeRevision = documentStore.getRevision(sessionId, documentId);
+            if (!journalMatchesStore(sessionId, documentId, entries, storeRevision)) {
+                // Another node committed different operations at these revisions, e.g. it took
+                // over the session while this node could not reach the store
+                logger.severe(String.format("[Session: %s, Doc: %s] Store operations up to revision %d differ from the journal; discarding %d journaled operations.",
+                        sessionId, documentId, storeRevision, entries.size()));
+                discardJournal(sessionId, documentId);
+                return true;
+            }
+            String content = null;
+            int replayed = 0;
+            for (OperationJournal.Entry entry : entries) {
+                if (entry.getRevision() <= storeRevision) {
+                    // Applied by a commit that timed out before its result arrived
+                    operationJournal.removeFirst(sessionId, documentId, false);
+                    continue;
+                }
+                if (entry.getRevision() != storeRevision + 1) {
+                    // The document changed in the store meanwhile, e.g. another node took over the session
+                    logger.severe(String.format("[Session: %s, Doc: %s] Store is at revision %d but the journal continues at %d; discarding %d journaled operations.",
+                            sessionId, documentId, storeRevision, entry.getRevision(), operationJournal.getEntries(sessionId, documentId).size()));
+                    discardJournal(sessionId, documentId);
+                    return true;
+                }
+                if (content == null) {
+                    content = documentStore.getContent(sessionId, documentId);
+                    if (content == null) {
+                        String base = getForkBaseContent(sessionId, documentId);
+                        content = (base != null) ? base : "";
+                    }
+                }
+                content = OtUtils.apply(content, entry.getOperation());
+                storeRevision = documentStore.appendOperation(sessionId, documentId, content, entry.getOperation());
+                operationJournal.removeFirst(sessionId, documentId, true);
+                replayed++;
+            }
+            DocumentHead head = documentHeads.get(getHeadKey(sessionId, documentId));
+            if (head != null && content != null && (head.revision != storeRevision || !head.content.equals(content))) {
+                logger.warning(String.format("[Session: %s, Doc: %s] Replayed content differs from the in-memory head; reloading from the store.",
+                        sessionId, documentId));
+                documentHeads.remove(getHeadKey(sessionId, documentId));
+            }
+            logger.info(String.format("[Session: %s, Doc: %s] Replayed %d journaled operations, store now at revision %d.",
+                    sessionId, documentId, replayed, storeRevision));
+            return true;
+        } catch (Exception e) {
+            if (isStoreUnavailable(e)) {
+                return false;
+            }
+            logger.log(Level.SEVERE, String.format("[Session: %s, Doc: %s] Failed to replay journaled operations, discarding them: %s",
+                    sessionId, documentId, e.getMessage()), e);
+            discardJournal(sessionId, documentId);
+            return true;
         } finally {
-            serviceLock.unlock();
+            lock.unlock();
         }
     }
 
-    /** Prunes the operation history list in Redis for a specific document if it exceeds the maximum size */
-    // private void pruneHistory(String sessionId, String documentId) {
-    //     String historyKey = getHistoryKey(sessionId, documentId);
-    //     try {
-    //         Long currentSize = historyListOperations.size(historyKey);
-    //         if (currentSize != null && currentSize > MAX_HISTORY_SIZE_PER_DOC) {
-    //              long keepCount = MAX_HISTORY_SIZE_PER_DOC / 2;
-    //              long startIndex = -keepCount;
-    //              long endIndex = -1;
+    // Whether journaled operations at revisions the store already has are the ones it committed there
+    private boolean journalMatchesStore(String sessionId, String documentId, List<OperationJournal.Entry> entries, int storeRevision) {
+        int first = entries.get(0).getRevision();
+        int last = Math.min(entries.get(entries.size() - 1).getRevision(), storeRevision);
+        if (first > last) {
+            return true;
+        }
+        List<TextOperation> stored;
+        try {
+            stored = documentStore.resolveInserts(sessionId, documentId,
+                    documentStore.getOperations(sessionId, documentId, first - 1, last));
+        } catch (IllegalArgumentException e) {
+            return false; // No longer retained, so it cannot be shown to match
+        }
+        for (int i = 0; i <= last - first; i++) {
+            if (i >= stored.size() || !stored.get(i).equals(entries.get(i).getOperation())) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-    //              historyListOperations.trim(historyKey, startIndex, endIndex);
-    //              long removedCount = currentSize - keepCount;
+    // Drops journaled operations the store will never get, with everything derived from them
+    private void discardJournal(String sessionId, String documentId) {
+        operationJournal.discard(sessionId, documentId);
+        documentHeads.remove(getHeadKey(sessionId, documentId));
+        undoService.clearDocument(sessionId, documentId);
+    }
 
-    //              logger.info(String.format("[Session: %s, Doc: %s] Pruned Redis history list [%s]. Removed approx %d ops. Aiming for size ~%d",
-    //                      sessionId, documentId, historyKey, removedCount, keepCount));
-    //         }
-    //     } catch (Exception e) {
-    //         logger.log(Level.SEVERE, String.format("[Session: %s, Doc: %s] Redis error pruning history list [%s]: %s",
-    //                 sessionId, documentId, historyKey, e.getMessage()), e);
-    //     }
-    // }
+    /**
+     * Commits the operation that undoes (or redoes) the client's latest change to a document.
+     * Concurrent changes by other clients are kept.
+     *
+     * @param sessionId  The identifier of the session.
+     * @param documentId The identifier of the document.
+     * @param clientId   The client whose change to undo.
+     * @param redo       true to redo the last undone change instead.
+     * @return The committed operation, or null if there was nothing to undo/redo.
+     */
+    public CommitResult applyUndo(String sessionId, String documentId, String clientId, boolean redo) {
+        ReentrantLock lock = lockForUpdate(sessionId, documentId);
+        try {
+            TextOperation operation = undoService.pop(sessionId, documentId, clientId, redo);
+            if (operation == null) {
+                return null;
+            }
+            // Stacks are kept transformed to the head revision, so there is nothing to transform against
+            int revision = getRevision(sessionId, documentId);
+            try {
+                return receiveOperation(sessionId, documentId, revision, operation, clientId,
+                        redo ? UndoService.Origin.REDO : UndoService.Origin.UNDO);
+            } catch (OperationJournal.JournalFullException e) {
+                // Rejected with the head unchanged, so the entry is still valid for the retry
+                undoService.restore(sessionId, documentId, clientId, redo, operation);
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
     /**
-     * Sets the document content directly in Redis and clears its history list.
+     * Sets the document content directly and clears its history.
      * @param sessionId The identifier of the session.
      * @param documentId The identifier of the document.
      * @param content The new document content.
      */
     public void setDocumentContent(String sessionId, String documentId, String content) {
-        serviceLock.lock();
-        String contentKey = getContentKey(sessionId, documentId);
-        String historyKey = getHistoryKey(sessionId, documentId);
+        ReentrantLock lock = lockForUpdate(sessionId, documentId);
         try {
-            valueOperations.set(contentKey, (content != null) ? content : "");
-            redisTemplate.delete(historyKey);
-            logger.info(String.format("[Session: %s, Doc: %s] Document content set directly in Redis key [%s]. History list [%s] deleted. New revision: 0",
-                     sessionId, documentId, contentKey, historyKey));
+            documentHeads.remove(getHeadKey(sessionId, documentId));
+            undoService.clearDocument(sessionId, documentId);
+            operationJournal.discard(sessionId, documentId); // Superseded by the new content
+            String newContent = (content != null) ? content : "";
+            documentStore.setContent(sessionId, documentId, newContent);
+            documentArchive.delete(sessionId, documentId);
+            documentForks.delete(sessionId, documentId);
+            int revision = documentStore.getRevision(sessionId, documentId);
+            documentHistory.recordCheckpoint(sessionId, documentId, revision, newContent);
+            logger.info(String.format("[Session: %s, Doc: %s] Document content set directly. History cleared. New revision: %d",
+                     sessionId, documentId, revision));
         } catch (Exception e) {
-              logger.log(Level.SEVERE, String.format("[Session: %s, Doc: %s] Redis error setting content [%s] or deleting history [%s]: %s",
-                     sessionId, documentId, contentKey, historyKey, e.getMessage()), e);
+              logger.log(Level.SEVERE, String.format("[Session: %s, Doc: %s] Storage error setting content: %s",
+                     sessionId, documentId, e.getMessage()), e);
         } finally {
-            serviceLock.unlock();
+            lock.unlock();
         }
     }
 
     /**
-     * Resets the state (content and history) for a specific document in Redis.
+     * Resets the state (content and history) for a specific document.
      * @param sessionId The identifier of the session.
      * @param documentId The identifier of the document to reset.
      */
     public void resetSessionDocument(String sessionId, String documentId) {
-        serviceLock.lock();
-        String contentKey = getContentKey(sessionId, documentId);
-        String historyKey = getHistoryKey(sessionId, documentId);
-        List<String> keysToDelete = List.of(contentKey, historyKey);
+        ReentrantLock lock = lockForUpdate(sessionId, documentId);
         try {
-             Long deletedCount = redisTemplate.delete(keysToDelete);
-             if (deletedCount != null && deletedCount > 0) {
-                logger.info(String.format("[Session: %s, Doc: %s] Document state reset in Redis. Deleted keys: %s",
-                         sessionId, documentId, keysToDelete));
+             documentHeads.remove(getHeadKey(sessionId, documentId));
+             undoService.clearDocument(sessionId, documentId);
+             operationJournal.discard(sessionId, documentId);
+             documentArchive.delete(sessionId, documentId);
+             documentForks.delete(sessionId, documentId);
+             // Revisions start over after a reset, so the recorded ones no longer apply
+             documentHistory.delete(sessionId, documentId);
+             if (documentStore.deleteDocument(sessionId, documentId)) {
+                logger.info(String.format("[Session: %s, Doc: %s] Document state reset.", sessionId, documentId));
              } else {
-                  logger.warning(String.format("[Session: %s, Doc: %s] Attempted to reset non-existent document state in Redis. Keys not found: %s",
-                          sessionId, documentId, keysToDelete));
+                  logger.warning(String.format("[Session: %s, Doc: %s] Attempted to reset non-existent document state.",
+                          sessionId, documentId));
              }
         } catch (Exception e) {
-              logger.log(Level.SEVERE, String.format("[Session: %s, Doc: %s] Redis error deleting keys %s: %s",
-                     sessionId, documentId, keysToDelete, e.getMessage()), e);
+              logger.log(Level.SEVERE, String.format("[Session: %s, Doc: %s] Storage error deleting document: %s",
+                     sessionId, documentId, e.getMessage()), e);
         } finally {
-            serviceLock.unlock();
+            lock.unlock();
         }
     }
 
     /**
-     * Gets a copy of the operation history (List<TextOperation>) from the Redis list.
+     * Moves a document to the cold archive and removes it from the document store. Skipped if the
+     * document was written on this node since {@code idleBeforeMillis}; reads do not count, like in
+     * the store's write activity that idle documents are found by, and the document is rehydrated
+     * on the next read. In cluster mode only the session's owner may call this, so it cannot race
+     * a commit.
+     * @param sessionId The identifier of the session.
+     * @param documentId The identifier of the document.
+     * @param idleBeforeMillis Epoch millis; the document must not have been written after this.
+     * @return true if the document was archived.
+     */
+    public boolean archiveDocument(String sessionId, String documentId, long idleBeforeMillis) {
+        ReentrantLock lock = lockForUpdate(sessionId, documentId);
+        String headKey = getHeadKey(sessionId, documentId);
+        try {
+            DocumentHead head = documentHeads.get(headKey);
+            if ((head != null && head.committedAt >= idleBeforeMillis) || operationJournal.hasPending(sessionId, documentId)) {
+                return false;
+            }
+            String content = documentStore.getContent(sessionId, documentId);
+            if (content == null) {
+                // Already gone; also clears any stale activity entry
+                documentStore.deleteDocument(sessionId, documentId);
+                return false;
+            }
+            int revision = documentStore.getRevision(sessionId, documentId);
+            // Read with the content and revision, so the archived history ends at that revision
+            List<TextOperation> history = documentStore.getOperationHistoryFromPrimary(sessionId, documentId);
+            documentArchive.save(sessionId, documentId, content, revision, history);
+            documentStore.deleteDocument(sessionId, documentId);
+            coldMisses.remove(headKey);
+            documentHeads.remove(headKey);
+            undoService.clearDocument(sessionId, documentId);
+            logger.info(String.format("[Session: %s, Doc: %s] Archived idle document at revision %d.", sessionId, documentId, revision));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Content of a document the store does not have: rehydrated from the archive, else the base
+    // content of a forked document, else null. New documents are remembered for a few seconds, so
+    // repeated reads before their first commit do not reach the database.
+    private String readColdTiers(String sessionId, String documentId) {
+        String key = getHeadKey(sessionId, documentId);
+        Long missUntil = coldMisses.get(key);
+        if (missUntil != null && System.currentTimeMillis() < missUntil) {
+            return null;
+        }
+        String content = rehydrate(sessionId, documentId);
+        if (content == null) {
+            // Copy-on-write: the first commit stores the edited content as the document's own
+            content = getForkBaseContent(sessionId, documentId);
+        }
+        if (content == null) {
+            coldMisses.put(key, System.currentTimeMillis() + COLD_MISS_TTL_MILLIS);
+        }
+        return content;
+    }
+
+    /**
+     * Restores an archived document into the document store. Any node may call this: the store only
+     * installs it if the document is still absent, so a concurrent restore or commit is not overwritten.
+     * @return The current content, or null if the document is not archived either.
+     */
+    private String rehydrate(String sessionId, String documentId) {
+        ReentrantLock lock = lockFor(sessionId, documentId);
+        lock.lock();
+        try {
+            // Another caller may have restored it while we waited for the lock
+            String content = documentStore.getContent(sessionId, documentId);
+            if (content != null) {
+                return content;
+            }
+            DocumentArchive.ArchivedSnapshot archived = documentArchive.load(sessionId, documentId);
+            if (archived == null) {
+                return null;
+            }
+            if (!documentStore.restoreDocument(sessionId, documentId, archived.getContent(), archived.getRevision(), archived.getHistory())) {
+                // Restored or written meanwhile, e.g. by another node; that writer owns the archive copy
+                return documentStore.getContent(sessionId, documentId);
+            }
+            documentArchive.delete(sessionId, documentId);
+            logger.info(String.format("[Session: %s, Doc: %s] Rehydrated archived document at revision %d.",
+                    sessionId, documentId, archived.getRevision()));
+            return archived.getContent();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Base content of a not yet edited document in a forked session, or null
+    private String getForkBaseContent(String sessionId, String documentId) {
+        SessionInfo session = sessionService.getSession(sessionId);
+        if (session == null || session.getParentSessionId() == null) {
+            return null;
+        }
+        return documentForks.getBaseContent(sessionId, documentId);
+    }
+
+    /**
+     * Drops the cached heads and undo stacks of all documents in a session, e.g. when this node
+     * stops owning it or the session was modified elsewhere. The next access reloads from the store.
+     * @param sessionId The identifier of the session.
+     */
+    public void evictSession(String sessionId) {
+        String prefix = sessionId + ":";
+        // Heads with journaled operations are the only complete copy until the journal is replayed
+        Set<String> journaled = new HashSet<>(operationJournal.pendingDocuments());
+        documentHeads.keySet().removeIf(key -> key.startsWith(prefix) && !journaled.contains(key));
+        undoService.clearSession(sessionId);
+    }
+
+    /**
+     * Whether operations of a session are being sequenced or committed on this node, or still
+     * wait in the operation journal.
+     * @param sessionId The identifier of the session.
+     */
+    public boolean hasPendingOperations(String sessionId) {
+        String prefix = sessionId + ":";
+        return sequencers.keySet().stream().anyMatch(key -> key.startsWith(prefix))
+                || operationJournal.pendingDocuments().stream().anyMatch(key -> key.startsWith(prefix));
+    }
+
+    /** Drops cached heads of documents that have not been touched recently, and expired cold misses. */
+    @Scheduled(fixedDelay = 60000)
+    public void evictIdleHeads() {
+        long cutoff = System.currentTimeMillis() - HEAD_IDLE_EVICTION_MILLIS;
+        Set<String> journaled = new HashSet<>(operationJournal.pendingDocuments());
+        documentHeads.entrySet().removeIf(entry -> entry.getValue().lastAccess < cutoff && !journaled.contains(entry.getKey()));
+        long now = System.currentTimeMillis();
+        coldMisses.values().removeIf(missUntil -> missUntil <= now);
+    }
+
+    /**
+     * Gets a copy of the operation history.
      * @param sessionId The identifier of the session.
      * @param documentId The identifier of the document.
      * @return A list of all operations in the document's history, or an empty list if not found or on error.
      */
     public List<TextOperation> getOperationHistory(String sessionId, String documentId) {
-        String historyKey = getHistoryKey(sessionId, documentId);
         try {
-            // Retrieve history as List of Objects (expecting Strings)
-            List<Object> rawOps = historyListOperations.range(historyKey, 0, -1);
-            if (rawOps != null) {
-                List<TextOperation> history = new ArrayList<>(rawOps.size());
-                for (Object rawOp : rawOps) {
-                     if (!(rawOp instanceof String)) {
-                         logger.warning(String.format("[Session: %s, Doc: %s] Unexpected non-string type found in full history: %s",
-                                sessionId, documentId, rawOp != null ? rawOp.getClass().getName() : "null"));
-                         continue; // Skip non-string entries
-                     }
-                     String opJson = (String) rawOp;
-                    try {
-                        List<Object> opsList = objectMapper.readValue(opJson, new TypeReference<List<Object>>() {});
-                        history.add(new TextOperation(opsList));
-                    } catch (JsonProcessingException e) {
-                        logger.warning(String.format("[Session: %s, Doc: %s] Failed to parse operation JSON from full history: %s. JSON: %s",
-                               sessionId, documentId, e.getMessage(), opJson));
-                        // Skip invalid entries in history? Or throw?
-                    }
-                }
-                return history;
-            } else {
-                return Collections.emptyList();
-            }
+            return documentStore.getOperationHistory(sessionId, documentId);
         } catch (Exception e) {
-            logger.log(Level.SEVERE, String.format("[Session: %s, Doc: %s] Redis error getting full history for key [%s]: %s",
-                    sessionId, documentId, historyKey, e.getMessage()), e);
+            logger.log(Level.SEVERE, String.format("[Session: %s, Doc: %s] Storage error getting full history: %s",
+                    sessionId, documentId, e.getMessage()), e);
             return Collections.emptyList();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,327 @@
+package com.codecafe.backend.service;
+
+import com.codecafe.backend.util.TokenBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs operations in front of {@link OtService} with fair scheduling between sessions, so one busy
+ * session (a scripted bulk edit, a class typing in one document) cannot take every worker and
+ * store connection from the others.
+ *
+ * Each session has its own queue, served by deficit round robin: on its turn a session earns
+ * {@code quantum} credit and runs jobs while their cost (an operation's component count) fits its
+ * credit, then the next session gets a turn. On top of that a session may have at most
+ * {@code max-concurrent-per-session} jobs running, counted until a job reports it is done, and
+ * may start at most {@code rate-per-session} jobs per second (with bursts of up to
+ * {@code burst-per-session}); sessions over either quota wait without blocking the others. Jobs
+ * of one session start in submission order.
+ */
+@Service
+public class SessionScheduler {
+
+    private static final Logger logger = Logger.getLogger(SessionScheduler.class.getName());
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /** A unit of work; it must call {@code done} once finished, which may be on another thread. */
+    @FunctionalInterface
+    public interface Job {
+        void run(Runnable done);
+    }
+
+    private final boolean enabled;
+    private final int quantum;
+    private final int maxConcurrentPerSession;
+    private final int maxQueuedPerSession;
+    private final double ratePerSession;
+    private final double burstPerSession;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<String, SessionQueue> sessions = new HashMap<>();
+    // Sessions with queued jobs, in turn order
+    private final ArrayDeque<SessionQueue> ring = new ArrayDeque<>();
+    private int queued;
+    private long lastSweep = System.nanoTime();
+
+    private final Semaphore slots;
+    private final ExecutorService workers;
+    private final Thread dispatcher;
+    private final Counter rejectedCounter;
+
+    private static final class Task {
+        final int cost;
+        final Job job;
+
+        Task(int cost, Job job) {
+            this.cost = cost;
+            this.job = job;
+        }
+    }
+
+    // Guarded by lock
+    private static final class SessionQueue {
+        final String sessionId;
+        final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        // Null when rates are not limited
+        final TokenBucket bucket;
+        int deficit;
+        int running;
+        boolean turnStarted;
+        boolean inRing;
+
+        SessionQueue(String sessionId, TokenBucket bucket) {
+            this.sessionId = sessionId;
+            this.bucket = bucket;
+        }
+    }
+
+    public SessionScheduler(MeterRegistry meterRegistry,
+                            @Value("${codecafe.scheduler.enabled:true}") boolean enabled,
+                            @Value("${codecafe.scheduler.threads:-1}") int threads,
+                            @Value("${codecafe.scheduler.quantum:16}") int quantum,
+                            @Value("${codecafe.scheduler.max-concurrent-per-session:4}") int maxConcurrentPerSession,
+                            @Value("${codecafe.scheduler.max-queued-per-session:1000}") int maxQueuedPerSession,
+                            @Value("${codecafe.scheduler.rate-per-session:0}") double ratePerSession,
+                            @Value("${codecafe.scheduler.burst-per-session:0}") double burstPerSession) {
+        this.enabled = enabled;
+        this.quantum = Math.max(1, quantum);
+        this.maxConcurrentPerSession = Math.max(1, maxConcurrentPerSession);
+        this.maxQueuedPerSession = Math.max(1, maxQueuedPerSession);
+        this.ratePerSession = ratePerSession;
+        this.burstPerSession = (burstPerSession > 0) ? burstPerSession : Math.max(1, ratePerSession);
+        this.rejectedCounter = meterRegistry.counter("codecafe.scheduler.rejected");
+        if (!enabled) {
+            this.slots = null;
+            this.workers = null;
+            this.dispatcher = null;
+            return;
+        }
+        int workerCount = (threads > 0) ? threads : Runtime.getRuntime().availableProcessors() * 2;
+        this.slots = new Semaphore(workerCount);
+        this.workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "session-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("codecafe.scheduler.queued", this, SessionScheduler::queuedJobs).register(meterRegistry);
+        this.dispatcher = new Thread(this::dispatch, "session-scheduler-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+        logger.info(String.format("Fair session scheduling enabled (%d workers, quantum %d, %d concurrent per session, rate %s).",
+                workerCount, this.quantum, this.maxConcurrentPerSession,
+                (ratePerSession > 0) ? ratePerSession + "/s" : "unlimited"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * Queues a job for the session; with scheduling disabled it runs right away on the caller.
+     * @param cost Relative cost of the job, at least 1.
+     * @return false if the session already has {@code max-queued-per-session} jobs waiting; the
+     *         job is then not run.
+     */
+    public boolean submit(String sessionId, int cost, Job job) {
+        if (!enabled) {
+            job.run(() -> { });
+            return true;
+        }
+        lock.lock();
+        try {
+            SessionQueue session = sessions.computeIfAbsent(sessionId, id -> new SessionQueue(id,
+                    (ratePerSession > 0) ? new TokenBucket(ratePerSession, burstPerSession, System.nanoTime()) : null));
+            if (session.tasks.size() >= maxQueuedPerSession) {
+                rejectedCounter.increment();
+                return false;
+            }
+            session.tasks.addLast(new Task(Math.max(1, cost), job));
+            queued++;
+            if (!session.inRing) {
+                session.inRing = true;
+                ring.addLast(session);
+            }
+            changed.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Whether jobs of the session are queued or running; always false with scheduling disabled. */
+    public boolean isBusy(String sessionId) {
+        if (!enabled) {
+            return false;
+        }
+        lock.lock();
+        try {
+            SessionQueue session = sessions.get(sessionId);
+            return session != null && (!session.tasks.isEmpty() || session.running > 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dispatch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                slots.acquire();
+                SessionQueue session;
+                Task task;
+                lock.lock();
+                try {
+                    session = awaitNext();
+                    task = session.tasks.pollFirst();
+                    queued--;
+                    if (session.tasks.isEmpty()) {
+                        ring.remove(session);
+                        session.inRing = false;
+                        session.turnStarted = false;
+                        session.deficit = 0;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    workers.execute(() -> {
+                        try {
+                            run(session, task);
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // Shutting down
+                    slots.release();
+                    finished(session);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Picks the session whose job runs next and charges it; the job is still at the head of its queue
+    private SessionQueue awaitNext() throws InterruptedException {
+        while (true) {
+            long now = System.nanoTime();
+            sweep(now);
+            long waitNanos = Long.MAX_VALUE;
+            boolean credited = false;
+            for (int i = ring.size(); i > 0; i--) {
+                SessionQueue session = ring.peekFirst();
+                Task head = session.tasks.peekFirst();
+                if (session.running >= maxConcurrentPerSession) {
+                    // Woken when one of its jobs finishes
+                    ring.addLast(ring.pollFirst());
+                    continue;
+                }
+                if (session.bucket != null) {
+                    long untilToken = session.bucket.nanosUntilAvailable(1, now);
+                    if (untilToken > 0) {
+                        waitNanos = Math.min(waitNanos, untilToken);
+                        ring.addLast(ring.pollFirst());
+                        continue;
+                    }
+                }
+                if (!session.turnStarted) {
+                    session.turnStarted = true;
+                    session.deficit += quantum;
+                    credited = true;
+                }
+                if (head.cost <= session.deficit) {
+                    session.deficit -= head.cost;
+                    session.running++;
+                    if (session.bucket != null) {
+                        session.bucket.tryAcquire(1, now);
+                    }
+                    return session;
+                }
+                // Turn over; the credit carries to its next turn
+                session.turnStarted = false;
+                ring.addLast(ring.pollFirst());
+            }
+            if (credited) {
+                continue;
+            }
+            if (waitNanos == Long.MAX_VALUE) {
+                changed.await();
+            } else {
+                changed.awaitNanos(waitNanos);
+            }
+        }
+    }
+
+    private void run(SessionQueue session, Task task) {
+        AtomicBoolean done = new AtomicBoolean();
+        Runnable onDone = () -> {
+            if (done.compareAndSet(false, true)) {
+                finished(session);
+            }
+        };
+        try {
+            task.job.run(onDone);
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, String.format("[Session: %s] Scheduled job failed: %s", session.sessionId, e.getMessage()), e);
+            onDone.run();
+        }
+    }
+
+    private void finished(SessionQueue session) {
+        lock.lock();
+        try {
+            session.running--;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Forgets idle sessions once their rate quota has fully recovered
+    private void sweep(long now) {
+        if (now - lastSweep < SWEEP_INTERVAL_NANOS) {
+            return;
+        }
+        lastSweep = now;
+        Iterator<SessionQueue> it = sessions.values().iterator();
+        while (it.hasNext()) {
+            SessionQueue session = it.next();
+            if (!session.inRing && session.running == 0 && (session.bucket == null || session.bucket.isFull(now))) {
+                it.remove();
+            }
+        }
+    }
+
+    private int queuedJobs() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.codecafe.backend.service;
+
+import com.codecafe.backend.dto.SessionInfo;
+import com.codecafe.backend.storage.SessionRecord;
+import com.codecafe.backend.storage.SessionRecordRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry of collaboration sessions, persisted through JPA with a read-through local cache.
+ *
+ * Lookups are served from the cache when possible, including cached misses so that repeated
+ * requests for unknown ids do not reach the database. A new session is written to the database
+ * before its id is returned, so no node can cache it as missing; sessions created concurrently
+ * are written in one batch. Writes that fail are retried every {@code flush-interval-millis}.
+ */
+@Service
+public class SessionService {
+
+    private static final Logger logger = Logger.getLogger(SessionService.class.getName());
+
+    private final SessionRecordRepository sessionRecordRepository;
+    private final long cacheTtlMillis;
+    private final long negativeCacheTtlMillis;
+
+    private final Map<String, CachedSession> cache = new ConcurrentHashMap<>();
+    // Created but not yet written (in progress or failed); checked before the database so they never look missing locally
+    private final Map<String, SessionInfo> pendingCreates = new ConcurrentHashMap<>();
+
+    private static final class CachedSession {
+        final SessionInfo session; // null for a cached miss
+        final long expiresAt;
+
+        CachedSession(SessionInfo session, long expiresAt) {
+            this.session = session;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public SessionService(SessionRecordRepository sessionRecordRepository,
+                          @Value("${codecafe.sessions.cache-ttl-millis:600000}") long cacheTtlMillis,
+                          @Value("${codecafe.sessions.negative-cache-ttl-millis:5000}") long negativeCacheTtlMillis) {
+        this.sessionRecordRepository = sessionRecordRepository;
+        this.cacheTtlMillis = cacheTtlMillis;
+        this.negativeCacheTtlMillis = negativeCacheTtlMillis;
+    }
+
+    /**
+     * Creates a session with a new random id.
+     * @param creatorName Display name of the user creating the session.
+     * @return The new session.
+     */
+    public SessionInfo createSession(String creatorName) {
+        return createSession(creatorName, null);
+    }
+
+    /**
+     * Creates a session, optionally recording the session it was forked from.
+     * @param creatorName Display name of the user creating the session.
+     * @param parentSessionId The session this one was forked from, or null.
+     * @return The new session.
+     */
+    public SessionInfo createSession(String creatorName, String parentSessionId) {
+        SessionInfo session = new SessionInfo(UUID.randomUUID().toString(), creatorName, Instant.now(), parentSessionId);
+        pendingCreates.put(session.getId(), session);
+        cache.put(session.getId(), new CachedSession(session, System.currentTimeMillis() + cacheTtlMillis));
+        // Other nodes may look the id up as soon as it is returned
+        flushPendingCreates();
+        return session;
+    }
+
+    /**
+     * @param sessionId The identifier of the session.
+     * @return The session, or null if it does not exist.
+     */
+    public SessionInfo getSession(String sessionId) {
+        long now = System.currentTimeMillis();
+        CachedSession cached = cache.get(sessionId);
+        if (cached != null && now < cached.expiresAt) {
+            return cached.session;
+        }
+        SessionInfo pending = pendingCreates.get(sessionId);
+        if (pending != null) {
+            return pending;
+        }
+
+        SessionInfo session = null;
+        try {
+            SessionRecord record = sessionRecordRepository.findById(sessionId).orElse(null);
+            if (record != null) {
+                session = new SessionInfo(record.getId(), record.getCreatorName(), record.getCreatedAt(), record.getParentSessionId());
+            }
+        } catch (Exception e) {
+            // Do not cache a miss caused by a database error
+            logger.log(Level.SEVERE, String.format("[Session: %s] Database error looking up session: %s", sessionId, e.getMessage()), e);
+            return null;
+        }
+        long ttl = (session != null) ? cacheTtlMillis : negativeCacheTtlMillis;
+        cache.put(sessionId, new CachedSession(session, now + ttl));
+        return session;
+    }
+
+    public boolean sessionExists(String sessionId) {
+        return getSession(sessionId) != null;
+    }
+
+    /**
+     * Writes pending sessions in one batch. Synchronized, so creates that arrive during a write are
+     * written together by the next caller.
+     */
+    @Scheduled(fixedDelayString = "${codecafe.sessions.flush-interval-millis:200}")
+    public synchronized void flushPendingCreates() {
+        if (pendingCreates.isEmpty()) {
+            return;
+        }
+        List<SessionInfo> batch = new ArrayList<>(pendingCreates.values());
+        List<SessionRecord> records = new ArrayList<>(batch.size());
+        for (SessionInfo session : batch) {
+            records.add(new SessionRecord(session.getId(), session.getCreatorName(), session.getCreatedAt(), session.getParentSessionId()));
+        }
+        try {
+            sessionRecordRepository.saveAll(records);
+            for (SessionInfo session : batch) {
+                pendingCreates.remove(session.getId(), session);
+            }
+            logger.fine(String.format("Persisted %d new sessions.", batch.size()));
+        } catch (Exception e) {
+            // Left pending and retried on the next flush
+            logger.log(Level.SEVERE, String.format("Database error persisting %d new sessions: %s", batch.size(), e.getMessage()), e);
+        }
+    }
+
+    /** Drops expired cache entries so the cache does not keep every session ever looked up. */
+    @Scheduled(fixedDelay = 60000)
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        cache.values().removeIf(cached -> cached.expiresAt <= now);
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flushPendingCreates();
+    }
+}
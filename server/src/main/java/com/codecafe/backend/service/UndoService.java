@@ -0,0 +1,217 @@
+package com.codecafe.backend.service;
+
+import com.codecafe.backend.dto.TextOperation;
+import com.codecafe.backend.util.OtUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Per-client undo and redo stacks for collaborative editing, kept on the node that sequences the
+ * session.
+ *
+ * Each stack entry is the inverse of an operation the client made, expressed against the current
+ * document. When any other client's operation is committed, every stack of the document is
+ * transformed through it (as in ot.js's UndoManager), so undoing never reverts someone else's
+ * work. Consecutive edits by one client within {@code group-millis} are composed into a single
+ * entry, and stacks are capped at {@code max-depth} entries.
+ *
+ * Stacks are recorded and popped by {@link OtService} while it holds the document's lock, so
+ * they change in commit order.
+ */
+@Service
+public class UndoService {
+
+    private static final Logger logger = Logger.getLogger(UndoService.class.getName());
+    private static final long IDLE_EVICTION_MILLIS = 10 * 60 * 1000; // Drop stacks of documents idle for 10 minutes
+
+    /** What produced a committed operation, which decides the stack its inverse goes to. */
+    public enum Origin {
+        EDIT,
+        UNDO,
+        REDO
+    }
+
+    private final int maxDepth;
+    private final long groupMillis;
+
+    // Keyed by "sessionId:documentId"
+    private final Map<String, DocumentUndoState> documents = new ConcurrentHashMap<>();
+
+    private static final class ClientStacks {
+        // Top of each stack is the first element
+        final Deque<TextOperation> undo = new ArrayDeque<>();
+        final Deque<TextOperation> redo = new ArrayDeque<>();
+        long lastEditAt;
+        // Set when the top undo entry may be composed with the client's next edit
+        boolean canGroup;
+    }
+
+    private static final class DocumentUndoState {
+        // Concurrent so that clearClient can run outside OtService's lock
+        final Map<String, ClientStacks> clients = new ConcurrentHashMap<>();
+        long lastAccess = System.currentTimeMillis();
+    }
+
+    public UndoService(@Value("${codecafe.undo.max-depth:100}") int maxDepth,
+                       @Value("${codecafe.undo.group-millis:1000}") long groupMillis) {
+        this.maxDepth = maxDepth;
+        this.groupMillis = groupMillis;
+    }
+
+    private String getDocumentKey(String sessionId, String documentId) {
+        return sessionId + ":" + documentId;
+    }
+
+    /**
+     * Updates the stacks of a document for an operation that has just been committed.
+     * @param clientId The client the operation is attributed to, or null for server-side changes.
+     * @param contentBefore The document content the operation was applied to.
+     * @param operation The operation as applied (already transformed to the head revision).
+     * @param origin Whether the operation was an ordinary edit or an undo/redo.
+     */
+    public void recordOperation(String sessionId, String documentId, String clientId, String contentBefore,
+                                TextOperation operation, Origin origin) {
+        String documentKey = getDocumentKey(sessionId, documentId);
+        DocumentUndoState document = documents.get(documentKey);
+        if (document == null) {
+            if (clientId == null || origin != Origin.EDIT || operation.isNoop()) {
+                return; // Nothing to transform and nothing to push
+            }
+            document = documents.computeIfAbsent(documentKey, key -> new DocumentUndoState());
+        }
+        document.lastAccess = System.currentTimeMillis();
+
+        for (Map.Entry<String, ClientStacks> entry : document.clients.entrySet()) {
+            if (!entry.getKey().equals(clientId)) {
+                ClientStacks other = entry.getValue();
+                transformStack(other.undo, operation);
+                transformStack(other.redo, operation);
+                other.canGroup = false;
+            }
+        }
+        if (clientId == null || operation.isNoop()) {
+            return;
+        }
+
+        ClientStacks stacks = document.clients.computeIfAbsent(clientId, key -> new ClientStacks());
+        TextOperation inverse = OtUtils.invert(contentBefore, operation);
+        long now = System.currentTimeMillis();
+        if (origin == Origin.UNDO) {
+            push(stacks.redo, inverse);
+            stacks.canGroup = false;
+        } else if (origin == Origin.REDO) {
+            push(stacks.undo, inverse);
+            stacks.canGroup = false;
+        } else {
+            stacks.redo.clear();
+            if (stacks.canGroup && now - stacks.lastEditAt <= groupMillis && !stacks.undo.isEmpty()) {
+                // Undoing the group reverts the newest edit first, then the older ones
+                stacks.undo.push(OtUtils.compose(inverse, stacks.undo.pop()));
+            } else {
+                push(stacks.undo, inverse);
+            }
+            stacks.canGroup = true;
+            stacks.lastEditAt = now;
+        }
+    }
+
+    /**
+     * Removes the operation that undoes (or redoes) the client's latest change.
+     * @return The operation against the current head revision, or null if the stack is empty.
+     */
+    public TextOperation pop(String sessionId, String documentId, String clientId, boolean redo) {
+        DocumentUndoState document = documents.get(getDocumentKey(sessionId, documentId));
+        if (document == null) {
+            return null;
+        }
+        ClientStacks stacks = document.clients.get(clientId);
+        if (stacks == null) {
+            return null;
+        }
+        document.lastAccess = System.currentTimeMillis();
+        Deque<TextOperation> stack = redo ? stacks.redo : stacks.undo;
+        return stack.poll();
+    }
+
+    /**
+     * Puts back an operation returned by {@link #pop} that could not be committed, so that a retry
+     * undoes (or redoes) the same change. Only valid while the head is still the revision it was
+     * popped at.
+     */
+    public void restore(String sessionId, String documentId, String clientId, boolean redo, TextOperation operation) {
+        DocumentUndoState document = documents.get(getDocumentKey(sessionId, documentId));
+        if (document == null) {
+            return;
+        }
+        ClientStacks stacks = document.clients.get(clientId);
+        if (stacks != null) {
+            push(redo ? stacks.redo : stacks.undo, operation);
+        }
+    }
+
+    /** Drops all stacks of a document, e.g. after its content was replaced. */
+    public void clearDocument(String sessionId, String documentId) {
+        documents.remove(getDocumentKey(sessionId, documentId));
+    }
+
+    /** Drops the stacks of every document in a session. */
+    public void clearSession(String sessionId) {
+        String prefix = sessionId + ":";
+        documents.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    /** Drops one client's stacks for a document, e.g. when it leaves. */
+    public void clearClient(String sessionId, String documentId, String clientId) {
+        DocumentUndoState document = documents.get(getDocumentKey(sessionId, documentId));
+        if (document != null) {
+            document.clients.remove(clientId);
+        }
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void evictIdleDocuments() {
+        long cutoff = System.currentTimeMillis() - IDLE_EVICTION_MILLIS;
+        int before = documents.size();
+        documents.values().removeIf(document -> document.lastAccess < cutoff);
+        int evicted = before - documents.size();
+        if (evicted > 0) {
+            logger.fine(String.format("Evicted undo stacks of %d idle documents.", evicted));
+        }
+    }
+
+    private void push(Deque<TextOperation> stack, TextOperation operation) {
+        stack.push(operation);
+        if (stack.size() > maxDepth) {
+            stack.removeLast();
+        }
+    }
+
+    // Transforms a stack through a concurrent operation, top entry first, carrying the
+    // transformed operation down to the entries below it
+    private static void transformStack(Deque<TextOperation> stack, TextOperation operation) {
+        if (stack.isEmpty()) {
+            return;
+        }
+        Deque<TextOperation> transformed = new ArrayDeque<>(stack.size());
+        TextOperation concurrent = operation;
+        for (Iterator<TextOperation> it = stack.iterator(); it.hasNext(); ) {
+            List<TextOperation> pair = OtUtils.transform(it.next(), concurrent);
+            TextOperation entry = pair.get(0);
+            concurrent = pair.get(1);
+            if (!entry.isNoop()) {
+                transformed.addLast(entry);
+            }
+        }
+        stack.clear();
+        stack.addAll(transformed);
+    }
+}
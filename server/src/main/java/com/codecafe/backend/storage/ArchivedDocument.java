@@ -0,0 +1,79 @@
+package com.codecafe.backend.storage;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Lob;
+import jakarta.persistence.Table;
+
+/**
+ * A document moved out of the hot {@link DocumentStore} after being idle, see {@link DocumentArchive}.
+ */
+@Entity
+@Table(name = "archived_document")
+public class ArchivedDocument {
+
+    // "sessionId:documentId"
+    @Id
+    @Column(length = 1024)
+    private String id;
+
+    @Column(nullable = false)
+    private String sessionId;
+
+    @Column(nullable = false, length = 1024)
+    private String documentId;
+
+    // Revision at the time of archiving
+    private int revision;
+
+    private int contentLength;
+
+    private long archivedAt;
+
+    // GZIP-compressed JSON of the content and retained history
+    @Lob
+    @Column(nullable = false)
+    private byte[] snapshot;
+
+    protected ArchivedDocument() {
+    }
+
+    public ArchivedDocument(String sessionId, String documentId, int revision, int contentLength, long archivedAt, byte[] snapshot) {
+        this.id = sessionId + ":" + documentId;
+        this.sessionId = sessionId;
+        this.documentId = documentId;
+        this.revision = revision;
+        this.contentLength = contentLength;
+        this.archivedAt = archivedAt;
+        this.snapshot = snapshot;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public int getRevision() {
+        return revision;
+    }
+
+    public int getContentLength() {
+        return contentLength;
+    }
+
+    public long getArchivedAt() {
+        return archivedAt;
+    }
+
+    public byte[] getSnapshot() {
+        return snapshot;
+    }
+}
@@ -0,0 +1,117 @@
+package com.codecafe.backend.storage;
+
+import com.codecafe.backend.dto.TextOperation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cold tier for documents that have been idle for a long time. Content and history are stored as a
+ * compressed snapshot in the relational database so the hot store only holds documents in use.
+ */
+@Component
+public class DocumentArchive {
+
+    private static final Logger logger = Logger.getLogger(DocumentArchive.class.getName());
+
+    private final ArchivedDocumentRepository repository;
+    private final ObjectMapper objectMapper;
+
+    /** Content, revision and history read back from the archive. */
+    public static final class ArchivedSnapshot {
+        private final String content;
+        private final int revision;
+        private final List<TextOperation> history;
+
+        ArchivedSnapshot(String content, int revision, List<TextOperation> history) {
+            this.content = content;
+            this.revision = revision;
+            this.history = history;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public int getRevision() {
+            return revision;
+        }
+
+        public List<TextOperation> getHistory() {
+            return history;
+        }
+    }
+
+    // JSON shape of the compressed snapshot
+    private static final class SnapshotBody {
+        public String content;
+        public int revision;
+        public List<List<Object>> history;
+    }
+
+    public DocumentArchive(ArchivedDocumentRepository repository, ObjectMapper objectMapper) {
+        this.repository = repository;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Stores (or replaces) the archived copy of a document.
+     * @param history Retained operations ending at {@code revision}.
+     */
+    public void save(String sessionId, String documentId, String content, int revision, List<TextOperation> history) {
+        List<List<Object>> historyOps = new ArrayList<>(history.size());
+        for (TextOperation operation : history) {
+            historyOps.add(operation.getOps());
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            objectMapper.writeValue(out, Map.of("content", content, "revision", revision, "history", historyOps));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to compress document snapshot for archive.", e);
+        }
+        byte[] snapshot = bytes.toByteArray();
+        repository.save(new ArchivedDocument(sessionId, documentId, revision, content.length(),
+                System.currentTimeMillis(), snapshot));
+        logger.fine(String.format("[Session: %s, Doc: %s] Archived %d chars and %d ops in %d bytes.",
+                sessionId, documentId, content.length(), history.size(), snapshot.length));
+    }
+
+    /**
+     * @return The archived content and history, or null if the document is not archived.
+     */
+    public ArchivedSnapshot load(String sessionId, String documentId) {
+        ArchivedDocument archived = repository.findById(sessionId + ":" + documentId).orElse(null);
+        if (archived == null) {
+            return null;
+        }
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(archived.getSnapshot()))) {
+            SnapshotBody body = objectMapper.readValue(in, SnapshotBody.class);
+            List<TextOperation> history = new ArrayList<>(body.history.size());
+            for (List<Object> ops : body.history) {
+                history.add(new TextOperation(ops));
+            }
+            return new ArchivedSnapshot(body.content, body.revision, history);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read archived snapshot for " + archived.getId(), e);
+        }
+    }
+
+    /** Removes the archived copy of a document, if any. */
+    public void delete(String sessionId, String documentId) {
+        String id = sessionId + ":" + documentId;
+        if (repository.existsById(id)) {
+            repository.deleteById(id);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.codecafe.backend.storage;
+
+import com.codecafe.backend.util.ContentHash;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Copy-on-write documents for forked sessions.
+ *
+ * Forking stores each parent document's content once as a {@link SharedSnapshot} (content
+ * addressed, so forking the same template many times adds no content) and records one
+ * {@link ForkedDocument} row per document of the child. Until its first edit a forked document
+ * is read from the shared snapshot and takes no space in the {@link DocumentStore}.
+ */
+@Component
+public class DocumentForks {
+
+    private static final Logger logger = Logger.getLogger(DocumentForks.class.getName());
+    // Snapshot contents kept in memory; forks of one template then share a single String
+    private static final int MAX_CACHED_SNAPSHOTS = 256;
+
+    private final SharedSnapshotRepository snapshotRepository;
+    private final ForkedDocumentRepository forkedDocumentRepository;
+
+    private final Map<String, String> snapshotContents = new ConcurrentHashMap<>();
+
+    public DocumentForks(SharedSnapshotRepository snapshotRepository, ForkedDocumentRepository forkedDocumentRepository) {
+        this.snapshotRepository = snapshotRepository;
+        this.forkedDocumentRepository = forkedDocumentRepository;
+    }
+
+    /**
+     * Makes the given documents of a new session read from shared snapshots of their content.
+     * @param parentSessionId The session being forked.
+     * @param sessionId The new session.
+     * @param contents Content of each document to fork, by document id.
+     */
+    public void createFork(String parentSessionId, String sessionId, Map<String, String> contents) {
+        long now = System.currentTimeMillis();
+        List<ForkedDocument> rows = new ArrayList<>(contents.size());
+        int newSnapshots = 0;
+        for (Map.Entry<String, String> entry : contents.entrySet()) {
+            String content = entry.getValue();
+            String snapshotId = ContentHash.sha256(content);
+            if (!snapshotContents.containsKey(snapshotId) && !snapshotRepository.existsById(snapshotId)) {
+                try {
+                    snapshotRepository.save(new SharedSnapshot(snapshotId, content, now));
+                    newSnapshots++;
+                } catch (DataIntegrityViolationException e) {
+                    // A concurrent fork stored the same content first
+                }
+            }
+            cacheSnapshot(snapshotId, content);
+            rows.add(new ForkedDocument(sessionId, entry.getKey(), snapshotId, parentSessionId, now));
+        }
+        forkedDocumentRepository.saveAll(rows);
+        logger.info(String.format("[Session: %s] Forked %d documents from session [%s] (%d new snapshots).",
+                sessionId, rows.size(), parentSessionId, newSnapshots));
+    }
+
+    /**
+     * @return The shared content a forked document starts from, or null if the document was not forked.
+     */
+    public String getBaseContent(String sessionId, String documentId) {
+        ForkedDocument forked = forkedDocumentRepository.findById(sessionId + ":" + documentId).orElse(null);
+        if (forked == null) {
+            return null;
+        }
+        String content = snapshotContents.get(forked.getSnapshotId());
+        if (content != null) {
+            return content;
+        }
+        SharedSnapshot snapshot = snapshotRepository.findById(forked.getSnapshotId()).orElse(null);
+        if (snapshot == null) {
+            throw new IllegalStateException("Missing shared snapshot " + forked.getSnapshotId() + " for " + forked.getId());
+        }
+        cacheSnapshot(snapshot.getId(), snapshot.getContent());
+        return snapshot.getContent();
+    }
+
+    /** Detaches a document from its shared snapshot, e.g. when its content is replaced or reset. */
+    public void delete(String sessionId, String documentId) {
+        String id = sessionId + ":" + documentId;
+        if (forkedDocumentRepository.existsById(id)) {
+            forkedDocumentRepository.deleteById(id);
+        }
+    }
+
+    private void cacheSnapshot(String snapshotId, String content) {
+        if (snapshotContents.size() >= MAX_CACHED_SNAPSHOTS && !snapshotContents.containsKey(snapshotId)) {
+            snapshotContents.clear();
+        }
+        snapshotContents.putIfAbsent(snapshotId, content);
+    }
+}
@@ -0,0 +1,349 @@
+package com.codecafe.backend.storage;
+
+import com.codecafe.backend.dto.TextOperation;
+import com.codecafe.backend.util.OtUtils;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Long-term history of documents in the relational database, independent of the window the
+ * {@link DocumentStore} retains.
+ *
+ * Every committed operation is appended to an operation log, and the full content is stored as a
+ * checkpoint every {@code checkpoint-interval} revisions and whenever content is replaced. Any
+ * revision is materialized by loading the nearest checkpoint at or below it and replaying at most
+ * {@code checkpoint-interval} operations, so a seek costs the same however old the document is.
+ *
+ * Commits only queue entries; the node that sequences the document writes them in batches every
+ * {@code flush-interval-millis}. A crash loses at most that window from the log, and the revisions
+ * after the gap stay unreadable up to the next checkpoint.
+ */
+@Component
+public class DocumentHistory {
+
+    private static final Logger logger = Logger.getLogger(DocumentHistory.class.getName());
+    // Documents known to have a checkpoint to replay from; cleared when full, which only costs an extra checkpoint
+    private static final int MAX_TRACKED_DOCUMENTS = 10000;
+
+    private final HistoryOperationRepository operationRepository;
+    private final HistoryCheckpointRepository checkpointRepository;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final int checkpointInterval;
+    private final long retentionMillis;
+
+    private final Queue<PendingEntry> pending = new ConcurrentLinkedQueue<>();
+    // "sessionId:documentId" of documents this node has recorded since startup
+    private final Set<String> checkpointedDocuments = ConcurrentHashMap.newKeySet();
+
+    // An operation (content null) or a checkpoint (operation null) waiting for the next flush
+    private static final class PendingEntry {
+        final String sessionId;
+        final String documentId;
+        final int revision;
+        final TextOperation operation;
+        final String content;
+        final long timestamp;
+
+        PendingEntry(String sessionId, String documentId, int revision, TextOperation operation, String content, long timestamp) {
+            this.sessionId = sessionId;
+            this.documentId = documentId;
+            this.revision = revision;
+            this.operation = operation;
+            this.content = content;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /** Content of a document at a past revision. */
+    public static final class Revision {
+        private final int revision;
+        private final String content;
+        private final long committedAt;
+
+        Revision(int revision, String content, long committedAt) {
+            this.revision = revision;
+            this.content = content;
+            this.committedAt = committedAt;
+        }
+
+        public int getRevision() {
+            return revision;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        /** Epoch millis at which the revision was committed. */
+        public long getCommittedAt() {
+            return committedAt;
+        }
+    }
+
+    /** An operation read back from the log. */
+    public static final class RecordedOperation {
+        private final int revision;
+        private final TextOperation operation;
+        private final long committedAt;
+
+        RecordedOperation(int revision, TextOperation operation, long committedAt) {
+            this.revision = revision;
+            this.operation = operation;
+            this.committedAt = committedAt;
+        }
+
+        /** The revision this operation produced. */
+        public int getRevision() {
+            return revision;
+        }
+
+        public TextOperation getOperation() {
+            return operation;
+        }
+
+        public long getCommittedAt() {
+            return committedAt;
+        }
+    }
+
+    public DocumentHistory(HistoryOperationRepository operationRepository,
+                           HistoryCheckpointRepository checkpointRepository,
+                           ObjectMapper objectMapper,
+                           @Value("${codecafe.history.enabled:true}") boolean enabled,
+                           @Value("${codecafe.history.checkpoint-interval:100}") int checkpointInterval,
+                           @Value("${codecafe.history.retention-days:30}") int retentionDays) {
+        this.operationRepository = operationRepository;
+        this.checkpointRepository = checkpointRepository;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.checkpointInterval = Math.max(1, checkpointInterval);
+        this.retentionMillis = retentionDays * 24L * 60 * 60 * 1000;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues a committed operation, and a checkpoint if one is due.
+     * @param revision The revision the operation produced.
+     * @param contentBefore The content the operation was applied to.
+     * @param operation The operation as applied, with all inserts resolved.
+     * @param contentAfter The content at {@code revision}.
+     */
+    public void recordOperation(String sessionId, String documentId, int revision, String contentBefore,
+                                TextOperation operation, String contentAfter) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        String documentKey = sessionId + ":" + documentId;
+        if (!checkpointedDocuments.contains(documentKey)) {
+            // The log may not reach back to a checkpoint, e.g. for a document restored from the archive
+            pending.add(new PendingEntry(sessionId, documentId, revision - 1, null, contentBefore, now));
+            if (checkpointedDocuments.size() >= MAX_TRACKED_DOCUMENTS) {
+                checkpointedDocuments.clear();
+            }
+            checkpointedDocuments.add(documentKey);
+        }
+        pending.add(new PendingEntry(sessionId, documentId, revision, operation, null, now));
+        if (revision % checkpointInterval == 0) {
+            pending.add(new PendingEntry(sessionId, documentId, revision, null, contentAfter, now));
+        }
+    }
+
+    /** Queues a checkpoint, e.g. after the content was replaced outside the operation log. */
+    public void recordCheckpoint(String sessionId, String documentId, int revision, String content) {
+        if (!enabled) {
+            return;
+        }
+        pending.add(new PendingEntry(sessionId, documentId, revision, null, content, System.currentTimeMillis()));
+        checkpointedDocuments.add(sessionId + ":" + documentId);
+    }
+
+    /**
+     * Rebuilds the content of a document at a revision.
+     * @return The content, or null if the revision is not covered by the recorded history.
+     */
+    public Revision materialize(String sessionId, String documentId, int revision) {
+        flush(); // Recent commits may still be queued
+        HistoryCheckpoint checkpoint = checkpointRepository
+                .findFirstBySessionIdAndDocumentIdAndRevisionLessThanEqualOrderByRevisionDesc(sessionId, documentId, revision);
+        if (checkpoint == null) {
+            return null;
+        }
+        String content = checkpoint.getContent();
+        long committedAt = checkpoint.getCreatedAt();
+        int next = checkpoint.getRevision() + 1;
+        for (RecordedOperation recorded : getOperations(sessionId, documentId, next, revision)) {
+            if (recorded.getRevision() != next) {
+                break;
+            }
+            content = OtUtils.apply(content, recorded.getOperation());
+            committedAt = recorded.getCommittedAt();
+            next++;
+        }
+        if (next != revision + 1) {
+            logger.warning(String.format("[Session: %s, Doc: %s] History between checkpoint %d and revision %d is incomplete.",
+                    sessionId, documentId, checkpoint.getRevision(), revision));
+            return null;
+        }
+        return new Revision(revision, content, committedAt);
+    }
+
+    /**
+     * Finds where the recorded history can be read again after a gap in the operation log.
+     * @return The content at the first checkpoint at or after the revision, or null if there is none.
+     */
+    public Revision findCheckpointFrom(String sessionId, String documentId, int revision) {
+        flush();
+        HistoryCheckpoint checkpoint = checkpointRepository
+                .findFirstBySessionIdAndDocumentIdAndRevisionGreaterThanEqualOrderByRevisionAsc(sessionId, documentId, revision);
+        return (checkpoint != null) ? new Revision(checkpoint.getRevision(), checkpoint.getContent(), checkpoint.getCreatedAt()) : null;
+    }
+
+    /**
+     * @return The newest revision committed at or before the given time, or -1 if none is recorded.
+     */
+    public int findRevisionAt(String sessionId, String documentId, long timestamp) {
+        flush();
+        HistoryOperation operation = operationRepository
+                .findFirstBySessionIdAndDocumentIdAndCommittedAtLessThanEqualOrderByRevisionDesc(sessionId, documentId, timestamp);
+        HistoryCheckpoint checkpoint = checkpointRepository
+                .findFirstBySessionIdAndDocumentIdAndCreatedAtLessThanEqualOrderByRevisionDesc(sessionId, documentId, timestamp);
+        return Math.max((operation != null) ? operation.getRevision() : -1, (checkpoint != null) ? checkpoint.getRevision() : -1);
+    }
+
+    /**
+     * @return The newest recorded revision of the document, or -1 if it has no recorded history.
+     */
+    public int getLatestRevision(String sessionId, String documentId) {
+        flush();
+        HistoryOperation operation = operationRepository.findFirstBySessionIdAndDocumentIdOrderByRevisionDesc(sessionId, documentId);
+        HistoryCheckpoint checkpoint = checkpointRepository.findFirstBySessionIdAndDocumentIdOrderByRevisionDesc(sessionId, documentId);
+        return Math.max((operation != null) ? operation.getRevision() : -1, (checkpoint != null) ? checkpoint.getRevision() : -1);
+    }
+
+    /**
+     * Reads logged operations by the revision they produced. Revisions lost from the log are skipped.
+     * @param fromRevision First revision, inclusive.
+     * @param toRevision Last revision, inclusive.
+     */
+    public List<RecordedOperation> getOperations(String sessionId, String documentId, int fromRevision, int toRevision) {
+        if (fromRevision > toRevision) {
+            return Collections.emptyList();
+        }
+        List<HistoryOperation> rows = operationRepository
+                .findBySessionIdAndDocumentIdAndRevisionBetweenOrderByRevisionAsc(sessionId, documentId, fromRevision, toRevision);
+        List<RecordedOperation> operations = new ArrayList<>(rows.size());
+        for (HistoryOperation row : rows) {
+            try {
+                List<Object> ops = objectMapper.readValue(row.getOperation(), new TypeReference<List<Object>>() {});
+                operations.add(new RecordedOperation(row.getRevision(), new TextOperation(ops), row.getCommittedAt()));
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Invalid operation in history log: " + row.getId(), e);
+            }
+        }
+        return operations;
+    }
+
+    /** Drops all recorded history of a document, e.g. when it is reset and its revisions start over. */
+    public void delete(String sessionId, String documentId) {
+        if (!enabled) {
+            return;
+        }
+        pending.removeIf(entry -> entry.sessionId.equals(sessionId) && entry.documentId.equals(documentId));
+        checkpointedDocuments.remove(sessionId + ":" + documentId);
+        operationRepository.deleteDocument(sessionId, documentId);
+        checkpointRepository.deleteDocument(sessionId, documentId);
+    }
+
+    /** Writes queued operations and checkpoints in one batch each. */
+    @Scheduled(fixedDelayString = "${codecafe.history.flush-interval-millis:500}")
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<HistoryOperation> operations = new ArrayList<>();
+        List<HistoryCheckpoint> checkpoints = new ArrayList<>();
+        PendingEntry entry;
+        while ((entry = pending.poll()) != null) {
+            if (entry.operation != null) {
+                try {
+                    operations.add(new HistoryOperation(entry.sessionId, entry.documentId, entry.revision,
+                            objectMapper.writeValueAsString(entry.operation.getOps()), entry.timestamp));
+                } catch (JsonProcessingException e) {
+                    logger.log(Level.SEVERE, String.format("[Session: %s, Doc: %s] Failed to serialize operation %d for history: %s",
+                            entry.sessionId, entry.documentId, entry.revision, e.getMessage()), e);
+                }
+            } else {
+                checkpoints.add(new HistoryCheckpoint(entry.sessionId, entry.documentId, entry.revision, entry.content, entry.timestamp));
+            }
+        }
+        saveAll(checkpointRepository, checkpoints, "checkpoints");
+        saveAll(operationRepository, operations, "operations");
+    }
+
+    /** Drops history older than the retention period, keeping what later revisions still replay from. */
+    @Scheduled(fixedDelay = 60 * 60 * 1000)
+    public void purgeExpired() {
+        if (!enabled || retentionMillis <= 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        try {
+            int operations = operationRepository.deleteExpired(cutoff);
+            int checkpoints = checkpointRepository.deleteExpired(cutoff);
+            if (operations > 0 || checkpoints > 0) {
+                logger.info(String.format("Purged %d operations and %d checkpoints from document history.", operations, checkpoints));
+            }
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Database error purging document history: " + e.getMessage(), e);
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    private <T> void saveAll(JpaRepository<T, String> repository, List<T> rows, String kind) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        try {
+            repository.saveAll(rows);
+            logger.fine(String.format("Persisted %d history %s.", rows.size(), kind));
+        } catch (DataIntegrityViolationException e) {
+            // Some rows already exist, e.g. a checkpoint recorded again after a restart; keep the others
+            for (T row : rows) {
+                try {
+                    repository.save(row);
+                } catch (DataIntegrityViolationException duplicate) {
+                    // Already recorded
+                }
+            }
+        } catch (Exception e) {
+            // Not retried: the log is best-effort and the next checkpoint closes the gap
+            logger.log(Level.SEVERE, String.format("Database error persisting %d history %s: %s", rows.size(), kind, e.getMessage()), e);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.codecafe.backend.storage;
+
+/**
+ * Content of a document together with the revision it corresponds to.
+ */
+public final class DocumentSnapshot {
+
+    private final String content;
+    private final int revision;
+
+    public DocumentSnapshot(String content, int revision) {
+        this.content = content;
+        this.revision = revision;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public int getRevision() {
+        return revision;
+    }
+}
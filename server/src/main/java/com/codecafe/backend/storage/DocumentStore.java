@@ -0,0 +1,125 @@
+package com.codecafe.backend.storage;
+
+import com.codecafe.backend.dto.TextOperation;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage for document content and operation history, used by {@code OtService}.
+ *
+ * The revision of a document counts every operation appended to it and every content replacement,
+ * so a revision number is never reused while the document exists. Only the newest
+ * {@link #MAX_HISTORY_SIZE_PER_DOC} operations are retained; older ones are available from
+ * {@link DocumentHistory} if it is enabled. Implementations are not
+ * required to serialize concurrent writers to the same document; {@code OtService} does that.
+ * Implementations are selected with {@code codecafe.storage.type}.
+ */
+public interface DocumentStore {
+
+    /** Maximum number of operations retained per document. */
+    int MAX_HISTORY_SIZE_PER_DOC = 500;
+
+    /**
+     * @return The document content, or null if the document does not exist.
+     */
+    String getContent(String sessionId, String documentId);
+
+    /**
+     * @return The current revision of the document (0 if it has no history).
+     */
+    int getRevision(String sessionId, String documentId);
+
+    /**
+     * Returns the operations that moved the document from {@code fromRevision} to {@code toRevision}.
+     * Large inserts may be returned as {@link com.codecafe.backend.dto.InsertRef} placeholders; pass
+     * the result through {@link #resolveInserts} if the operations will be applied.
+     * @param fromRevision First revision, inclusive.
+     * @param toRevision Last revision, exclusive.
+     * @throws IllegalArgumentException if {@code fromRevision} is older than the retained history.
+     * @throws IllegalStateException if a stored operation cannot be decoded.
+     */
+    List<TextOperation> getOperations(String sessionId, String documentId, int fromRevision, int toRevision);
+
+    /**
+     * @return The full retained history of the document, oldest first, with all inserts resolved.
+     *         The last operation produced the current revision.
+     */
+    List<TextOperation> getOperationHistory(String sessionId, String documentId);
+
+    /**
+     * {@link #getOperationHistory} read from the copy {@link #getContent} and {@link #getRevision}
+     * read, never from a lagging replica, for copies that must match the current content.
+     */
+    default List<TextOperation> getOperationHistoryFromPrimary(String sessionId, String documentId) {
+        return getOperationHistory(sessionId, documentId);
+    }
+
+    /**
+     * Replaces out-of-line insert placeholders in operations read from this store with their text.
+     * Stores that keep all inserts inline return the list unchanged.
+     * @throws IllegalStateException if referenced text is missing.
+     */
+    default List<TextOperation> resolveInserts(String sessionId, String documentId, List<TextOperation> operations) {
+        return operations;
+    }
+
+    /**
+     * Atomically replaces the content and appends the operation that produced it.
+     * @return The new revision of the document.
+     */
+    int appendOperation(String sessionId, String documentId, String newContent, TextOperation operation);
+
+    /**
+     * Non-blocking {@link #appendOperation}: the future completes with the new revision once the
+     * append is applied. Stores without network I/O append in the calling thread.
+     */
+    default CompletableFuture<Integer> appendOperationAsync(String sessionId, String documentId, String newContent, TextOperation operation) {
+        try {
+            return CompletableFuture.completedFuture(appendOperation(sessionId, documentId, newContent, operation));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Replaces the content and clears the retained history. The revision advances by one, so clients
+     * holding an older revision cannot submit against the replaced content.
+     */
+    void setContent(String sessionId, String documentId, String content);
+
+    /**
+     * Installs content and retained history as-is, e.g. when rehydrating an archived document. The
+     * check that the document is absent and the write are one atomic step, so concurrent restores,
+     * including from other nodes, and commits cannot interleave with it.
+     * @param revision The revision of {@code content}; the last operation of {@code history} produced it.
+     * @return false, without changing anything, if the document already has content.
+     */
+    boolean restoreDocument(String sessionId, String documentId, String content, int revision, List<TextOperation> history);
+
+    /**
+     * Deletes the content and history of a document.
+     * @return true if anything was deleted.
+     */
+    boolean deleteDocument(String sessionId, String documentId);
+
+    /**
+     * Reads content and revision as one consistent pair for sending to clients. May be served by a
+     * replica or another read-optimized path.
+     * @return The snapshot, or null if a consistent pair could not be read cheaply and the caller
+     *         should fall back to {@link #getContent} and {@link #getRevision}.
+     */
+    DocumentSnapshot readSnapshot(String sessionId, String documentId);
+
+    /**
+     * Finds documents whose last write is older than the given time, for moving them to a colder
+     * tier. Stores that do not track write activity return an empty list.
+     * @param idleBeforeMillis Epoch millis; documents last written before this are idle.
+     * @param limit Maximum number of documents to return.
+     * @return Keys of the form {@code sessionId:documentId}.
+     */
+    default List<String> findIdleDocuments(long idleBeforeMillis, int limit) {
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,73 @@
+package com.codecafe.backend.storage;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import org.springframework.data.domain.Persistable;
+
+/**
+ * A document of a forked session that still reads its content from a {@link SharedSnapshot}.
+ * The document gets its own copy in the {@link DocumentStore} with its first edit.
+ */
+@Entity
+@Table(name = "forked_document")
+public class ForkedDocument implements Persistable<String> {
+
+    // "sessionId:documentId"
+    @Id
+    @Column(length = 1024)
+    private String id;
+
+    @Column(nullable = false, length = 64)
+    private String snapshotId;
+
+    @Column(nullable = false, length = 64)
+    private String parentSessionId;
+
+    private long forkedAt;
+
+    @Transient
+    private boolean isNew = true;
+
+    protected ForkedDocument() {
+    }
+
+    public ForkedDocument(String sessionId, String documentId, String snapshotId, String parentSessionId, long forkedAt) {
+        this.id = sessionId + ":" + documentId;
+        this.snapshotId = snapshotId;
+        this.parentSessionId = parentSessionId;
+        this.forkedAt = forkedAt;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    public String getSnapshotId() {
+        return snapshotId;
+    }
+
+    public String getParentSessionId() {
+        return parentSessionId;
+    }
+
+    public long getForkedAt() {
+        return forkedAt;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+}
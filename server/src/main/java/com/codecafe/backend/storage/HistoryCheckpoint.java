@@ -0,0 +1,95 @@
+package com.codecafe.backend.storage;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Lob;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import org.springframework.data.domain.Persistable;
+
+/**
+ * Full content of a document at one revision, the starting point for replaying the operation log
+ * in {@link DocumentHistory}.
+ */
+@Entity
+@Table(name = "history_checkpoint", indexes = {
+        @Index(name = "idx_history_checkpoint_revision", columnList = "sessionId, documentId, revision"),
+        @Index(name = "idx_history_checkpoint_created_at", columnList = "createdAt")
+})
+public class HistoryCheckpoint implements Persistable<String> {
+
+    // "sessionId:documentId:revision"
+    @Id
+    @Column(length = 1100)
+    private String id;
+
+    @Column(nullable = false)
+    private String sessionId;
+
+    @Column(nullable = false, length = 1024)
+    private String documentId;
+
+    private int revision;
+
+    @Lob
+    @Column(nullable = false)
+    private String content;
+
+    private long createdAt;
+
+    // Ids are unique per revision, so tell Spring Data to INSERT instead of SELECT + merge
+    @Transient
+    private boolean isNew = true;
+
+    protected HistoryCheckpoint() {
+    }
+
+    public HistoryCheckpoint(String sessionId, String documentId, int revision, String content, long createdAt) {
+        this.id = sessionId + ":" + documentId + ":" + revision;
+        this.sessionId = sessionId;
+        this.documentId = documentId;
+        this.revision = revision;
+        this.content = content;
+        this.createdAt = createdAt;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public int getRevision() {
+        return revision;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+}
@@ -0,0 +1,33 @@
+package com.codecafe.backend.storage;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface HistoryCheckpointRepository extends JpaRepository<HistoryCheckpoint, String> {
+
+    HistoryCheckpoint findFirstBySessionIdAndDocumentIdAndRevisionLessThanEqualOrderByRevisionDesc(
+            String sessionId, String documentId, int revision);
+
+    HistoryCheckpoint findFirstBySessionIdAndDocumentIdAndRevisionGreaterThanEqualOrderByRevisionAsc(
+            String sessionId, String documentId, int revision);
+
+    HistoryCheckpoint findFirstBySessionIdAndDocumentIdAndCreatedAtLessThanEqualOrderByRevisionDesc(
+            String sessionId, String documentId, long createdAt);
+
+    HistoryCheckpoint findFirstBySessionIdAndDocumentIdOrderByRevisionDesc(String sessionId, String documentId);
+
+    @Transactional
+    @Modifying
+    @Query("delete from HistoryCheckpoint c where c.sessionId = :sessionId and c.documentId = :documentId")
+    int deleteDocument(@Param("sessionId") String sessionId, @Param("documentId") String documentId);
+
+    @Transactional
+    @Modifying
+    // Keeps the newest checkpoint before the cutoff of each document, which later operations replay from
+    @Query("delete from HistoryCheckpoint c where c.createdAt < :cutoff and exists (select n from HistoryCheckpoint n"
+            + " where n.sessionId = c.sessionId and n.documentId = c.documentId and n.revision > c.revision and n.createdAt < :cutoff)")
+    int deleteExpired(@Param("cutoff") long cutoff);
+}
@@ -0,0 +1,96 @@
+package com.codecafe.backend.storage;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Lob;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import org.springframework.data.domain.Persistable;
+
+/**
+ * One committed operation in the long-term log kept by {@link DocumentHistory}.
+ */
+@Entity
+@Table(name = "history_operation", indexes = {
+        @Index(name = "idx_history_operation_revision", columnList = "sessionId, documentId, revision"),
+        @Index(name = "idx_history_operation_committed_at", columnList = "committedAt")
+})
+public class HistoryOperation implements Persistable<String> {
+
+    // "sessionId:documentId:revision"
+    @Id
+    @Column(length = 1100)
+    private String id;
+
+    @Column(nullable = false)
+    private String sessionId;
+
+    @Column(nullable = false, length = 1024)
+    private String documentId;
+
+    // Revision this operation produced
+    private int revision;
+
+    // JSON of the operation's ops list
+    @Lob
+    @Column(nullable = false)
+    private String operation;
+
+    private long committedAt;
+
+    // Ids are unique per commit, so tell Spring Data to INSERT instead of SELECT + merge
+    @Transient
+    private boolean isNew = true;
+
+    protected HistoryOperation() {
+    }
+
+    public HistoryOperation(String sessionId, String documentId, int revision, String operation, long committedAt) {
+        this.id = sessionId + ":" + documentId + ":" + revision;
+        this.sessionId = sessionId;
+        this.documentId = documentId;
+        this.revision = revision;
+        this.operation = operation;
+        this.committedAt = committedAt;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public int getRevision() {
+        return revision;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getCommittedAt() {
+        return committedAt;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+}
@@ -0,0 +1,32 @@
+package com.codecafe.backend.storage;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+public interface HistoryOperationRepository extends JpaRepository<HistoryOperation, String> {
+
+    List<HistoryOperation> findBySessionIdAndDocumentIdAndRevisionBetweenOrderByRevisionAsc(
+            String sessionId, String documentId, int fromRevision, int toRevision);
+
+    HistoryOperation findFirstBySessionIdAndDocumentIdAndCommittedAtLessThanEqualOrderByRevisionDesc(
+            String sessionId, String documentId, long committedAt);
+
+    HistoryOperation findFirstBySessionIdAndDocumentIdOrderByRevisionDesc(String sessionId, String documentId);
+
+    @Transactional
+    @Modifying
+    @Query("delete from HistoryOperation o where o.sessionId = :sessionId and o.documentId = :documentId")
+    int deleteDocument(@Param("sessionId") String sessionId, @Param("documentId") String documentId);
+
+    @Transactional
+    @Modifying
+    // Only operations that a checkpoint from before the cutoff already covers, so later revisions stay readable
+    @Query("delete from HistoryOperation o where o.committedAt < :cutoff and exists (select c from HistoryCheckpoint c"
+            + " where c.sessionId = o.sessionId and c.documentId = o.documentId and c.revision >= o.revision and c.createdAt < :cutoff)")
+    int deleteExpired(@Param("cutoff") long cutoff);
+}
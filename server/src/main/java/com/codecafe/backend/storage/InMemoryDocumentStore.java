@@ -0,0 +1,148 @@
+package com.codecafe.backend.storage;
+
+import com.codecafe.backend.dto.TextOperation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Process-local {@link DocumentStore} for single-node deployments and tests, selected with
+ * {@code codecafe.storage.type=memory}. Nothing survives a restart unless it is wrapped by
+ * {@link WalDocumentStore}.
+ *
+ * Each document is an immutable {@link Entry} swapped in with compare-and-set, so readers never
+ * block and always see content, revision and history from the same commit.
+ */
+@Component
+@ConditionalOnProperty(name = "codecafe.storage.type", havingValue = "memory")
+public class InMemoryDocumentStore implements DocumentStore {
+
+    private final ConcurrentHashMap<String, AtomicReference<Entry>> documents = new ConcurrentHashMap<>();
+
+    private static final class Entry {
+        static final Entry EMPTY = new Entry("", 0, new TextOperation[0]);
+
+        final String content;
+        final int revision;
+        // Retained history ending at revision, oldest first; never mutated after construction
+        final TextOperation[] history;
+
+        Entry(String content, int revision, TextOperation[] history) {
+            this.content = content;
+            this.revision = revision;
+            this.history = history;
+        }
+
+        // Revision of the document before the oldest retained operation
+        int baseRevision() {
+            return revision - history.length;
+        }
+
+        Entry append(String newContent, TextOperation operation) {
+            TextOperation[] next;
+            if (history.length < MAX_HISTORY_SIZE_PER_DOC) {
+                next = Arrays.copyOf(history, history.length + 1);
+            } else {
+                // Same trimming as the Redis LTRIM: drop the oldest operation
+                next = new TextOperation[MAX_HISTORY_SIZE_PER_DOC];
+                System.arraycopy(history, 1, next, 0, MAX_HISTORY_SIZE_PER_DOC - 1);
+            }
+            next[next.length - 1] = operation;
+            return new Entry(newContent, revision + 1, next);
+        }
+    }
+
+    private String getDocumentKey(String sessionId, String documentId) {
+        return sessionId + ":" + documentId;
+    }
+
+    private Entry read(String sessionId, String documentId) {
+        AtomicReference<Entry> ref = documents.get(getDocumentKey(sessionId, documentId));
+        return (ref != null) ? ref.get() : null;
+    }
+
+    @Override
+    public String getContent(String sessionId, String documentId) {
+        Entry entry = read(sessionId, documentId);
+        return (entry != null) ? entry.content : null;
+    }
+
+    @Override
+    public int getRevision(String sessionId, String documentId) {
+        Entry entry = read(sessionId, documentId);
+        return (entry != null) ? entry.revision : 0;
+    }
+
+    @Override
+    public List<TextOperation> getOperations(String sessionId, String documentId, int fromRevision, int toRevision) {
+        Entry entry = read(sessionId, documentId);
+        if (entry == null || fromRevision >= toRevision) {
+            return Collections.emptyList();
+        }
+        int base = entry.baseRevision();
+        if (fromRevision < base) {
+            throw new IllegalArgumentException(String.format("Revision %d of %s:%s is no longer retained (oldest is %d).",
+                    fromRevision, sessionId, documentId, base));
+        }
+        int from = fromRevision - base;
+        int to = Math.min(entry.history.length, toRevision - base);
+        return (from < to) ? List.of(Arrays.copyOfRange(entry.history, from, to)) : Collections.emptyList();
+    }
+
+    @Override
+    public List<TextOperation> getOperationHistory(String sessionId, String documentId) {
+        Entry entry = read(sessionId, documentId);
+        return (entry != null) ? List.of(entry.history) : Collections.emptyList();
+    }
+
+    @Override
+    public int appendOperation(String sessionId, String documentId, String newContent, TextOperation operation) {
+        AtomicReference<Entry> ref = documents.computeIfAbsent(getDocumentKey(sessionId, documentId),
+                key -> new AtomicReference<>(Entry.EMPTY));
+        Entry next = ref.updateAndGet(current -> current.append(newContent, operation));
+        return next.revision;
+    }
+
+    @Override
+    public void setContent(String sessionId, String documentId, String content) {
+        documents.compute(getDocumentKey(sessionId, documentId), (key, ref) -> {
+            if (ref == null) {
+                return new AtomicReference<>(new Entry(content, 1, new TextOperation[0]));
+            }
+            ref.updateAndGet(current -> new Entry(content, current.revision + 1, new TextOperation[0]));
+            return ref;
+        });
+    }
+
+    /** History beyond {@link #MAX_HISTORY_SIZE_PER_DOC} is trimmed from the front. */
+    @Override
+    public boolean restoreDocument(String sessionId, String documentId, String content, int revision, List<TextOperation> history) {
+        int from = Math.max(0, history.size() - MAX_HISTORY_SIZE_PER_DOC);
+        TextOperation[] retained = history.subList(from, history.size()).toArray(new TextOperation[0]);
+        return documents.putIfAbsent(getDocumentKey(sessionId, documentId), new AtomicReference<>(new Entry(content, revision, retained))) == null;
+    }
+
+    /**
+     * @return Keys of the form {@code sessionId:documentId} for every stored document.
+     */
+    List<String> documentKeys() {
+        return List.copyOf(documents.keySet());
+    }
+
+    @Override
+    public boolean deleteDocument(String sessionId, String documentId) {
+        return documents.remove(getDocumentKey(sessionId, documentId)) != null;
+    }
+
+    /** Content and history live in one immutable entry, so a snapshot is always consistent. */
+    @Override
+    public DocumentSnapshot readSnapshot(String sessionId, String documentId) {
+        Entry entry = read(sessionId, documentId);
+        return (entry != null) ? new DocumentSnapshot(entry.content, entry.revision) : new DocumentSnapshot("", 0);
+    }
+}
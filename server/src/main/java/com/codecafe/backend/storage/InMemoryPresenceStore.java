@@ -0,0 +1,132 @@
+package com.codecafe.backend.storage;
+
+import com.codecafe.backend.dto.UserInfoDTO;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Process-local {@link PresenceStore} for single-node deployments. Entries expire like their Redis
+ * counterparts, checked by a periodic sweep instead of per-key TTLs.
+ */
+@Component
+// Presence is transient, so the durable single-node WAL mode keeps it in memory as well
+@ConditionalOnExpression("'${codecafe.storage.type:redis}' == 'memory' or '${codecafe.storage.type:redis}' == 'wal'")
+public class InMemoryPresenceStore implements PresenceStore {
+
+    private static final Logger logger = Logger.getLogger(InMemoryPresenceStore.class.getName());
+    private static final long SESSION_EXPIRY_MILLIS = TimeUnit.MINUTES.toMillis(60);
+    private static final long USER_TRACKING_EXPIRY_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    private final Map<String, DocumentPresence> documents = new ConcurrentHashMap<>();
+    private final Map<String, UserDocuments> userDocuments = new ConcurrentHashMap<>();
+
+    private static final class DocumentPresence {
+        final Map<String, UserInfoDTO> users = new ConcurrentHashMap<>();
+        volatile long lastAccess = System.currentTimeMillis();
+    }
+
+    private static final class UserDocuments {
+        final Set<String> entries = ConcurrentHashMap.newKeySet();
+        volatile long lastAccess = System.currentTimeMillis();
+    }
+
+    private String getDocumentKey(String sessionId, String documentId) {
+        return sessionId + ":" + documentId;
+    }
+
+    @Override
+    public void putUser(String sessionId, String documentId, UserInfoDTO userInfo) {
+        documents.compute(getDocumentKey(sessionId, documentId), (key, presence) -> {
+            DocumentPresence target = (presence != null) ? presence : new DocumentPresence();
+            target.users.put(userInfo.getId(), userInfo);
+            target.lastAccess = System.currentTimeMillis();
+            return target;
+        });
+    }
+
+    @Override
+    public UserInfoDTO getUser(String sessionId, String documentId, String userId) {
+        DocumentPresence presence = documents.get(getDocumentKey(sessionId, documentId));
+        return (presence != null) ? presence.users.get(userId) : null;
+    }
+
+    @Override
+    public boolean removeUser(String sessionId, String documentId, String userId) {
+        boolean[] removed = new boolean[1];
+        // compute keeps the removal and the empty check atomic against a concurrent putUser
+        documents.computeIfPresent(getDocumentKey(sessionId, documentId), (key, presence) -> {
+            removed[0] = presence.users.remove(userId) != null;
+            if (presence.users.isEmpty()) {
+                return null;
+            }
+            presence.lastAccess = System.currentTimeMillis();
+            return presence;
+        });
+        return removed[0];
+    }
+
+    @Override
+    public Map<String, UserInfoDTO> getUsers(String sessionId, String documentId) {
+        DocumentPresence presence = documents.get(getDocumentKey(sessionId, documentId));
+        if (presence == null) {
+            return Collections.emptyMap();
+        }
+        presence.lastAccess = System.currentTimeMillis();
+        return new HashMap<>(presence.users);
+    }
+
+    @Override
+    public List<Map.Entry<String, String>> removeUserEverywhere(String userId) {
+        List<Map.Entry<String, String>> affectedEntries = new ArrayList<>();
+        for (String key : documents.keySet()) {
+            String[] parts = key.split(":", 2);
+            if (parts.length == 2 && removeUser(parts[0], parts[1], userId)) {
+                affectedEntries.add(new AbstractMap.SimpleEntry<>(parts[0], parts[1]));
+            }
+        }
+        return affectedEntries;
+    }
+
+    @Override
+    public void trackUserDocument(String userId, String sessionId, String documentId) {
+        UserDocuments tracked = userDocuments.computeIfAbsent(userId, id -> new UserDocuments());
+        tracked.entries.add(sessionId + ":" + documentId);
+        tracked.lastAccess = System.currentTimeMillis();
+    }
+
+    @Override
+    public Set<String> getUserDocuments(String userId) {
+        UserDocuments tracked = userDocuments.get(userId);
+        return (tracked != null) ? Set.copyOf(tracked.entries) : Collections.emptySet();
+    }
+
+    @Override
+    public void clearUserDocuments(String userId) {
+        userDocuments.remove(userId);
+    }
+
+    /** Drops presence and tracking entries that have been idle longer than their expiry. */
+    @Scheduled(fixedDelay = 60000)
+    public void purgeExpired() {
+        long now = System.currentTimeMillis();
+        int before = documents.size();
+        documents.values().removeIf(presence -> now - presence.lastAccess > SESSION_EXPIRY_MILLIS);
+        userDocuments.values().removeIf(tracked -> now - tracked.lastAccess > USER_TRACKING_EXPIRY_MILLIS);
+        int purged = before - documents.size();
+        if (purged > 0) {
+            logger.fine(String.format("Purged %d expired document presence entries.", purged));
+        }
+    }
+}
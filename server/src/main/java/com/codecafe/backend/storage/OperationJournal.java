@@ -0,0 +1,366 @@
+package com.codecafe.backend.storage;
+
+import com.codecafe.backend.dto.TextOperation;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Write-behind journal for operations committed while the {@link DocumentStore} is unreachable.
+ *
+ * {@code OtService} keeps sequencing such operations against its in-memory heads and appends them
+ * here; once the store is back they are replayed into it in revision order. Entries are kept on the
+ * heap and appended to {@code journal.log} in {@code dir}, so they also survive a restart of this
+ * node. The journal is bounded by {@code max-bytes} of operation data; once that is used up new
+ * operations are rejected until replay frees space.
+ *
+ * All methods are synchronized; the journal is only busy while the store is down.
+ */
+@Component
+public class OperationJournal {
+
+    private static final Logger logger = Logger.getLogger(OperationJournal.class.getName());
+    private static final String JOURNAL_FILE = "journal.log";
+    private static final int ENTRY_OVERHEAD_BYTES = 64; // Rough per-entry heap cost besides the op itself
+
+    /** Thrown when the journal budget is used up; the operation was not committed. */
+    public static class JournalFullException extends IllegalStateException {
+        public JournalFullException(String message) {
+            super(message);
+        }
+    }
+
+    /** An operation waiting to be written to the store. */
+    public static final class Entry {
+        private final int revision;
+        private final TextOperation operation;
+        private final long sizeBytes;
+
+        Entry(int revision, TextOperation operation, long sizeBytes) {
+            this.revision = revision;
+            this.operation = operation;
+            this.sizeBytes = sizeBytes;
+        }
+
+        /** The revision this operation produced. */
+        public int getRevision() {
+            return revision;
+        }
+
+        public TextOperation getOperation() {
+            return operation;
+        }
+    }
+
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final Path directory;
+    private final long maxBytes;
+
+    // Keyed by "sessionId:documentId", oldest entry first
+    private final Map<String, Deque<Entry>> documents = new LinkedHashMap<>();
+    private long totalBytes;
+    private int totalEntries;
+    private FileChannel file;
+
+    private final Counter journaledCounter;
+    private final Counter replayedCounter;
+    private final Counter rejectedCounter;
+    private final Counter discardedCounter;
+
+    public OperationJournal(ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                            @Value("${codecafe.journal.enabled:true}") boolean enabled,
+                            @Value("${codecafe.journal.dir:./data/journal}") String directory,
+                            @Value("${codecafe.journal.max-bytes:67108864}") long maxBytes) {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.maxBytes = maxBytes;
+        this.journaledCounter = meterRegistry.counter("codecafe.journal.operations", "result", "journaled");
+        this.replayedCounter = meterRegistry.counter("codecafe.journal.operations", "result", "replayed");
+        this.rejectedCounter = meterRegistry.counter("codecafe.journal.operations", "result", "rejected");
+        this.discardedCounter = meterRegistry.counter("codecafe.journal.operations", "result", "discarded");
+        Gauge.builder("codecafe.journal.pending.entries", this, journal -> journal.size()).register(meterRegistry);
+        Gauge.builder("codecafe.journal.pending.bytes", this, journal -> journal.sizeBytes()).register(meterRegistry);
+        Gauge.builder("codecafe.journal.pending.documents", this, journal -> journal.pendingDocuments().size()).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public synchronized void recover() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(directory);
+        Path path = directory.resolve(JOURNAL_FILE);
+        if (Files.exists(path)) {
+            loadFile(path);
+        }
+        file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (totalEntries > 0) {
+            logger.warning(String.format("Recovered %d journaled operations of %d documents from %s; they are replayed once the store is reachable.",
+                    totalEntries, documents.size(), path.toAbsolutePath()));
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.force(false);
+            file.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to close operation journal: " + e.getMessage(), e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Appends an operation the store could not take.
+     * @param revision The revision the operation produced; must follow the document's last entry.
+     * @throws JournalFullException if the journal budget is used up.
+     */
+    public synchronized void append(String sessionId, String documentId, int revision, TextOperation operation) {
+        if (!enabled) {
+            throw new IllegalStateException("Operation journal is disabled.");
+        }
+        String json = serialize(operation);
+        long size = json.length() * 2L + ENTRY_OVERHEAD_BYTES;
+        if (totalBytes + size > maxBytes) {
+            rejectedCounter.increment();
+            throw new JournalFullException(String.format("Operation journal is full (%d of %d bytes in %d entries).",
+                    totalBytes, maxBytes, totalEntries));
+        }
+        Deque<Entry> entries = documents.computeIfAbsent(getDocumentKey(sessionId, documentId), key -> new ArrayDeque<>());
+        if (!entries.isEmpty() && entries.peekLast().revision != revision - 1) {
+            throw new IllegalStateException(String.format("Journal for %s:%s ends at revision %d, cannot append %d.",
+                    sessionId, documentId, entries.peekLast().revision, revision));
+        }
+        try {
+            writeRecord(sessionId, documentId, revision, json);
+        } catch (IOException e) {
+            if (entries.isEmpty()) {
+                documents.remove(getDocumentKey(sessionId, documentId));
+            }
+            throw new IllegalStateException("Failed to write operation journal.", e);
+        }
+        entries.addLast(new Entry(revision, operation, size));
+        totalBytes += size;
+        totalEntries++;
+        journaledCounter.increment();
+    }
+
+    public synchronized boolean hasPending(String sessionId, String documentId) {
+        return documents.containsKey(getDocumentKey(sessionId, documentId));
+    }
+
+    /**
+     * @return The revision of the store copy the document's journal builds on, or -1 if it has none.
+     */
+    public synchronized int getBaseRevision(String sessionId, String documentId) {
+        Deque<Entry> entries = documents.get(getDocumentKey(sessionId, documentId));
+        return (entries != null) ? entries.peekFirst().revision - 1 : -1;
+    }
+
+    /** @return A copy of the document's pending entries, oldest first. */
+    public synchronized List<Entry> getEntries(String sessionId, String documentId) {
+        Deque<Entry> entries = documents.get(getDocumentKey(sessionId, documentId));
+        return (entries != null) ? new ArrayList<>(entries) : Collections.emptyList();
+    }
+
+    /**
+     * Returns journaled operations that moved the document from {@code fromRevision} to
+     * {@code toRevision}, like {@link DocumentStore#getOperations}.
+     */
+    public synchronized List<TextOperation> getOperations(String sessionId, String documentId, int fromRevision, int toRevision) {
+        Deque<Entry> entries = documents.get(getDocumentKey(sessionId, documentId));
+        if (entries == null) {
+            return Collections.emptyList();
+        }
+        List<TextOperation> operations = new ArrayList<>();
+        for (Entry entry : entries) {
+            // The entry for revision r is the operation from r - 1 to r
+            if (entry.revision > fromRevision && entry.revision <= toRevision) {
+                operations.add(entry.operation);
+            }
+        }
+        return operations;
+    }
+
+    /** Removes the oldest entry of a document after it was written to the store. */
+    public synchronized void removeFirst(String sessionId, String documentId, boolean replayed) {
+        String documentKey = getDocumentKey(sessionId, documentId);
+        Deque<Entry> entries = documents.get(documentKey);
+        if (entries == null) {
+            return;
+        }
+        Entry entry = entries.pollFirst();
+        totalBytes -= entry.sizeBytes;
+        totalEntries--;
+        if (replayed) {
+            replayedCounter.increment();
+        }
+        if (entries.isEmpty()) {
+            documents.remove(documentKey);
+            truncateIfEmpty();
+        }
+    }
+
+    /** Drops all pending entries of a document, e.g. when its content was replaced. */
+    public synchronized void discard(String sessionId, String documentId) {
+        Deque<Entry> entries = documents.remove(getDocumentKey(sessionId, documentId));
+        if (entries == null) {
+            return;
+        }
+        for (Entry entry : entries) {
+            totalBytes -= entry.sizeBytes;
+        }
+        totalEntries -= entries.size();
+        discardedCounter.increment(entries.size());
+        truncateIfEmpty();
+    }
+
+    /** @return Keys of the form {@code sessionId:documentId} of documents with pending entries. */
+    public synchronized List<String> pendingDocuments() {
+        return new ArrayList<>(documents.keySet());
+    }
+
+    public synchronized int size() {
+        return totalEntries;
+    }
+
+    public synchronized long sizeBytes() {
+        return totalBytes;
+    }
+
+    private String getDocumentKey(String sessionId, String documentId) {
+        return sessionId + ":" + documentId;
+    }
+
+    // The file only ever holds pending entries plus replayed ones; restart once nothing is pending
+    private void truncateIfEmpty() {
+        if (totalEntries > 0 || file == null) {
+            return;
+        }
+        try {
+            file.truncate(0);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to truncate operation journal: " + e.getMessage(), e);
+        }
+    }
+
+    // Record: [int length][int crc32][UTF sessionId, UTF documentId, int revision, int length + op JSON]
+    private void writeRecord(String sessionId, String documentId, int revision, String json) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + json.length());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(sessionId);
+            out.writeUTF(documentId);
+            out.writeInt(revision);
+            byte[] op = json.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(op.length);
+            out.write(op);
+        }
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        while (record.hasRemaining()) {
+            file.write(record);
+        }
+    }
+
+    // Rebuilds pending entries; a torn record ends the file. Replay skips entries the store already has.
+    private void loadFile(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(path)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int expectedCrc = in.readInt();
+                if (length <= 0 || length > in.available()) {
+                    logger.warning("Torn record in operation journal; ignoring the rest of it.");
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != expectedCrc) {
+                    logger.warning("Checksum mismatch in operation journal; ignoring the rest of it.");
+                    break;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                String sessionId = record.readUTF();
+                String documentId = record.readUTF();
+                int revision = record.readInt();
+                byte[] op = new byte[record.readInt()];
+                record.readFully(op);
+                String json = new String(op, StandardCharsets.UTF_8);
+                Deque<Entry> entries = documents.computeIfAbsent(getDocumentKey(sessionId, documentId), key -> new ArrayDeque<>());
+                if (!entries.isEmpty() && entries.peekLast().revision != revision - 1) {
+                    // The document's journal emptied and started again later, so the older run was replayed
+                    for (Entry replayed : entries) {
+                        totalBytes -= replayed.sizeBytes;
+                    }
+                    totalEntries -= entries.size();
+                    entries.clear();
+                }
+                long size = json.length() * 2L + ENTRY_OVERHEAD_BYTES;
+                entries.addLast(new Entry(revision, deserialize(json), size));
+                totalBytes += size;
+                totalEntries++;
+            }
+        }
+    }
+
+    private String serialize(TextOperation operation) {
+        try {
+            return objectMapper.writeValueAsString(operation.getOps());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize operation for journal.", e);
+        }
+    }
+
+    private TextOperation deserialize(String json) throws IOException {
+        return new TextOperation(objectMapper.readValue(json, new TypeReference<List<Object>>() {}));
+    }
+}
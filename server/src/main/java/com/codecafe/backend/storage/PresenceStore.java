@@ -0,0 +1,51 @@
+package com.codecafe.backend.storage;
+
+import com.codecafe.backend.dto.UserInfoDTO;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Storage for who is present in each session/document and which documents each user has joined.
+ * Presence entries expire after a period of inactivity; every write or read of a document's
+ * participants refreshes that period.
+ */
+public interface PresenceStore {
+
+    /** Adds or replaces a user's entry for a document. */
+    void putUser(String sessionId, String documentId, UserInfoDTO userInfo);
+
+    /**
+     * @return The user's entry for the document, or null if not present.
+     */
+    UserInfoDTO getUser(String sessionId, String documentId, String userId);
+
+    /**
+     * Removes a user from a document, dropping the document's entry set once it is empty.
+     * @return true if the user was present.
+     */
+    boolean removeUser(String sessionId, String documentId, String userId);
+
+    /**
+     * @return The users present in the document keyed by user id; empty if none.
+     */
+    Map<String, UserInfoDTO> getUsers(String sessionId, String documentId);
+
+    /**
+     * Removes a user from every document they are present in. May need to scan all entries.
+     * @return (sessionId, documentId) pairs the user was removed from.
+     */
+    List<Map.Entry<String, String>> removeUserEverywhere(String userId);
+
+    /** Records that a user joined a document so it can be cleaned up on disconnect. */
+    void trackUserDocument(String userId, String sessionId, String documentId);
+
+    /**
+     * @return Entries of the form {@code sessionId:documentId} the user has joined.
+     */
+    Set<String> getUserDocuments(String userId);
+
+    /** Forgets the documents tracked for a user. */
+    void clearUserDocuments(String userId);
+}
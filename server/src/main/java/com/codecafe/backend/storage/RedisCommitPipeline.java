@@ -0,0 +1,248 @@
+package com.codecafe.backend.storage;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Group commit for {@link RedisDocumentStore}: commit scripts from all documents are collected
+ * into batches and sent over one pipelined connection, so a busy node pays one round trip per
+ * batch instead of one per operation.
+ *
+ * A batch is sent once it holds {@code max-batch} commits or {@code max-delay-micros} after its
+ * first commit arrived, whichever comes first. Callers block until the batch carrying their commit
+ * has been executed, so an operation is only acknowledged once Redis has applied it. Commits of
+ * one document never share a batch, since OtService waits for each before sequencing the next.
+ */
+@Component
+@ConditionalOnProperty(name = "codecafe.storage.type", havingValue = "redis", matchIfMissing = true)
+public class RedisCommitPipeline {
+
+    private static final Logger logger = Logger.getLogger(RedisCommitPipeline.class.getName());
+    private static final long COMMIT_TIMEOUT_MILLIS = 10000;
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final ReactiveRedisTemplate<String, Object> reactiveRedisTemplate;
+    private final RedisScript<Long> updateContentAndHistoryScript;
+    private final boolean enabled;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+
+    private final BlockingQueue<PendingCommit> queue = new LinkedBlockingQueue<>();
+    private Thread flusher;
+    private volatile boolean running;
+
+    private static final class PendingCommit {
+        final List<String> keys;
+        final Object[] args;
+        final CompletableFuture<Long> result = new CompletableFuture<>();
+
+        PendingCommit(List<String> keys, Object[] args) {
+            this.keys = keys;
+            this.args = args;
+        }
+    }
+
+    public RedisCommitPipeline(RedisTemplate<String, Object> redisTemplate,
+                               ReactiveRedisTemplate<String, Object> reactiveRedisTemplate,
+                               RedisScript<Long> updateContentAndHistoryScript,
+                               @Value("${codecafe.storage.redis.group-commit.enabled:true}") boolean enabled,
+                               @Value("${codecafe.storage.redis.group-commit.max-batch:64}") int maxBatch,
+                               @Value("${codecafe.storage.redis.group-commit.max-delay-micros:1000}") long maxDelayMicros) {
+        this.redisTemplate = redisTemplate;
+        this.reactiveRedisTemplate = reactiveRedisTemplate;
+        this.updateContentAndHistoryScript = updateContentAndHistoryScript;
+        this.enabled = enabled;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        flusher = new Thread(this::run, "redis-group-commit");
+        flusher.setDaemon(true);
+        flusher.start();
+        logger.info(String.format("Redis group commit enabled (max batch %d, max delay %d us).",
+                maxBatch, TimeUnit.NANOSECONDS.toMicros(maxDelayNanos)));
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (flusher != null) {
+            flusher.interrupt();
+            try {
+                flusher.join(COMMIT_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Anything still queued is executed directly rather than failed
+        PendingCommit commit;
+        while ((commit = queue.poll()) != null) {
+            executeDirectly(commit);
+        }
+    }
+
+    /**
+     * Runs the commit script as part of the next batch and waits for its result.
+     * @return The script's result, the document's new revision.
+     * @throws IllegalStateException if the commit failed or timed out; its outcome is then unknown.
+     */
+    public Long commit(List<String> keys, Object[] args) {
+        if (!running) {
+            return redisTemplate.execute(updateContentAndHistoryScript, keys, args);
+        }
+        PendingCommit commit = new PendingCommit(keys, args);
+        queue.add(commit);
+        try {
+            return commit.result.get(COMMIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Batched commit failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Batched commit timed out.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for batched commit.", e);
+        }
+    }
+
+    /**
+     * Non-blocking {@link #commit}: the future completes once the batch carrying the commit has run,
+     * on the flusher thread. With group commit disabled the script is sent on its own through the
+     * reactive template and the future completes on a Redis I/O thread, so callers must not block
+     * in dependent stages.
+     */
+    public CompletableFuture<Long> commitAsync(List<String> keys, Object[] args) {
+        if (!running) {
+            return reactiveRedisTemplate.execute(updateContentAndHistoryScript, keys, Arrays.asList(args)).next().toFuture();
+        }
+        PendingCommit commit = new PendingCommit(keys, args);
+        queue.add(commit);
+        return commit.result.orTimeout(COMMIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void run() {
+        List<PendingCommit> batch = new ArrayList<>(maxBatch);
+        while (running) {
+            try {
+                PendingCommit first = queue.take();
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatch) {
+                    if (queue.drainTo(batch, maxBatch - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    PendingCommit next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                // stop() drains the queue
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Unexpected error in Redis group commit: " + e.getMessage(), e);
+                for (PendingCommit commit : batch) {
+                    commit.result.completeExceptionally(e);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingCommit> batch) {
+        if (batch.size() == 1) {
+            executeDirectly(batch.get(0));
+            return;
+        }
+        List<Object> results;
+        try {
+            results = redisTemplate.executePipelined(pipelinedCommits(batch));
+        } catch (RedisPipelineException e) {
+            // Holds a result or an exception per command
+            results = e.getPipelineResult();
+        } catch (Exception e) {
+            for (PendingCommit commit : batch) {
+                commit.result.completeExceptionally(e);
+            }
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            PendingCommit commit = batch.get(i);
+            Object result = (i < results.size()) ? results.get(i) : null;
+            if (result instanceof Long) {
+                commit.result.complete((Long) result);
+            } else if (result instanceof Exception && String.valueOf(((Exception) result).getMessage()).contains("NOSCRIPT")) {
+                // Script not cached on the server yet; a direct execute loads it
+                executeDirectly(commit);
+            } else if (result instanceof Exception) {
+                commit.result.completeExceptionally((Exception) result);
+            } else {
+                commit.result.completeExceptionally(new IllegalStateException("Unexpected commit script result: " + result));
+            }
+        }
+        logger.fine(String.format("Flushed %d commits in one pipeline.", batch.size()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedisCallback<Object> pipelinedCommits(List<PendingCommit> batch) {
+        RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisTemplate.getKeySerializer();
+        RedisSerializer<Object> argSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+        String sha = updateContentAndHistoryScript.getSha1();
+        return connection -> {
+            for (PendingCommit commit : batch) {
+                byte[][] keysAndArgs = new byte[commit.keys.size() + commit.args.length][];
+                int i = 0;
+                for (String key : commit.keys) {
+                    keysAndArgs[i++] = keySerializer.serialize(key);
+                }
+                for (Object arg : commit.args) {
+                    keysAndArgs[i++] = argSerializer.serialize(arg);
+                }
+                connection.scriptingCommands().evalSha(sha, ReturnType.INTEGER, commit.keys.size(), keysAndArgs);
+            }
+            return null;
+        };
+    }
+
+    private void executeDirectly(PendingCommit commit) {
+        try {
+            commit.result.complete(redisTemplate.execute(updateContentAndHistoryScript, commit.keys, commit.args));
+        } catch (Exception e) {
+            commit.result.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package com.codecafe.backend.storage;
+
+import com.codecafe.backend.cluster.ClusterNode;
+import com.codecafe.backend.cluster.DocumentOwnershipService;
+import com.codecafe.backend.dto.InsertRef;
+import com.codecafe.backend.dto.TextOperation;
+import com.codecafe.backend.util.ContentHash;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.ListOperations;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Default {@link DocumentStore}: content in a string key, the revision in a counter key and history
+ * as a list of JSON-encoded operations, all updated together by the
+ * {@code updateContentAndHistoryScript} Lua script. The list holds the operations ending at the
+ * revision, so the oldest retained revision is the revision minus the list length.
+ *
+ * Inserts of at least {@code blob-threshold-chars} characters are stored once per document in a
+ * hash keyed by their SHA-256, and history entries hold {@code {"blob": hash, "length": n}} in
+ * their place. Catch-up reads then stay small; the text is only loaded by {@link #resolveInserts}.
+ *
+ * In cluster mode commits carry this node's id as a fencing token: the script refuses them while
+ * another node holds the session's ownership lease, and {@link FencedCommitException} is thrown.
+ */
+@Component
+@ConditionalOnProperty(name = "codecafe.storage.type", havingValue = "redis", matchIfMissing = true)
+public class RedisDocumentStore implements DocumentStore {
+
+    private static final Logger logger = Logger.getLogger(RedisDocumentStore.class.getName());
+
+    // Format for keys using hash tags for Redis Cluster compatibility
+    private static final String CLUSTER_KEY_FORMAT = "doc:{%s}:%s:%s"; // {sessionId} is the hash tag
+    // Sorted set of "sessionId:documentId" scored by last write time, used to find idle documents.
+    // Lives outside the per-session hash tag, so it is updated next to the commit script, not inside it.
+    private static final String ACTIVITY_KEY = "doc:activity";
+    private static final long ACTIVITY_TOUCH_INTERVAL_MILLIS = 60 * 1000;
+    // Field names of an out-of-line insert in history JSON
+    private static final String BLOB_FIELD = "blob";
+    private static final String LENGTH_FIELD = "length";
+
+    // Installs a document unless its content key exists. Keys as in getAllKeys; ARGV: content,
+    // revision, number of history entries, the entries, then (hash, text) per out-of-line insert
+    private static final RedisScript<Long> RESTORE_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 1 then
+                return 0
+            end
+            redis.call('DEL', KEYS[2], KEYS[3], KEYS[4])
+            local historyCount = tonumber(ARGV[3])
+            for i = 4, 3 + historyCount do
+                redis.call('RPUSH', KEYS[2], ARGV[i])
+            end
+            for i = 4 + historyCount, #ARGV, 2 do
+                local hash = cjson.decode(ARGV[i])
+                redis.call('HSETNX', KEYS[3], hash, ARGV[i + 1])
+                redis.call('HINCRBY', KEYS[4], hash, 1)
+            end
+            redis.call('SET', KEYS[5], ARGV[2])
+            redis.call('SET', KEYS[1], ARGV[1])
+            return 1
+            """, Long.class);
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    // Read-only paths that tolerate replication lag (state fetches, full history reads)
+    private final RedisTemplate<String, Object> replicaReadRedisTemplate;
+    // Background writes from the non-blocking commit path
+    private final ReactiveRedisTemplate<String, Object> reactiveRedisTemplate;
+    private final ValueOperations<String, Object> valueOperations;
+    // Use <String, Object> as RedisTemplate is configured this way
+    private final ListOperations<String, Object> historyListOperations;
+    // Batches commit scripts of all documents into pipelined round trips
+    private final RedisCommitPipeline commitPipeline;
+    private final ObjectMapper objectMapper;
+    private final int blobThresholdChars;
+    // Lease value commits must match, or "" to commit without checking the lease
+    private final String fencingToken;
+    // Last time this node recorded activity per document; idle thresholds are far coarser than a minute
+    private final Map<String, Long> lastActivityTouch = new ConcurrentHashMap<>();
+
+    public RedisDocumentStore(RedisTemplate<String, Object> redisTemplate,
+                              @Qualifier("replicaReadRedisTemplate") RedisTemplate<String, Object> replicaReadRedisTemplate,
+                              ReactiveRedisTemplate<String, Object> reactiveRedisTemplate,
+                              RedisCommitPipeline commitPipeline,
+                              ObjectMapper objectMapper,
+                              ClusterNode clusterNode,
+                              @Value("${codecafe.cluster.enabled:false}") boolean clusterEnabled,
+                              @Value("${codecafe.storage.redis.blob-threshold-chars:4096}") int blobThresholdChars) {
+        this.redisTemplate = redisTemplate;
+        this.replicaReadRedisTemplate = replicaReadRedisTemplate;
+        this.reactiveRedisTemplate = reactiveRedisTemplate;
+        this.valueOperations = redisTemplate.opsForValue();
+        this.historyListOperations = redisTemplate.opsForList();
+        this.commitPipeline = commitPipeline;
+        this.objectMapper = objectMapper;
+        this.blobThresholdChars = blobThresholdChars;
+        this.fencingToken = clusterEnabled ? clusterNode.getNodeId() : "";
+        logger.info("RedisDocumentStore initialized.");
+    }
+
+    private String getContentKey(String sessionId, String documentId) {
+        return String.format(CLUSTER_KEY_FORMAT, sessionId, "content", documentId);
+    }
+
+    private String getHistoryKey(String sessionId, String documentId) {
+        return String.format(CLUSTER_KEY_FORMAT, sessionId, "history", documentId);
+    }
+
+    private String getBlobKey(String sessionId, String documentId) {
+        return String.format(CLUSTER_KEY_FORMAT, sessionId, "blobs", documentId);
+    }
+
+    private String getBlobRefKey(String sessionId, String documentId) {
+        return String.format(CLUSTER_KEY_FORMAT, sessionId, "blobrefs", documentId);
+    }
+
+    private String getRevisionKey(String sessionId, String documentId) {
+        return String.format(CLUSTER_KEY_FORMAT, sessionId, "revision", documentId);
+    }
+
+    private List<String> getAllKeys(String sessionId, String documentId) {
+        return List.of(getContentKey(sessionId, documentId), getHistoryKey(sessionId, documentId),
+                getBlobKey(sessionId, documentId), getBlobRefKey(sessionId, documentId), getRevisionKey(sessionId, documentId));
+    }
+
+    // Keys of the commit script: the document's keys, then the session's lease
+    private List<String> getCommitKeys(String sessionId, String documentId) {
+        List<String> keys = new ArrayList<>(getAllKeys(sessionId, documentId));
+        keys.add(DocumentOwnershipService.getLeaseKey(sessionId));
+        return keys;
+    }
+
+    /** Thrown when a commit is refused because another node holds the session's lease. */
+    public static class FencedCommitException extends IllegalStateException {
+        public FencedCommitException(String message) {
+            super(message);
+        }
+    }
+
+    private int committedRevision(String sessionId, String documentId, Long revision) {
+        if (revision == null) {
+            throw new IllegalStateException("Commit script returned no revision.");
+        }
+        if (revision == 0) {
+            throw new FencedCommitException(String.format("[Session: %s, Doc: %s] Commit refused: another node owns the session.",
+                    sessionId, documentId));
+        }
+        return revision.intValue();
+    }
+
+    @Override
+    public String getContent(String sessionId, String documentId) {
+        Object content = valueOperations.get(getContentKey(sessionId, documentId));
+        return (content instanceof String) ? (String) content : null;
+    }
+
+    @Override
+    public int getRevision(String sessionId, String documentId) {
+        Object revision = valueOperations.get(getRevisionKey(sessionId, documentId));
+        if (revision instanceof Number) {
+            return ((Number) revision).intValue();
+        }
+        // Written before the revision key existed, when history was never trimmed
+        Long size = historyListOperations.size(getHistoryKey(sessionId, documentId));
+        return (size != null) ? size.intValue() : 0;
+    }
+
+    @Override
+    public List<TextOperation> getOperations(String sessionId, String documentId, int fromRevision, int toRevision) {
+        if (fromRevision >= toRevision) {
+            return Collections.emptyList();
+        }
+        String historyKey = getHistoryKey(sessionId, documentId);
+        byte[] rawRevisionKey = getRevisionKey(sessionId, documentId).getBytes(StandardCharsets.UTF_8);
+        byte[] rawHistoryKey = historyKey.getBytes(StandardCharsets.UTF_8);
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.stringCommands().get(rawRevisionKey);
+            connection.listCommands().lLen(rawHistoryKey);
+            return null;
+        });
+        int size = (results.get(1) instanceof Long) ? ((Long) results.get(1)).intValue() : 0;
+        int revision = (results.get(0) instanceof Number) ? ((Number) results.get(0)).intValue() : size;
+        int base = revision - size;
+        if (fromRevision < base) {
+            throw new IllegalArgumentException(String.format("Revision %d of %s:%s is no longer retained (oldest is %d).",
+                    fromRevision, sessionId, documentId, base));
+        }
+        // Retrieve history as List of Objects (expecting Strings)
+        List<Object> rawOps = historyListOperations.range(historyKey, fromRevision - base, toRevision - base - 1);
+        return decodeOperations(sessionId, documentId, historyKey, rawOps, true);
+    }
+
+    @Override
+    public List<TextOperation> getOperationHistory(String sessionId, String documentId) {
+        // A lagging replica is fine for a full history read
+        return readOperationHistory(replicaReadRedisTemplate, sessionId, documentId);
+    }
+
+    @Override
+    public List<TextOperation> getOperationHistoryFromPrimary(String sessionId, String documentId) {
+        return readOperationHistory(redisTemplate, sessionId, documentId);
+    }
+
+    private List<TextOperation> readOperationHistory(RedisTemplate<String, Object> template, String sessionId, String documentId) {
+        String historyKey = getHistoryKey(sessionId, documentId);
+        List<Object> rawOps = template.opsForList().range(historyKey, 0, -1);
+        return resolveInserts(sessionId, documentId, decodeOperations(sessionId, documentId, historyKey, rawOps, false));
+    }
+
+    @Override
+    public List<TextOperation> resolveInserts(String sessionId, String documentId, List<TextOperation> operations) {
+        List<Object> hashes = new ArrayList<>();
+        for (TextOperation operation : operations) {
+            for (Object op : operation.getOps()) {
+                if (op instanceof InsertRef) {
+                    hashes.add(((InsertRef) op).getHash());
+                }
+            }
+        }
+        if (hashes.isEmpty()) {
+            return operations;
+        }
+
+        String blobKey = getBlobKey(sessionId, documentId);
+        List<Object> texts = redisTemplate.opsForHash().multiGet(blobKey, hashes);
+        Map<String, String> textByHash = new HashMap<>();
+        for (int i = 0; i < hashes.size(); i++) {
+            Object text = (texts != null && i < texts.size()) ? texts.get(i) : null;
+            if (!(text instanceof String)) {
+                throw new IllegalStateException("Missing out-of-line insert " + hashes.get(i) + " in " + blobKey);
+            }
+            textByHash.put((String) hashes.get(i), (String) text);
+        }
+
+        List<TextOperation> resolved = new ArrayList<>(operations.size());
+        for (TextOperation operation : operations) {
+            if (!operation.hasInsertRefs()) {
+                resolved.add(operation);
+                continue;
+            }
+            List<Object> ops = new ArrayList<>();
+            for (Object op : operation.getOps()) {
+                ops.add((op instanceof InsertRef) ? textByHash.get(((InsertRef) op).getHash()) : op);
+            }
+            resolved.add(new TextOperation(ops));
+        }
+        return resolved;
+    }
+
+    private List<TextOperation> decodeOperations(String sessionId, String documentId, String historyKey,
+                                                 List<Object> rawOps, boolean failOnInvalid) {
+        if (rawOps == null) {
+            return Collections.emptyList();
+        }
+        List<TextOperation> operations = new ArrayList<>(rawOps.size());
+        for (Object rawOp : rawOps) {
+            if (!(rawOp instanceof String)) {
+                logger.warning(String.format("[Session: %s, Doc: %s] Unexpected non-string type found in history: %s",
+                        sessionId, documentId, rawOp != null ? rawOp.getClass().getName() : "null"));
+                continue; // Skip non-string entries
+            }
+            String opJson = (String) rawOp;
+            try {
+                // Deserialize each JSON string into List<Object> and construct TextOperation from it
+                List<Object> opsList = objectMapper.readValue(opJson, new TypeReference<List<Object>>() {});
+                for (int i = 0; i < opsList.size(); i++) {
+                    if (opsList.get(i) instanceof Map) {
+                        Map<?, ?> ref = (Map<?, ?>) opsList.get(i);
+                        opsList.set(i, new InsertRef((String) ref.get(BLOB_FIELD), ((Number) ref.get(LENGTH_FIELD)).intValue()));
+                    }
+                }
+                operations.add(new TextOperation(opsList));
+            } catch (JsonProcessingException | RuntimeException e) {
+                logger.warning(String.format("[Session: %s, Doc: %s] Failed to parse operation JSON from history: %s. JSON: %s",
+                        sessionId, documentId, e.getMessage(), opJson));
+                if (failOnInvalid) {
+                    throw new IllegalStateException("Invalid operation format found in Redis history list for key: " + historyKey, e);
+                }
+            }
+        }
+        return operations;
+    }
+
+    @Override
+    public int appendOperation(String sessionId, String documentId, String newContent, TextOperation operation) {
+        // Execute Lua script to update content, store new blobs and add JSON op to history; returns once its batch ran
+        Long revision = commitPipeline.commit(getCommitKeys(sessionId, documentId), commitArgs(newContent, operation));
+        int committed = committedRevision(sessionId, documentId, revision);
+        touchActivity(sessionId, documentId);
+        return committed;
+    }
+
+    /** Runs the same commit script without blocking; activity is recorded in the background. */
+    @Override
+    public CompletableFuture<Integer> appendOperationAsync(String sessionId, String documentId, String newContent, TextOperation operation) {
+        Object[] args;
+        try {
+            args = commitArgs(newContent, operation);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return commitPipeline.commitAsync(getCommitKeys(sessionId, documentId), args).thenApply(revision -> {
+            int committed = committedRevision(sessionId, documentId, revision);
+            touchActivityAsync(sessionId, documentId);
+            return committed;
+        });
+    }
+
+    // Script ARGV: content, operation JSON, history cap, fencing token, then (hash, text) per out-of-line insert
+    private Object[] commitArgs(String newContent, TextOperation operation) {
+        List<Map.Entry<String, String>> blobs = new ArrayList<>();
+        String operationJson = encodeOperation(operation, blobs);
+        List<Object> args = new ArrayList<>(4 + 2 * blobs.size());
+        args.add(newContent);
+        args.add(operationJson);
+        // Passed as a number; a String would reach the script JSON-quoted and never trim
+        args.add(MAX_HISTORY_SIZE_PER_DOC);
+        args.add(fencingToken);
+        for (Map.Entry<String, String> blob : blobs) {
+            args.add(blob.getKey());
+            args.add(blob.getValue());
+        }
+        return args.toArray();
+    }
+
+    // Serializes the operation's ops list, moving large inserts into blobs as (hash, text) entries.
+    // There is one entry per reference, matching how the commit script counts and releases them.
+    private String encodeOperation(TextOperation operation, List<Map.Entry<String, String>> blobs) {
+        List<Object> ops = operation.getOps();
+        List<Object> encoded = new ArrayList<>(ops.size());
+        for (Object op : ops) {
+            if (op instanceof String && ((String) op).length() >= blobThresholdChars) {
+                String text = (String) op;
+                String hash = ContentHash.sha256(text);
+                blobs.add(Map.entry(hash, text));
+                encoded.add(Map.of(BLOB_FIELD, hash, LENGTH_FIELD, text.length()));
+            } else if (op instanceof InsertRef) {
+                throw new IllegalArgumentException("Cannot store an operation with unresolved out-of-line inserts.");
+            } else {
+                encoded.add(op);
+            }
+        }
+        try {
+            return objectMapper.writeValueAsString(encoded);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize operation for Redis history.", e);
+        }
+    }
+
+    /** Not atomic across the keys; callers hold the document's OtService lock on the owning node. */
+    @Override
+    public void setContent(String sessionId, String documentId, String content) {
+        int revision = getRevision(sessionId, documentId) + 1;
+        valueOperations.set(getRevisionKey(sessionId, documentId), revision);
+        valueOperations.set(getContentKey(sessionId, documentId), content);
+        redisTemplate.delete(List.of(getHistoryKey(sessionId, documentId), getBlobKey(sessionId, documentId),
+                getBlobRefKey(sessionId, documentId)));
+        touchActivity(sessionId, documentId);
+    }
+
+    /** One script, so it cannot interleave with another restore or a commit from any node. */
+    @Override
+    public boolean restoreDocument(String sessionId, String documentId, String content, int revision, List<TextOperation> history) {
+        List<TextOperation> retained = history.subList(Math.max(0, history.size() - MAX_HISTORY_SIZE_PER_DOC), history.size());
+        List<Map.Entry<String, String>> blobs = new ArrayList<>();
+        List<Object> args = new ArrayList<>(3 + retained.size());
+        args.add(content);
+        args.add(revision);
+        args.add(retained.size());
+        for (TextOperation operation : retained) {
+            args.add(encodeOperation(operation, blobs));
+        }
+        for (Map.Entry<String, String> blob : blobs) {
+            args.add(blob.getKey());
+            args.add(blob.getValue());
+        }
+        Long restored = redisTemplate.execute(RESTORE_SCRIPT, getAllKeys(sessionId, documentId), args.toArray());
+        if (restored == null || restored == 0) {
+            return false;
+        }
+        touchActivity(sessionId, documentId);
+        return true;
+    }
+
+    @Override
+    public boolean deleteDocument(String sessionId, String documentId) {
+        Long deletedCount = redisTemplate.delete(getAllKeys(sessionId, documentId));
+        String member = sessionId + ":" + documentId;
+        redisTemplate.opsForZSet().remove(ACTIVITY_KEY, member);
+        lastActivityTouch.remove(member);
+        return deletedCount != null && deletedCount > 0;
+    }
+
+    @Override
+    public List<String> findIdleDocuments(long idleBeforeMillis, int limit) {
+        Set<Object> members = redisTemplate.opsForZSet().rangeByScore(ACTIVITY_KEY, 0, idleBeforeMillis, 0, limit);
+        if (members == null || members.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> idle = new ArrayList<>(members.size());
+        for (Object member : members) {
+            if (member instanceof String) {
+                idle.add((String) member);
+            }
+        }
+        return idle;
+    }
+
+    // Records a write in the activity set, at most once per interval per document from this node
+    private void touchActivityAsync(String sessionId, String documentId) {
+        String member = sessionId + ":" + documentId;
+        long now = System.currentTimeMillis();
+        Long last = lastActivityTouch.get(member);
+        if (last != null && now - last < ACTIVITY_TOUCH_INTERVAL_MILLIS) {
+            return;
+        }
+        lastActivityTouch.put(member, now);
+        reactiveRedisTemplate.opsForZSet().add(ACTIVITY_KEY, member, now).subscribe(added -> { }, error -> {
+            lastActivityTouch.remove(member);
+            logger.log(Level.WARNING, String.format("[Session: %s, Doc: %s] Failed to record document activity: %s",
+                    sessionId, documentId, error.getMessage()));
+        });
+    }
+
+    private void touchActivity(String sessionId, String documentId) {
+        String member = sessionId + ":" + documentId;
+        long now = System.currentTimeMillis();
+        Long last = lastActivityTouch.get(member);
+        if (last != null && now - last < ACTIVITY_TOUCH_INTERVAL_MILLIS) {
+            return;
+        }
+        try {
+            redisTemplate.opsForZSet().add(ACTIVITY_KEY, member, now);
+            lastActivityTouch.put(member, now);
+        } catch (Exception e) {
+            // Only delays tiering of this document; the write itself already succeeded
+            logger.log(Level.WARNING, String.format("[Session: %s, Doc: %s] Failed to record document activity: %s",
+                    sessionId, documentId, e.getMessage()));
+        }
+    }
+
+    /**
+     * Reads the revision before and after the content in one pipeline, preferring a replica.
+     * If the two revisions differ a commit landed in between and null is returned.
+     */
+    @Override
+    public DocumentSnapshot readSnapshot(String sessionId, String documentId) {
+        byte[] rawContentKey = getContentKey(sessionId, documentId).getBytes(StandardCharsets.UTF_8);
+        byte[] rawRevisionKey = getRevisionKey(sessionId, documentId).getBytes(StandardCharsets.UTF_8);
+        byte[] rawHistoryKey = getHistoryKey(sessionId, documentId).getBytes(StandardCharsets.UTF_8);
+        try {
+            List<Object> results = replicaReadRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                connection.stringCommands().get(rawRevisionKey);
+                connection.listCommands().lLen(rawHistoryKey);
+                connection.stringCommands().get(rawContentKey);
+                connection.stringCommands().get(rawRevisionKey);
+                return null;
+            });
+            if (results.size() == 4 && Objects.equals(results.get(0), results.get(3))) {
+                Object content = results.get(2);
+                Object revision = results.get(0);
+                Object size = results.get(1);
+                // Without a revision key the document predates it and its revision is the history length
+                int resolved = (revision instanceof Number) ? ((Number) revision).intValue()
+                        : (size instanceof Long) ? ((Long) size).intValue() : 0;
+                return new DocumentSnapshot((content instanceof String) ? (String) content : "", resolved);
+            }
+            logger.fine(String.format("[Session: %s, Doc: %s] Revision changed during replica read.", sessionId, documentId));
+        } catch (Exception e) {
+            logger.log(Level.WARNING, String.format("[Session: %s, Doc: %s] Replica read of document state failed: %s",
+                    sessionId, documentId, e.getMessage()));
+        }
+        return null;
+    }
+}
@@ -0,0 +1,160 @@
+package com.codecafe.backend.storage;
+
+import com.codecafe.backend.dto.UserInfoDTO;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Default {@link PresenceStore}: one hash per session/document keyed by user id, plus a set per
+ * user of the documents they joined.
+ */
+@Component
+@ConditionalOnProperty(name = "codecafe.storage.type", havingValue = "redis", matchIfMissing = true)
+public class RedisPresenceStore implements PresenceStore {
+
+    private static final Logger logger = Logger.getLogger(RedisPresenceStore.class.getName());
+    private static final String SESSION_USERS_KEY_PREFIX = "session:users:";
+    private static final String USER_ACTIVE_DOCS_KEY_PREFIX = "user:active_docs:";
+    private static final long SESSION_EXPIRY_MINUTES = 60;
+    private static final long USER_TRACKING_EXPIRY_HOURS = 24; // Expire user tracking info after a day of inactivity
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final HashOperations<String, String, UserInfoDTO> hashOperations;
+    // Participant lists are read-only and tolerate replication lag
+    private final RedisTemplate<String, Object> replicaReadRedisTemplate;
+    private final HashOperations<String, String, UserInfoDTO> replicaHashOperations;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final SetOperations<String, String> setOperations;
+
+    public RedisPresenceStore(RedisTemplate<String, Object> redisTemplate,
+                              @Qualifier("replicaReadRedisTemplate") RedisTemplate<String, Object> replicaReadRedisTemplate,
+                              StringRedisTemplate stringRedisTemplate) {
+        this.redisTemplate = redisTemplate;
+        this.hashOperations = redisTemplate.opsForHash();
+        this.replicaReadRedisTemplate = replicaReadRedisTemplate;
+        this.replicaHashOperations = replicaReadRedisTemplate.opsForHash();
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.setOperations = stringRedisTemplate.opsForSet();
+    }
+
+    // Helper method to construct the Redis key for a session/document
+    private String getSessionDocumentKey(String sessionId, String documentId) {
+        return SESSION_USERS_KEY_PREFIX + sessionId + ":" + documentId;
+    }
+
+    // Helper to get the tracking key for a user
+    private String getUserTrackingKey(String userId) {
+        return USER_ACTIVE_DOCS_KEY_PREFIX + userId;
+    }
+
+    private void touchKey(String key) {
+        redisTemplate.expire(key, SESSION_EXPIRY_MINUTES, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void putUser(String sessionId, String documentId, UserInfoDTO userInfo) {
+        String key = getSessionDocumentKey(sessionId, documentId);
+        hashOperations.put(key, userInfo.getId(), userInfo);
+        touchKey(key); // Update TTL on activity
+    }
+
+    @Override
+    public UserInfoDTO getUser(String sessionId, String documentId, String userId) {
+        return hashOperations.get(getSessionDocumentKey(sessionId, documentId), userId);
+    }
+
+    @Override
+    public boolean removeUser(String sessionId, String documentId, String userId) {
+        String key = getSessionDocumentKey(sessionId, documentId);
+        if (hashOperations.delete(key, userId) == 0) {
+            return false;
+        }
+        // Check if the hash is now empty and delete if necessary
+        if (hashOperations.size(key) == 0) {
+            redisTemplate.delete(key);
+            logger.info(String.format("[Session: %s] Redis key [%s] deleted as it became empty after user [%s] left.",
+                    sessionId, key, userId));
+        } else {
+            touchKey(key);
+        }
+        return true;
+    }
+
+    @Override
+    public Map<String, UserInfoDTO> getUsers(String sessionId, String documentId) {
+        String key = getSessionDocumentKey(sessionId, documentId);
+        // Check if key exists before fetching all values
+        if (!Boolean.TRUE.equals(replicaReadRedisTemplate.hasKey(key))) {
+            return Collections.emptyMap();
+        }
+        Map<String, UserInfoDTO> usersInDocument = replicaHashOperations.entries(key);
+        if (usersInDocument == null || usersInDocument.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        touchKey(key); // Refresh TTL when accessed
+        return usersInDocument;
+    }
+
+    /**
+     * Scans all session keys with KEYS, which can be slow on large Redis instances.
+     * Prefer {@link #removeUser} with tracked documents where possible.
+     */
+    @Override
+    public List<Map.Entry<String, String>> removeUserEverywhere(String userId) {
+        List<Map.Entry<String, String>> affectedEntries = new ArrayList<>();
+        String pattern = SESSION_USERS_KEY_PREFIX + "*"; // Pattern to scan session keys
+        Set<String> keys = redisTemplate.keys(pattern);
+        if (keys == null) {
+            logger.warning("Redis keys command returned null for pattern: " + pattern);
+            return affectedEntries;
+        }
+        for (String key : keys) {
+            try {
+                // Extract sessionId and documentId from the key (simple parsing, adjust if key format changes)
+                String[] parts = key.substring(SESSION_USERS_KEY_PREFIX.length()).split(":", 2);
+                if (parts.length != 2) {
+                    logger.warning("Could not parse sessionId and documentId from key: " + key);
+                    continue;
+                }
+                if (removeUser(parts[0], parts[1], userId)) {
+                    affectedEntries.add(new AbstractMap.SimpleEntry<>(parts[0], parts[1]));
+                }
+            } catch (Exception e) {
+                logger.severe(String.format("Error processing key [%s] while removing user [%s]: %s", key, userId, e.getMessage()));
+            }
+        }
+        return affectedEntries;
+    }
+
+    @Override
+    public void trackUserDocument(String userId, String sessionId, String documentId) {
+        String trackingKey = getUserTrackingKey(userId);
+        setOperations.add(trackingKey, sessionId + ":" + documentId);
+        stringRedisTemplate.expire(trackingKey, USER_TRACKING_EXPIRY_HOURS, TimeUnit.HOURS);
+    }
+
+    @Override
+    public Set<String> getUserDocuments(String userId) {
+        Set<String> members = setOperations.members(getUserTrackingKey(userId));
+        return (members != null) ? members : Collections.emptySet();
+    }
+
+    @Override
+    public void clearUserDocuments(String userId) {
+        stringRedisTemplate.delete(getUserTrackingKey(userId));
+    }
+}
@@ -0,0 +1,75 @@
+package com.codecafe.backend.storage;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import org.springframework.data.domain.Persistable;
+
+import java.time.Instant;
+
+/**
+ * Persistent metadata of a collaboration session.
+ */
+@Entity
+@Table(name = "session_record")
+public class SessionRecord implements Persistable<String> {
+
+    @Id
+    @Column(length = 64)
+    private String id;
+
+    @Column(nullable = false)
+    private String creatorName;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+
+    @Column(length = 64)
+    private String parentSessionId;
+
+    // Ids are assigned by the application, so tell Spring Data to INSERT instead of SELECT + merge
+    @Transient
+    private boolean isNew = true;
+
+    protected SessionRecord() {
+    }
+
+    public SessionRecord(String id, String creatorName, Instant createdAt, String parentSessionId) {
+        this.id = id;
+        this.creatorName = creatorName;
+        this.createdAt = createdAt;
+        this.parentSessionId = parentSessionId;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    public String getCreatorName() {
+        return creatorName;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public String getParentSessionId() {
+        return parentSessionId;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+}
@@ -0,0 +1,6 @@
+package com.codecafe.backend.storage;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface SessionRecordRepository extends JpaRepository<SessionRecord, String> {
+}
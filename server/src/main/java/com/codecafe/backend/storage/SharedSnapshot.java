@@ -0,0 +1,67 @@
+package com.codecafe.backend.storage;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Lob;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+import org.springframework.data.domain.Persistable;
+
+/**
+ * Immutable document content shared by forked sessions, keyed by its SHA-256 so that identical
+ * content is stored once. See {@link DocumentForks}.
+ */
+@Entity
+@Table(name = "shared_snapshot")
+public class SharedSnapshot implements Persistable<String> {
+
+    @Id
+    @Column(length = 64)
+    private String id;
+
+    @Lob
+    @Column(nullable = false)
+    private String content;
+
+    private long createdAt;
+
+    // Ids are content hashes, so tell Spring Data to INSERT instead of SELECT + merge
+    @Transient
+    private boolean isNew = true;
+
+    protected SharedSnapshot() {
+    }
+
+    public SharedSnapshot(String id, String content, long createdAt) {
+        this.id = id;
+        this.content = content;
+        this.createdAt = createdAt;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+}
@@ -0,0 +1,574 @@
+package com.codecafe.backend.storage;
+
+import com.codecafe.backend.dto.TextOperation;
+import com.codecafe.backend.util.OtUtils;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Durable single-node {@link DocumentStore}, selected with {@code codecafe.storage.type=wal}.
+ *
+ * Documents are served from an {@link InMemoryDocumentStore}; every change is first appended to a
+ * write-ahead log of memory-mapped segment files ({@code wal-<seq>.log}). Each record is
+ * {@code [int length][int crc32][payload]} and a zero length marks the end of a segment. Appends
+ * only copy into the mapping; a background thread forces dirty pages to disk every
+ * {@code fsync-interval-millis}, so one fsync covers every op written in that window. A crash loses
+ * at most that window.
+ *
+ * Periodically the full state is written to {@code snapshot-<seq>.snap}, covering every segment
+ * below {@code seq}, after which those segments are deleted. Startup loads the newest snapshot and
+ * replays the segments after it; operations are re-applied to the content, so the log stores only
+ * the operation and not the resulting document.
+ */
+@Component
+@ConditionalOnProperty(name = "codecafe.storage.type", havingValue = "wal")
+public class WalDocumentStore implements DocumentStore {
+
+    private static final Logger logger = Logger.getLogger(WalDocumentStore.class.getName());
+
+    private static final byte RECORD_APPEND = 1;
+    private static final byte RECORD_SET = 2;
+    private static final byte RECORD_DELETE = 3;
+    private static final byte RECORD_RESTORE = 4;
+    private static final int RECORD_HEADER_BYTES = 8; // length + crc32
+    private static final int SNAPSHOT_MAGIC = 0x43435332; // "CCS2"
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private final InMemoryDocumentStore state = new InMemoryDocumentStore();
+    private final ObjectMapper objectMapper;
+    private final Path directory;
+    private final int segmentBytes;
+    private final long fsyncIntervalMillis;
+
+    // Serializes log appends so the log order matches the order changes reach the in-memory state
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private volatile MappedByteBuffer segment;
+    private FileChannel segmentChannel;
+    private long segmentSequence;
+    private long recordsSinceSnapshot;
+    private ScheduledExecutorService fsyncExecutor;
+
+    private static final class CapturedDocument {
+        final String sessionId;
+        final String documentId;
+        final String content;
+        final int revision;
+        final List<TextOperation> history;
+
+        CapturedDocument(String sessionId, String documentId, String content, int revision, List<TextOperation> history) {
+            this.sessionId = sessionId;
+            this.documentId = documentId;
+            this.content = content;
+            this.revision = revision;
+            this.history = history;
+        }
+    }
+
+    // Body of a RECORD_RESTORE record
+    private static final class RestoredDocument {
+        public String content;
+        public int revision;
+        public List<List<Object>> history;
+    }
+
+    public WalDocumentStore(ObjectMapper objectMapper,
+                            @Value("${codecafe.storage.wal.dir:./data/wal}") String directory,
+                            @Value("${codecafe.storage.wal.segment-bytes:67108864}") int segmentBytes,
+                            @Value("${codecafe.storage.wal.fsync-interval-millis:100}") long fsyncIntervalMillis) {
+        this.objectMapper = objectMapper;
+        this.directory = Paths.get(directory);
+        this.segmentBytes = segmentBytes;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+    }
+
+    @PostConstruct
+    public void recover() throws IOException {
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            // Snapshots that were being written when the process stopped
+            List<Path> leftovers = files.filter(path -> path.toString().endsWith(".tmp")).toList();
+            for (Path leftover : leftovers) {
+                Files.deleteIfExists(leftover);
+            }
+        }
+
+        long nextSequence = loadLatestSnapshot();
+        int replayed = 0;
+        for (long sequence : listSequences(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            if (sequence < nextSequence) {
+                // Already covered by the snapshot; left over if the process stopped before cleanup
+                Files.deleteIfExists(segmentPath(sequence));
+                continue;
+            }
+            replayed += replaySegment(sequence);
+            nextSequence = sequence + 1;
+        }
+        recordsSinceSnapshot = replayed;
+
+        // Never append after a possibly torn tail; always start a fresh segment
+        openSegment(nextSequence, segmentBytes);
+        fsyncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wal-fsync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        fsyncExecutor.scheduleWithFixedDelay(this::flush, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        logger.info(String.format("WalDocumentStore recovered %d documents (%d log records replayed) from %s.",
+                state.documentKeys().size(), replayed, directory.toAbsolutePath()));
+    }
+
+    @PreDestroy
+    public void close() {
+        if (fsyncExecutor != null) {
+            fsyncExecutor.shutdown();
+        }
+        writeLock.lock();
+        try {
+            if (segment != null) {
+                segment.force();
+            }
+            if (segmentChannel != null) {
+                segmentChannel.close();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to close write-ahead log segment: " + e.getMessage(), e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public String getContent(String sessionId, String documentId) {
+        return state.getContent(sessionId, documentId);
+    }
+
+    @Override
+    public int getRevision(String sessionId, String documentId) {
+        return state.getRevision(sessionId, documentId);
+    }
+
+    @Override
+    public List<TextOperation> getOperations(String sessionId, String documentId, int fromRevision, int toRevision) {
+        return state.getOperations(sessionId, documentId, fromRevision, toRevision);
+    }
+
+    @Override
+    public List<TextOperation> getOperationHistory(String sessionId, String documentId) {
+        return state.getOperationHistory(sessionId, documentId);
+    }
+
+    @Override
+    public DocumentSnapshot readSnapshot(String sessionId, String documentId) {
+        return state.readSnapshot(sessionId, documentId);
+    }
+
+    @Override
+    public int appendOperation(String sessionId, String documentId, String newContent, TextOperation operation) {
+        byte[] record = encodeRecord(RECORD_APPEND, sessionId, documentId, serializeOperation(operation));
+        writeLock.lock();
+        try {
+            writeRecord(record);
+            return state.appendOperation(sessionId, documentId, newContent, operation);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to append operation to write-ahead log.", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void setContent(String sessionId, String documentId, String content) {
+        byte[] record = encodeRecord(RECORD_SET, sessionId, documentId, content);
+        writeLock.lock();
+        try {
+            writeRecord(record);
+            state.setContent(sessionId, documentId, content);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to append content to write-ahead log.", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean restoreDocument(String sessionId, String documentId, String content, int revision, List<TextOperation> history) {
+        List<List<Object>> historyOps = new ArrayList<>(history.size());
+        for (TextOperation operation : history) {
+            historyOps.add(operation.getOps());
+        }
+        String body;
+        try {
+            body = objectMapper.writeValueAsString(Map.of("content", content, "revision", revision, "history", historyOps));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize restored document for write-ahead log.", e);
+        }
+        byte[] record = encodeRecord(RECORD_RESTORE, sessionId, documentId, body);
+        writeLock.lock();
+        try {
+            if (state.getContent(sessionId, documentId) != null) {
+                return false;
+            }
+            writeRecord(record);
+            return state.restoreDocument(sessionId, documentId, content, revision, history);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to append restored document to write-ahead log.", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteDocument(String sessionId, String documentId) {
+        writeLock.lock();
+        try {
+            if (state.getContent(sessionId, documentId) == null) {
+                return false;
+            }
+            writeRecord(encodeRecord(RECORD_DELETE, sessionId, documentId, ""));
+            return state.deleteDocument(sessionId, documentId);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to append delete to write-ahead log.", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** Forces pages written since the last call to disk; runs on the wal-fsync thread. */
+    void flush() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        try {
+            segment.force();
+        } catch (Exception e) {
+            dirty.set(true); // Retry on the next tick
+            logger.log(Level.SEVERE, "Failed to fsync write-ahead log segment: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes the full state to a new snapshot and deletes the segments it covers. The state is
+     * captured under the write lock at a segment boundary; the file itself is written outside it.
+     */
+    @Scheduled(fixedDelayString = "${codecafe.storage.wal.snapshot-interval-millis:300000}")
+    public void snapshot() {
+        long sequence;
+        List<CapturedDocument> captured = new ArrayList<>();
+        writeLock.lock();
+        try {
+            if (recordsSinceSnapshot == 0) {
+                return;
+            }
+            rollSegment(segmentBytes);
+            sequence = segmentSequence;
+            for (String key : state.documentKeys()) {
+                String[] parts = key.split(":", 2);
+                String content = state.getContent(parts[0], parts[1]);
+                if (content != null) {
+                    captured.add(new CapturedDocument(parts[0], parts[1], content, state.getRevision(parts[0], parts[1]),
+                            state.getOperationHistory(parts[0], parts[1])));
+                }
+            }
+            recordsSinceSnapshot = 0;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to roll write-ahead log segment for snapshot: " + e.getMessage(), e);
+            return;
+        } finally {
+            writeLock.unlock();
+        }
+
+        try {
+            writeSnapshot(sequence, captured);
+            for (long old : listSequences(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+                if (old < sequence) {
+                    Files.deleteIfExists(segmentPath(old));
+                }
+            }
+            for (long old : listSequences(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+                if (old < sequence) {
+                    Files.deleteIfExists(snapshotPath(old));
+                }
+            }
+            logger.info(String.format("Wrote snapshot %d with %d documents.", sequence, captured.size()));
+        } catch (IOException e) {
+            // Older snapshot and segments are still in place, so recovery is unaffected
+            writeLock.lock();
+            try {
+                recordsSinceSnapshot++;
+            } finally {
+                writeLock.unlock();
+            }
+            logger.log(Level.SEVERE, "Failed to write snapshot " + sequence + ": " + e.getMessage(), e);
+        }
+    }
+
+    // --- Log segments ---
+
+    private void writeRecord(byte[] payload) throws IOException {
+        int needed = RECORD_HEADER_BYTES + payload.length;
+        if (segment.remaining() < needed) {
+            rollSegment(needed);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        segment.putInt(payload.length);
+        segment.putInt((int) crc.getValue());
+        segment.put(payload);
+        recordsSinceSnapshot++;
+        dirty.set(true);
+    }
+
+    private void rollSegment(int minimumBytes) throws IOException {
+        segment.force();
+        segmentChannel.close();
+        openSegment(segmentSequence + 1, Math.max(segmentBytes, minimumBytes));
+    }
+
+    private void openSegment(long sequence, int size) throws IOException {
+        FileChannel channel = FileChannel.open(segmentPath(sequence),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Mapping past the end grows the file; the new region is zero-filled
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        segmentChannel = channel;
+        segmentSequence = sequence;
+    }
+
+    /**
+     * Applies every intact record of a segment to the in-memory state.
+     * A record with a bad length or checksum is a torn write and ends the segment.
+     * @return Number of records applied.
+     */
+    private int replaySegment(long sequence) throws IOException {
+        int applied = 0;
+        try (FileChannel channel = FileChannel.open(segmentPath(sequence), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+                int length = buffer.getInt();
+                if (length == 0) {
+                    break; // End of written region
+                }
+                int expectedCrc = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    logger.warning(String.format("Torn record length %d in segment %d; ignoring the rest of it.", length, sequence));
+                    break;
+                }
+                byte[] payload = new byte[length];
+                buffer.get(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != expectedCrc) {
+                    logger.warning(String.format("Checksum mismatch in segment %d; ignoring the rest of it.", sequence));
+                    break;
+                }
+                applyRecord(payload);
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    private void applyRecord(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        String sessionId = in.readUTF();
+        String documentId = in.readUTF();
+        String body = readLongString(in);
+        if (type == RECORD_APPEND) {
+            String current = state.getContent(sessionId, documentId);
+            TextOperation operation = deserializeOperation(body);
+            try {
+                String newContent = OtUtils.apply(current != null ? current : "", operation);
+                state.appendOperation(sessionId, documentId, newContent, operation);
+            } catch (IllegalArgumentException e) {
+                logger.severe(String.format("[Session: %s, Doc: %s] Logged operation no longer applies during replay: %s",
+                        sessionId, documentId, e.getMessage()));
+            }
+        } else if (type == RECORD_SET) {
+            state.setContent(sessionId, documentId, body);
+        } else if (type == RECORD_DELETE) {
+            state.deleteDocument(sessionId, documentId);
+        } else if (type == RECORD_RESTORE) {
+            RestoredDocument restored = objectMapper.readValue(body, RestoredDocument.class);
+            List<TextOperation> history = new ArrayList<>(restored.history.size());
+            for (List<Object> ops : restored.history) {
+                history.add(new TextOperation(ops));
+            }
+            state.restoreDocument(sessionId, documentId, restored.content, restored.revision, history);
+        } else {
+            logger.warning("Unknown write-ahead log record type: " + type);
+        }
+    }
+
+    private byte[] encodeRecord(byte type, String sessionId, String documentId, String body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + body.length());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            out.writeUTF(sessionId);
+            out.writeUTF(documentId);
+            writeLongString(out, body);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode write-ahead log record.", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // --- Snapshots ---
+
+    /** @return The sequence of the first segment not covered by the loaded snapshot, or 0 if there is none. */
+    private long loadLatestSnapshot() throws IOException {
+        List<Long> snapshots = listSequences(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+        long sequence = snapshots.get(snapshots.size() - 1);
+        try (InputStream file = new BufferedInputStream(Files.newInputStream(snapshotPath(sequence)))) {
+            CheckedInputStream checked = new CheckedInputStream(file, new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            int magic = in.readInt();
+            if (magic != SNAPSHOT_MAGIC) {
+                throw new IllegalStateException("Not a document snapshot: " + snapshotPath(sequence));
+            }
+            int documentCount = in.readInt();
+            List<CapturedDocument> documents = new ArrayList<>(documentCount);
+            for (int i = 0; i < documentCount; i++) {
+                String sessionId = in.readUTF();
+                String documentId = in.readUTF();
+                String content = readLongString(in);
+                int revision = in.readInt();
+                int operationCount = in.readInt();
+                List<TextOperation> history = new ArrayList<>(operationCount);
+                for (int j = 0; j < operationCount; j++) {
+                    history.add(deserializeOperation(readLongString(in)));
+                }
+                documents.add(new CapturedDocument(sessionId, documentId, content, revision, history));
+            }
+            long expectedCrc = checked.getChecksum().getValue();
+            if (new DataInputStream(file).readLong() != expectedCrc) {
+                // Snapshots are renamed into place only after fsync, so this is real corruption
+                throw new IllegalStateException("Checksum mismatch in snapshot " + snapshotPath(sequence));
+            }
+            for (CapturedDocument document : documents) {
+                state.restoreDocument(document.sessionId, document.documentId, document.content, document.revision, document.history);
+            }
+        }
+        return sequence;
+    }
+
+    private void writeSnapshot(long sequence, List<CapturedDocument> documents) throws IOException {
+        Path target = snapshotPath(sequence);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile())) {
+            BufferedOutputStream buffered = new BufferedOutputStream(file);
+            CheckedOutputStream checked = new CheckedOutputStream(buffered, new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(documents.size());
+            for (CapturedDocument document : documents) {
+                out.writeUTF(document.sessionId);
+                out.writeUTF(document.documentId);
+                writeLongString(out, document.content);
+                out.writeInt(document.revision);
+                out.writeInt(document.history.size());
+                for (TextOperation operation : document.history) {
+                    writeLongString(out, serializeOperation(operation));
+                }
+            }
+            out.flush();
+            DataOutputStream trailer = new DataOutputStream(buffered);
+            trailer.writeLong(checked.getChecksum().getValue());
+            trailer.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // --- Helpers ---
+
+    private Path segmentPath(long sequence) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    private Path snapshotPath(long sequence) {
+        return directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX));
+    }
+
+    /** @return Sequence numbers of files with the given prefix and suffix, ascending. */
+    private List<Long> listSequences(String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+                    .map(name -> Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private String serializeOperation(TextOperation operation) {
+        try {
+            return objectMapper.writeValueAsString(operation.getOps());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize operation for write-ahead log.", e);
+        }
+    }
+
+    private TextOperation deserializeOperation(String json) throws IOException {
+        return new TextOperation(objectMapper.readValue(json, new TypeReference<List<Object>>() {}));
+    }
+
+    // writeUTF is limited to 64KB, which documents can exceed
+    private static void writeLongString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readLongString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
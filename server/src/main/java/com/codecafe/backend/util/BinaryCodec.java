@@ -0,0 +1,176 @@
+package com.codecafe.backend.util;
+
+import com.codecafe.backend.dto.TextOperation;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Primitives of the binary WebSocket protocol (see BinaryOperationHandler).
+ *
+ * Unsigned integers are LEB128 varints: 7 bits per byte, least significant group first, high bit
+ * set on every byte but the last, so revisions and lengths below 128 take one byte. Strings are a
+ * varint byte length followed by UTF-8. A text operation is a varint component count followed by
+ * one varint header per component, {@code (n << 2) | kind}, where kind is {@link #RETAIN} or
+ * {@link #DELETE} with n the character count, or {@link #INSERT} with n the UTF-8 byte length of
+ * the inserted text, which follows the header. Character counts are UTF-16 code units, as in JSON
+ * operations.
+ */
+public final class BinaryCodec {
+
+    public static final int RETAIN = 0;
+    public static final int DELETE = 1;
+    public static final int INSERT = 2;
+
+    private BinaryCodec() {
+    }
+
+    /** Builds one frame. Not thread-safe. */
+    public static final class Writer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+
+        public Writer writeByte(int value) {
+            out.write(value);
+            return this;
+        }
+
+        public Writer writeVarint(long value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("Varints must not be negative: " + value);
+            }
+            while (value >= 0x80) {
+                out.write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write((int) value);
+            return this;
+        }
+
+        /** Writes a big-endian 32-bit integer; used for checksums, which rarely fit a short varint. */
+        public Writer writeInt(int value) {
+            out.write(value >>> 24);
+            out.write(value >>> 16);
+            out.write(value >>> 8);
+            out.write(value);
+            return this;
+        }
+
+        public Writer writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            out.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the operation holds an unresolved InsertRef.
+         */
+        public Writer writeOperation(List<Object> ops) {
+            writeVarint(ops.size());
+            for (Object op : ops) {
+                if (TextOperation.isRetain(op)) {
+                    writeVarint(((long) (Integer) op << 2) | RETAIN);
+                } else if (TextOperation.isDelete(op)) {
+                    writeVarint(((long) -(Integer) op << 2) | DELETE);
+                } else if (op instanceof String) {
+                    byte[] bytes = ((String) op).getBytes(StandardCharsets.UTF_8);
+                    writeVarint(((long) bytes.length << 2) | INSERT);
+                    out.write(bytes, 0, bytes.length);
+                } else {
+                    throw new IllegalArgumentException("Cannot encode operation component: " + op);
+                }
+            }
+            return this;
+        }
+
+        public byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    /** Reads one frame; every read throws IllegalArgumentException on truncated or malformed input. */
+    public static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        public Reader(byte[] data) {
+            this.data = data;
+        }
+
+        public boolean hasRemaining() {
+            return position < data.length;
+        }
+
+        public int readByte() {
+            if (position >= data.length) {
+                throw new IllegalArgumentException("Unexpected end of frame.");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        public long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Varint is too long.");
+        }
+
+        /** Reads a varint that must fit a non-negative int, e.g. a revision or a length. */
+        public int readVarint32() {
+            long value = readVarint();
+            if (value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Varint out of range: " + value);
+            }
+            return (int) value;
+        }
+
+        public int readInt() {
+            return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        }
+
+        public String readString() {
+            int length = readVarint32();
+            return new String(readBytes(length), StandardCharsets.UTF_8);
+        }
+
+        /** @return The operation's components in JSON form: retain > 0, delete < 0, or a String insert. */
+        public List<Object> readOperation() {
+            int count = readVarint32();
+            if (count > data.length - position) {
+                throw new IllegalArgumentException("Operation component count exceeds frame size: " + count);
+            }
+            List<Object> ops = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long header = readVarint();
+                long n = header >>> 2;
+                if (n == 0 || n > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Invalid operation component length: " + n);
+                }
+                switch ((int) (header & 3)) {
+                    case RETAIN -> ops.add((int) n);
+                    case DELETE -> ops.add(-(int) n);
+                    case INSERT -> ops.add(new String(readBytes((int) n), StandardCharsets.UTF_8));
+                    default -> throw new IllegalArgumentException("Unknown operation component kind: " + (header & 3));
+                }
+            }
+            return ops;
+        }
+
+        private byte[] readBytes(int length) {
+            if (length > data.length - position) {
+                throw new IllegalArgumentException("Unexpected end of frame.");
+            }
+            byte[] bytes = new byte[length];
+            System.arraycopy(data, position, bytes, 0, length);
+            position += length;
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.codecafe.backend.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Content addresses for text stored once and referenced from several places.
+ */
+public final class ContentHash {
+
+    private ContentHash() {
+    }
+
+    /**
+     * @return Lowercase hex SHA-256 of the UTF-8 encoding of {@code text}.
+     */
+    public static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available.", e);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.codecafe.backend.util;
+
+/**
+ * Polynomial hash of document content, sent with revisions so clients can detect divergence.
+ *
+ * The hash is {@code sum(c[i] * BASE^(n-1-i)) mod MODULUS} over UTF-16 code units, computed left to
+ * right as {@code h = (h * BASE + c) % MODULUS}. Intermediate values stay below 2^53, so JavaScript
+ * clients compute the same value with plain number arithmetic (see client/src/utils/documentChecksum.ts).
+ */
+public final class DocumentChecksum {
+
+    public static final long BASE = 131;
+    public static final long MODULUS = 1_000_000_007L;
+
+    private DocumentChecksum() {
+    }
+
+    /**
+     * @param content The document content; null is treated as empty.
+     * @return The checksum, in the range [0, MODULUS).
+     */
+    public static int of(String content) {
+        if (content == null) {
+            return 0;
+        }
+        long hash = 0;
+        for (int i = 0; i < content.length(); i++) {
+            hash = (hash * BASE + content.charAt(i)) % MODULUS;
+        }
+        return (int) hash;
+    }
+}
@@ -1,5 +1,6 @@
 package com.codecafe.backend.util;
 
+import com.codecafe.backend.dto.InsertRef;
 import com.codecafe.backend.dto.TextOperation;
 
 import java.util.Arrays;
@@ -28,6 +29,8 @@ public class OtUtils {
                 }
                 newDoc.append(doc, docIndex, docIndex + retainCount);
                 docIndex += retainCount;
+            } else if (op instanceof InsertRef) {
+                throw new IllegalArgumentException("Cannot apply an operation with unresolved out-of-line inserts.");
             } else if (TextOperation.isInsert(op)) {
                 newDoc.append((String) op);
             } else if (TextOperation.isDelete(op)) {
@@ -66,7 +69,7 @@ public class OtUtils {
                 inverse.retain(retainCount);
                 docIndex += retainCount;
             } else if (TextOperation.isInsert(op)) {
-                inverse.delete(((String) op).length());
+                inverse.delete(TextOperation.insertLength(op));
             } else if (TextOperation.isDelete(op)) {
                 int deleteCount = -(Integer) op;
                 inverse.insert(doc.substring(docIndex, docIndex + deleteCount));
@@ -93,6 +96,9 @@ public class OtUtils {
             throw new IllegalArgumentException("Compose error: op1 target length (" + op1.getTargetLength() +
                     ") must match op2 base length (" + op2.getBaseLength() + ").");
         }
+        if (op1.hasInsertRefs() || op2.hasInsertRefs()) {
+            throw new IllegalArgumentException("Cannot compose operations with unresolved out-of-line inserts.");
+        }
 
         TextOperation composed = new TextOperation();
         List<Object> ops1 = op1.getOps();
@@ -220,15 +226,16 @@ public class OtUtils {
 
             // next two cases: one operation is insert, the other is retain/delete
             // the insert operations have to be fitted in first
+            // Only lengths are needed, so out-of-line inserts are carried through unresolved
             if (TextOperation.isInsert(op1)) {
-                operation1prime.insert((String) op1);
-                operation2prime.retain(((String) op1).length());
+                operation1prime.insertOp(op1);
+                operation2prime.retain(TextOperation.insertLength(op1));
                 op1 = (i1 < ops1.size()) ? ops1.get(i1++) : null;
                 continue;
             }
             if (TextOperation.isInsert(op2)) {
-                operation1prime.retain(((String) op2).length());
-                operation2prime.insert((String) op2);
+                operation1prime.retain(TextOperation.insertLength(op2));
+                operation2prime.insertOp(op2);
                 op2 = (i2 < ops2.size()) ? ops2.get(i2++) : null;
                 continue;
             }
@@ -0,0 +1,173 @@
+package com.codecafe.backend.util;
+
+import com.codecafe.backend.dto.TextOperation;
+
+import java.util.Arrays;
+
+/**
+ * Computes a minimal {@link TextOperation} turning one text into another.
+ *
+ * Uses Myers' O(ND) difference algorithm in its linear-space form: each range is split at the
+ * middle snake found by searching forward and backward at once, so memory stays O(N + M).
+ * Common prefixes and suffixes are stripped at every level first, which makes the usual case of a
+ * few localized edits close to linear. If a range needs more than {@link #MAX_WORK} steps the
+ * remaining part is emitted as a plain delete and insert, so the result is always correct but
+ * only minimal within that budget.
+ */
+public class TextDiff {
+
+    // Upper bound on diagonal steps across the whole diff before falling back to coarse edits
+    private static final long MAX_WORK = 5_000_000;
+
+    private final String a;
+    private final String b;
+    private final TextOperation operation = new TextOperation();
+    private long work;
+
+    private TextDiff(String a, String b) {
+        this.a = a;
+        this.b = b;
+    }
+
+    /**
+     * @param oldText The current text.
+     * @param newText The desired text.
+     * @return An operation with base length {@code oldText.length()} that produces {@code newText}.
+     *         It has no ops if the texts are equal.
+     */
+    public static TextOperation diff(String oldText, String newText) {
+        TextDiff diff = new TextDiff(oldText, newText);
+        diff.compareRange(0, oldText.length(), 0, newText.length());
+        return diff.operation;
+    }
+
+    // Appends the edits for a[aLo, aHi) -> b[bLo, bHi) to the operation, in order
+    private void compareRange(int aLo, int aHi, int bLo, int bHi) {
+        int prefix = 0;
+        while (aLo + prefix < aHi && bLo + prefix < bHi && a.charAt(aLo + prefix) == b.charAt(bLo + prefix)) {
+            prefix++;
+        }
+        operation.retain(prefix);
+        aLo += prefix;
+        bLo += prefix;
+
+        int suffix = 0;
+        while (aHi - suffix > aLo && bHi - suffix > bLo && a.charAt(aHi - suffix - 1) == b.charAt(bHi - suffix - 1)) {
+            suffix++;
+        }
+        aHi -= suffix;
+        bHi -= suffix;
+
+        if (aLo == aHi) {
+            operation.insert(b.substring(bLo, bHi));
+        } else if (bLo == bHi) {
+            operation.delete(aHi - aLo);
+        } else {
+            int[] split = middleSnake(aLo, aHi, bLo, bHi);
+            if (split == null) {
+                // Nothing in common, or over budget
+                operation.insert(b.substring(bLo, bHi));
+                operation.delete(aHi - aLo);
+            } else {
+                compareRange(aLo, split[0], bLo, split[1]);
+                compareRange(split[0], aHi, split[1], bHi);
+            }
+        }
+
+        operation.retain(suffix);
+    }
+
+    /**
+     * Finds where the forward and reverse D-paths of a[aLo, aHi) -> b[bLo, bHi) overlap.
+     * @return {x, y} absolute split point, or null if there is no overlap or the budget ran out.
+     */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int vOffset = maxD;
+        int vLength = 2 * maxD + 2;
+        int[] v1 = new int[vLength];
+        int[] v2 = new int[vLength];
+        Arrays.fill(v1, -1);
+        Arrays.fill(v2, -1);
+        v1[vOffset + 1] = 0;
+        v2[vOffset + 1] = 0;
+        int delta = n - m;
+        // With an odd delta the paths meet while extending forward, otherwise while extending backward
+        boolean front = (delta % 2 != 0);
+        // Diagonals that ran off an edge of the edit graph are skipped from then on
+        int k1Start = 0;
+        int k1End = 0;
+        int k2Start = 0;
+        int k2End = 0;
+
+        for (int d = 0; d < maxD; d++) {
+            for (int k1 = -d + k1Start; k1 <= d - k1End; k1 += 2) {
+                if (++work > MAX_WORK) {
+                    return null;
+                }
+                int k1Offset = vOffset + k1;
+                int x1;
+                if (k1 == -d || (k1 != d && v1[k1Offset - 1] < v1[k1Offset + 1])) {
+                    x1 = v1[k1Offset + 1];
+                } else {
+                    x1 = v1[k1Offset - 1] + 1;
+                }
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && a.charAt(aLo + x1) == b.charAt(bLo + y1)) {
+                    x1++;
+                    y1++;
+                }
+                v1[k1Offset] = x1;
+                if (x1 > n) {
+                    k1End += 2;
+                } else if (y1 > m) {
+                    k1Start += 2;
+                } else if (front) {
+                    int k2Offset = vOffset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < vLength && v2[k2Offset] != -1) {
+                        int x2 = n - v2[k2Offset];
+                        if (x1 >= x2) {
+                            return new int[] {aLo + x1, bLo + y1};
+                        }
+                    }
+                }
+            }
+
+            for (int k2 = -d + k2Start; k2 <= d - k2End; k2 += 2) {
+                if (++work > MAX_WORK) {
+                    return null;
+                }
+                int k2Offset = vOffset + k2;
+                int x2;
+                if (k2 == -d || (k2 != d && v2[k2Offset - 1] < v2[k2Offset + 1])) {
+                    x2 = v2[k2Offset + 1];
+                } else {
+                    x2 = v2[k2Offset - 1] + 1;
+                }
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m && a.charAt(aHi - x2 - 1) == b.charAt(bHi - y2 - 1)) {
+                    x2++;
+                    y2++;
+                }
+                v2[k2Offset] = x2;
+                if (x2 > n) {
+                    k2End += 2;
+                } else if (y2 > m) {
+                    k2Start += 2;
+                } else if (!front) {
+                    int k1Offset = vOffset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < vLength && v1[k1Offset] != -1) {
+                        int x1 = v1[k1Offset];
+                        int y1 = vOffset + x1 - k1Offset;
+                        if (x1 >= n - x2) {
+                            return new int[] {aLo + x1, bLo + y1};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,66 @@
+package com.codecafe.backend.util;
+
+/**
+ * Token bucket rate limiter: holds up to {@code capacity} tokens and gains {@code ratePerSecond}
+ * tokens per second; a request of n tokens passes if n tokens are available. The bucket starts
+ * full, so a burst of up to capacity passes before the rate applies.
+ *
+ * Times are {@link System#nanoTime()} values, passed in so callers (and tests) control the clock.
+ */
+public final class TokenBucket {
+
+    private final double ratePerNano;
+    private final double capacity;
+    private double tokens;
+    private long updatedAt;
+
+    /**
+     * @param ratePerSecond Tokens added per second; must be positive.
+     * @param capacity Maximum tokens held; requests larger than this never pass.
+     */
+    public TokenBucket(double ratePerSecond, double capacity, long nowNanos) {
+        if (!(ratePerSecond > 0) || !(capacity > 0)) {
+            throw new IllegalArgumentException("Rate and capacity must be positive.");
+        }
+        this.ratePerNano = ratePerSecond / 1_000_000_000d;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.updatedAt = nowNanos;
+    }
+
+    /** Takes the tokens if available. */
+    public synchronized boolean tryAcquire(double count, long nowNanos) {
+        refill(nowNanos);
+        if (tokens < count) {
+            return false;
+        }
+        tokens -= count;
+        return true;
+    }
+
+    /**
+     * @return Nanoseconds until {@code count} tokens will be available, 0 if they are now, or
+     *         Long.MAX_VALUE if count exceeds the capacity.
+     */
+    public synchronized long nanosUntilAvailable(double count, long nowNanos) {
+        if (count > capacity) {
+            return Long.MAX_VALUE;
+        }
+        refill(nowNanos);
+        return (tokens >= count) ? 0 : (long) Math.ceil((count - tokens) / ratePerNano);
+    }
+
+    /** @return Whether the bucket is full, i.e. it has not been used for a while and can be dropped. */
+    public synchronized boolean isFull(long nowNanos) {
+        refill(nowNanos);
+        return tokens >= capacity;
+    }
+
+    private void refill(long nowNanos) {
+        long elapsed = nowNanos - updatedAt;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + elapsed * ratePerNano);
+            updatedAt = nowNanos;
+        }
+    }
+}
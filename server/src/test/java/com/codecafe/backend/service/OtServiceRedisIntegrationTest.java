@@ -0,0 +1,271 @@
+package com.codecafe.backend.service;
+
+import com.codecafe.backend.dto.TextOperation;
+import com.codecafe.backend.storage.DocumentStore;
+import com.codecafe.backend.storage.OperationJournal;
+import com.codecafe.backend.util.OtUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import redis.clients.jedis.Jedis;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The non-blocking receive path against a real Redis (an embedded server), with Redis group
+ * commit on and off. Store timeouts are produced with CLIENT PAUSE, which holds every command
+ * without closing connections, like a Redis that stopped answering.
+ */
+class OtServiceRedisIntegrationTest {
+
+    private static final int MAX_QUEUED_PER_DOCUMENT = 4;
+    private static final long COMMAND_TIMEOUT_MILLIS = 1000;
+
+    private static final int redisPort = freePort();
+    private static RedisServer redis;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redis = RedisServer.newRedisServer().port(redisPort).setting("save \"\"").setting("appendonly no").build();
+        redis.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redis.stop();
+    }
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) throws IOException {
+        Path journalDir = Files.createTempDirectory("codecafe-journal");
+        registry.add("spring.redis.port", () -> redisPort);
+        registry.add("spring.data.redis.port", () -> redisPort);
+        registry.add("spring.data.redis.timeout", () -> COMMAND_TIMEOUT_MILLIS + "ms");
+        registry.add("codecafe.journal.dir", journalDir::toString);
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Nested
+    @SpringBootTest(properties = {
+            "codecafe.storage.type=redis",
+            "codecafe.ot.async.enabled=true",
+            "codecafe.ot.async.max-queued-per-document=" + MAX_QUEUED_PER_DOCUMENT,
+            "codecafe.storage.redis.group-commit.enabled=true",
+            "spring.datasource.url=jdbc:h2:mem:ot-redis-group-commit"
+    })
+    @DisplayName("With group commit")
+    class WithGroupCommit extends ReceiveOperationAsyncTests {
+    }
+
+    @Nested
+    @SpringBootTest(properties = {
+            "codecafe.storage.type=redis",
+            "codecafe.ot.async.enabled=true",
+            "codecafe.ot.async.max-queued-per-document=" + MAX_QUEUED_PER_DOCUMENT,
+            "codecafe.storage.redis.group-commit.enabled=false",
+            "spring.datasource.url=jdbc:h2:mem:ot-redis-direct"
+    })
+    @DisplayName("Without group commit")
+    class WithoutGroupCommit extends ReceiveOperationAsyncTests {
+    }
+
+    abstract class ReceiveOperationAsyncTests {
+
+        @Autowired
+        private OtService otService;
+
+        @Autowired
+        private DocumentStore documentStore;
+
+        @Autowired
+        private OperationJournal operationJournal;
+
+        // Callback outcome of one operation
+        private final class Outcome {
+            final CountDownLatch done = new CountDownLatch(1);
+            volatile OtService.CommitResult result;
+            volatile Throwable error;
+        }
+
+        private Outcome submit(String sessionId, String documentId, int clientRevision, TextOperation operation) {
+            Outcome outcome = new Outcome();
+            otService.receiveOperationAsync(sessionId, documentId, clientRevision, operation, "client-1", UndoService.Origin.EDIT,
+                    (result, error) -> {
+                        outcome.result = result;
+                        outcome.error = error;
+                        outcome.done.countDown();
+                    });
+            return outcome;
+        }
+
+        private OtService.CommitResult await(Outcome outcome) throws InterruptedException {
+            assertTrue(outcome.done.await(15, TimeUnit.SECONDS), "Operation callback was not called");
+            assertNull(outcome.error, () -> "Operation failed: " + outcome.error);
+            return outcome.result;
+        }
+
+        // Holds every Redis command, including commits already sent, for the given time
+        private void pauseRedis(long millis) {
+            try (Jedis jedis = new Jedis("localhost", redisPort)) {
+                jedis.clientPause(millis);
+            }
+        }
+
+        private void awaitCondition(BooleanSupplier condition, String message) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 20000;
+            while (!condition.getAsBoolean()) {
+                assertTrue(System.currentTimeMillis() < deadline, message);
+                Thread.sleep(50);
+            }
+        }
+
+        private void assertStoreMatchesHead(String sessionId, String documentId, int revision) {
+            assertEquals(revision, documentStore.getRevision(sessionId, documentId));
+            String content = documentStore.getContent(sessionId, documentId);
+            assertEquals(otService.getDocumentContent(sessionId, documentId), content);
+            // The stored history, applied in order, yields the stored content
+            String replayed = "";
+            for (TextOperation operation : documentStore.getOperationHistory(sessionId, documentId)) {
+                replayed = OtUtils.apply(replayed, operation);
+            }
+            assertEquals(content, replayed);
+        }
+
+        @Test
+        @DisplayName("receiveOperationAsync: Commits each document's operations in revision order")
+        void commitsInRevisionOrder() throws Exception {
+            String sessionId = UUID.randomUUID().toString();
+            int documents = 4;
+            int operationsPerDocument = 40;
+            ExecutorService clients = Executors.newFixedThreadPool(documents);
+            List<List<Integer>> revisions = new ArrayList<>();
+            CountDownLatch done = new CountDownLatch(documents * operationsPerDocument);
+            List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+            try {
+                for (int d = 0; d < documents; d++) {
+                    String documentId = "doc-" + d;
+                    List<Integer> documentRevisions = Collections.synchronizedList(new ArrayList<>());
+                    revisions.add(documentRevisions);
+                    // No more outstanding than the document's queue takes
+                    Semaphore outstanding = new Semaphore(MAX_QUEUED_PER_DOCUMENT);
+                    // Every operation is based on the empty document, so all but the first are transformed
+                    clients.execute(() -> {
+                        for (int i = 0; i < operationsPerDocument; i++) {
+                            outstanding.acquireUninterruptibly();
+                            otService.receiveOperationAsync(sessionId, documentId, 0, new TextOperation().insert(String.valueOf(i % 10)),
+                                    "client-1", UndoService.Origin.EDIT, (result, error) -> {
+                                        if (error != null) {
+                                            errors.add(error);
+                                        } else {
+                                            documentRevisions.add(result.getRevision());
+                                        }
+                                        outstanding.release();
+                                        done.countDown();
+                                    });
+                        }
+                    });
+                }
+                assertTrue(done.await(30, TimeUnit.SECONDS), "Not all operations were committed");
+            } finally {
+                clients.shutdown();
+            }
+
+            assertEquals(List.of(), errors);
+            List<Integer> expected = new ArrayList<>();
+            for (int revision = 1; revision <= operationsPerDocument; revision++) {
+                expected.add(revision);
+            }
+            for (int d = 0; d < documents; d++) {
+                assertEquals(expected, revisions.get(d), "Callbacks of doc-" + d + " out of revision order");
+                assertStoreMatchesHead(sessionId, "doc-" + d, operationsPerDocument);
+                assertEquals(operationsPerDocument, documentStore.getContent(sessionId, "doc-" + d).length());
+            }
+        }
+
+        @Test
+        @DisplayName("receiveOperationAsync: Refuses operations beyond the document's queue with OverloadedException")
+        void refusesOperationsBeyondTheQueue() throws Exception {
+            String sessionId = UUID.randomUUID().toString();
+            String documentId = "doc";
+            assertEquals(1, await(submit(sessionId, documentId, 0, new TextOperation().insert("a"))).getRevision());
+
+            // The first commit stalls in Redis, so the rest wait in the queue
+            pauseRedis(COMMAND_TIMEOUT_MILLIS / 2);
+            List<Outcome> outcomes = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                outcomes.add(submit(sessionId, documentId, 1, new TextOperation().retain(1).insert("b")));
+            }
+
+            int committed = 0;
+            int refused = 0;
+            for (Outcome outcome : outcomes) {
+                assertTrue(outcome.done.await(15, TimeUnit.SECONDS), "Operation callback was not called");
+                if (outcome.error != null) {
+                    assertInstanceOf(OtService.OverloadedException.class, outcome.error);
+                    refused++;
+                } else {
+                    committed++;
+                    assertEquals(1 + committed, outcome.result.getRevision(), "Accepted operations out of revision order");
+                }
+            }
+            // At most one in flight and MAX_QUEUED_PER_DOCUMENT waiting
+            assertTrue(committed >= 1 && committed <= MAX_QUEUED_PER_DOCUMENT + 1, "Committed " + committed);
+            assertEquals(10, committed + refused);
+            assertFalse(operationJournal.hasPending(sessionId, documentId), "Commit fell back to the journal");
+            assertStoreMatchesHead(sessionId, documentId, 1 + committed);
+        }
+
+        @Test
+        @DisplayName("receiveOperationAsync: Journals operations when the store times out and replays them")
+        void journalsOnStoreTimeout() throws Exception {
+            String sessionId = UUID.randomUUID().toString();
+            String documentId = "doc";
+            assertEquals(1, await(submit(sessionId, documentId, 0, new TextOperation().insert("a"))).getRevision());
+
+            pauseRedis(COMMAND_TIMEOUT_MILLIS * 3);
+            // Acknowledged from the journal once the commit times out
+            assertEquals(2, await(submit(sessionId, documentId, 1, new TextOperation().retain(1).insert("b"))).getRevision());
+            assertTrue(operationJournal.hasPending(sessionId, documentId));
+            // Later operations queue behind it in the journal
+            assertEquals(3, await(submit(sessionId, documentId, 2, new TextOperation().retain(2).insert("c"))).getRevision());
+            assertEquals("abc", otService.getDocumentContent(sessionId, documentId));
+
+            awaitCondition(() -> !operationJournal.hasPending(sessionId, documentId), "Journal was not replayed");
+            assertStoreMatchesHead(sessionId, documentId, 3);
+            assertEquals("abc", documentStore.getContent(sessionId, documentId));
+            // The store takes commits directly again
+            assertEquals(4, await(submit(sessionId, documentId, 3, new TextOperation().retain(3).insert("d"))).getRevision());
+            assertFalse(operationJournal.hasPending(sessionId, documentId));
+            assertStoreMatchesHead(sessionId, documentId, 4);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.codecafe.backend.service;
+
+import com.codecafe.backend.dto.TextOperation;
+import com.codecafe.backend.util.OtUtils;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UndoServiceTest {
+
+    private static final String SESSION = "session";
+    private static final String DOC = "doc";
+    private static final long GROUP_MILLIS = 50;
+
+    private final UndoService undoService = new UndoService(100, GROUP_MILLIS);
+    // The document as the commits so far produced it
+    private String content = "";
+
+    // Commits an operation against the current content, the way OtService records it
+    private void commit(String clientId, TextOperation operation, UndoService.Origin origin) {
+        undoService.recordOperation(SESSION, DOC, clientId, content, operation, origin);
+        content = OtUtils.apply(content, operation);
+    }
+
+    private void edit(String clientId, TextOperation operation) {
+        commit(clientId, operation, UndoService.Origin.EDIT);
+    }
+
+    // Pops and commits the client's undo (or redo); false if its stack was empty
+    private boolean undo(String clientId, boolean redo) {
+        TextOperation operation = undoService.pop(SESSION, DOC, clientId, redo);
+        if (operation == null) {
+            return false;
+        }
+        commit(clientId, operation, redo ? UndoService.Origin.REDO : UndoService.Origin.UNDO);
+        return true;
+    }
+
+    // Lets the grouping window of the last edit pass
+    private void pause() throws InterruptedException {
+        Thread.sleep(GROUP_MILLIS * 3);
+    }
+
+    @Test
+    @DisplayName("Undo: Keeps a concurrent remote edit made after the undone one")
+    void undoAfterConcurrentRemoteEdit() {
+        edit("a", new TextOperation().insert("hello"));
+        edit("b", new TextOperation().insert(">> ").retain(5));
+        edit("b", new TextOperation().retain(8).insert("!"));
+        assertEquals(">> hello!", content);
+
+        assertTrue(undo("a", false));
+        assertEquals(">> !", content);
+        assertFalse(undo("a", false), "Only a's edit was on its stack");
+
+        assertTrue(undo("a", true));
+        assertEquals(">> hello!", content);
+    }
+
+    @Test
+    @DisplayName("Undo: Remote edits transform every entry of the stack")
+    void remoteEditTransformsWholeStack() throws InterruptedException {
+        edit("a", new TextOperation().insert("one"));
+        pause();
+        edit("a", new TextOperation().retain(3).insert(" two"));
+        // Deletes the middle of a's text, overlapping both of its edits
+        edit("b", new TextOperation().retain(2).delete(3).retain(2));
+        assertEquals("onwo", content);
+
+        assertTrue(undo("a", false));
+        assertEquals("on", content);
+        assertTrue(undo("a", false));
+        assertEquals("", content);
+    }
+
+    @Test
+    @DisplayName("Undo: Composes edits within the grouping window into one entry")
+    void groupsEditsWithinWindow() {
+        UndoService grouping = new UndoService(100, 60000);
+        String before = "";
+        TextOperation first = new TextOperation().insert("a");
+        grouping.recordOperation(SESSION, DOC, "a", before, first, UndoService.Origin.EDIT);
+        String middle = OtUtils.apply(before, first);
+        TextOperation second = new TextOperation().retain(1).insert("b");
+        grouping.recordOperation(SESSION, DOC, "a", middle, second, UndoService.Origin.EDIT);
+        String after = OtUtils.apply(middle, second);
+
+        TextOperation undo = grouping.pop(SESSION, DOC, "a", false);
+        assertNotNull(undo);
+        assertEquals("", OtUtils.apply(after, undo), "The group reverts both edits at once");
+        assertNull(grouping.pop(SESSION, DOC, "a", false));
+    }
+
+    @Test
+    @DisplayName("Undo: Starts a new entry after the grouping window or a remote edit")
+    void splitsGroups() throws InterruptedException {
+        edit("a", new TextOperation().insert("a"));
+        pause();
+        edit("a", new TextOperation().retain(1).insert("b"));
+        assertTrue(undo("a", false));
+        assertEquals("a", content, "Edits further apart than the window are undone separately");
+
+        UndoService grouping = new UndoService(100, 60000);
+        grouping.recordOperation(SESSION, DOC, "a", "", new TextOperation().insert("x"), UndoService.Origin.EDIT);
+        grouping.recordOperation(SESSION, DOC, "b", "x", new TextOperation().retain(1).insert("y"), UndoService.Origin.EDIT);
+        grouping.recordOperation(SESSION, DOC, "a", "xy", new TextOperation().retain(2).insert("z"), UndoService.Origin.EDIT);
+        assertEquals("xy", OtUtils.apply("xyz", grouping.pop(SESSION, DOC, "a", false)),
+                "A remote edit in between ends the group");
+        assertNotNull(grouping.pop(SESSION, DOC, "a", false));
+    }
+
+    @Test
+    @DisplayName("Redo: Is cleared by a new edit of the client but not by remote edits")
+    void redoClearRules() {
+        edit("a", new TextOperation().insert("abc"));
+        assertTrue(undo("a", false));
+        assertEquals("", content);
+
+        edit("b", new TextOperation().insert("x"));
+        assertTrue(undo("a", true), "A remote edit keeps the redo stack");
+        assertEquals("abcx", content);
+
+        assertTrue(undo("a", false));
+        edit("a", new TextOperation().retain(1).insert("y"));
+        assertFalse(undo("a", true), "A new edit clears the redo stack");
+        assertEquals("xy", content);
+    }
+
+    @Test
+    @DisplayName("Undo: A restored entry is popped again by the retry")
+    void restoreAfterRejectedUndo() {
+        edit("a", new TextOperation().insert("abc"));
+        TextOperation rejected = undoService.pop(SESSION, DOC, "a", false);
+        assertNotNull(rejected);
+        undoService.restore(SESSION, DOC, "a", false, rejected);
+
+        assertTrue(undo("a", false));
+        assertEquals("", content);
+    }
+
+    @Test
+    @DisplayName("Undo: Keeps at most max-depth entries")
+    void capsStackDepth() throws InterruptedException {
+        UndoService shallow = new UndoService(2, 0);
+        String current = "";
+        for (String text : new String[] {"a", "b", "c"}) {
+            TextOperation operation = new TextOperation().retain(current.length()).insert(text);
+            shallow.recordOperation(SESSION, DOC, "a", current, operation, UndoService.Origin.EDIT);
+            current = OtUtils.apply(current, operation);
+            Thread.sleep(5);
+        }
+        current = OtUtils.apply(current, shallow.pop(SESSION, DOC, "a", false));
+        current = OtUtils.apply(current, shallow.pop(SESSION, DOC, "a", false));
+        assertEquals("a", current);
+        assertNull(shallow.pop(SESSION, DOC, "a", false));
+    }
+}
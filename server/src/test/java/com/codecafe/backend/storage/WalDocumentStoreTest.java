@@ -0,0 +1,214 @@
+package com.codecafe.backend.storage;
+
+import com.codecafe.backend.dto.TextOperation;
+import com.codecafe.backend.util.OtUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WalDocumentStoreTest {
+
+    private static final String SESSION = "session";
+    private static final String DOC = "doc";
+    private static final int SEGMENT_BYTES = 4096;
+
+    @TempDir
+    Path directory;
+
+    private final List<WalDocumentStore> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeStores() {
+        opened.forEach(WalDocumentStore::close);
+    }
+
+    // Opens the store the way Spring does, recovering whatever the directory holds
+    private WalDocumentStore open(int segmentBytes) throws IOException {
+        WalDocumentStore store = new WalDocumentStore(new ObjectMapper(), directory.toString(), segmentBytes, 60000);
+        store.recover();
+        opened.add(store);
+        return store;
+    }
+
+    // Closes a store before the test reads or changes its files
+    private void close(WalDocumentStore store) {
+        store.close();
+        opened.remove(store);
+    }
+
+    // Appends text at the end of the document, as a committed operation
+    private void append(WalDocumentStore store, String documentId, String text) {
+        String current = store.getContent(SESSION, documentId);
+        current = (current != null) ? current : "";
+        TextOperation operation = new TextOperation().retain(current.length()).insert(text);
+        store.appendOperation(SESSION, documentId, OtUtils.apply(current, operation), operation);
+    }
+
+    private List<Path> files(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith(prefix)).sorted().toList();
+        }
+    }
+
+    // Offsets of the records in a segment, followed by the end of the written region
+    private List<Integer> recordOffsets(Path segment) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+        List<Integer> offsets = new ArrayList<>();
+        while (buffer.remaining() >= 8) {
+            offsets.add(buffer.position());
+            int length = buffer.getInt();
+            if (length == 0) {
+                break;
+            }
+            buffer.position(buffer.position() + 4 + length);
+        }
+        return offsets;
+    }
+
+    private void assertReplayed(WalDocumentStore store, String content, int revision) {
+        assertEquals(content, store.getContent(SESSION, DOC));
+        assertEquals(revision, store.getRevision(SESSION, DOC));
+        String replayed = "";
+        for (TextOperation operation : store.getOperationHistory(SESSION, DOC)) {
+            replayed = OtUtils.apply(replayed, operation);
+        }
+        assertEquals(content, replayed, "History does not yield the content");
+    }
+
+    @Test
+    @DisplayName("Recovery: Replays the log after a clean close")
+    void replaysLog() throws IOException {
+        WalDocumentStore store = open(SEGMENT_BYTES);
+        append(store, DOC, "hello");
+        append(store, DOC, " world");
+        store.setContent(SESSION, "other", "replaced");
+        append(store, "gone", "x");
+        store.deleteDocument(SESSION, "gone");
+        close(store);
+
+        WalDocumentStore recovered = open(SEGMENT_BYTES);
+        assertReplayed(recovered, "hello world", 2);
+        assertEquals("replaced", recovered.getContent(SESSION, "other"));
+        assertNull(recovered.getContent(SESSION, "gone"));
+    }
+
+    @Test
+    @DisplayName("Recovery: Drops a truncated record at the tail")
+    void dropsTruncatedTail() throws IOException {
+        WalDocumentStore store = open(SEGMENT_BYTES);
+        append(store, DOC, "a");
+        append(store, DOC, "b");
+        append(store, DOC, "c");
+        close(store);
+
+        Path segment = files("wal-").get(0);
+        List<Integer> offsets = recordOffsets(segment);
+        int lastRecord = offsets.get(offsets.size() - 2);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            // Keeps the header and part of the payload, as a write cut short by a crash
+            channel.truncate(lastRecord + 10);
+        }
+
+        WalDocumentStore recovered = open(SEGMENT_BYTES);
+        assertReplayed(recovered, "ab", 2);
+        append(recovered, DOC, "d");
+        close(recovered);
+        assertReplayed(open(SEGMENT_BYTES), "abd", 3);
+    }
+
+    @Test
+    @DisplayName("Recovery: Drops the tail from a record with a bad checksum")
+    void dropsRecordWithBadCrc() throws IOException {
+        WalDocumentStore store = open(SEGMENT_BYTES);
+        append(store, DOC, "a");
+        append(store, DOC, "b");
+        append(store, DOC, "c");
+        close(store);
+
+        Path segment = files("wal-").get(0);
+        List<Integer> offsets = recordOffsets(segment);
+        int secondRecord = offsets.get(1);
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[secondRecord + 8] ^= 0x7f; // First payload byte
+        Files.write(segment, bytes);
+
+        WalDocumentStore recovered = open(SEGMENT_BYTES);
+        assertReplayed(recovered, "a", 1);
+    }
+
+    @Test
+    @DisplayName("Segments: Rolls over to a new segment when one is full")
+    void rollsOverSegments() throws IOException {
+        WalDocumentStore store = open(256);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            append(store, DOC, "line " + i + "\n");
+            expected.append("line ").append(i).append('\n');
+        }
+        // Larger than a whole segment, so it gets a segment sized to fit
+        String large = "x".repeat(1000);
+        append(store, DOC, large);
+        expected.append(large);
+        close(store);
+
+        assertTrue(files("wal-").size() > 2, "Expected several segments, got " + files("wal-"));
+        assertReplayed(open(256), expected.toString(), 21);
+    }
+
+    @Test
+    @DisplayName("Snapshots: Restores from the snapshot plus the log written after it")
+    void restoresSnapshotAndReplay() throws IOException {
+        WalDocumentStore store = open(SEGMENT_BYTES);
+        append(store, DOC, "before");
+        store.setContent(SESSION, "other", "kept");
+        store.snapshot();
+        List<Path> snapshots = files("snapshot-");
+        assertEquals(1, snapshots.size());
+        // Segments the snapshot covers are gone; only the current one is left
+        assertEquals(1, files("wal-").size());
+
+        append(store, DOC, " after");
+        store.deleteDocument(SESSION, "other");
+        close(store);
+
+        WalDocumentStore recovered = open(SEGMENT_BYTES);
+        assertReplayed(recovered, "before after", 2);
+        assertNull(recovered.getContent(SESSION, "other"));
+
+        // A second snapshot replaces the first
+        append(recovered, DOC, "!");
+        recovered.snapshot();
+        assertEquals(1, files("snapshot-").size());
+        assertNotEquals(snapshots.get(0), files("snapshot-").get(0));
+        close(recovered);
+        assertReplayed(open(SEGMENT_BYTES), "before after!", 3);
+    }
+
+    @Test
+    @DisplayName("Snapshots: Skips the snapshot when nothing was logged since the last one")
+    void skipsEmptySnapshot() throws IOException {
+        WalDocumentStore store = open(SEGMENT_BYTES);
+        store.snapshot();
+        assertEquals(List.of(), files("snapshot-"));
+
+        append(store, DOC, "a");
+        store.snapshot();
+        Path snapshot = files("snapshot-").get(0);
+        store.snapshot();
+        assertEquals(List.of(snapshot), files("snapshot-"));
+    }
+}
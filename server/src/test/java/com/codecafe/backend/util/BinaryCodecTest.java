@@ -0,0 +1,61 @@
+package com.codecafe.backend.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryCodecTest {
+
+    @Test
+    @DisplayName("Varint: Boundary values round trip with the expected sizes")
+    void varintRoundTrip() {
+        long[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE};
+        int[] sizes = {1, 1, 1, 2, 2, 3, 5, 9};
+        for (int i = 0; i < values.length; i++) {
+            byte[] bytes = new BinaryCodec.Writer().writeVarint(values[i]).toByteArray();
+            assertEquals(sizes[i], bytes.length, "size of " + values[i]);
+            assertEquals(values[i], new BinaryCodec.Reader(bytes).readVarint());
+        }
+        assertThrows(IllegalArgumentException.class, () -> new BinaryCodec.Writer().writeVarint(-1));
+    }
+
+    @Test
+    @DisplayName("Frame: Mixed fields round trip, including non-ASCII strings and checksums")
+    void frameRoundTrip() {
+        byte[] bytes = new BinaryCodec.Writer().writeByte(0x42).writeVarint(300).writeInt(-123456789)
+                .writeString("héllo 😀").writeString("").toByteArray();
+        BinaryCodec.Reader in = new BinaryCodec.Reader(bytes);
+        assertEquals(0x42, in.readByte());
+        assertEquals(300, in.readVarint32());
+        assertEquals(-123456789, in.readInt());
+        assertEquals("héllo 😀", in.readString());
+        assertEquals("", in.readString());
+        assertFalse(in.hasRemaining());
+    }
+
+    @Test
+    @DisplayName("Operation: Retain, insert and delete round trip compactly")
+    void operationRoundTrip() {
+        List<Object> ops = List.of(5, "ab😀", -3, 200);
+        byte[] bytes = new BinaryCodec.Writer().writeOperation(ops).toByteArray();
+        assertEquals(List.of(5, "ab😀", -3, 200), new BinaryCodec.Reader(bytes).readOperation());
+        // count + retain + (insert header + 6 UTF-8 bytes) + delete + 2-byte retain
+        assertEquals(1 + 1 + 7 + 1 + 2, bytes.length);
+    }
+
+    @Test
+    @DisplayName("Reader: Truncated and malformed input is rejected")
+    void rejectsMalformedInput() {
+        byte[] op = new BinaryCodec.Writer().writeOperation(List.of("hello")).toByteArray();
+        byte[] truncated = java.util.Arrays.copyOf(op, op.length - 1);
+        assertThrows(IllegalArgumentException.class, () -> new BinaryCodec.Reader(truncated).readOperation());
+        // Zero-length component
+        assertThrows(IllegalArgumentException.class, () -> new BinaryCodec.Reader(new byte[]{1, 0}).readOperation());
+        // Unterminated varint
+        assertThrows(IllegalArgumentException.class, () -> new BinaryCodec.Reader(new byte[]{(byte) 0x80}).readVarint());
+        assertThrows(IllegalArgumentException.class, () -> new BinaryCodec.Reader(new byte[0]).readByte());
+    }
+}
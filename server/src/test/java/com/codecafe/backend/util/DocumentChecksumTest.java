@@ -0,0 +1,29 @@
+package com.codecafe.backend.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentChecksumTest {
+
+    @Test
+    @DisplayName("Checksum: Known values (must match the client implementation)")
+    void knownValues() {
+        assertEquals(0, DocumentChecksum.of(""));
+        assertEquals(0, DocumentChecksum.of(null));
+        assertEquals(97, DocumentChecksum.of("a"));
+        assertEquals(285884129, DocumentChecksum.of("hello world"));
+        assertEquals(659719950, DocumentChecksum.of("function f() {\n  return 1;\n}\n"));
+        // Surrogate pairs are hashed as two UTF-16 code units, like JavaScript strings
+        assertEquals(598317541, DocumentChecksum.of("héllo 😀"));
+    }
+
+    @Test
+    @DisplayName("Checksum: Detects transposed and shifted edits")
+    void detectsReorderedContent() {
+        assertNotEquals(DocumentChecksum.of("ab"), DocumentChecksum.of("ba"));
+        assertNotEquals(DocumentChecksum.of("Aa"), DocumentChecksum.of("BB"));
+        assertNotEquals(DocumentChecksum.of("x = 1;\n"), DocumentChecksum.of("x = 1; \n"));
+    }
+}
@@ -1,5 +1,6 @@
 package com.codecafe.backend.util;
 
+import com.codecafe.backend.dto.InsertRef;
 import com.codecafe.backend.dto.TextOperation; // Use your actual DTO
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.DisplayName;
@@ -265,6 +266,23 @@ class OtUtilsTest {
     }
 
 
+    @Test
+    @DisplayName("Transform: Out-of-line insert only needs its length")
+    void transformAgainstInsertRef() {
+        // Concurrent op B pasted 6 chars at 2, stored out of line; A deletes the char at 4
+        TextOperation op2Text = createOp().retain(2).insert("PASTED").retain(3);
+        TextOperation op2Ref = createOp().retain(2).insert(new InsertRef("abc123", 6)).retain(3);
+        TextOperation op1 = createOp().retain(4).delete(1);
+
+        List<TextOperation> withText = OtUtils.transform(op1, op2Text);
+        List<TextOperation> withRef = OtUtils.transform(op1, op2Ref);
+
+        assertOpsEquals(withText.get(0), withRef.get(0), "Op1' should not depend on the inserted text");
+        assertTrue(withRef.get(1).hasInsertRefs(), "Op2' should carry the reference through");
+        assertThrows(IllegalArgumentException.class, () -> OtUtils.apply("ABCDE", op2Ref),
+                "Applying an unresolved reference should fail");
+    }
+
     // Add more tests here, focusing on cases revealed by your failing stress tests if possible.
     // Consider cases with multiple ops (retain, insert, delete) within a single TextOperation.
 }
\ No newline at end of file
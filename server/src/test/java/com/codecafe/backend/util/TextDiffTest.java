@@ -0,0 +1,93 @@
+package com.codecafe.backend.util;
+
+import com.codecafe.backend.dto.TextOperation;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TextDiffTest {
+
+    private void assertProduces(String oldText, String newText) {
+        TextOperation op = TextDiff.diff(oldText, newText);
+        assertEquals(oldText.length(), op.getBaseLength(), "Base length should match the old text");
+        assertEquals(newText, OtUtils.apply(oldText, op), "Applying the diff should produce the new text");
+    }
+
+    @Test
+    @DisplayName("Diff: Equal texts produce no edits")
+    void equalTexts() {
+        TextOperation op = TextDiff.diff("hello world", "hello world");
+        assertEquals(new TextOperation().retain(11), op);
+        assertTrue(TextDiff.diff("", "").getOps().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Diff: Single insert in the middle")
+    void singleInsert() {
+        assertEquals(new TextOperation().retain(2).insert("X").retain(1), TextDiff.diff("abc", "abXc"));
+    }
+
+    @Test
+    @DisplayName("Diff: Single delete in the middle")
+    void singleDelete() {
+        assertEquals(new TextOperation().retain(1).delete(2).retain(3), TextDiff.diff("abcdef", "adef"));
+    }
+
+    @Test
+    @DisplayName("Diff: Empty old or new text")
+    void emptySides() {
+        assertEquals(new TextOperation().insert("abc"), TextDiff.diff("", "abc"));
+        assertEquals(new TextOperation().delete(3), TextDiff.diff("abc", ""));
+    }
+
+    @Test
+    @DisplayName("Diff: Scattered edits keep the common characters")
+    void scatteredEdits() {
+        // Classic Myers example: LCS of ABCABBA / CBABAC has length 4, so 5 chars are edited
+        TextOperation op = TextDiff.diff("ABCABBA", "CBABAC");
+        int retained = 0;
+        for (Object o : op.getOps()) {
+            if (TextOperation.isRetain(o)) {
+                retained += (Integer) o;
+            }
+        }
+        assertEquals(4, retained, "Should retain a longest common subsequence");
+        assertProduces("ABCABBA", "CBABAC");
+    }
+
+    @Test
+    @DisplayName("Diff: Reformatted code block")
+    void reformattedCode() {
+        String before = "function f(a,b){\nreturn a+b;\n}\n";
+        String after = "function f(a, b) {\n  return a + b;\n}\n";
+        assertProduces(before, after);
+        assertTrue(TextDiff.diff(before, after).getOps().size() > 3, "Edits should be localized, not a full replace");
+    }
+
+    @Test
+    @DisplayName("Diff: Random edits round-trip")
+    void randomEdits() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            StringBuilder a = new StringBuilder();
+            int length = random.nextInt(60);
+            for (int j = 0; j < length; j++) {
+                a.append((char) ('a' + random.nextInt(4)));
+            }
+            StringBuilder b = new StringBuilder(a);
+            int edits = random.nextInt(6);
+            for (int j = 0; j < edits; j++) {
+                int pos = b.length() == 0 ? 0 : random.nextInt(b.length());
+                if (random.nextBoolean() && b.length() > 0) {
+                    b.deleteCharAt(pos);
+                } else {
+                    b.insert(pos, (char) ('a' + random.nextInt(4)));
+                }
+            }
+            assertProduces(a.toString(), b.toString());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.codecafe.backend.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    @DisplayName("TokenBucket: Allows a burst up to capacity, then the refill rate")
+    void burstThenRate() {
+        TokenBucket bucket = new TokenBucket(10, 5, 0);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire(1, 0));
+        }
+        assertFalse(bucket.tryAcquire(1, 0));
+        // 10 per second: one token every 100 ms
+        assertFalse(bucket.tryAcquire(1, SECOND / 20));
+        assertTrue(bucket.tryAcquire(1, SECOND / 10));
+        assertFalse(bucket.tryAcquire(1, SECOND / 10));
+        // Never more than capacity, however long it was idle
+        assertTrue(bucket.isFull(100 * SECOND));
+        assertTrue(bucket.tryAcquire(5, 100 * SECOND));
+        assertFalse(bucket.tryAcquire(1, 100 * SECOND));
+    }
+
+    @Test
+    @DisplayName("TokenBucket: Reports the wait until tokens are available")
+    void nanosUntilAvailable() {
+        TokenBucket bucket = new TokenBucket(4, 2, 0);
+        assertEquals(0, bucket.nanosUntilAvailable(2, 0));
+        assertTrue(bucket.tryAcquire(2, 0));
+        assertEquals(SECOND / 4, bucket.nanosUntilAvailable(1, 0));
+        assertEquals(SECOND / 2, bucket.nanosUntilAvailable(2, 0));
+        assertEquals(Long.MAX_VALUE, bucket.nanosUntilAvailable(3, 0));
+        // A failed request takes nothing
+        assertFalse(bucket.tryAcquire(2, SECOND / 4));
+        assertTrue(bucket.tryAcquire(1, SECOND / 4));
+    }
+
+    @Test
+    @DisplayName("TokenBucket: Rejects non-positive rate or capacity")
+    void rejectsInvalidConfiguration() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(1, -1, 0));
+    }
+}